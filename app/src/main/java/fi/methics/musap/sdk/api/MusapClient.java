@@ -6,30 +6,34 @@ import com.google.gson.JsonSyntaxException;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.ref.WeakReference;
 import java.security.Security;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 import fi.methics.musap.sdk.internal.async.BindKeyTask;
 import fi.methics.musap.sdk.internal.async.EnrollDataTask;
+import fi.methics.musap.sdk.internal.async.ExecutorConfig;
+import fi.methics.musap.sdk.internal.async.ExecutorStats;
 import fi.methics.musap.sdk.internal.async.GenerateKeyTask;
 import fi.methics.musap.sdk.internal.async.CoupleTask;
-import fi.methics.musap.sdk.internal.async.KeyGenCallbackTask;
+import fi.methics.musap.sdk.internal.async.MusapExecutors;
+import fi.methics.musap.sdk.internal.async.PollAllTask;
 import fi.methics.musap.sdk.internal.async.PollTask;
+import fi.methics.musap.sdk.internal.async.SignBatchTask;
 import fi.methics.musap.sdk.internal.async.SignTask;
-import fi.methics.musap.sdk.internal.async.SignatureCallbackTask;
 import fi.methics.musap.sdk.internal.datatype.coupling.PollResponsePayload;
 import fi.methics.musap.sdk.internal.datatype.RelyingParty;
+import fi.methics.musap.sdk.internal.discovery.ImportReport;
 import fi.methics.musap.sdk.internal.discovery.KeySearchReq;
 import fi.methics.musap.sdk.internal.discovery.MusapImportData;
-import fi.methics.musap.sdk.internal.discovery.SharedPrefStorage;
+import fi.methics.musap.sdk.internal.discovery.StorageFactory;
 import fi.methics.musap.sdk.internal.discovery.SscdSearchReq;
 import fi.methics.musap.sdk.extension.MusapSscdInterface;
 import fi.methics.musap.sdk.internal.discovery.KeyBindReq;
@@ -42,33 +46,73 @@ import fi.methics.musap.sdk.internal.datatype.SscdInfo;
 import fi.methics.musap.sdk.internal.datatype.MusapLink;
 import fi.methics.musap.sdk.internal.datatype.MusapSignature;
 import fi.methics.musap.sdk.internal.keygeneration.UpdateKeyReq;
+import fi.methics.musap.sdk.internal.link.LinkCallback;
+import fi.methics.musap.sdk.internal.link.LinkCallbackQueue;
+import fi.methics.musap.sdk.internal.link.OutboxStats;
+import fi.methics.musap.sdk.internal.link.LinkHttpClient;
 import fi.methics.musap.sdk.internal.sign.SignatureReq;
+import fi.methics.musap.sdk.internal.sign.SigningScheduler;
+import fi.methics.musap.sdk.internal.sign.SigningStats;
 import fi.methics.musap.sdk.internal.util.MLog;
 import fi.methics.musap.sdk.internal.util.MusapSscd;
 import fi.methics.musap.sdk.internal.util.MusapStorage;
+import fi.methics.musap.sdk.internal.util.SigningResult;
+import fi.methics.musap.sdk.sscd.rest204.Rest204Notifications;
 
 /**
  * MusapClient contains the primary operations of the MUSAP library.
  * All methods that contain either network or time intensive operations
  * are asynchronous. Such methods require the caller to provide a MusapCallback object.
+ * Most of them also have an {@code Async} variant that returns a {@link MusapFuture} instead.
  */
 public class MusapClient {
 
     private static WeakReference<Context> context;
     private static KeyDiscoveryAPI keyDiscovery;
     private static AndroidMetadataStorage storage;
-    private static ExecutorService executor;
+    private static MusapStorage musapStorage;
+    private static MusapExecutors executors;
+    private static LinkCallbackQueue linkCallbacks;
+    private static final SigningScheduler signingScheduler = new SigningScheduler();
 
+    /**
+     * Initialize MUSAP with the default thread pool configuration
+     * @param c Android context
+     */
     public static void init(Context c) {
+        init(c, ExecutorConfig.getDefault());
+    }
+
+    /**
+     * Initialize MUSAP
+     * @param c      Android context
+     * @param config Thread pool configuration for asynchronous operations
+     */
+    public static void init(Context c, ExecutorConfig config) {
         Security.removeProvider("BC");
         MLog.d("Remove provider");
         Security.insertProviderAt(new BouncyCastleProvider(), 1);
         MLog.d("Insert provider");
 
         context      = new WeakReference<>(c);
-        keyDiscovery = new KeyDiscoveryAPI(new AndroidMetadataStorage(new SharedPrefStorage(c)));
-        storage      = new AndroidMetadataStorage(new SharedPrefStorage(c));
-        executor     = new ThreadPoolExecutor(2, 20, 5000, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>(5));
+        storage      = new AndroidMetadataStorage(StorageFactory.getMetadataStorage(c));
+        musapStorage = StorageFactory.getInternalStorage(c);
+        keyDiscovery = new KeyDiscoveryAPI(storage);
+
+        MusapExecutors old = executors;
+        executors = new MusapExecutors(config);
+        if (old != null) {
+            old.shutdown();
+        }
+
+        if (linkCallbacks != null) {
+            linkCallbacks.close();
+        }
+
+        // Send callbacks left unsent by an earlier process, and again whenever the network returns
+        linkCallbacks = new LinkCallbackQueue(musapStorage, MusapClient::getMusapLink, executors.getExecutor(MusapExecutors.Pool.NETWORK));
+        linkCallbacks.resume();
+        linkCallbacks.watchConnectivity(c.getApplicationContext());
     }
 
     /**
@@ -78,7 +122,17 @@ public class MusapClient {
      * @param callback Callback that will deliver success or failure
      */
     public static void generateKey(MusapSscd sscd, KeyGenReq req, MusapCallback<MusapKey> callback) {
-        new GenerateKeyTask(callback, context.get(), sscd, req).executeOnExecutor(executor);
+        executors.execute(new GenerateKeyTask(callback, context.get(), storage, sscd, req), sscd.getExecutorPool());
+    }
+
+    /**
+     * Generate a keypair and store the key metadata to MUSAP
+     * @param sscd SSCD to generate the key with
+     * @param req  Key Generation Request
+     * @return future that completes with the generated key
+     */
+    public static MusapFuture<MusapKey> generateKeyAsync(MusapSscd sscd, KeyGenReq req) {
+        return executors.execute(new GenerateKeyTask(null, context.get(), storage, sscd, req), sscd.getExecutorPool());
     }
 
     /**
@@ -88,25 +142,60 @@ public class MusapClient {
      * @param callback Callback that will deliver success or failure
      */
     public static void bindKey(MusapSscd sscd, KeyBindReq req, MusapCallback<MusapKey> callback) {
-        new BindKeyTask(callback, context.get(), sscd, req).executeOnExecutor(executor);
+        executors.execute(new BindKeyTask(callback, context.get(), storage, sscd, req), sscd.getExecutorPool());
+    }
+
+    /**
+     * Bind a keypair and store the key metadata to MUSAP
+     * @param sscd SSCD to bind the key with
+     * @param req  Key Bind Request
+     * @return future that completes with the bound key
+     */
+    public static MusapFuture<MusapKey> bindKeyAsync(MusapSscd sscd, KeyBindReq req) {
+        return executors.execute(new BindKeyTask(null, context.get(), storage, sscd, req), sscd.getExecutorPool());
     }
 
     /**
      * Sign data with given SSCD.
-     * Note! MUSAP allows only one active signing operation at a time. If you try to start another
-     * signature while one is in progress, MUSAP ignores the second signature.
+     * Note! Each SSCD runs at most {@link SscdInfo#getMaxConcurrentSignatures()} signatures
+     * at a time. Further signature requests wait in a queue until an earlier one finishes.
      *
      * @param req  Request containing the data to sign
      * @param callback Callback that will deliver success or failure
      */
     public static void sign(SignatureReq req, MusapCallback<MusapSignature> callback) {
+        startSign(new SignTask(callback, context.get(), req), req);
+    }
+
+    /**
+     * Sign data with given SSCD
+     * @param req Request containing the data to sign
+     * @return future that completes with the signature
+     */
+    public static MusapFuture<MusapSignature> signAsync(SignatureReq req) {
+        return startSign(new SignTask(null, context.get(), req), req);
+    }
+
+    /**
+     * Sign multiple payloads with one SSCD.
+     * SSCDs that support it sign the whole batch within one session, for example with one PIN
+     * prompt and one YubiKey tap. All requests must use keys of the same SSCD.
+     *
+     * @param reqs     Requests containing the data to sign
+     * @param callback Callback that delivers the result of each request in request order.
+     *                 {@link MusapCallback#onException(MusapException)} is called only if the whole batch failed.
+     */
+    public static void signBatch(List<SignatureReq> reqs, MusapCallback<List<SigningResult>> callback) {
+        startSignBatch(reqs, callback);
+    }
 
-        // TODO: Some way to limit concurrent operations.
-//        if (!uiSemaphore.tryAcquire()) {
-//            MLog.d("UI operation is in progress, not starting a new one");
-//            return;
-//        }
-        new SignTask(callback, context.get(), null, req).executeOnExecutor(executor);
+    /**
+     * Sign multiple payloads with one SSCD
+     * @param reqs Requests containing the data to sign. All requests must use keys of the same SSCD.
+     * @return future that completes with the result of each request in request order
+     */
+    public static MusapFuture<List<SigningResult>> signBatchAsync(List<SignatureReq> reqs) {
+        return startSignBatch(reqs, null);
     }
 
 
@@ -161,7 +250,6 @@ public class MusapClient {
      * @return List of keys
      */
     public static List<MusapKey> listKeys() {
-        AndroidMetadataStorage storage = new AndroidMetadataStorage(new SharedPrefStorage(context.get()));
         List<MusapKey> keys = storage.listKeys();
         MLog.d("Found " + keys.size() + " keys");
         return keys;
@@ -173,14 +261,12 @@ public class MusapClient {
      * @return matching keys
      */
     public static List<MusapKey> listKeys(KeySearchReq req) {
-        AndroidMetadataStorage storage = new AndroidMetadataStorage(new SharedPrefStorage(context.get()));
         List<MusapKey> keys = storage.listKeys(req);
         MLog.d("Found " + keys.size() + " keys");
         return keys;
     }
 
     public static boolean updateKey(UpdateKeyReq req) {
-        AndroidMetadataStorage storage = new AndroidMetadataStorage(new SharedPrefStorage(context.get()));
         return storage.updateKeyMetaData(req);
     }
 
@@ -202,12 +288,10 @@ public class MusapClient {
     public static MusapKey getKeyByKeyID(String keyid) {
         if (keyid == null) return null;
         MLog.d("Searching for key with KeyID " + keyid);
-        AndroidMetadataStorage storage = new AndroidMetadataStorage(new SharedPrefStorage(context.get()));
-        for (MusapKey key : storage.listKeys()) {
-            if (keyid.equals(key.getKeyId())) {
-                MLog.d("Found key " + key.getKeyAlias());
-                return key;
-            }
+        MusapKey key = storage.getKey(keyid);
+        if (key != null) {
+            MLog.d("Found key " + key.getKeyAlias());
+            return key;
         }
         MLog.d("Found no key with KeyID "  + keyid);
         return null;
@@ -229,12 +313,10 @@ public class MusapClient {
      */
     public static MusapKey getKeyByUri(KeyURI keyUri) {
         MLog.d("Searching for key with KeyURI " + keyUri);
-        AndroidMetadataStorage storage = new AndroidMetadataStorage(new SharedPrefStorage(context.get()));
-        for (MusapKey key : storage.listKeys()) {
-            if (key.getKeyUri().matches(keyUri)) {
-                MLog.d("Found key " + key.getKeyAlias());
-                return key;
-            }
+        MusapKey key = storage.getKeyByUri(keyUri);
+        if (key != null) {
+            MLog.d("Found key " + key.getKeyAlias());
+            return key;
         }
         MLog.d("Found no key with KeyURI " + keyUri);
         return null;
@@ -243,12 +325,25 @@ public class MusapClient {
     /**
      * Import MUSAP key data and SSCD details
      * @param data JSON data from another MUSA
+     * @return outcome of each imported SSCD and key
      * @throws JsonSyntaxException if data is not parseable
      */
-    public static void importData(String data) throws JsonSyntaxException {
+    public static ImportReport importData(String data) throws JsonSyntaxException {
         MusapImportData importData = MusapImportData.fromJson(data);
-        AndroidMetadataStorage storage = new AndroidMetadataStorage(new SharedPrefStorage(context.get()));
-        storage.addImportData(importData);
+        return storage.addImportData(importData);
+    }
+
+    /**
+     * Import MUSAP key data and SSCD details from a stream.
+     * Keys and SSCDs are parsed and stored one at a time, so the whole import is never held in memory.
+     * The stream is not closed.
+     * @param in JSON data (UTF-8) from another MUSAP
+     * @return outcome of each imported SSCD and key
+     * @throws IOException if reading the stream fails
+     * @throws JsonSyntaxException if data is not parseable
+     */
+    public static ImportReport importData(InputStream in) throws IOException, JsonSyntaxException {
+        return storage.importData(in);
     }
 
     /**
@@ -256,10 +351,19 @@ public class MusapClient {
      * @return JSON export that can be imported in another MUSAP
      */
     public static String exportData() {
-        AndroidMetadataStorage storage = new AndroidMetadataStorage(new SharedPrefStorage(context.get()));
         return storage.getImportData().toJson();
     }
 
+    /**
+     * Export MUSAP key data and SSCD details to a stream.
+     * Keys and SSCDs are written one at a time. The stream is flushed but not closed.
+     * @param out Stream to write the JSON export (UTF-8) to
+     * @throws IOException if writing to the stream fails
+     */
+    public static void exportData(OutputStream out) throws IOException {
+        storage.exportData(out);
+    }
+
     /**
      * Remove a key from MUSAP.
      * @param key key to remove
@@ -282,7 +386,7 @@ public class MusapClient {
      * @return Relying Parties
      */
     public static List<RelyingParty> listRelyingParties() {
-        return new MusapStorage(context.get()).listRelyingParties();
+        return musapStorage.listRelyingParties();
     }
 
     /**
@@ -291,7 +395,7 @@ public class MusapClient {
      * @return True if removal was successful.
      */
     public static boolean removeRelyingParty(RelyingParty rp) {
-        return new MusapStorage(context.get()).removeRelyingParty(rp);
+        return musapStorage.removeRelyingParty(rp);
     }
 
     /**
@@ -304,7 +408,18 @@ public class MusapClient {
      */
     public static void enableLink(String url, String fcmToken, MusapCallback<MusapLink> callback) {
         MusapLink link = new MusapLink(url, null);
-        new EnrollDataTask(link, fcmToken, callback, context.get()).executeOnExecutor(executor);
+        executors.execute(new EnrollDataTask(link, fcmToken, callback, context.get()), MusapExecutors.Pool.NETWORK);
+    }
+
+    /**
+     * Enable a MUSAP Link connection
+     * @param url URL of the MUSAP link service
+     * @param fcmToken FCM token
+     * @return future that completes with the enabled MUSAP Link
+     */
+    public static MusapFuture<MusapLink> enableLinkAsync(String url, String fcmToken) {
+        MusapLink link = new MusapLink(url, null);
+        return executors.execute(new EnrollDataTask(link, fcmToken, null, context.get()), MusapExecutors.Pool.NETWORK);
     }
 
     /**
@@ -314,14 +429,14 @@ public class MusapClient {
     public static void updateFcmToken(String fcmToken, MusapCallback<MusapLink> callback) {
         MusapLink link = getMusapLink();
         if (link == null) return;
-        new EnrollDataTask(link, fcmToken, callback, context.get()).executeOnExecutor(executor);
+        executors.execute(new EnrollDataTask(link, fcmToken, callback, context.get()), MusapExecutors.Pool.NETWORK);
     }
 
     /**
      * Disable the MUSAP Link connection
      */
     public static void disableLink() {
-        new MusapStorage(context.get()).removeLink();
+        musapStorage.removeLink();
     }
 
     /**
@@ -333,7 +448,18 @@ public class MusapClient {
     public static void coupleWithRelyingParty(String couplingCode, MusapCallback<RelyingParty> callback) {
         String musapId = getMusapId();
         MusapLink link = getMusapLink();
-        new CoupleTask(link, couplingCode, musapId, callback, context.get()).executeOnExecutor(executor);
+        executors.execute(new CoupleTask(link, couplingCode, musapId, callback, context.get()), MusapExecutors.Pool.NETWORK);
+    }
+
+    /**
+     * Request coupling with an RP
+     * @param couplingCode Coupling code entered by the user.
+     * @return future that completes with the coupled RelyingParty
+     */
+    public static MusapFuture<RelyingParty> coupleWithRelyingPartyAsync(String couplingCode) {
+        String musapId = getMusapId();
+        MusapLink link = getMusapLink();
+        return executors.execute(new CoupleTask(link, couplingCode, musapId, null, context.get()), MusapExecutors.Pool.NETWORK);
     }
 
     /**
@@ -342,12 +468,22 @@ public class MusapClient {
      * @param txnId     Transaction ID
      */
     public static void sendSignatureCallback(MusapSignature signature, String txnId) {
-        MusapLink link = getMusapLink();
-        if (link != null) {
-            String musapId = getMusapId();
-            link.setMusapId(musapId);
-            new SignatureCallbackTask(link, signature, txnId,null, context.get()).executeOnExecutor(executor);
+        sendSignatureCallbackAsync(signature, txnId);
+    }
+
+    /**
+     * Send a SignatureCallback to MUSAP Link.
+     * Callbacks sent close together are delivered to MUSAP Link in one request.
+     * Unsent callbacks are stored and sent again after a restart.
+     * @param signature Signature
+     * @param txnId     Transaction ID
+     * @return future that completes when the callback has been sent
+     */
+    public static MusapFuture<Void> sendSignatureCallbackAsync(MusapSignature signature, String txnId) {
+        if (getMusapLink() == null) {
+            return linkNotEnabled();
         }
+        return linkCallbacks.enqueue(LinkCallback.forSignature(signature, txnId));
     }
 
     /**
@@ -356,13 +492,24 @@ public class MusapClient {
      * @param txnId Transaction ID
      */
     public static void sendKeygenCallback(MusapKey key, String txnId) {
-        MusapLink link = getMusapLink();
-        if (link != null) {
-            String musapId = getMusapId();
-            link.setMusapId(musapId);
-            new KeyGenCallbackTask(link, key, txnId,null, context.get()).executeOnExecutor(executor);
+        sendKeygenCallbackAsync(key, txnId);
+    }
+
+    /**
+     * Send a GenerateKeyCallback to MUSAP Link.
+     * Callbacks sent close together are delivered to MUSAP Link in one request.
+     * Unsent callbacks are stored and sent again after a restart.
+     * @param key   Key
+     * @param txnId Transaction ID
+     * @return future that completes when the callback has been sent
+     */
+    public static MusapFuture<Void> sendKeygenCallbackAsync(MusapKey key, String txnId) {
+        if (getMusapLink() == null) {
+            return linkNotEnabled();
         }
+        return linkCallbacks.enqueue(LinkCallback.forKey(key, txnId));
     }
+
     /**
      * Check if MUSAP Link has been enabled
      * @return true if enabled
@@ -378,7 +525,86 @@ public class MusapClient {
      * @param callback Callback to deliver the result
      */
     public static void pollLink(MusapCallback<PollResponsePayload> callback) {
-        new PollTask(getMusapLink(), callback, context.get()).executeOnExecutor(executor);
+        executors.execute(new PollTask(getMusapLink(), callback, context.get()), MusapExecutors.Pool.NETWORK);
+    }
+
+    /**
+     * Poll MUSAP Link for an incoming signature request
+     * @return future that completes with the poll response
+     */
+    public static MusapFuture<PollResponsePayload> pollLinkAsync() {
+        return executors.execute(new PollTask(getMusapLink(), null, context.get()), MusapExecutors.Pool.NETWORK);
+    }
+
+    /**
+     * Poll MUSAP Link for all pending signature requests at once. Use this instead of calling
+     * {@link #pollLink(MusapCallback)} repeatedly when several requests may be waiting.
+     * Calls the callback with the requests, or an empty list if there are none.
+     * @param callback Callback to deliver the result
+     */
+    public static void pollLinkAll(MusapCallback<List<PollResponsePayload>> callback) {
+        executors.execute(new PollAllTask(getMusapLink(), MusapLink.DEFAULT_MAX_POLL_RESULTS, callback, context.get()), MusapExecutors.Pool.NETWORK);
+    }
+
+    /**
+     * Poll MUSAP Link for all pending signature requests at once
+     * @return future that completes with the pending requests
+     */
+    public static MusapFuture<List<PollResponsePayload>> pollLinkAllAsync() {
+        return executors.execute(new PollAllTask(getMusapLink(), MusapLink.DEFAULT_MAX_POLL_RESULTS, null, context.get()), MusapExecutors.Pool.NETWORK);
+    }
+
+    /**
+     * Deliver a notification pushed by a REST 204 MSSP, e.g. the data of an FCM message.
+     * This completes a pending signature of a REST 204 SSCD with notifications enabled.
+     * @param notification Notification JSON
+     * @return true if this was a REST 204 notification
+     * @see fi.methics.musap.sdk.sscd.rest204.Rest204Settings#setNotificationEnabled(boolean)
+     */
+    public static boolean handleRest204Notification(String notification) {
+        return Rest204Notifications.getInstance().onNotification(notification);
+    }
+
+    /**
+     * Get queue depth, active thread count and rejection metrics of the MUSAP thread pools
+     * @return metrics of each pool
+     */
+    public static List<ExecutorStats> getExecutorStats() {
+        return executors.getStats();
+    }
+
+    /**
+     * Get queue depth, active thread count and rejection metrics of a MUSAP thread pool
+     * @param pool Pool
+     * @return metrics
+     */
+    public static ExecutorStats getExecutorStats(MusapExecutors.Pool pool) {
+        return executors.getStats(pool);
+    }
+
+    /**
+     * Get signature queue length and wait time metrics of each SSCD that has been used for signing
+     * @return metrics of each SSCD
+     */
+    public static List<SigningStats> getSigningStats() {
+        return signingScheduler.getStats();
+    }
+
+    /**
+     * Get pending count, oldest age and retry metrics of the MUSAP Link callback outbox
+     * @return metrics
+     */
+    public static OutboxStats getLinkOutboxStats() {
+        return linkCallbacks.getStats();
+    }
+
+    /**
+     * Configure the HTTP stack used for MUSAP Link requests.
+     * All MUSAP Link calls share its connection pool.
+     * @param client MUSAP Link HTTP stack
+     */
+    public static void setLinkHttpClient(LinkHttpClient client) {
+        LinkHttpClient.setInstance(client);
     }
 
     /**
@@ -396,7 +622,7 @@ public class MusapClient {
      * @return MUSAP ID. Null if MUSAP Link has not been enrolled.
      */
     public static String getMusapId() {
-        return new MusapStorage(context.get()).getMusapId();
+        return musapStorage.getMusapId();
     }
 
     /**
@@ -404,7 +630,69 @@ public class MusapClient {
      * @return MUSAP Link or null if not enabled yet
      */
     public static MusapLink getMusapLink() {
-        return new MusapStorage(context.get()).getMusapLink();
+        return musapStorage.getMusapLink();
+    }
+
+    /**
+     * Run a signature task through the signing scheduler of the SSCD of the requested key
+     */
+    private static MusapFuture<MusapSignature> startSign(SignTask task, SignatureReq req) {
+        MusapSscd sscd = req.getKey() != null ? req.getKey().getSscd() : null;
+        if (sscd == null) {
+            // SignTask reports the missing SSCD
+            return executors.execute(task, MusapExecutors.Pool.DEVICE);
+        }
+        SscdInfo info = sscd.getSscdInfo();
+        if (sscd.isNonBlocking()) {
+            // Pending signatures hold a scheduler slot until they complete, but no thread
+            return task.executeNonBlocking(start ->
+                    signingScheduler.submitNonBlocking(info.getSscdId(), info.getMaxConcurrentSignatures(), start));
+        }
+        Executor pool = executors.getExecutor(sscd.getExecutorPool());
+        return task.executeOnExecutor(signingScheduler.getExecutor(info.getSscdId(), info.getMaxConcurrentSignatures(), pool));
+    }
+
+    /**
+     * Run a batch signature task through the signing scheduler of the SSCD of the requested keys.
+     * The batch takes one slot of the SSCD.
+     */
+    private static MusapFuture<List<SigningResult>> startSignBatch(List<SignatureReq> reqs, MusapCallback<List<SigningResult>> callback) {
+        MusapSscd sscd = null;
+        String sscdId  = null;
+        try {
+            if (reqs == null || reqs.isEmpty()) {
+                throw new MusapException(MusapException.ERROR_MISSING_PARAM, "No signature requests");
+            }
+            for (SignatureReq req : reqs) {
+                MusapSscd reqSscd = req.getKey() != null ? req.getKey().getSscd() : null;
+                if (reqSscd == null) {
+                    throw new MusapException(MusapException.ERROR_UNKNOWN_KEY, "No SSCD found for key");
+                }
+                String reqSscdId = reqSscd.getSscdId();
+                if (sscd == null) {
+                    sscd   = reqSscd;
+                    sscdId = reqSscdId;
+                } else if (sscdId == null ? reqSscdId != null : !sscdId.equals(reqSscdId)) {
+                    throw new MusapException(MusapException.ERROR_WRONG_PARAM, "All requests in a batch must use the same SSCD");
+                }
+            }
+        } catch (MusapException e) {
+            if (callback != null) callback.onException(e);
+            MusapFuture<List<SigningResult>> future = new MusapFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        SscdInfo info = sscd.getSscdInfo();
+        Executor pool = executors.getExecutor(sscd.getExecutorPool());
+        SignBatchTask task = new SignBatchTask(callback, context.get(), sscd, reqs);
+        return task.executeOnExecutor(signingScheduler.getExecutor(info.getSscdId(), info.getMaxConcurrentSignatures(), pool));
+    }
+
+    private static <T> MusapFuture<T> linkNotEnabled() {
+        MusapFuture<T> future = new MusapFuture<>();
+        future.completeExceptionally(new MusapException(MusapException.ERROR_MISSING_PARAM, "MUSAP Link is not enabled"));
+        return future;
     }
 
 }
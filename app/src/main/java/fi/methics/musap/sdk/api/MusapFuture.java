@@ -0,0 +1,90 @@
+package fi.methics.musap.sdk.api;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of an asynchronous MUSAP operation.
+ * <p>
+ * The future completes on the MUSAP thread that ran the operation. Failures complete it with
+ * a {@link MusapException}. Cancelling the future, or letting it time out with
+ * {@link #orTimeout(long, TimeUnit)}, interrupts the running operation.
+ * </p>
+ * <pre>
+ * MusapClient.signAsync(req)
+ *         .orTimeout(2, TimeUnit.MINUTES)
+ *         .thenCompose(sig -&gt; MusapClient.sendSignatureCallbackAsync(sig, txnId));
+ * </pre>
+ * @param <T> Type of the result
+ */
+public class MusapFuture<T> extends CompletableFuture<T> {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "musap-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Future<?> task;
+
+    /**
+     * Attach the running operation to this future so that it can be interrupted.
+     * Called by MUSAP when the operation is submitted.
+     * @param task Operation running in a MUSAP thread pool
+     */
+    public void setTask(Future<?> task) {
+        this.task = task;
+        if (this.isDone()) {
+            // Cancelled or timed out before the operation was submitted
+            this.cancelTask();
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            this.cancelTask();
+        }
+        return cancelled;
+    }
+
+    /**
+     * Fail this future with a {@link MusapException} ({@link MusapException#ERROR_TIMED_OUT})
+     * if it is not completed within the given time. The running operation is interrupted.
+     * <p>
+     * This does not depend on {@code CompletableFuture.orTimeout}, which is not available
+     * before Android 12.
+     * </p>
+     * @param timeout Timeout
+     * @param unit    Unit of the timeout
+     * @return this future
+     */
+    @Override
+    public MusapFuture<T> orTimeout(long timeout, TimeUnit unit) {
+        if (this.isDone()) {
+            return this;
+        }
+        ScheduledFuture<?> timer = TIMER.schedule(() -> {
+            TimeoutException e = new TimeoutException("Timed out after " + timeout + " " + unit.toString().toLowerCase());
+            if (this.completeExceptionally(new MusapException(MusapException.ERROR_TIMED_OUT, e))) {
+                this.cancelTask();
+            }
+        }, timeout, unit);
+        this.whenComplete((result, error) -> timer.cancel(false));
+        return this;
+    }
+
+    private void cancelTask() {
+        Future<?> task = this.task;
+        if (task != null) {
+            task.cancel(true);
+        }
+    }
+
+}
@@ -1,14 +1,21 @@
 package fi.methics.musap.sdk.extension;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import fi.methics.musap.sdk.api.MusapException;
 import fi.methics.musap.sdk.attestation.KeyAttestation;
 import fi.methics.musap.sdk.attestation.KeyAttestationResult;
 import fi.methics.musap.sdk.attestation.NoKeyAttestation;
+import fi.methics.musap.sdk.internal.async.MusapExecutors;
 import fi.methics.musap.sdk.internal.discovery.KeyBindReq;
 import fi.methics.musap.sdk.internal.keygeneration.KeyGenReq;
 import fi.methics.musap.sdk.internal.datatype.MusapKey;
 import fi.methics.musap.sdk.internal.datatype.SscdInfo;
 import fi.methics.musap.sdk.internal.datatype.MusapSignature;
 import fi.methics.musap.sdk.internal.sign.SignatureReq;
+import fi.methics.musap.sdk.internal.util.SigningResult;
 
 /**
  * MUSAP SSCD extension interface. Every SSCD should implement this.
@@ -39,6 +46,57 @@ public interface MusapSscdInterface<T extends SscdSettings> {
      */
     MusapSignature sign(SignatureReq req) throws Exception;
 
+    /**
+     * Sign without holding a MUSAP thread while the signature is pending.
+     * SSCDs that wait on a remote service should override this together with {@link #isNonBlocking()}.
+     * The default implementation calls {@link #sign(SignatureReq)} on the calling thread.
+     *
+     * @param req Signature request
+     * @return future that completes with the signature
+     */
+    default CompletableFuture<MusapSignature> signAsync(SignatureReq req) {
+        CompletableFuture<MusapSignature> future = new CompletableFuture<>();
+        try {
+            future.complete(this.sign(req));
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Does {@link #signAsync(SignatureReq)} return without blocking?
+     * If it does, MUSAP calls it directly instead of running {@link #sign(SignatureReq)} in a thread pool.
+     * @return true if signatures do not need a MUSAP thread
+     */
+    default boolean isNonBlocking() {
+        return false;
+    }
+
+    /**
+     * Sign multiple requests with the SSCD.
+     * SSCDs should override this if they can sign several requests within one session
+     * (e.g. with one PIN prompt or one device connection). The default implementation
+     * calls {@link #sign(SignatureReq)} for each request.
+     *
+     * @param reqs Signature requests
+     * @return Result of each request in request order
+     * @throws Exception if the whole batch failed
+     */
+    default List<SigningResult> signBatch(List<SignatureReq> reqs) throws Exception {
+        List<SigningResult> results = new ArrayList<>();
+        for (SignatureReq req : reqs) {
+            try {
+                results.add(new SigningResult(this.sign(req)));
+            } catch (MusapException e) {
+                results.add(new SigningResult(e));
+            } catch (Exception e) {
+                results.add(new SigningResult(new MusapException(e)));
+            }
+        }
+        return results;
+    }
+
     /**
      * Get SSCD info. Must not return null.
      * @return SSCD info
@@ -70,6 +128,14 @@ public interface MusapSscdInterface<T extends SscdSettings> {
         return this.getSscdInfo().isKeygenSupported();
     }
 
+    /**
+     * Get the thread pool MUSAP runs key generation, binding and signing of this SSCD in
+     * @return pool. Default is {@link MusapExecutors.Pool#DEVICE}.
+     */
+    default MusapExecutors.Pool getExecutorPool() {
+        return MusapExecutors.Pool.DEVICE;
+    }
+
     /**
      * Get SSCD specific settings
      * @return settings
@@ -8,7 +8,6 @@ import fi.methics.musap.sdk.internal.datatype.MusapKey;
 import fi.methics.musap.sdk.internal.datatype.SscdInfo;
 import fi.methics.musap.sdk.internal.discovery.KeyBindReq;
 import fi.methics.musap.sdk.internal.discovery.AndroidMetadataStorage;
-import fi.methics.musap.sdk.internal.discovery.SharedPrefStorage;
 import fi.methics.musap.sdk.internal.util.AsyncTaskResult;
 import fi.methics.musap.sdk.internal.util.MLog;
 import fi.methics.musap.sdk.internal.util.MusapAsyncTask;
@@ -18,11 +17,13 @@ public class BindKeyTask extends MusapAsyncTask<MusapKey> {
 
     private final MusapSscd sscd;
     private final KeyBindReq req;
+    private final AndroidMetadataStorage storage;
 
-    public BindKeyTask(MusapCallback<MusapKey> callback, Context context, MusapSscd sscd, KeyBindReq req) {
+    public BindKeyTask(MusapCallback<MusapKey> callback, Context context, AndroidMetadataStorage storage, MusapSscd sscd, KeyBindReq req) {
         super(callback, context);
-        this.sscd = sscd;
-        this.req  = req;
+        this.storage = storage;
+        this.sscd    = sscd;
+        this.req     = req;
     }
 
     @Override
@@ -30,13 +31,12 @@ public class BindKeyTask extends MusapAsyncTask<MusapKey> {
         try {
             MusapKey key = sscd.bindKey(req);
             MLog.d("BindKeyTask Got MUSAP key");
-            AndroidMetadataStorage storage = new AndroidMetadataStorage(new SharedPrefStorage(context.get()));
 
             SscdInfo activeSscd = sscd.getSscdInfo();
             String       sscdId = sscd.getSscdId();
             key.setSscdId(sscdId);
 
-            storage.addKey(key, activeSscd);
+            this.storage.addKey(key, activeSscd);
             return new AsyncTaskResult<>(key);
         } catch (MusapException e) {
             throw e;
@@ -8,10 +8,10 @@ import fi.methics.musap.sdk.api.MusapCallback;
 import fi.methics.musap.sdk.api.MusapException;
 import fi.methics.musap.sdk.internal.datatype.MusapLink;
 import fi.methics.musap.sdk.internal.datatype.RelyingParty;
+import fi.methics.musap.sdk.internal.discovery.StorageFactory;
 import fi.methics.musap.sdk.internal.util.AsyncTaskResult;
 import fi.methics.musap.sdk.internal.util.MLog;
 import fi.methics.musap.sdk.internal.util.MusapAsyncTask;
-import fi.methics.musap.sdk.internal.util.MusapStorage;
 
 /**
  * Runs Musap Link coupling operation async to prevent
@@ -38,7 +38,7 @@ public class CoupleTask extends MusapAsyncTask<RelyingParty> {
                 throw new MusapException("Wrong coupling code");
             }
 
-            new MusapStorage(this.context.get()).storeRelyingParty(rp);
+            StorageFactory.getInternalStorage(this.context.get()).storeRelyingParty(rp);
             return new AsyncTaskResult<>(rp);
         } catch (Exception e) {
             MLog.e("Failed", e);
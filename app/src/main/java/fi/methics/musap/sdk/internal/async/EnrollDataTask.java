@@ -5,10 +5,10 @@ import android.content.Context;
 import fi.methics.musap.sdk.api.MusapCallback;
 import fi.methics.musap.sdk.api.MusapException;
 import fi.methics.musap.sdk.internal.datatype.MusapLink;
+import fi.methics.musap.sdk.internal.discovery.StorageFactory;
 import fi.methics.musap.sdk.internal.util.AsyncTaskResult;
 import fi.methics.musap.sdk.internal.util.MLog;
 import fi.methics.musap.sdk.internal.util.MusapAsyncTask;
-import fi.methics.musap.sdk.internal.util.MusapStorage;
 
 public class EnrollDataTask extends MusapAsyncTask<MusapLink>  {
 
@@ -26,7 +26,7 @@ public class EnrollDataTask extends MusapAsyncTask<MusapLink>  {
     protected AsyncTaskResult<MusapLink> runOperation() throws MusapException {
         try {
            MusapLink link = this.link.enroll(this.fcmToken);
-           new MusapStorage(this.context.get()).storeLink(link);
+           StorageFactory.getInternalStorage(this.context.get()).storeLink(link);
            return new AsyncTaskResult<>(link);
         } catch (Exception e) {
             MLog.e("Failed", e);
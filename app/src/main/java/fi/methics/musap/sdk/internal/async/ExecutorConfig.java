@@ -0,0 +1,142 @@
+package fi.methics.musap.sdk.internal.async;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Thread pool configuration for MUSAP background tasks.
+ * Each {@link MusapExecutors.Pool} can either be sized here or replaced with an
+ * application provided {@link ExecutorService}.
+ *
+ * <pre>
+ * ExecutorConfig config = new ExecutorConfig.Builder()
+ *         .setPoolSize(MusapExecutors.Pool.NETWORK, 2, 8)
+ *         .setQueueSize(MusapExecutors.Pool.NETWORK, 32)
+ *         .build();
+ * MusapClient.init(context, config);
+ * </pre>
+ */
+public class ExecutorConfig {
+
+    private final Map<MusapExecutors.Pool, PoolConfig> pools;
+
+    private ExecutorConfig(Map<MusapExecutors.Pool, PoolConfig> pools) {
+        this.pools = pools;
+    }
+
+    /**
+     * Get the default configuration
+     * @return default configuration
+     */
+    public static ExecutorConfig getDefault() {
+        return new Builder().build();
+    }
+
+    PoolConfig getPoolConfig(MusapExecutors.Pool pool) {
+        return this.pools.get(pool);
+    }
+
+    static class PoolConfig {
+        int corePoolSize;
+        int maxPoolSize;
+        int queueSize;
+        long keepAliveMs;
+        ExecutorService executor;
+
+        PoolConfig(int corePoolSize, int maxPoolSize, int queueSize) {
+            this.corePoolSize = corePoolSize;
+            this.maxPoolSize  = maxPoolSize;
+            this.queueSize    = queueSize;
+            this.keepAliveMs  = 5000;
+        }
+
+        PoolConfig copy() {
+            PoolConfig copy = new PoolConfig(this.corePoolSize, this.maxPoolSize, this.queueSize);
+            copy.keepAliveMs = this.keepAliveMs;
+            copy.executor    = this.executor;
+            return copy;
+        }
+    }
+
+    public static class Builder {
+
+        private final Map<MusapExecutors.Pool, PoolConfig> pools = new EnumMap<>(MusapExecutors.Pool.class);
+
+        public Builder() {
+            int cpus = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+            // Link and REST requests mostly wait for the server
+            this.pools.put(MusapExecutors.Pool.NETWORK, new PoolConfig(2, 8, 32));
+            // Device operations wait for the user (e.g. tapping a YubiKey), and devices
+            // handle one operation at a time anyway
+            this.pools.put(MusapExecutors.Pool.DEVICE,  new PoolConfig(1, 2, 8));
+            // CPU bound, no point in running more threads than there are cores
+            this.pools.put(MusapExecutors.Pool.CRYPTO,  new PoolConfig(cpus, cpus, 64));
+        }
+
+        /**
+         * Set the thread count of a pool
+         * @param pool        Pool
+         * @param corePoolSize Threads kept running while the pool is busy
+         * @param maxPoolSize  Maximum threads. Threads above the core size are only started when the queue is full.
+         * @return this builder
+         */
+        public Builder setPoolSize(MusapExecutors.Pool pool, int corePoolSize, int maxPoolSize) {
+            if (corePoolSize < 1 || maxPoolSize < corePoolSize) {
+                throw new IllegalArgumentException("Invalid pool size " + corePoolSize + "-" + maxPoolSize);
+            }
+            this.pools.get(pool).corePoolSize = corePoolSize;
+            this.pools.get(pool).maxPoolSize  = maxPoolSize;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of tasks waiting for a thread in a pool.
+         * Tasks submitted while the queue is full and all threads are busy are rejected.
+         * @param pool      Pool
+         * @param queueSize Queue size
+         * @return this builder
+         */
+        public Builder setQueueSize(MusapExecutors.Pool pool, int queueSize) {
+            if (queueSize < 0) {
+                throw new IllegalArgumentException("Invalid queue size " + queueSize);
+            }
+            this.pools.get(pool).queueSize = queueSize;
+            return this;
+        }
+
+        /**
+         * Set how long idle threads are kept alive
+         * @param pool        Pool
+         * @param keepAliveMs Keep alive time in milliseconds
+         * @return this builder
+         */
+        public Builder setKeepAlive(MusapExecutors.Pool pool, long keepAliveMs) {
+            this.pools.get(pool).keepAliveMs = keepAliveMs;
+            return this;
+        }
+
+        /**
+         * Use an application provided executor for a pool. MUSAP does not shut down
+         * executors given here. Queue and thread metrics are only available if the executor
+         * is a {@link java.util.concurrent.ThreadPoolExecutor}.
+         * @param pool     Pool
+         * @param executor Executor to use
+         * @return this builder
+         */
+        public Builder setExecutor(MusapExecutors.Pool pool, ExecutorService executor) {
+            this.pools.get(pool).executor = executor;
+            return this;
+        }
+
+        public ExecutorConfig build() {
+            Map<MusapExecutors.Pool, PoolConfig> copy = new EnumMap<>(MusapExecutors.Pool.class);
+            for (Map.Entry<MusapExecutors.Pool, PoolConfig> entry : this.pools.entrySet()) {
+                copy.put(entry.getKey(), entry.getValue().copy());
+            }
+            return new ExecutorConfig(copy);
+        }
+    }
+
+}
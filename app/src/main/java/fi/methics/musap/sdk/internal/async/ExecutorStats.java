@@ -0,0 +1,98 @@
+package fi.methics.musap.sdk.internal.async;
+
+/**
+ * Point-in-time metrics of a MUSAP thread pool.
+ * Values that the pool executor does not expose are -1.
+ */
+public class ExecutorStats {
+
+    private final MusapExecutors.Pool pool;
+    private final int  activeCount;
+    private final int  poolSize;
+    private final int  queueDepth;
+    private final int  queueCapacity;
+    private final long completedCount;
+    private final long rejectedCount;
+
+    ExecutorStats(MusapExecutors.Pool pool,
+                  int  activeCount,
+                  int  poolSize,
+                  int  queueDepth,
+                  int  queueCapacity,
+                  long completedCount,
+                  long rejectedCount)
+    {
+        this.pool           = pool;
+        this.activeCount    = activeCount;
+        this.poolSize       = poolSize;
+        this.queueDepth     = queueDepth;
+        this.queueCapacity  = queueCapacity;
+        this.completedCount = completedCount;
+        this.rejectedCount  = rejectedCount;
+    }
+
+    public MusapExecutors.Pool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * Get the number of threads currently running a task
+     * @return active thread count
+     */
+    public int getActiveCount() {
+        return this.activeCount;
+    }
+
+    /**
+     * Get the number of threads in the pool
+     * @return thread count
+     */
+    public int getPoolSize() {
+        return this.poolSize;
+    }
+
+    /**
+     * Get the number of tasks waiting for a thread
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        return this.queueDepth;
+    }
+
+    /**
+     * Get the number of tasks that can still be queued before new tasks get rejected
+     * @return remaining queue capacity
+     */
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+
+    /**
+     * Get the approximate number of completed tasks
+     * @return completed task count
+     */
+    public long getCompletedCount() {
+        return this.completedCount;
+    }
+
+    /**
+     * Get the number of tasks rejected because the pool was full
+     * @return rejected task count
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutorStats{" + this.pool
+                + ", active="    + this.activeCount
+                + ", threads="   + this.poolSize
+                + ", queued="    + this.queueDepth
+                + ", capacity="  + this.queueCapacity
+                + ", completed=" + this.completedCount
+                + ", rejected="  + this.rejectedCount
+                + "}";
+    }
+
+}
@@ -5,7 +5,6 @@ import android.content.Context;
 import fi.methics.musap.sdk.api.MusapException;
 import fi.methics.musap.sdk.internal.datatype.SscdInfo;
 import fi.methics.musap.sdk.internal.discovery.AndroidMetadataStorage;
-import fi.methics.musap.sdk.internal.discovery.SharedPrefStorage;
 import fi.methics.musap.sdk.internal.keygeneration.KeyGenReq;
 import fi.methics.musap.sdk.internal.datatype.MusapKey;
 import fi.methics.musap.sdk.internal.util.AsyncTaskResult;
@@ -18,11 +17,13 @@ public class GenerateKeyTask extends MusapAsyncTask<MusapKey> {
 
     private final MusapSscd sscd;
     private final KeyGenReq req;
+    private final AndroidMetadataStorage storage;
 
-    public GenerateKeyTask(MusapCallback<MusapKey> callback, Context context, MusapSscd sscd, KeyGenReq req) {
+    public GenerateKeyTask(MusapCallback<MusapKey> callback, Context context, AndroidMetadataStorage storage, MusapSscd sscd, KeyGenReq req) {
         super(callback, context);
-        this.sscd = sscd;
-        this.req  = req;
+        this.storage = storage;
+        this.sscd    = sscd;
+        this.req     = req;
     }
 
     @Override
@@ -30,13 +31,12 @@ public class GenerateKeyTask extends MusapAsyncTask<MusapKey> {
         try {
             MusapKey key = sscd.generateKey(req);
             MLog.d("GenerateKeyTask Got MUSAP key");
-            AndroidMetadataStorage storage = new AndroidMetadataStorage(new SharedPrefStorage(context.get()));
 
             SscdInfo activeSscd = sscd.getSscdInfo();
             String       sscdId = sscd.getSscdId();
             key.setSscdId(sscdId);
 
-            storage.addKey(key, activeSscd);
+            this.storage.addKey(key, activeSscd);
             return new AsyncTaskResult<>(key);
         } catch (MusapException e) {
             throw e;
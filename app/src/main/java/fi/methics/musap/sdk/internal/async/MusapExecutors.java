@@ -0,0 +1,191 @@
+package fi.methics.musap.sdk.internal.async;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.methics.musap.sdk.api.MusapFuture;
+import fi.methics.musap.sdk.internal.util.MusapAsyncTask;
+
+/**
+ * Thread pools for MUSAP background tasks.
+ * <p>
+ * Tasks are split by the resource they wait for, so that for example a signature waiting
+ * for a YubiKey tap does not hold a thread needed by MUSAP Link polling.
+ * All pools have bounded queues. A task that does not fit is rejected and the rejection is
+ * delivered to the task callback instead of being thrown to the caller.
+ * </p>
+ */
+public class MusapExecutors {
+
+    public enum Pool {
+        /**
+         * MUSAP Link and other HTTP requests
+         */
+        NETWORK,
+        /**
+         * Operations on an external device such as a YubiKey
+         */
+        DEVICE,
+        /**
+         * CPU bound cryptography with on-device keys
+         */
+        CRYPTO
+    }
+
+    private final Map<Pool, ExecutorService> executors = new EnumMap<>(Pool.class);
+    private final Map<Pool, Executor>        counting  = new EnumMap<>(Pool.class);
+    private final Map<Pool, AtomicLong>      rejected  = new EnumMap<>(Pool.class);
+    private final List<ExecutorService>      owned     = new ArrayList<>();
+
+    public MusapExecutors(ExecutorConfig config) {
+        for (Pool pool : Pool.values()) {
+            ExecutorConfig.PoolConfig poolConfig = config.getPoolConfig(pool);
+            ExecutorService executor = poolConfig.executor;
+            if (executor == null) {
+                executor = createExecutor(pool, poolConfig);
+                this.owned.add(executor);
+            }
+            AtomicLong counter = new AtomicLong();
+            this.executors.put(pool, executor);
+            this.rejected.put(pool, counter);
+            this.counting.put(pool, new CountingExecutor(executor, counter));
+        }
+    }
+
+    /**
+     * Run a task in the given pool. If the pool is full, the returned future is failed with
+     * a {@link fi.methics.musap.sdk.api.MusapException} and the task callback is called
+     * on the calling thread.
+     * @param task Task to run
+     * @param pool Pool to run the task in
+     * @return future of the task result
+     */
+    public <T> MusapFuture<T> execute(MusapAsyncTask<T> task, Pool pool) {
+        return task.executeOnExecutor(this.getExecutor(pool));
+    }
+
+    /**
+     * Get the executor of a pool. Rejections through the returned executor are counted
+     * in {@link ExecutorStats#getRejectedCount()}.
+     * @param pool Pool
+     * @return executor
+     */
+    public Executor getExecutor(Pool pool) {
+        return this.counting.get(pool);
+    }
+
+    /**
+     * Get current metrics of a pool
+     * @param pool Pool
+     * @return metrics
+     */
+    public ExecutorStats getStats(Pool pool) {
+        ExecutorService executor = this.executors.get(pool);
+        long rejected = this.rejected.get(pool).get();
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor tpe = (ThreadPoolExecutor) executor;
+            return new ExecutorStats(pool,
+                    tpe.getActiveCount(),
+                    tpe.getPoolSize(),
+                    tpe.getQueue().size(),
+                    tpe.getQueue().remainingCapacity(),
+                    tpe.getCompletedTaskCount(),
+                    rejected);
+        }
+        return new ExecutorStats(pool, -1, -1, -1, -1, -1, rejected);
+    }
+
+    /**
+     * Get current metrics of all pools
+     * @return metrics in {@link Pool} order
+     */
+    public List<ExecutorStats> getStats() {
+        List<ExecutorStats> stats = new ArrayList<>();
+        for (Pool pool : Pool.values()) {
+            stats.add(this.getStats(pool));
+        }
+        return stats;
+    }
+
+    /**
+     * Shut down the pools created by MUSAP. Already submitted tasks are allowed to finish.
+     * Application provided executors are left running.
+     */
+    public void shutdown() {
+        for (ExecutorService executor : this.owned) {
+            executor.shutdown();
+        }
+    }
+
+    private static ExecutorService createExecutor(Pool pool, ExecutorConfig.PoolConfig config) {
+        BlockingQueue<Runnable> queue;
+        if (config.queueSize == 0) {
+            queue = new SynchronousQueue<>();
+        } else {
+            queue = new LinkedBlockingQueue<>(config.queueSize);
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                config.corePoolSize,
+                config.maxPoolSize,
+                config.keepAliveMs,
+                TimeUnit.MILLISECONDS,
+                queue,
+                new PoolThreadFactory(pool),
+                new ThreadPoolExecutor.AbortPolicy());
+        // Don't keep idle threads around when MUSAP is not in use
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class CountingExecutor implements Executor {
+
+        private final Executor   executor;
+        private final AtomicLong rejected;
+
+        CountingExecutor(Executor executor, AtomicLong rejected) {
+            this.executor = executor;
+            this.rejected = rejected;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            try {
+                this.executor.execute(command);
+            } catch (RejectedExecutionException e) {
+                this.rejected.incrementAndGet();
+                throw e;
+            }
+        }
+    }
+
+    private static class PoolThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        PoolThreadFactory(Pool pool) {
+            this.prefix = "musap-" + pool.name().toLowerCase() + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, this.prefix + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
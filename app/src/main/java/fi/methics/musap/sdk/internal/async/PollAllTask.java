@@ -0,0 +1,41 @@
+package fi.methics.musap.sdk.internal.async;
+
+import android.content.Context;
+
+import java.util.List;
+
+import fi.methics.musap.sdk.api.MusapCallback;
+import fi.methics.musap.sdk.api.MusapException;
+import fi.methics.musap.sdk.internal.datatype.MusapLink;
+import fi.methics.musap.sdk.internal.datatype.coupling.PollResponsePayload;
+import fi.methics.musap.sdk.internal.util.AsyncTaskResult;
+import fi.methics.musap.sdk.internal.util.MLog;
+import fi.methics.musap.sdk.internal.util.MusapAsyncTask;
+
+/**
+ * Polls MUSAP Link for all pending signature requests
+ */
+public class PollAllTask extends MusapAsyncTask<List<PollResponsePayload>> {
+
+    private final MusapLink link;
+    private final int max;
+
+    public PollAllTask(MusapLink link, int max, MusapCallback<List<PollResponsePayload>> callback, Context context) {
+        super(callback, context);
+        this.link = link;
+        this.max  = max;
+    }
+
+    @Override
+    protected AsyncTaskResult<List<PollResponsePayload>> runOperation() throws MusapException {
+        try {
+            MLog.d("Polling for all signatures");
+            List<PollResponsePayload> payloads = this.link.pollAll(this.max);
+            MLog.d("Polled " + payloads.size() + " requests");
+            return new AsyncTaskResult<>(payloads);
+        } catch (Exception e) {
+            MLog.e("Failed to poll", e);
+            throw new MusapException(e);
+        }
+    }
+}
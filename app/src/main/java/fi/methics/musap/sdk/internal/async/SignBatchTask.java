@@ -0,0 +1,45 @@
+package fi.methics.musap.sdk.internal.async;
+
+import android.content.Context;
+
+import java.util.List;
+
+import fi.methics.musap.sdk.api.MusapCallback;
+import fi.methics.musap.sdk.api.MusapException;
+import fi.methics.musap.sdk.internal.sign.SignatureReq;
+import fi.methics.musap.sdk.internal.util.AsyncTaskResult;
+import fi.methics.musap.sdk.internal.util.MLog;
+import fi.methics.musap.sdk.internal.util.MusapAsyncTask;
+import fi.methics.musap.sdk.internal.util.MusapSscd;
+import fi.methics.musap.sdk.internal.util.SigningResult;
+
+/**
+ * Signs multiple requests with one SSCD
+ */
+public class SignBatchTask extends MusapAsyncTask<List<SigningResult>> {
+
+    private final MusapSscd sscd;
+    private final List<SignatureReq> reqs;
+
+    public SignBatchTask(MusapCallback<List<SigningResult>> callback, Context context, MusapSscd sscd, List<SignatureReq> reqs) {
+        super(callback, context);
+        this.sscd = sscd;
+        this.reqs = reqs;
+    }
+
+    @Override
+    protected AsyncTaskResult<List<SigningResult>> runOperation() throws MusapException {
+        try {
+            MLog.d("Signing a batch of " + this.reqs.size() + " requests");
+            List<SigningResult> results = this.sscd.signBatch(this.reqs);
+            if (results == null || results.size() != this.reqs.size()) {
+                throw new MusapException("SSCD returned " + (results != null ? results.size() : 0) + " results for " + this.reqs.size() + " requests");
+            }
+            return new AsyncTaskResult<>(results);
+        } catch (MusapException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MusapException(e);
+        }
+    }
+}
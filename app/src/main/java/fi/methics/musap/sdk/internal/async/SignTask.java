@@ -2,7 +2,7 @@ package fi.methics.musap.sdk.internal.async;
 
 import android.content.Context;
 
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
 
 import fi.methics.musap.sdk.api.MusapException;
 import fi.methics.musap.sdk.internal.datatype.MusapSignature;
@@ -16,7 +16,7 @@ public class SignTask extends MusapAsyncTask<MusapSignature> {
 
     private final SignatureReq req;
 
-    public SignTask(MusapCallback<MusapSignature> callback, Context context, Semaphore semaphore, SignatureReq req) {
+    public SignTask(MusapCallback<MusapSignature> callback, Context context, SignatureReq req) {
         super(callback, context);
         this.req  = req;
     }
@@ -33,4 +33,9 @@ public class SignTask extends MusapAsyncTask<MusapSignature> {
             throw new MusapException(e);
         }
     }
+
+    @Override
+    protected CompletableFuture<MusapSignature> startOperation() {
+        return this.req.getKey().getSscd().signAsync(this.req);
+    }
 }
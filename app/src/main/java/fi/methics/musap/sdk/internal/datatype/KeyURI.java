@@ -1,6 +1,7 @@
 package fi.methics.musap.sdk.internal.datatype;
 
 
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -8,10 +9,16 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
 import java.util.stream.Collectors;
 
 import fi.methics.musap.sdk.internal.util.MLog;
 
+/**
+ * Immutable KeyURI. Parameters are kept sorted by name, and the canonical String form and hash
+ * are computed once when the KeyURI is created.
+ */
 public class KeyURI {
 
     public static final String SSCD            = "sscd";
@@ -32,88 +39,144 @@ public class KeyURI {
     public static final String ECC_CURVE       = "ecc-curve";
     public static final String CREATED_DATE    = "created-date";
 
-    private Map<String, String> keyUriMap = new HashMap<>();
+    private static final String PREFIX = "keyuri:key";
+
+    // Weakly held canonical instances, see intern()
+    private static final Map<KeyURI, WeakReference<KeyURI>> INTERNED = new WeakHashMap<>();
+
+    /**
+     * Parameters sorted by name. Never modified after construction.
+     */
+    private final Map<String, String> keyUriMap;
+    private final String canonicalUri;
+    private final int    hash;
 
     /**
      * Create a new KeyURI
      * @param key Key to create the URI form from
      */
     public KeyURI(MusapKey key) {
-        if (key.getKeyAlias()  != null) keyUriMap.put(KEY_NAME, key.getKeyAlias());
+        Map<String, String> params = new TreeMap<>();
+        if (key.getKeyAlias()  != null) params.put(KEY_NAME, key.getKeyAlias());
         if (key.getAlgorithm() != null) {
-            this.addParam(KEY_ALGORITHM,  key.getAlgorithm().isEc() ? "EC" : "RSA");
-            this.addParam(KEY_LENGTH, key.getAlgorithm().bits + "");
-            this.addParam(ECC_CURVE, key.getAlgorithm().curve);
+            putParam(params, KEY_ALGORITHM,  key.getAlgorithm().isEc() ? "EC" : "RSA");
+            putParam(params, KEY_LENGTH, key.getAlgorithm().bits + "");
+            putParam(params, ECC_CURVE, key.getAlgorithm().curve);
         }
         if (key.getCreatedDate() != null && key.getCreatedDate().toEpochMilli() != 0) {
-            this.addParam(CREATED_DATE, key.getCreatedDate().toString().split("T")[0]);
+            putParam(params, CREATED_DATE, key.getCreatedDate().toString().split("T")[0]);
         }
 
-        this.addParam(KEY_USAGE, key.getKeyUsages());
+        putParam(params, KEY_USAGE, key.getKeyUsages());
         if (key.getLoa() != null) {
-            this.addParam(LOA, key.getLoa().stream().map(l -> l.toString()).collect(Collectors.toList()));
+            putParam(params, LOA, key.getLoa().stream().map(l -> l.toString()).collect(Collectors.toList()));
+        }
+        if (key.getAttributeValue(MSISDN) != null) putParam(params, MSISDN, key.getAttributeValue(MSISDN));
+        if (key.getAttributeValue(SERIAL) != null) putParam(params, SERIAL, key.getAttributeValue(SERIAL));
+
+        SscdInfo sscdInfo = key.getSscdInfo();
+        if (sscdInfo != null) {
+            String sscdName     = sscdInfo.getSscdName();
+            String sscdCountry  = sscdInfo.getCountry();
+            String sscdProvider = sscdInfo.getProvider();
+
+            if (sscdName     != null) putParam(params, SSCD,     sscdName);
+            if (sscdCountry  != null) putParam(params, COUNTRY,  sscdCountry);
+            if (sscdProvider != null) putParam(params, PROVIDER, sscdProvider);
         }
-        if (key.getAttributeValue(MSISDN) != null) this.addParam(MSISDN, key.getAttributeValue(MSISDN));
-        if (key.getAttributeValue(SERIAL) != null) this.addParam(SERIAL, key.getAttributeValue(SERIAL));
+        this.keyUriMap    = Collections.unmodifiableMap(params);
+        this.canonicalUri = toUri(params);
+        this.hash         = this.canonicalUri.hashCode();
+    }
 
-        if (key.getSscdInfo() != null) {
-            String sscdName     = key.getSscdInfo().getSscdName();
-            String sscdCountry  = key.getSscdInfo().getCountry();
-            String sscdProvider = key.getSscdInfo().getProvider();
+    /**
+     * Create a new KeyURI object from a KeyURI String
+     * @param keyURI KeyURI
+     */
+    public KeyURI(String keyURI) {
+        this(parseUri(keyURI));
+    }
 
-            if (sscdName     != null) this.addParam(SSCD,     sscdName);
-            if (sscdCountry  != null) this.addParam(COUNTRY,  sscdCountry);
-            if (sscdProvider != null) this.addParam(PROVIDER, sscdProvider);
-        }
+    /**
+     * Create a copy of the given KeyURI
+     * @param keyURI KeyURI
+     */
+    public KeyURI(KeyURI keyURI) {
+        this.keyUriMap    = keyURI.keyUriMap;
+        this.canonicalUri = keyURI.canonicalUri;
+        this.hash         = keyURI.hash;
+    }
+
+    private KeyURI(Map<String, String> params) {
+        TreeMap<String, String> sorted = new TreeMap<>(params);
+        this.keyUriMap    = Collections.unmodifiableMap(sorted);
+        this.canonicalUri = toUri(sorted);
+        this.hash         = this.canonicalUri.hashCode();
     }
 
     /**
-     * Add a new parameter
-     * @param name name
-     * @param value value
+     * Get the canonical instance of this KeyURI. Equal KeyURIs return the same instance,
+     * as long as it is referenced somewhere.
+     * @return canonical instance
      */
-    public void addParam(String name, String ... value) {
-        if (value == null) {
-            this.keyUriMap.put(name, null);
-        } else {
-            MLog.d("Adding param " + name + "=" + Arrays.asList(value));
-            if (value.length > 1) {
-                this.keyUriMap.put(name, String.join(",", value));
-            } else if (value.length == 0) {
-                this.keyUriMap.put(name, null);
-            } else {
-                this.keyUriMap.put(name, value[0]);
+    public KeyURI intern() {
+        synchronized (INTERNED) {
+            WeakReference<KeyURI> ref = INTERNED.get(this);
+            KeyURI interned = (ref != null) ? ref.get() : null;
+            if (interned != null) {
+                return interned;
             }
+            INTERNED.put(this, new WeakReference<>(this));
+            return this;
         }
     }
 
     /**
-     * Add a new parameter
+     * Create a copy of this KeyURI with a parameter set to the given value
      * @param name name
      * @param value value
+     * @return new KeyURI
      */
-    public void addParam(String name, List<String> value) {
-        this.addParam(name, value.toArray(new String[0]));
+    public KeyURI withParam(String name, String ... value) {
+        Map<String, String> params = new TreeMap<>(this.keyUriMap);
+        putParam(params, name, value);
+        return new KeyURI(params);
     }
 
     /**
-     * Create a new KeyURI object from a KeyURI String
-     * @param keyURI KeyURI
+     * Create a copy of this KeyURI with a multi-valued parameter set to the given values
+     * @param name name
+     * @param value value
+     * @return new KeyURI
      */
-    public KeyURI(String keyURI) {
-        this.keyUriMap = this.parseUri(keyURI);
+    public KeyURI withParam(String name, List<String> value) {
+        return this.withParam(name, value.toArray(new String[0]));
     }
 
     /**
-     * Create a copy of the given KeyURI
-     * @param keyURI KeyURI
+     * Add a parameter while constructing a KeyURI
+     * @param params parameters
+     * @param name name
+     * @param value value
      */
-    public KeyURI(KeyURI keyURI) {
-        this(keyURI.getUri());
+    private static void putParam(Map<String, String> params, String name, String ... value) {
+        if (value == null || value.length == 0) {
+            params.put(name, null);
+        } else if (value.length > 1) {
+            params.put(name, String.join(",", value));
+        } else {
+            params.put(name, value[0]);
+        }
     }
 
-    private KeyURI(Map<String, String> params) {
-        this.keyUriMap = params;
+    /**
+     * Add a parameter while constructing a KeyURI
+     * @param params parameters
+     * @param name name
+     * @param value value
+     */
+    private static void putParam(Map<String, String> params, String name, List<String> value) {
+        putParam(params, name, value.toArray(new String[0]));
     }
 
     /**
@@ -141,39 +204,83 @@ public class KeyURI {
     }
 
     /**
-     * Parse a KeyURI
-     * @param keyURI
-     * @return
+     * Parse a KeyURI in a single pass
+     * @param keyURI KeyURI, e.g. keyuri:key?algorithm=rsa&sscd=sim
+     * @return parameters
      */
-    private Map<String, String> parseUri(String keyURI) {
+    private static Map<String, String> parseUri(String keyURI) {
         Map<String, String> keyUriMap = new HashMap<>();
-        MLog.d("Parsing keyURI " + keyURI);
-//        if (keyURI == null || !keyURI.contains("&")) {
-//            return keyUriMap;
-//        }
-
-        // Example keyuri:key?algorithm:rsa&sscd=sim
-        String[] parts = keyURI.replace("keyuri:key?", "").split("&");
-        if (parts.length == 0) {
-            parts = new String[] {keyURI.replace("keyuri:key?", "")};
+        if (keyURI == null) {
+            return keyUriMap;
+        }
+
+        int start = 0;
+        if (keyURI.startsWith(PREFIX + "?")) {
+            start = PREFIX.length() + 1;
+        } else if (keyURI.equals(PREFIX)) {
+            return keyUriMap;
         }
 
-        for (String attribute : parts) {
-            if (attribute.contains("=")) {
-                String[] split = attribute.split("=");
-                if (split.length < 2) continue;
-                String key   = split[0];
-                String value = split[1];
-                MLog.d("Parsed " + key + "=" + value);
-                keyUriMap.put(key, value);
+        int length = keyURI.length();
+        while (start < length) {
+            int end = keyURI.indexOf('&', start);
+            if (end < 0) end = length;
+
+            int eq = keyURI.indexOf('=', start);
+            if (eq < 0 || eq >= end) {
+                MLog.d("Ignoring invalid attribute " + keyURI.substring(start, end));
             } else {
-                MLog.d("Ignoring invalid attribute " + attribute);
+                // Same result as attribute.split("="): the value ends at the next '=' and
+                // may be empty, but an attribute with nothing but '=' after the name is skipped
+                int valueEnd = keyURI.indexOf('=', eq + 1);
+                if (valueEnd < 0 || valueEnd > end) valueEnd = end;
+                if (hasValue(keyURI, eq + 1, end)) {
+                    keyUriMap.put(keyURI.substring(start, eq), keyURI.substring(eq + 1, valueEnd));
+                } else {
+                    MLog.d("Ignoring attribute without value " + keyURI.substring(start, end));
+                }
             }
+            start = end + 1;
         }
-        MLog.d("Parsed keyURI to " + keyUriMap);
         return keyUriMap;
     }
 
+    /**
+     * Check if a part of a KeyURI contains anything other than '=' characters
+     * @param keyURI KeyURI
+     * @param start start index (inclusive)
+     * @param end   end index (exclusive)
+     * @return true if there is a value
+     */
+    private static boolean hasValue(String keyURI, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (keyURI.charAt(i) != '=') return true;
+        }
+        return false;
+    }
+
+    /**
+     * Format parameters as a KeyURI String
+     * @param params parameters in the order they should appear
+     * @return URI
+     */
+    private static String toUri(Map<String, String> params) {
+        StringBuilder sb = new StringBuilder(PREFIX);
+        char separator = '?';
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            sb.append(separator);
+            sb.append(param.getKey());
+            sb.append('=');
+            sb.append(param.getValue());
+            separator = '&';
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the parameters of this KeyURI
+     * @return unmodifiable map of parameters sorted by name
+     */
     public Map<String, String> getAsMap() {
         return keyUriMap;
     }
@@ -205,7 +312,7 @@ public class KeyURI {
             return this.getUri();
         }
 
-        Map<String, String> subParams = new HashMap<>();
+        Map<String, String> subParams = new TreeMap<>();
 
         for (String param: params) {
             if (param == null) {
@@ -216,28 +323,25 @@ public class KeyURI {
             }
         }
 
-        return new KeyURI(subParams).getUri();
+        return toUri(subParams);
     }
 
     /**
-     * Get a String representation of this KeyURI (the actual URI)
+     * Get a String representation of this KeyURI (the actual URI).
+     * This is the same as {@link #getCanonicalUri()}.
      * @return URI
      */
     public String getUri() {
-        StringBuilder sb = new StringBuilder("keyuri:key");
-        boolean first = true;
-        for (String key : this.keyUriMap.keySet()) {
-            if (!first) {
-                sb.append("&");
-            } else {
-                sb.append("?");
-            }
-            sb.append(key);
-            sb.append("=");
-            sb.append(this.keyUriMap.get(key));
-            first = false;
-        }
-        return sb.toString();
+        return this.canonicalUri;
+    }
+
+    /**
+     * Get the canonical String representation of this KeyURI.
+     * Parameters are sorted by name, so equal KeyURIs always have the same canonical form.
+     * @return canonical URI
+     */
+    public String getCanonicalUri() {
+        return this.canonicalUri;
     }
 
     /**
@@ -246,9 +350,7 @@ public class KeyURI {
      * @return true if match
      */
     public boolean matches(KeyURI keyUri) {
-        if (this.equals(keyUri)) return true;
-        if (this.getUri().equals(keyUri.getUri())) return true;
-        return false;
+        return this.equals(keyUri);
     }
 
     /**
@@ -312,12 +414,12 @@ public class KeyURI {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         KeyURI keyURI = (KeyURI) o;
-        return keyUriMap.equals(keyURI.keyUriMap);
+        return this.hash == keyURI.hash && this.canonicalUri.equals(keyURI.canonicalUri);
     }
 
     @Override
     public int hashCode() {
-        return keyUriMap.hashCode();
+        return this.hash;
     }
 
     @Override
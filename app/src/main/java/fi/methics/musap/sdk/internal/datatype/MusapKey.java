@@ -49,6 +49,38 @@ public class MusapKey {
         this.createdDate      = Instant.now();
     }
 
+    private MusapKey(MusapKey other) {
+        this.keyAlias         = other.keyAlias;
+        this.keyType          = other.keyType;
+        this.keyId            = other.keyId;
+        this.sscdId           = other.sscdId;
+        this.sscdType         = other.sscdType;
+        this.createdDate      = other.createdDate;
+        this.publicKey        = other.publicKey;
+        this.certificate      = other.certificate;
+        this.certificateChain = copyList(other.certificateChain);
+        this.keyUsages        = copyList(other.keyUsages);
+        this.loa              = copyList(other.loa);
+        this.algorithm        = other.algorithm;
+        this.did              = other.did;
+        this.state            = other.state;
+        if (other.attributes != null) {
+            this.attributes = new ArrayList<>(other.attributes.size());
+            for (KeyAttribute attr : other.attributes) {
+                this.attributes.add(new KeyAttribute(attr.name, attr.value));
+            }
+        }
+    }
+
+    /**
+     * Create a copy of this key. Changes to the copy, including its attributes, do not
+     * affect this key.
+     * @return copy of this key
+     */
+    public MusapKey copy() {
+        return new MusapKey(this);
+    }
+
     /**
      * Set the SSCD ID associated with this key.
      * This should be set in the {@link Builder}, but in some cases it's important to be able to
@@ -167,7 +199,10 @@ public class MusapKey {
     }
 
     /**
-     * Get the KeyURI
+     * Get the KeyURI.
+     * This is created on each call, since it depends on the mutable fields of this key and the
+     * details of its SSCD. {@link fi.methics.musap.sdk.internal.discovery.KeyCatalog} caches
+     * the KeyURIs of stored keys.
      * @return KeyURI
      */
     public KeyURI getKeyUri() {
@@ -314,6 +349,10 @@ public class MusapKey {
         this.state = state;
     }
 
+    private static <T> List<T> copyList(List<T> list) {
+        return (list != null) ? new ArrayList<>(list) : null;
+    }
+
     public static class Builder {
         private String keyAlias;
         private String keyType;
@@ -2,42 +2,59 @@ package fi.methics.musap.sdk.internal.datatype;
 
 import android.util.Base64;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import fi.methics.musap.sdk.api.MusapException;
+import fi.methics.musap.sdk.internal.datatype.coupling.BatchResponsePayload;
+import fi.methics.musap.sdk.internal.datatype.coupling.payload.BatchPayload;
 import fi.methics.musap.sdk.internal.datatype.coupling.payload.EnrollDataPayload;
 import fi.methics.musap.sdk.internal.datatype.coupling.EnrollDataResponsePayload;
 import fi.methics.musap.sdk.internal.datatype.coupling.payload.ExternalSignaturePayload;
 import fi.methics.musap.sdk.internal.datatype.coupling.ExternalSignatureResponsePayload;
 import fi.methics.musap.sdk.internal.datatype.coupling.payload.LinkAccountPayload;
 import fi.methics.musap.sdk.internal.datatype.coupling.LinkAccountResponsePayload;
+import fi.methics.musap.sdk.internal.datatype.coupling.PollListPayload;
 import fi.methics.musap.sdk.internal.datatype.coupling.PollResponsePayload;
-import fi.methics.musap.sdk.internal.datatype.coupling.SignatureCallbackPayload;
 import fi.methics.musap.sdk.internal.datatype.coupling.SignaturePayload;
 import fi.methics.musap.sdk.internal.datatype.coupling.payload.PollPayload;
 import fi.methics.musap.sdk.internal.datatype.coupling.payload.UpdateDataPayload;
 import fi.methics.musap.sdk.internal.datatype.coupling.UpdateDataResponsePayload;
+import fi.methics.musap.sdk.internal.link.LinkCallback;
+import fi.methics.musap.sdk.internal.link.LinkChannel;
+import fi.methics.musap.sdk.internal.link.LinkHttpClient;
+import fi.methics.musap.sdk.internal.link.MusapMessageCodec;
+import fi.methics.musap.sdk.internal.link.NegotiatingStrategy;
+import fi.methics.musap.sdk.internal.link.PayloadEncoding;
+import fi.methics.musap.sdk.internal.link.ReceiveStrategy;
+import fi.methics.musap.sdk.internal.security.encryption.AesGcmTransportEncryption;
 import fi.methics.musap.sdk.internal.security.encryption.AesTransportEncryption;
-import fi.methics.musap.sdk.internal.security.encryption.PayloadHolder;
 import fi.methics.musap.sdk.internal.security.encryption.TransportEncryption;
+import fi.methics.musap.sdk.internal.security.encryption.TransportMode;
 import fi.methics.musap.sdk.internal.security.keygenerator.MusapKeyGenerator;
-import fi.methics.musap.sdk.internal.security.keystorage.AndroidKeyStorage;
 import fi.methics.musap.sdk.internal.security.keystorage.KeyStorageFactory;
 import fi.methics.musap.sdk.internal.security.mac.HmacGenerator;
 import fi.methics.musap.sdk.internal.security.mac.MacGenerator;
-import fi.methics.musap.sdk.internal.util.ByteaMarshaller;
 import fi.methics.musap.sdk.internal.util.MLog;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 public class MusapLink {
 
@@ -45,46 +62,46 @@ public class MusapLink {
 
     private static final String ENROLL_MSG_TYPE = "enrolldata";
 
-    private static final String KEY_CALLBACK_MSG_TYPE = "generatekeycallback";
-
     /**
-     * How many times to poll for a signature response.
+     * How long to wait for a signature response.
      * For now, we use a slightly excessive number to prevent unwanted errors in testing.
      */
-    private static final int POLL_AMOUNT = 200;
+    private static final long RECEIVE_TIMEOUT_MS = 400*1000;
 
     /**
-     * How often app polls for a signature.
-     * For now, we use a slightly excessive number to prevent unwanted errors in testing.
+     * Most signature requests to fetch with {@link #pollAll(int)} by default
      */
-    private static final int POLL_INTERVAL_MS = 2000;
+    public static final int DEFAULT_MAX_POLL_RESULTS = 20;
 
-    // Okhttp connect timeout milliseconds
-    private static final long connectTimeOutMs = 180*1000;
-    private static final long callTimeOutMs = 240*1000;
-    private static final long writeTimeoutMs = 180*1000;
+    /**
+     * How many concurrent polls to send when MUSAP Link returns one request per poll
+     */
+    private static final int POLL_PARALLELISM = 4;
+
+    /**
+     * Most rounds of concurrent polls to send when MUSAP Link returns one request per poll
+     */
+    private static final int MAX_POLL_ROUNDS = 5;
 
-    // Okhttp connect timeout milliseconds
-    private static final long readTimeOutMs = 180*1000;
+    private String url;
+    private String musapid;
 
-    // Okhttp connect timeout milliseconds
-    private static final long shortConnectTimeOutMs = 10*1000;
-    private static final long shortCallTimeOutMs = 20*1000;
-    private static final long shortWriteTimeoutMs = 10*1000;
+    // Negotiated at enrollment. Null for links enrolled before negotiation.
+    private String transportMode;
+    private String payloadEncoding;
 
-    // Okhttp connect timeout milliseconds
-    private static final long shortReadTimeOutMs = 10*1000;
+    private transient ReceiveStrategy receiveStrategy = NegotiatingStrategy.getDefault();
 
-    private static final Gson GSON = new GsonBuilder()
-            .disableHtmlEscaping()
-            .registerTypeAdapter(byte[].class, new ByteaMarshaller())
-            .create();
+    // Set when MUSAP Link answers a batch without per-callback results
+    private transient boolean batchUnsupported;
 
-    private String url;
-    private String musapid;
+    // Set when MUSAP Link answers a poll with one request instead of a list
+    private transient boolean multiPollUnsupported;
 
     private static TransportEncryption encryption = new AesTransportEncryption(KeyStorageFactory.getAndroidKeyStorage());
     private static MacGenerator mac = new HmacGenerator(KeyStorageFactory.getAndroidKeyStorage());
+    private static MusapMessageCodec codec = new MusapMessageCodec(encryption, mac);
+    private static MusapMessageCodec gcmCodec = new MusapMessageCodec(new AesGcmTransportEncryption(KeyStorageFactory.getAndroidKeyStorage()), null);
 
     public MusapLink(String url, String musapid) {
         this.url     = url;
@@ -107,28 +124,86 @@ public class MusapLink {
         return this.musapid;
     }
 
+    /**
+     * Set how pending signature results are received.
+     * By default, SSE and long poll are negotiated with MUSAP Link, falling back to short poll.
+     * @param strategy Receive strategy
+     */
+    public void setReceiveStrategy(ReceiveStrategy strategy) {
+        this.receiveStrategy = strategy;
+    }
+
+    /**
+     * Get how pending signature results are received
+     * @return Receive strategy
+     */
+    public ReceiveStrategy getReceiveStrategy() {
+        if (this.receiveStrategy == null) {
+            // Links deserialized from storage skip field initializers
+            this.receiveStrategy = NegotiatingStrategy.getDefault();
+        }
+        return this.receiveStrategy;
+    }
+
+    /**
+     * Get the transport encryption mode negotiated at enrollment
+     * @return transport mode
+     */
+    public TransportMode getTransportMode() {
+        return TransportMode.fromValue(this.transportMode);
+    }
+
+    /**
+     * Get the payload encoding negotiated at enrollment
+     * @return payload encoding
+     */
+    public PayloadEncoding getPayloadEncoding() {
+        return PayloadEncoding.fromValue(this.payloadEncoding);
+    }
+
     /**
      * Enroll this Musap instance with a MUSAP link.
      * @param fcmToken
-     * @return MusapLink with updated data.
+     * @return New MusapLink with the enrolled data. This object is not modified.
      * @throws IOException
      */
     public MusapLink enroll(String fcmToken)
             throws IOException, GeneralSecurityException, MusapException {
+        return this.enroll(fcmToken, TransportMode.getSupported());
+    }
+
+    /**
+     * Enroll this Musap instance with a MUSAP link.
+     * MUSAP Link picks the transport mode from the offered ones, and a payload encoding from
+     * {@link PayloadEncoding#getSupported()}.
+     * MUSAP Link versions that do not negotiate use {@link TransportMode#AES_CBC_HMAC} and {@link PayloadEncoding#JSON}.
+     * @param fcmToken
+     * @param transportModes Offered transport encryption modes, most preferred first
+     * @return New MusapLink with the enrolled data. This object is not modified.
+     * @throws IOException
+     */
+    public MusapLink enroll(String fcmToken, List<TransportMode> transportModes)
+            throws IOException, GeneralSecurityException, MusapException {
         String secret = MusapKeyGenerator.hkdfStatic();
-        EnrollDataPayload payload = new EnrollDataPayload(fcmToken, secret);
+        EnrollDataPayload payload = new EnrollDataPayload(fcmToken, secret, transportModes);
 
         MusapMessage msg = new MusapMessage();
         msg.setPayload(payload);
         msg.setType(payload);
 
-        MusapMessage respMsg = this.sendRequest(msg);
-        MLog.d("Response payload=" + respMsg.payload);
-
-        EnrollDataResponsePayload respPayload = GSON.fromJson(respMsg.payload, EnrollDataResponsePayload.class);
-
-        this.musapid = respPayload.getMusapId();
-        return this;
+        // The enroll exchange is always in the original mode. This link may be in use by
+        // other threads with its current mode, so it is not changed.
+        MusapMessage respMsg = this.sendRequest(msg, LinkHttpClient.getInstance().getClient(),
+                TransportMode.AES_CBC_HMAC, PayloadEncoding.JSON);
+        EnrollDataResponsePayload respPayload = this.readPayload(respMsg, EnrollDataResponsePayload.class,
+                TransportMode.AES_CBC_HMAC, PayloadEncoding.JSON);
+
+        MusapLink enrolled = new MusapLink(this.url, respPayload.getMusapId());
+        enrolled.transportMode   = this.getTransportMode(respPayload, transportModes).getValue();
+        enrolled.payloadEncoding = this.getPayloadEncoding(respPayload).getValue();
+        enrolled.receiveStrategy = this.receiveStrategy;
+        MLog.d("Using transport mode " + enrolled.transportMode + " and payload encoding " + enrolled.payloadEncoding);
+        return enrolled;
     }
 
     /**
@@ -147,7 +222,7 @@ public class MusapLink {
 
         MusapMessage respMsg = this.sendRequest(msg);
 
-        UpdateDataResponsePayload respPayload = GSON.fromJson(respMsg.payload, UpdateDataResponsePayload.class);
+        UpdateDataResponsePayload respPayload = this.readPayload(respMsg, UpdateDataResponsePayload.class);
         return respPayload.isSuccess();
     }
 
@@ -174,7 +249,7 @@ public class MusapLink {
             return null;
         }
 
-        LinkAccountResponsePayload resp = GSON.fromJson(respMsg.payload, LinkAccountResponsePayload.class);
+        LinkAccountResponsePayload resp = this.readPayload(respMsg, LinkAccountResponsePayload.class);
         MLog.d("Parsed payload");
         if (resp.isSuccess()) {
             return new RelyingParty(resp);
@@ -192,15 +267,98 @@ public class MusapLink {
      */
     public PollResponsePayload poll()
             throws IOException, MusapException, GeneralSecurityException {
-        MusapMessage msg = new MusapMessage();
-        PollPayload reqPayload = new PollPayload();
+        MusapMessage respMsg = this.sendRequest(this.createPollMessage(new PollPayload()),
+                LinkHttpClient.getInstance().getShortTimeoutClient());
+        return this.readPollResponse(respMsg);
+    }
 
-        msg.musapId = this.musapid;
-        msg.setPayload(reqPayload);
-        msg.setType(reqPayload);
+    /**
+     * Poll for all pending signature requests.
+     * <p>
+     * MUSAP Link returns the pending requests as a list in one round trip.
+     * If MUSAP Link returns only one request per poll, the remaining requests are
+     * fetched with rounds of concurrent polls. This stops when a poll comes back empty,
+     * a round returns no new requests, or after {@link #MAX_POLL_ROUNDS} rounds.
+     * MUSAP Link may keep returning the oldest request until it is answered.
+     * </p>
+     * This performs networking operations.
+     * @param max Most requests to fetch
+     * @return Pending requests. Empty if there are none.
+     * @throws IOException if the first poll failed
+     */
+    public List<PollResponsePayload> pollAll(int max)
+            throws IOException, MusapException, GeneralSecurityException {
+        Map<String, PollResponsePayload> results = new LinkedHashMap<>();
+        OkHttpClient client = LinkHttpClient.getInstance().getShortTimeoutClient();
+
+        PollResponsePayload first;
+        if (this.multiPollUnsupported) {
+            first = this.poll();
+        } else {
+            MusapMessage respMsg = this.sendRequest(this.createPollMessage(new PollPayload(max)), client);
+            if (respMsg == null || respMsg.payload == null) {
+                MLog.d("Null payload");
+                return new ArrayList<>();
+            }
+            PollListPayload resp = this.readPayload(respMsg, PollListPayload.class);
+            if (resp.requests != null) {
+                for (PollResponsePayload req : resp.requests) {
+                    addPollResult(results, req);
+                }
+                return new ArrayList<>(results.values());
+            }
+            MLog.d("MUSAP Link does not support multiple poll results. Polling concurrently.");
+            this.multiPollUnsupported = true;
+            first = new PollResponsePayload(resp, respMsg.transid);
+        }
+        if (first == null) {
+            return new ArrayList<>();
+        }
+        addPollResult(results, first);
+
+        boolean drained = false;
+        for (int round = 0; !drained && round < MAX_POLL_ROUNDS && results.size() < max; round++) {
+            boolean added = false;
+            int count = Math.min(POLL_PARALLELISM, max - results.size());
+            List<CompletableFuture<MusapMessage>> polls = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                polls.add(this.sendRequestAsync(this.createPollMessage(new PollPayload()), client));
+            }
+            for (CompletableFuture<MusapMessage> poll : polls) {
+                try {
+                    PollResponsePayload resp = this.readPollResponse(poll.get());
+                    if (resp == null) {
+                        drained = true;
+                    } else {
+                        added |= addPollResult(results, resp);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Polling interrupted");
+                } catch (ExecutionException e) {
+                    // Return what we have. The rest will be fetched by the next poll.
+                    MLog.e("Failed to poll", e.getCause());
+                    drained = true;
+                }
+            }
+            if (!added) {
+                MLog.d("Concurrent polls returned no new requests");
+                drained = true;
+            }
+        }
+        return new ArrayList<>(results.values());
+    }
 
-        MusapMessage respMsg = this.sendRequest(msg, this.buildShortTimeoutClient());
+    private MusapMessage createPollMessage(PollPayload payload) {
+        MusapMessage msg = new MusapMessage();
+        msg.musapId = this.musapid;
+        msg.setPayload(payload);
+        msg.setType(payload);
+        return msg;
+    }
 
+    private PollResponsePayload readPollResponse(MusapMessage respMsg)
+            throws IOException, MusapException, GeneralSecurityException {
         if (respMsg == null || respMsg.payload == null) {
             MLog.d("Null payload");
             return null;
@@ -208,12 +366,26 @@ public class MusapLink {
 
         String transId = respMsg.transid;
 
-        SignaturePayload payload = GSON.fromJson(respMsg.payload, SignaturePayload.class);
+        SignaturePayload payload = this.readPayload(respMsg, SignaturePayload.class);
         MLog.d("Parsed payload");
 
         return new PollResponsePayload(payload, transId);
     }
 
+    /**
+     * Add a poll result unless a request with the same transid was already added
+     * @return true if the result was added
+     */
+    private static boolean addPollResult(Map<String, PollResponsePayload> results, PollResponsePayload resp) {
+        // Concurrent polls may return the same request
+        String key = resp.getTransId() != null ? resp.getTransId() : "#" + results.size();
+        if (results.containsKey(key)) {
+            return false;
+        }
+        results.put(key, resp);
+        return true;
+    }
+
     /**
      * Send a key generation callback to MUSAP Link.
      * This performs networking operations.
@@ -225,19 +397,8 @@ public class MusapLink {
      */
     public void sendKeygenCallback(MusapKey key, String transId)
             throws IOException, GeneralSecurityException, MusapException {
-
-        // keygen and signature callbacks are similar atm
-        SignatureCallbackPayload payload = new SignatureCallbackPayload(key);
-
-        MusapMessage msg = new MusapMessage();
-        msg.musapId = this.musapid;
-        msg.transid = transId;
-        msg.setPayload(payload);
-        // Override type on purpose. Signature callback has a different type
-        msg.type = KEY_CALLBACK_MSG_TYPE;
-
         // TODO: Check response.
-        this.sendRequest(msg, this.buildClient());
+        this.sendCallback(LinkCallback.forKey(key, transId));
     }
 
     /**
@@ -251,15 +412,70 @@ public class MusapLink {
      */
     public void sendSignatureCallback(MusapSignature signature, String transId)
             throws IOException, MusapException, GeneralSecurityException {
+        this.sendCallback(LinkCallback.forSignature(signature, transId));
+    }
+
+    /**
+     * Send callbacks to MUSAP Link. Several callbacks are sent in one "batch" message.
+     * If MUSAP Link does not support batches, callbacks are sent one by one.
+     * This performs networking operations.
+     *
+     * @param callbacks Callbacks
+     * @return Request IDs of the callbacks MUSAP Link accepted
+     * @throws IOException if no callback could be sent
+     */
+    public Set<String> sendCallbacks(List<LinkCallback> callbacks)
+            throws IOException, MusapException, GeneralSecurityException {
+        if (callbacks.size() > 1 && !this.batchUnsupported) {
+            BatchPayload payload = new BatchPayload(callbacks);
+
+            MusapMessage msg = new MusapMessage();
+            msg.setPayload(payload);
+            msg.setType(payload);
+            msg.musapId = this.musapid;
+
+            MusapMessage respMsg = this.sendRequest(msg);
+            BatchResponsePayload resp = this.readPayload(respMsg, BatchResponsePayload.class);
+            if (resp != null && resp.results != null) {
+                return resp.getAccepted();
+            }
+            MLog.d("MUSAP Link does not support batches. Sending callbacks one by one.");
+            this.batchUnsupported = true;
+        }
 
-        SignatureCallbackPayload payload = new SignatureCallbackPayload(signature);
-        payload.attestationResult = signature.getKeyAttestationResult();
+        Set<String> accepted = new HashSet<>();
+        Exception error = null;
+        for (LinkCallback callback : callbacks) {
+            try {
+                this.sendCallback(callback);
+                accepted.add(callback.getRequestId());
+            } catch (IOException | MusapException | GeneralSecurityException e) {
+                MLog.e("Failed to send callback " + callback.getRequestId(), e);
+                error = e;
+            }
+        }
+        if (accepted.isEmpty() && error != null) {
+            throw new IOException("Failed to send callbacks", error);
+        }
+        return accepted;
+    }
 
+    /**
+     * Send one callback to MUSAP Link.
+     * This performs networking operations.
+     *
+     * @param callback Callback
+     * @throws IOException
+     */
+    public void sendCallback(LinkCallback callback)
+            throws IOException, MusapException, GeneralSecurityException {
         MusapMessage msg = new MusapMessage();
-        msg.setType(payload);
-        msg.setPayload(payload);
-        msg.musapId = this.musapid;
-        msg.transid = transId;
+        msg.musapId   = this.musapid;
+        msg.transid   = callback.getTransId();
+        msg.requestid = callback.getRequestId();
+        msg.setPayload(callback.getPayload());
+        // Keygen and signature callbacks have the same payload but a different type
+        msg.type = callback.getType();
 
         MusapMessage respMsg = this.sendRequest(msg);
 
@@ -277,7 +493,23 @@ public class MusapLink {
      */
     public ExternalSignatureResponsePayload sign(ExternalSignaturePayload payload)
             throws IOException, MusapException, GeneralSecurityException {
+        return this.sign(payload, this.getReceiveStrategy());
+    }
+
+    /**
+     * Request external Signature with the "externalsignature" Coupling API call
+     * @param payload  External Signature request payload
+     * @param strategy How to receive the result if the signature is pending
+     * @return External Signature response payload
+     * @throws IOException if request could not be sent
+     * @throws MusapException if signature failed
+     */
+    public ExternalSignatureResponsePayload sign(ExternalSignaturePayload payload, ReceiveStrategy strategy)
+            throws IOException, MusapException, GeneralSecurityException {
         MLog.d("MUSAP Link sign");
+        if (strategy == null) {
+            strategy = this.getReceiveStrategy();
+        }
 
         MusapMessage msg = new MusapMessage();
         msg.setPayload(payload);
@@ -290,9 +522,10 @@ public class MusapLink {
             return null;
         }
 
-        ExternalSignatureResponsePayload resp = GSON.fromJson(respMsg.payload, ExternalSignatureResponsePayload.class);
+        ExternalSignatureResponsePayload resp = this.readPayload(respMsg, ExternalSignatureResponsePayload.class);
         if ("pending".equals(resp.status)) {
-            return pollForSignature(resp.transid);
+            MLog.d("Receiving signature with " + strategy.getMode());
+            return strategy.receive(new StatusChannel(), resp.transid, RECEIVE_TIMEOUT_MS);
         }
         if ("failed".equals(resp.status)) {
             throw new MusapException(resp.getErrorCode(), "Signature failed");
@@ -302,7 +535,7 @@ public class MusapLink {
 
     private MusapMessage sendRequest(MusapMessage msg)
             throws IOException, MusapException, GeneralSecurityException {
-        return sendRequest(msg, this.buildClient());
+        return sendRequest(msg, LinkHttpClient.getInstance().getClient());
     }
 
     /**
@@ -314,81 +547,161 @@ public class MusapLink {
      */
     private MusapMessage sendRequest(MusapMessage msg, OkHttpClient client)
             throws IOException, GeneralSecurityException, MusapException {
-        MLog.d("Sending request " + msg.toJson());
-        MLog.d("Target URL " + this.url);
+        return this.sendRequest(msg, client, this.getTransportMode(), this.getPayloadEncoding());
+    }
 
+    /**
+     * Send a MUSAP Coupling API message in the given mode
+     *
+     * @param msg      Request
+     * @param mode     Transport encryption mode
+     * @param encoding Payload encoding
+     * @return Response or null if not available
+     */
+    private MusapMessage sendRequest(MusapMessage msg, OkHttpClient client, TransportMode mode, PayloadEncoding encoding)
+            throws IOException, GeneralSecurityException, MusapException {
         boolean shouldEncrypt = this.shouldEncrypt();
-
-        // If the request should be encrypted, rewrite payload with the encrypted variant
-        // Enroll request is not encrypted, but response is.
-        if (shouldEncrypt && !msg.type.equalsIgnoreCase(ENROLL_MSG_TYPE)) {
-            PayloadHolder holder = this.getPayload(msg.payload, shouldEncrypt);
-            msg.payload = holder.getPayload();
-            msg.iv = holder.getIv();
-            msg.mac = mac.generate(msg.payload, msg.iv, msg.getIdentifier(), msg.type);
+        Request request = this.createRequest(msg, shouldEncrypt, Collections.emptyMap(), mode, encoding);
+        try (Response response = client.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if (body != null) {
+                return this.readResponse(body.charStream(), shouldEncrypt, mode);
+            } else {
+                MLog.d("Null response");
+                return null;
+            }
         }
+    }
 
-        RequestBody body = RequestBody.create(msg.toJson(), JSON_MEDIA_TYPE);
-        Request request = new Request.Builder()
-                .url(this.url)
-                .post(body)
-                .build();
-        try (Response response = client.newCall(request).execute()) {
-            if (response.body() != null) {
-                String sResp = response.body().string();
-                MLog.d("Got response " + sResp);
-
-                MusapMessage respMsg = GSON.fromJson(sResp, MusapMessage.class);
-                if (respMsg == null || respMsg.payload == null) {
-                    MLog.d("Null payload");
-                    return null;
-                }
+    /**
+     * Send a MUSAP Coupling API message without blocking the calling thread.
+     * The request runs on the dispatcher of the HTTP client.
+     *
+     * @param msg Request
+     * @return future that completes with the response, or null if not available
+     */
+    private CompletableFuture<MusapMessage> sendRequestAsync(MusapMessage msg, OkHttpClient client) {
+        CompletableFuture<MusapMessage> future = new CompletableFuture<>();
+        boolean shouldEncrypt = this.shouldEncrypt();
+        Request request;
+        try {
+            request = this.createRequest(msg, shouldEncrypt, Collections.emptyMap());
+        } catch (IOException | GeneralSecurityException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
 
-                // TODO: For now, only warn about mac violations
-                try {
-                    if (shouldEncrypt && !isMacValid(respMsg)) {
-                        MLog.e("Invalid mac");
-//                        throw new MusapException("Invalid message");
-                    }
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    ResponseBody body = r.body();
+                    future.complete(body != null ? MusapLink.this.readResponse(body.charStream(), shouldEncrypt) : null);
                 } catch (Exception e) {
-                    MLog.e("Invalid mac", e);
+                    future.completeExceptionally(e);
                 }
-                respMsg.payload = this.parsePayload(respMsg, this.shouldEncrypt());
+            }
+        });
+        return future;
+    }
 
-                return respMsg;
-            } else {
-                MLog.d("Null response");
-                return null;
+    /**
+     * Create an HTTP request for a MUSAP Coupling API message.
+     * The message is encoded, encrypted and MACed while the request body is written.
+     *
+     * @param msg           Request
+     * @param shouldEncrypt Encrypt the payload
+     * @param headers       Additional HTTP headers
+     * @return HTTP request
+     */
+    private Request createRequest(MusapMessage msg, boolean shouldEncrypt, Map<String, String> headers)
+            throws IOException, GeneralSecurityException {
+        return this.createRequest(msg, shouldEncrypt, headers, this.getTransportMode(), this.getPayloadEncoding());
+    }
+
+    private Request createRequest(MusapMessage msg, boolean shouldEncrypt, Map<String, String> headers,
+                                  TransportMode mode, PayloadEncoding encoding)
+            throws IOException, GeneralSecurityException {
+        MLog.d("Sending " + msg.type + " request to " + this.url);
+
+        // Enroll request is not encrypted, but response is.
+        boolean encryptRequest = shouldEncrypt && !msg.type.equalsIgnoreCase(ENROLL_MSG_TYPE);
+
+        Request.Builder builder = new Request.Builder()
+                .url(this.url)
+                .post(getCodec(mode).createRequestBody(msg, encryptRequest, encoding));
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Parse a MUSAP Coupling API response message.
+     * The payload is left encoded. Use {@link #readPayload(MusapMessage, Class)} to decode it.
+     *
+     * @param json          Response JSON
+     * @param shouldEncrypt Check the MAC of the payload
+     * @return Response or null if it has no payload
+     */
+    private MusapMessage readResponse(Reader json, boolean shouldEncrypt)
+            throws IOException {
+        return this.readResponse(json, shouldEncrypt, this.getTransportMode());
+    }
+
+    private MusapMessage readResponse(Reader json, boolean shouldEncrypt, TransportMode mode)
+            throws IOException {
+        MusapMessageCodec codec = getCodec(mode);
+        MusapMessage respMsg = codec.readMessage(json);
+        if (respMsg == null || respMsg.payload == null) {
+            MLog.d("Null payload");
+            return null;
+        }
+
+        // TODO: For now, only warn about mac violations
+        try {
+            if (shouldEncrypt && !codec.isMacValid(respMsg)) {
+                MLog.e("Invalid mac");
+//                throw new MusapException("Invalid message");
             }
+        } catch (Exception e) {
+            MLog.e("Invalid mac", e);
         }
+        return respMsg;
+    }
+
+    /**
+     * Decode and decrypt the payload of a response message
+     *
+     * @param respMsg Response
+     * @param type    Payload class
+     * @return Payload or null if the response has no payload
+     */
+    private <T> T readPayload(MusapMessage respMsg, Class<T> type)
+            throws IOException, GeneralSecurityException {
+        return this.readPayload(respMsg, type, this.getTransportMode(), this.getPayloadEncoding());
     }
 
-    private boolean isMacValid(MusapMessage msg) throws GeneralSecurityException, IOException {
-        MLog.d("Validating MAC");
-        return mac.validate(msg.payload, msg.iv, msg.getIdentifier(), msg.type, msg.mac);
+    private <T> T readPayload(MusapMessage respMsg, Class<T> type, TransportMode mode, PayloadEncoding encoding)
+            throws IOException, GeneralSecurityException {
+        return getCodec(mode).readPayload(respMsg, type, this.shouldEncrypt(), encoding);
     }
 
     /**
-     * Poll for a signature response
-     * @param transid       Transaction ID
-     * @return Signature response payload
-     * @throws IOException if request could not be sent
-     * @throws MusapException if signature failed
+     * Status requests of pending external signatures
      */
-    private ExternalSignatureResponsePayload pollForSignature(String transid) throws IOException, MusapException, GeneralSecurityException {
-        MLog.d("Polling for signature");
-        // Build a client for polling
-        OkHttpClient client = this.buildClient();
+    private class StatusChannel implements LinkChannel {
 
-        for (int i = 0; i < POLL_AMOUNT; i++) {
-            MLog.d("Poll attempt " + i);
-            try {
-                Thread.sleep(POLL_INTERVAL_MS);
-            } catch (InterruptedException e) {
-                MLog.d("Poll interrupted");
-                continue;
-            }
+        // Key existence does not change during one transaction
+        private final boolean shouldEncrypt = MusapLink.this.shouldEncrypt();
 
+        @Override
+        public Request createStatusRequest(String transid, Map<String, String> headers)
+                throws IOException, GeneralSecurityException {
             ExternalSignaturePayload payload = new ExternalSignaturePayload();
             payload.transid = transid;
 
@@ -397,32 +710,20 @@ public class MusapLink {
             msg.setType(payload);
             msg.musapId = getMusapId();
 
-            MusapMessage respMsg = sendRequest(msg, client);
-            if (respMsg == null || respMsg.payload == null) {
-                MLog.d("Null payload");
-                return null;
-            }
+            return MusapLink.this.createRequest(msg, this.shouldEncrypt, headers);
+        }
 
-            ExternalSignatureResponsePayload resp = GSON.fromJson(respMsg.payload, ExternalSignatureResponsePayload.class);
-            if ("pending".equals(resp.status)) {
-                continue;
-            }
-            if ("failed".equals(resp.status)) {
-                throw new MusapException(resp.getErrorCode(), "Signature failed");
-            }
-            return resp;
+        @Override
+        public ExternalSignatureResponsePayload parseStatus(Reader json)
+                throws IOException, GeneralSecurityException {
+            MusapMessage respMsg = MusapLink.this.readResponse(json, this.shouldEncrypt);
+            return MusapLink.this.getCodec().readPayload(respMsg, ExternalSignatureResponsePayload.class,
+                    this.shouldEncrypt, MusapLink.this.getPayloadEncoding());
         }
-        return null;
-    }
 
-    private PayloadHolder getPayload(String payloadBase64, boolean encrypt)
-            throws GeneralSecurityException, IOException {
-        if (encrypt) {
-            // Return encrypted payload and IV
-            return encryption.encrypt(payloadBase64);
-        } else {
-            // Just return the payload and null IV
-            return new PayloadHolder(payloadBase64, null);
+        @Override
+        public OkHttpClient getClient() {
+            return LinkHttpClient.getInstance().getClient();
         }
     }
 
@@ -439,6 +740,48 @@ public class MusapLink {
         }
     }
 
+    /**
+     * Get the codec of the negotiated transport mode
+     */
+    private MusapMessageCodec getCodec() {
+        return getCodec(this.getTransportMode());
+    }
+
+    /**
+     * Get the codec of a transport mode
+     */
+    private static MusapMessageCodec getCodec(TransportMode mode) {
+        return mode == TransportMode.AES_GCM ? gcmCodec : codec;
+    }
+
+    /**
+     * Get the transport mode MUSAP Link selected
+     * @param resp    Enroll response
+     * @param offered Offered modes
+     * @return selected mode. {@link TransportMode#AES_CBC_HMAC} if MUSAP Link did not select any.
+     */
+    private TransportMode getTransportMode(EnrollDataResponsePayload resp, List<TransportMode> offered) {
+        TransportMode selected = TransportMode.fromValue(resp.getTransportMode());
+        if (resp.getTransportMode() != null && !offered.contains(selected)) {
+            MLog.e("MUSAP Link selected a transport mode that was not offered: " + resp.getTransportMode());
+            return TransportMode.AES_CBC_HMAC;
+        }
+        return selected;
+    }
+
+    /**
+     * Get the payload encoding MUSAP Link selected
+     * @param resp Enroll response
+     * @return selected encoding. {@link PayloadEncoding#JSON} if MUSAP Link did not select any.
+     */
+    private PayloadEncoding getPayloadEncoding(EnrollDataResponsePayload resp) {
+        PayloadEncoding selected = PayloadEncoding.fromValue(resp.getPayloadEncoding());
+        if (resp.getPayloadEncoding() != null && !selected.getValue().equalsIgnoreCase(resp.getPayloadEncoding())) {
+            MLog.e("MUSAP Link selected an unknown payload encoding: " + resp.getPayloadEncoding());
+        }
+        return selected;
+    }
+
     /**
      * Check if we should encrypt messages to Musap link.
      * To allow backwards compatibility, old accounts that do not have
@@ -449,34 +792,11 @@ public class MusapLink {
         try {
             // If we have generated a key, use it. Authn and sign key
             // are generated at the same time, so if one exists, the another exists too.
-            return new AndroidKeyStorage().keyExists(MusapKeyGenerator.MAC_KEY_ALIAS);
+            return KeyStorageFactory.getAndroidKeyStorage().keyExists(MusapKeyGenerator.MAC_KEY_ALIAS);
         } catch (Exception e) {
             MLog.e("Failed to find key",e);
             // If there is a problem with key existance, don't encrypt
             return false;
         }
     }
-
-    private OkHttpClient buildClient() {
-        return new OkHttpClient.Builder()
-                .readTimeout(readTimeOutMs, TimeUnit.MILLISECONDS)
-                .connectTimeout(connectTimeOutMs, TimeUnit.MILLISECONDS)
-                .callTimeout(callTimeOutMs, TimeUnit.MILLISECONDS)
-                .writeTimeout(writeTimeoutMs, TimeUnit.MILLISECONDS)
-                .build();
-    }
-
-    /**
-     * Build an Okhttp client with shorter timeouts.
-     * Good for polling and other noncritical requests.
-     * @return
-     */
-    private OkHttpClient buildShortTimeoutClient() {
-        return new OkHttpClient.Builder()
-                .readTimeout(shortReadTimeOutMs, TimeUnit.MILLISECONDS)
-                .connectTimeout(shortConnectTimeOutMs, TimeUnit.MILLISECONDS)
-                .callTimeout(shortCallTimeOutMs, TimeUnit.MILLISECONDS)
-                .writeTimeout(shortWriteTimeoutMs, TimeUnit.MILLISECONDS)
-                .build();
-    }
 }
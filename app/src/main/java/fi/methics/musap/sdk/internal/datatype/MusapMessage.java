@@ -32,11 +32,32 @@ public class MusapMessage {
     public String mac;
     public String iv;
 
+    // Not yet encoded payload of an outgoing message
+    private transient MusapLinkPayload linkPayload;
+
     public String toJson() {
+        if (this.payload == null && this.linkPayload != null) {
+            this.payload = this.linkPayload.toBase64();
+        }
         return GSON.toJson(this);
     }
+
+    /**
+     * Set the payload of an outgoing message.
+     * The payload is encoded when the message is written.
+     * @param payload Payload
+     */
     public void setPayload(MusapLinkPayload payload) {
-        this.payload = payload.toBase64();
+        this.linkPayload = payload;
+        this.payload     = null;
+    }
+
+    /**
+     * Get the not yet encoded payload of an outgoing message
+     * @return payload, or null if this message has an encoded payload
+     */
+    public MusapLinkPayload getLinkPayload() {
+        return this.linkPayload;
     }
 
     public void setType(MusapLinkPayload payload) {
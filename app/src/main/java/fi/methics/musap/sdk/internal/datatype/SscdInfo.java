@@ -13,6 +13,7 @@ public class SscdInfo {
     private boolean keygenSupported;
     private List<KeyAlgorithm> algorithms;
     private List<SignatureFormat> formats;
+    private int maxConcurrentSignatures;
 
     private SscdInfo(Builder builder) {
         this.sscdName = builder.sscdName;
@@ -23,6 +24,7 @@ public class SscdInfo {
         this.keygenSupported = builder.keygenSupported;
         this.algorithms = builder.algorithms;
         this.formats = builder.formats;
+        this.maxConcurrentSignatures = builder.maxConcurrentSignatures;
     }
 
     public String getSscdName() {
@@ -57,6 +59,15 @@ public class SscdInfo {
         return this.algorithms;
     }
 
+    /**
+     * Get the maximum number of signature requests MUSAP runs with this SSCD at the same time.
+     * Further requests wait in a queue.
+     * @return concurrency limit. 1 for SSCDs that can handle only one request at a time (e.g. devices).
+     */
+    public int getMaxConcurrentSignatures() {
+        return Math.max(1, this.maxConcurrentSignatures);
+    }
+
 
     public static class Builder {
         private String sscdName;
@@ -67,6 +78,7 @@ public class SscdInfo {
         private boolean keygenSupported;
         private List<KeyAlgorithm> algorithms;
         private List<SignatureFormat> formats = Arrays.asList(SignatureFormat.RAW);
+        private int maxConcurrentSignatures = 1;
 
         public Builder setSscdName(String sscdName) {
             this.sscdName = sscdName;
@@ -108,6 +120,11 @@ public class SscdInfo {
             return this;
         }
 
+        public Builder setMaxConcurrentSignatures(int maxConcurrentSignatures) {
+            this.maxConcurrentSignatures = maxConcurrentSignatures;
+            return this;
+        }
+
         public SscdInfo build() {
             return new SscdInfo(this);
         }
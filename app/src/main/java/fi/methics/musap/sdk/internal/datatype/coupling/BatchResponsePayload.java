@@ -0,0 +1,44 @@
+package fi.methics.musap.sdk.internal.datatype.coupling;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * MUSAP Link response to a batch of callbacks
+ */
+public class BatchResponsePayload extends ResponsePayload {
+
+    @SerializedName("results")
+    public List<Result> results;
+
+    /**
+     * Result of one callback in the batch
+     */
+    public static class Result extends ResponsePayload {
+
+        @SerializedName("requestid")
+        public String requestId;
+
+        public boolean isSuccess() {
+            return "success".equalsIgnoreCase(this.status);
+        }
+    }
+
+    /**
+     * Get the request IDs of the callbacks MUSAP Link accepted
+     * @return accepted request IDs
+     */
+    public Set<String> getAccepted() {
+        Set<String> accepted = new HashSet<>();
+        if (this.results == null) return accepted;
+        for (Result result : this.results) {
+            if (result.isSuccess()) {
+                accepted.add(result.requestId);
+            }
+        }
+        return accepted;
+    }
+}
@@ -9,6 +9,12 @@ public class EnrollDataResponsePayload extends ResponsePayload {
     @SerializedName("musapid")
     public String musapId;
 
+    @SerializedName("transportmode")
+    public String transportMode;
+
+    @SerializedName("payloadencoding")
+    public String payloadEncoding;
+
     public boolean isSuccess() {
         MLog.d("Status=" + this.status);
         return "success".equalsIgnoreCase(this.status);
@@ -17,4 +23,20 @@ public class EnrollDataResponsePayload extends ResponsePayload {
     public String getMusapId() {
         return this.musapId;
     }
+
+    /**
+     * Get the transport mode MUSAP Link selected
+     * @return mode name, or null if MUSAP Link did not negotiate a mode
+     */
+    public String getTransportMode() {
+        return this.transportMode;
+    }
+
+    /**
+     * Get the payload encoding MUSAP Link selected
+     * @return encoding name, or null if MUSAP Link did not negotiate an encoding
+     */
+    public String getPayloadEncoding() {
+        return this.payloadEncoding;
+    }
 }
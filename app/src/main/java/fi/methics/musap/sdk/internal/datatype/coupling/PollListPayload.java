@@ -0,0 +1,19 @@
+package fi.methics.musap.sdk.internal.datatype.coupling;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.List;
+
+/**
+ * MUSAP Link response to a poll that asked for several signature requests.
+ * <p>
+ * MUSAP Link versions that return one request per poll send a plain {@link SignaturePayload}.
+ * In that case {@link #requests} is null and this payload is the request itself.
+ * </p>
+ */
+public class PollListPayload extends SignaturePayload {
+
+    @SerializedName("requests")
+    public List<PollResponsePayload> requests;
+
+}
@@ -0,0 +1,40 @@
+package fi.methics.musap.sdk.internal.datatype.coupling.payload;
+
+import android.util.Base64;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import fi.methics.musap.sdk.internal.link.LinkCallback;
+import fi.methics.musap.sdk.internal.util.MLog;
+
+/**
+ * Several callbacks sent to MUSAP Link in one message
+ */
+public class BatchPayload extends MusapLinkPayload {
+
+    private static final String BATCH_MSG_TYPE = "batch";
+
+    @SerializedName("messages")
+    public List<LinkCallback> messages;
+
+    public BatchPayload(List<LinkCallback> messages) {
+        this.messages = messages;
+    }
+
+    @Override
+    public String toBase64() {
+        String payloadJson = GSON.toJson(this);
+        MLog.d("Payload=" + payloadJson);
+        return Base64.encodeToString(
+                payloadJson.getBytes(StandardCharsets.UTF_8),
+                Base64.NO_WRAP);
+    }
+
+    @Override
+    public String getType() {
+        return BATCH_MSG_TYPE;
+    }
+}
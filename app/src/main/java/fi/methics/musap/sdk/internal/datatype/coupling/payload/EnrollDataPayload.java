@@ -7,8 +7,12 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.SerializedName;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import fi.methics.musap.sdk.internal.datatype.coupling.payload.MusapLinkPayload;
+import fi.methics.musap.sdk.internal.link.PayloadEncoding;
+import fi.methics.musap.sdk.internal.security.encryption.TransportMode;
 import fi.methics.musap.sdk.internal.util.MLog;
 
 public class EnrollDataPayload extends MusapLinkPayload {
@@ -21,6 +25,20 @@ public class EnrollDataPayload extends MusapLinkPayload {
     @SerializedName("tokendata")
     private final String tokenData;
 
+    /**
+     * Transport encryption modes this MUSAP supports, most preferred first.
+     * MUSAP Link selects one of these in the enroll response.
+     */
+    @SerializedName("transportmodes")
+    private final List<String> transportModes;
+
+    /**
+     * Payload encodings this MUSAP supports, most preferred first.
+     * MUSAP Link selects one of these in the enroll response.
+     */
+    @SerializedName("payloadencodings")
+    private final List<String> payloadEncodings;
+
     /**
      * Security related tokens & shared secret.
      * This can be encrypted by the app and decrypted on MUSAP Link.
@@ -31,11 +49,25 @@ public class EnrollDataPayload extends MusapLinkPayload {
     }
 
     public EnrollDataPayload(String fcmToken, String secret) {
+        this(fcmToken, secret, TransportMode.getSupported());
+    }
+
+    public EnrollDataPayload(String fcmToken, String secret, List<TransportMode> transportModes) {
         this.fcmToken = fcmToken;
         TokenData tokenData = new TokenData();
         tokenData.secret = secret;
         String json = new GsonBuilder().disableHtmlEscaping().create().toJson(tokenData);
         this.tokenData = Base64.encodeToString(json.getBytes(StandardCharsets.UTF_8), Base64.NO_WRAP);
+
+        this.transportModes = new ArrayList<>();
+        for (TransportMode mode : transportModes) {
+            this.transportModes.add(mode.getValue());
+        }
+
+        this.payloadEncodings = new ArrayList<>();
+        for (PayloadEncoding encoding : PayloadEncoding.getSupported()) {
+            this.payloadEncodings.add(encoding.getValue());
+        }
     }
 
     @Override
@@ -71,6 +71,11 @@ public class ExternalSignaturePayload extends MusapLinkPayload {
         return base64;
     }
 
+    @Override
+    public void writeJson(Appendable out) {
+        new Gson().toJson(this, out);
+    }
+
     @Override
     public String getType() {
         return SIGN_MSG_TYPE;
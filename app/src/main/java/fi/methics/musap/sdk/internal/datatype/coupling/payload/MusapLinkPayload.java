@@ -19,6 +19,14 @@ public abstract class MusapLinkPayload {
 
     public abstract String toBase64();
 
+    /**
+     * Write this payload as JSON. Produces the same JSON that {@link #toBase64()} encodes.
+     * @param out Writer to write to
+     */
+    public void writeJson(Appendable out) {
+        GSON.toJson(this, out);
+    }
+
     public abstract String getType();
 
     protected MusapLinkPayload() {
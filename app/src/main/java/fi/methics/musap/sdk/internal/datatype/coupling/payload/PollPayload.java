@@ -2,6 +2,8 @@ package fi.methics.musap.sdk.internal.datatype.coupling.payload;
 
 import android.util.Base64;
 
+import com.google.gson.annotations.SerializedName;
+
 import java.nio.charset.StandardCharsets;
 
 import fi.methics.musap.sdk.internal.util.MLog;
@@ -10,6 +12,20 @@ public class PollPayload extends MusapLinkPayload {
 
     private static final String POLL_MSG_TYPE = "getdata";
 
+    /**
+     * Most signature requests to return. If not set, MUSAP Link returns one request.
+     */
+    @SerializedName("maxresults")
+    public Integer maxResults;
+
+    public PollPayload() {
+
+    }
+
+    public PollPayload(int maxResults) {
+        this.maxResults = maxResults;
+    }
+
     public String toBase64() {
         String payloadJson = GSON.toJson(this);
         MLog.d("Payload=" + payloadJson);
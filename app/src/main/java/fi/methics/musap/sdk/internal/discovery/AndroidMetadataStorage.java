@@ -4,15 +4,27 @@ import android.content.Context;
 import android.content.SharedPreferences;
 
 import com.google.gson.Gson;
-
+import com.google.gson.JsonSyntaxException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 import fi.methics.musap.sdk.api.MusapClient;
 import fi.methics.musap.sdk.internal.datatype.KeyAttribute;
+import fi.methics.musap.sdk.internal.datatype.KeyURI;
 import fi.methics.musap.sdk.internal.datatype.MusapKey;
 import fi.methics.musap.sdk.internal.datatype.SscdInfo;
 import fi.methics.musap.sdk.internal.keygeneration.UpdateKeyReq;
@@ -29,6 +41,11 @@ import fi.methics.musap.sdk.internal.util.gson.MusapGson;
  * Key JSON contains a reference to the SSCD it belongs to, but the reverse is not true.
  * This simplifies key generation, delete, and update operations.
  *
+ * Parsed keys are cached in the process-wide {@link KeyCatalog}. All key writes invalidate
+ * the catalog.
+ *
+ * Each public write method is one storage batch (see {@link Storage#beginBatch()}), so it is
+ * flushed to disk at once.
  */
 public class AndroidMetadataStorage {
 
@@ -74,21 +91,29 @@ public class AndroidMetadataStorage {
 
         MLog.d("Storing key");
 
-        // Update Key Name list with new Key Name
-        Set<String> newKeyIds = new HashSet<>(this.getAllKeyIds());
-        newKeyIds.add(key.getKeyId());
-
         // Conver
         String keyJson = this.toJson(key);
         MLog.d("KeyJson=" + keyJson);
         MLog.d("Key JSON size="+ keyJson.getBytes(StandardCharsets.UTF_8).length + " B");
 
-        this.getSharedPref()
-                .putStringSet(KEY_ID_SET, newKeyIds)
-                .putString(this.makeStoreName(key), keyJson);
+        this.storage.beginBatch();
+        try {
+            // Update Key Name list with new Key Name
+            Set<String> newKeyIds = new HashSet<>(this.getAllKeyIds());
+            newKeyIds.add(key.getKeyId());
 
-        if (sscd != null) {
-            this.addSscd(sscd);
+            this.getSharedPref()
+                    .putStringSet(KEY_ID_SET, newKeyIds)
+                    .putString(this.makeStoreName(key), keyJson);
+            this.invalidateCatalog();
+
+            if (sscd != null) {
+                this.addSscd(sscd);
+            }
+            this.storage.commit();
+        } catch (RuntimeException e) {
+            this.rollback();
+            throw e;
         }
     }
 
@@ -97,20 +122,7 @@ public class AndroidMetadataStorage {
      * @return MUSAP keys
      */
     public List<MusapKey> listKeys() {
-        Set<String> keyIds = this.getAllKeyIds();
-        List<MusapKey> keyList = new ArrayList<>();
-        for (String keyId: keyIds) {
-            String keyJson = this.getKeyJson(keyId);
-            if (keyJson == null) {
-                MLog.e("Missing key metadata JSON for key name " + keyId);
-            } else {
-                MLog.d("Found key " + keyJson);
-                MusapKey key = MusapGson.GSON.fromJson(keyJson, MusapKey.class);
-                keyList.add(key);
-            }
-        }
-
-        return keyList;
+        return copyOf(this.getCatalog().getKeys());
     }
 
     /**
@@ -119,47 +131,78 @@ public class AndroidMetadataStorage {
      * @return List of matching keys
      */
     public List<MusapKey> listKeys(KeySearchReq req) {
-        Set<String> keyIds = this.getAllKeyIds();
         List<MusapKey> keyList = new ArrayList<>();
-        for (String keyId: keyIds) {
-            String keyJson = this.getKeyJson(keyId);
-            if (keyJson == null) {
-                MLog.e("Missing key metadata JSON for key name " + keyId);
+        for (MusapKey key : this.getCatalog().getKeys()) {
+            if (req.matches(key)) {
+                MLog.d("Request matches key " + key.getKeyId());
+                keyList.add(key.copy());
             } else {
-                MusapKey key = MusapGson.GSON.fromJson(keyJson, MusapKey.class);
-                if (req.matches(key)) {
-                    MLog.d("Request matches key " + keyId);
-                    keyList.add(key);
-                } else {
-                    MLog.d("Request does not match key " + keyId);
-                }
+                MLog.d("Request does not match key " + key.getKeyId());
             }
         }
-
         return keyList;
     }
 
+    /**
+     * Get a MUSAP key by KeyID
+     * @param keyId KeyID
+     * @return MUSAP key or null if not found
+     */
+    public MusapKey getKey(String keyId) {
+        return copyOf(this.getCatalog().getByKeyId(keyId));
+    }
+
+    /**
+     * Get a MUSAP key by KeyURI
+     * @param keyUri KeyURI
+     * @return MUSAP key or null if not found
+     */
+    public MusapKey getKeyByUri(KeyURI keyUri) {
+        return copyOf(this.getCatalog().getByKeyUri(keyUri));
+    }
+
+    /**
+     * List MUSAP keys that belong to the given SSCD
+     * @param sscdId SSCD ID
+     * @return MUSAP keys
+     */
+    public List<MusapKey> listKeysBySscdId(String sscdId) {
+        return copyOf(this.getCatalog().listBySscdId(sscdId));
+    }
+
+    /**
+     * List MUSAP keys of the given SSCD type
+     * @param sscdType SSCD type
+     * @return MUSAP keys
+     */
+    public List<MusapKey> listKeysBySscdType(String sscdType) {
+        return copyOf(this.getCatalog().listBySscdType(sscdType));
+    }
+
     /**
      * Remove key metadata from storage
      * @param key Key to remove
      * @return true if key was found and removed
      */
     public boolean removeKey(MusapKey key) {
-        // Update Key Name list without given Key Name
-        Set<String> newKeyIds = new HashSet<>(this.getAllKeyIds());
-        if (!this.getAllKeyIds().contains(key.getKeyId())) {
-            MLog.d("No key found with name " + key.getKeyId());
-            return false;
-        }
-        newKeyIds.remove(key.getKeyId());
-
-        String keyJson = MusapGson.GSON.toJson(key);
-        MLog.d("KeyJson=" + keyJson);
-
-        this.getSharedPref().putStringSet(KEY_ID_SET, newKeyIds);
-        this.getSharedPref().putString(this.makeStoreName(key), keyJson);
-        this.getSharedPref().removeString(this.makeStoreName(key.getKeyId()));
+        this.storage.beginBatch();
+        try {
+            // Update Key Name list without given Key Name
+            Set<String> newKeyIds = new HashSet<>(this.getAllKeyIds());
+            if (!newKeyIds.remove(key.getKeyId())) {
+                MLog.d("No key found with name " + key.getKeyId());
+                this.storage.commit();
+                return false;
+            }
 
+            this.getSharedPref().putStringSet(KEY_ID_SET, newKeyIds);
+            this.getSharedPref().removeString(this.makeStoreName(key.getKeyId()));
+            this.invalidateCatalog();
+            this.storage.commit();
+        } catch (RuntimeException e) {
+            this.rollback();
+            throw e;
+        }
         return true;
     }
 
@@ -177,24 +220,34 @@ public class AndroidMetadataStorage {
             throw new IllegalArgumentException("Cannot store MUSAP SSCD without an ID");
         }
 
-        // Update SSCD id list with new SSCD ID
-        Set<String> sscdIds = new HashSet<>(this.getAllSscdIds());
-        if (sscdIds.contains(sscd.getSscdId())) {
-            MLog.d("SSCD " + sscd.getSscdId() + " already stored");
-            return;
-        }
-        sscdIds.add(sscd.getSscdId());
+        this.storage.beginBatch();
+        try {
+            // Update SSCD id list with new SSCD ID
+            Set<String> sscdIds = new HashSet<>(this.getAllSscdIds());
+            if (sscdIds.contains(sscd.getSscdId())) {
+                MLog.d("SSCD " + sscd.getSscdId() + " already stored");
+                this.storage.commit();
+                return;
+            }
+            sscdIds.add(sscd.getSscdId());
 
-        MLog.d("Storing SSCD " + sscd.getSscdId());
+            MLog.d("Storing SSCD " + sscd.getSscdId());
 
-        String json = new Gson().toJson(sscd);
-        MLog.d("SSCD JSON=" + json);
+            String json = new Gson().toJson(sscd);
+            MLog.d("SSCD JSON=" + json);
 
-        MLog.d("SSCD JSON size="+ json.getBytes(StandardCharsets.UTF_8).length + " B");
+            MLog.d("SSCD JSON size="+ json.getBytes(StandardCharsets.UTF_8).length + " B");
 
-        this.getSharedPref()
-                .putStringSet(SSCD_ID_SET, sscdIds)
-                .putString(this.makeStoreName(sscd), json);
+            this.getSharedPref()
+                    .putStringSet(SSCD_ID_SET, sscdIds)
+                    .putString(this.makeStoreName(sscd), json);
+            this.storage.commit();
+        } catch (RuntimeException e) {
+            this.rollback();
+            throw e;
+        }
+        // KeyURIs contain SSCD details
+        KeyCatalog.getInstance().invalidateKeyUris();
     }
 
 
@@ -218,28 +271,58 @@ public class AndroidMetadataStorage {
     }
 
     /**
-     * Store MUSAP import data
+     * Store MUSAP import data. All SSCDs and keys are written in one storage batch.
      * @param data import data
+     * @return outcome of each imported SSCD and key
      */
-    public void addImportData(MusapImportData data) {
-        if (data == null) return;
-        List<SscdInfo>  activeSscds  = this.listActiveSscds();
-        List<MusapSscd> enabledSscds = MusapClient.listEnabledSscds();
-        List<MusapKey>  activeKeys   = this.listKeys();
-        for (SscdInfo sscd : data.sscds) {
-            // Avoid duplicate SSCDs and SSCDs that are not enabled in this MUSAP
-            boolean alreadyExists   = activeSscds.stream().anyMatch(s -> s.getSscdId().equals(sscd.getSscdId()));
-            boolean sscdTypeEnabled = !enabledSscds.stream().anyMatch(s -> s.getSscdInfo().getSscdType().equals(sscd.getSscdType()));
-            if (alreadyExists || !sscdTypeEnabled) continue;
-            this.addSscd(sscd);
+    public ImportReport addImportData(MusapImportData data) {
+        if (data == null) return new ImportReport();
+        this.storage.beginBatch();
+        try {
+            Importer importer = new Importer();
+            if (data.sscds != null) {
+                for (SscdInfo sscd : data.sscds) {
+                    importer.importSscd(sscd);
+                }
+            }
+            if (data.keys != null) {
+                for (MusapKey key : data.keys) {
+                    importer.importKey(key);
+                }
+            }
+            ImportReport report = importer.finish();
+            this.storage.commit();
+            MLog.d("Imported data: " + report);
+            return report;
+        } catch (RuntimeException e) {
+            this.rollback();
+            throw e;
         }
-        for (MusapKey key : data.keys) {
-            // Avoid duplicate keys
-            if (activeKeys.stream().anyMatch(k -> k.getKeyUri().equals(k.getKeyUri()))) continue;
+    }
 
-            if (key.getSscd() != null) {
-                this.addKey(key, key.getSscd().getSscdInfo());
-            }
+    /**
+     * Store MUSAP import data read from a JSON stream. SSCDs and keys are parsed and stored
+     * one at a time, and all of them are written in one storage batch.
+     * The stream is not closed.
+     *
+     * @param in JSON import data (UTF-8)
+     * @return outcome of each imported SSCD and key
+     * @throws IOException if reading fails
+     * @throws JsonSyntaxException if data is not parseable. Nothing is stored in this case.
+     */
+    public ImportReport importData(InputStream in) throws IOException, JsonSyntaxException {
+        Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        this.storage.beginBatch();
+        try {
+            Importer importer = new Importer();
+            MusapImportData.readJson(reader, importer::importSscd, importer::importKey);
+            ImportReport report = importer.finish();
+            this.storage.commit();
+            MLog.d("Imported data: " + report);
+            return report;
+        } catch (IOException | RuntimeException e) {
+            this.rollback();
+            throw e;
         }
     }
 
@@ -254,6 +337,18 @@ public class AndroidMetadataStorage {
         return data;
     }
 
+    /**
+     * Write MUSAP import data for export as JSON to a stream one record at a time.
+     * The stream is flushed but not closed.
+     *
+     * @param out Stream to write UTF-8 JSON to
+     * @throws IOException if writing fails
+     */
+    public void exportData(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        MusapImportData.writeJson(writer, this.listActiveSscds(), this.getCatalog().getKeys());
+    }
+
     /**
      * Update target key metadata with new values.
      * @param req
@@ -267,7 +362,22 @@ public class AndroidMetadataStorage {
             throw new IllegalArgumentException("Missing key");
         }
 
-        String keyJson = this.getKeyJson(req.getKey().getKeyId());
+        this.storage.beginBatch();
+        try {
+            this.applyKeyUpdate(req, targetKey);
+            this.storage.commit();
+        } catch (RuntimeException e) {
+            this.rollback();
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Apply the changes of an update request to the stored key
+     */
+    private void applyKeyUpdate(UpdateKeyReq req, MusapKey targetKey) {
+        String keyJson = this.getKeyJson(targetKey.getKeyId());
         MusapKey oldKey = this.parseKeyJson(keyJson);
 
         if (req.getAlias() != null) {
@@ -295,8 +405,6 @@ public class AndroidMetadataStorage {
 
         // Store the updated key.
         this.addKeyToMetadataStorage(oldKey);
-
-        return true;
     }
 
     private String makeStoreName(MusapKey key) {
@@ -309,6 +417,22 @@ public class AndroidMetadataStorage {
         return KEY_JSON_PREFIX + keyId;
     }
 
+    /**
+     * Copy a key of the catalog. Callers may modify the keys they get, but the catalog keys
+     * are shared and indexed, so they must not change.
+     */
+    private static MusapKey copyOf(MusapKey key) {
+        return (key != null) ? key.copy() : null;
+    }
+
+    private static List<MusapKey> copyOf(List<MusapKey> keys) {
+        List<MusapKey> copies = new ArrayList<>(keys.size());
+        for (MusapKey key : keys) {
+            copies.add(key.copy());
+        }
+        return copies;
+    }
+
     private Set<String> getAllKeyIds() {
         return this.getSharedPref().getStringSet(KEY_ID_SET, new HashSet<>());
     }
@@ -326,6 +450,53 @@ public class AndroidMetadataStorage {
         return this.storage;
     }
 
+    /**
+     * Get the current key catalog snapshot. If the catalog has not been loaded from this
+     * storage yet, parse all stored keys to it.
+     * @return Key catalog snapshot
+     */
+    private KeyCatalog.Snapshot getCatalog() {
+        KeyCatalog catalog = KeyCatalog.getInstance();
+        KeyCatalog.Snapshot snapshot = catalog.getSnapshot(this.storage);
+        if (snapshot == null) {
+            long generation = catalog.getGeneration();
+            snapshot = catalog.load(this.storage, this.parseKeys(), generation);
+        }
+        return snapshot;
+    }
+
+    private void invalidateCatalog() {
+        KeyCatalog.getInstance().invalidate();
+    }
+
+    /**
+     * Roll back the current storage batch
+     */
+    private void rollback() {
+        this.storage.rollback();
+        // The catalog may have been loaded from the discarded writes
+        this.invalidateCatalog();
+    }
+
+    /**
+     * Parse all stored keys
+     * @return MUSAP keys
+     */
+    private List<MusapKey> parseKeys() {
+        Set<String> keyIds = this.getAllKeyIds();
+        List<MusapKey> keyList = new ArrayList<>();
+        for (String keyId: keyIds) {
+            String keyJson = this.getKeyJson(keyId);
+            if (keyJson == null) {
+                MLog.e("Missing key metadata JSON for key name " + keyId);
+            } else {
+                MLog.d("Found key " + keyJson);
+                keyList.add(this.parseKeyJson(keyJson));
+            }
+        }
+        return keyList;
+    }
+
     /**
      * Add key metadata to the metadata storage.
      * @param key
@@ -334,9 +505,142 @@ public class AndroidMetadataStorage {
         String keyJson = this.toJson(key);
         MLog.d("Key JSON size="+ keyJson.getBytes(StandardCharsets.UTF_8).length + " B");
         this.getSharedPref().putString(this.makeStoreName(key), keyJson);
+        this.invalidateCatalog();
     }
 
 
+    /**
+     * Stores imported SSCDs and keys that are not yet known.
+     * <p>
+     * Existing SSCD IDs, KeyIDs and canonical KeyURIs are collected to hash maps once, so each
+     * imported record is checked in constant time. The KeyID and SSCD ID sets are written
+     * once in {@link #finish()} instead of once per record.
+     * </p>
+     */
+    private class Importer {
+
+        private final ImportReport report = new ImportReport();
+
+        private final Set<String> enabledSscdTypes = new HashSet<>();
+
+        /**
+         * SSCD ID to SSCD type of stored and imported SSCDs
+         */
+        private final Map<String, String> sscdTypes = new HashMap<>();
+
+        /**
+         * KeyID to canonical KeyURI of stored and imported keys
+         */
+        private final Map<String, String> keyUris = new HashMap<>();
+        private final Set<String> keyUriSet = new HashSet<>();
+
+        private final Set<String> newSscdIds = new HashSet<>();
+        private final Set<String> newKeyIds  = new HashSet<>();
+
+        Importer() {
+            for (MusapSscd sscd : MusapClient.listEnabledSscds()) {
+                this.enabledSscdTypes.add(sscd.getSscdInfo().getSscdType());
+            }
+            for (SscdInfo sscd : listActiveSscds()) {
+                this.sscdTypes.put(sscd.getSscdId(), sscd.getSscdType());
+            }
+            for (MusapKey key : getCatalog().getKeys()) {
+                String keyUri = key.getKeyUri().getCanonicalUri();
+                this.keyUris.put(key.getKeyId(), keyUri);
+                this.keyUriSet.add(keyUri);
+            }
+        }
+
+        void importSscd(SscdInfo sscd) {
+            String sscdId = sscd.getSscdId();
+            if (sscdId == null) {
+                this.report.skipped(ImportReport.RecordType.SSCD, null, "Missing SSCD ID");
+                return;
+            }
+            if (this.sscdTypes.containsKey(sscdId)) {
+                if (Objects.equals(this.sscdTypes.get(sscdId), sscd.getSscdType())) {
+                    this.report.skipped(ImportReport.RecordType.SSCD, sscdId, "SSCD already exists");
+                } else {
+                    this.report.conflict(ImportReport.RecordType.SSCD, sscdId, "SSCD ID is used by an SSCD of another type");
+                }
+                return;
+            }
+            // Avoid SSCDs that are not enabled in this MUSAP
+            if (!this.enabledSscdTypes.contains(sscd.getSscdType())) {
+                this.report.skipped(ImportReport.RecordType.SSCD, sscdId, "SSCD type " + sscd.getSscdType() + " is not enabled");
+                return;
+            }
+            this.storeSscd(sscd);
+        }
+
+        void importKey(MusapKey key) {
+            String keyId = key.getKeyId();
+            if (keyId == null) {
+                this.report.skipped(ImportReport.RecordType.KEY, null, "Missing KeyID");
+                return;
+            }
+
+            String keyUri   = key.getKeyUri().getCanonicalUri();
+            String existing = this.keyUris.get(keyId);
+            if (existing != null) {
+                if (existing.equals(keyUri)) {
+                    this.report.skipped(ImportReport.RecordType.KEY, keyId, "Key already exists");
+                } else {
+                    this.report.conflict(ImportReport.RecordType.KEY, keyId, "KeyID is used by another key");
+                }
+                return;
+            }
+            if (this.keyUriSet.contains(keyUri)) {
+                this.report.skipped(ImportReport.RecordType.KEY, keyId, "Key with the same KeyURI already exists");
+                return;
+            }
+
+            MusapSscd sscd = key.getSscd();
+            if (sscd == null) {
+                this.report.skipped(ImportReport.RecordType.KEY, keyId, "No enabled SSCD for key");
+                return;
+            }
+            SscdInfo sscdInfo = sscd.getSscdInfo();
+            if (sscdInfo != null && sscdInfo.getSscdId() != null && !this.sscdTypes.containsKey(sscdInfo.getSscdId())) {
+                this.storeSscd(sscdInfo);
+            }
+
+            getSharedPref().putString(makeStoreName(key), toJson(key));
+            this.keyUris.put(keyId, keyUri);
+            this.keyUriSet.add(keyUri);
+            this.newKeyIds.add(keyId);
+            this.report.added(ImportReport.RecordType.KEY, keyId);
+        }
+
+        /**
+         * Write the KeyID and SSCD ID sets
+         * @return import report
+         */
+        ImportReport finish() {
+            if (!this.newSscdIds.isEmpty()) {
+                Set<String> sscdIds = new HashSet<>(getAllSscdIds());
+                sscdIds.addAll(this.newSscdIds);
+                getSharedPref().putStringSet(SSCD_ID_SET, sscdIds);
+                KeyCatalog.getInstance().invalidateKeyUris();
+            }
+            if (!this.newKeyIds.isEmpty()) {
+                Set<String> keyIds = new HashSet<>(getAllKeyIds());
+                keyIds.addAll(this.newKeyIds);
+                getSharedPref().putStringSet(KEY_ID_SET, keyIds);
+                invalidateCatalog();
+            }
+            return this.report;
+        }
+
+        private void storeSscd(SscdInfo sscd) {
+            MLog.d("Storing SSCD " + sscd.getSscdId());
+            getSharedPref().putString(makeStoreName(sscd), new Gson().toJson(sscd));
+            this.sscdTypes.put(sscd.getSscdId(), sscd.getSscdType());
+            this.newSscdIds.add(sscd.getSscdId());
+            this.report.added(ImportReport.RecordType.SSCD, sscd.getSscdId());
+        }
+    }
+
     private String toJson(MusapKey key) {
         return MusapGson.GSON.toJson(key);
     }
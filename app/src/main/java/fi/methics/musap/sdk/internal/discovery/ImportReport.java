@@ -0,0 +1,148 @@
+package fi.methics.musap.sdk.internal.discovery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of a MUSAP data import. Contains the outcome of each imported SSCD and key.
+ */
+public class ImportReport {
+
+    public enum Outcome {
+        /**
+         * Record was stored
+         */
+        ADDED,
+        /**
+         * Record was not stored because it is already known or cannot be used in this MUSAP
+         */
+        SKIPPED,
+        /**
+         * Record was not stored because its ID is already used by a different record
+         */
+        CONFLICT
+    }
+
+    public enum RecordType {
+        SSCD,
+        KEY
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<Outcome, Integer> counts = new EnumMap<>(Outcome.class);
+
+    void added(RecordType type, String id) {
+        this.add(new Entry(type, id, Outcome.ADDED, null));
+    }
+
+    void skipped(RecordType type, String id, String reason) {
+        this.add(new Entry(type, id, Outcome.SKIPPED, reason));
+    }
+
+    void conflict(RecordType type, String id, String reason) {
+        this.add(new Entry(type, id, Outcome.CONFLICT, reason));
+    }
+
+    /**
+     * Get outcomes of all imported records in import order
+     * @return list of entries
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(this.entries);
+    }
+
+    /**
+     * Get outcomes of imported records with the given outcome
+     * @param outcome Outcome
+     * @return list of entries
+     */
+    public List<Entry> getEntries(Outcome outcome) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : this.entries) {
+            if (entry.getOutcome() == outcome) result.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of records with the given outcome
+     * @param outcome Outcome
+     * @return count
+     */
+    public int getCount(Outcome outcome) {
+        Integer count = this.counts.get(outcome);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Check if any record was stored
+     * @return true if at least one SSCD or key was added
+     */
+    public boolean hasChanges() {
+        return this.getCount(Outcome.ADDED) > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportReport{added=" + this.getCount(Outcome.ADDED)
+                + ", skipped="   + this.getCount(Outcome.SKIPPED)
+                + ", conflicts=" + this.getCount(Outcome.CONFLICT)
+                + "}";
+    }
+
+    private void add(Entry entry) {
+        this.entries.add(entry);
+        this.counts.put(entry.getOutcome(), this.getCount(entry.getOutcome()) + 1);
+    }
+
+    /**
+     * Outcome of a single imported record
+     */
+    public static class Entry {
+
+        private final RecordType type;
+        private final String id;
+        private final Outcome outcome;
+        private final String reason;
+
+        Entry(RecordType type, String id, Outcome outcome, String reason) {
+            this.type    = type;
+            this.id      = id;
+            this.outcome = outcome;
+            this.reason  = reason;
+        }
+
+        public RecordType getType() {
+            return this.type;
+        }
+
+        /**
+         * Get the ID of the record
+         * @return KeyID or SSCD ID. Null if the record had no ID.
+         */
+        public String getId() {
+            return this.id;
+        }
+
+        public Outcome getOutcome() {
+            return this.outcome;
+        }
+
+        /**
+         * Get the reason why the record was not added
+         * @return reason or null if the record was added
+         */
+        public String getReason() {
+            return this.reason;
+        }
+
+        @Override
+        public String toString() {
+            return this.type + " " + this.id + ": " + this.outcome + (this.reason != null ? " (" + this.reason + ")" : "");
+        }
+    }
+
+}
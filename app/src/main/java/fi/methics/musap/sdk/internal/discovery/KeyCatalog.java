@@ -0,0 +1,231 @@
+package fi.methics.musap.sdk.internal.discovery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fi.methics.musap.sdk.internal.datatype.KeyURI;
+import fi.methics.musap.sdk.internal.datatype.MusapKey;
+import fi.methics.musap.sdk.internal.util.MLog;
+
+/**
+ * Process-wide in-memory catalog of MUSAP keys.
+ * <p>
+ * The catalog is loaded once from the metadata storage and keeps the parsed {@link MusapKey}
+ * objects in memory with hash indexes by KeyID, SSCD ID, SSCD type and KeyURI.
+ * Lookups through the catalog do not need any storage access or JSON parsing.
+ * </p>
+ * <p>
+ * The loaded keys are held in an immutable {@link Snapshot}. Every write to the metadata
+ * storage must call {@link #invalidate()}, which drops the snapshot. The next read then
+ * parses the storage again.
+ * </p>
+ * <p>
+ * The keys of a snapshot are shared by all readers and are indexed by their fields, so they are
+ * read-only. {@link AndroidMetadataStorage} returns copies of them, and changes to a key go
+ * through the storage, which invalidates the catalog.
+ * </p>
+ * <p>
+ * Storage is never read while holding the catalog lock. A storage batch may hold its own lock
+ * while invalidating the catalog, so reading storage under the catalog lock could deadlock.
+ * Instead each load is tagged with the generation it started in, and a load that raced with
+ * an invalidation is not installed.
+ * </p>
+ */
+public class KeyCatalog {
+
+    private static final KeyCatalog INSTANCE = new KeyCatalog();
+
+    /**
+     * Incremented on every invalidation
+     */
+    private long generation;
+
+    /**
+     * Storage the current snapshot was loaded from. Null if the catalog is not loaded.
+     */
+    private Storage source;
+    private Snapshot snapshot;
+
+    private KeyCatalog() {
+
+    }
+
+    /**
+     * Get the process-wide key catalog
+     * @return key catalog
+     */
+    public static KeyCatalog getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the current generation of this catalog. Read this before reading the storage
+     * and pass it to {@link #load(Storage, Collection, long)}.
+     * @return generation
+     */
+    public synchronized long getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * Get the current snapshot if it has been loaded from the given storage
+     * @param storage Storage
+     * @return snapshot, or null if the catalog needs to be loaded
+     */
+    public synchronized Snapshot getSnapshot(Storage storage) {
+        if (this.source != null && this.source.equals(storage)) {
+            return this.snapshot;
+        }
+        return null;
+    }
+
+    /**
+     * Build a snapshot of the given keys. The snapshot is installed as the current snapshot
+     * unless the catalog has been invalidated after {@code generation} was read.
+     *
+     * @param storage    Storage the keys were read from
+     * @param keys       All keys found in the storage
+     * @param generation Catalog generation read before reading the storage
+     * @return the new snapshot
+     */
+    public Snapshot load(Storage storage, Collection<MusapKey> keys, long generation) {
+        Snapshot loaded = new Snapshot(keys);
+        synchronized (this) {
+            if (this.generation == generation) {
+                this.source   = storage;
+                this.snapshot = loaded;
+                MLog.d("Loaded " + loaded.getKeys().size() + " keys to key catalog");
+            } else {
+                MLog.d("Key catalog changed during load");
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Invalidate this catalog. The catalog gets reloaded on next access.
+     */
+    public synchronized void invalidate() {
+        MLog.d("Invalidating key catalog");
+        this.generation++;
+        this.source   = null;
+        this.snapshot = null;
+    }
+
+    /**
+     * Invalidate only the KeyURI index. This needs to be called when the set of enabled SSCDs
+     * changes, since KeyURIs contain SSCD details.
+     */
+    public synchronized void invalidateKeyUris() {
+        if (this.snapshot != null) {
+            this.snapshot = new Snapshot(this.snapshot.getKeys());
+        }
+    }
+
+    /**
+     * Immutable set of parsed keys with lookup indexes
+     */
+    public static class Snapshot {
+
+        private final List<MusapKey> keys;
+        private final Map<String, MusapKey>       byKeyId    = new HashMap<>();
+        private final Map<String, List<MusapKey>> bySscdId   = new HashMap<>();
+        private final Map<String, List<MusapKey>> bySscdType = new HashMap<>();
+
+        /**
+         * KeyURI index. KeyURIs resolve the SSCD of each key, so this is built lazily on the
+         * first KeyURI lookup instead of on load.
+         */
+        private Map<KeyURI, MusapKey> byKeyUri;
+
+        private Snapshot(Collection<MusapKey> keys) {
+            List<MusapKey> loaded = new ArrayList<>(keys.size());
+            for (MusapKey key : keys) {
+                if (key == null || key.getKeyId() == null) continue;
+                loaded.add(key);
+                this.byKeyId.put(key.getKeyId(), key);
+                if (key.getSscdId() != null) {
+                    addToIndex(this.bySscdId, key.getSscdId(), key);
+                }
+                if (key.getSscdType() != null) {
+                    addToIndex(this.bySscdType, key.getSscdType(), key);
+                }
+            }
+            this.keys = Collections.unmodifiableList(loaded);
+        }
+
+        /**
+         * List all keys in this snapshot
+         * @return unmodifiable list of keys
+         */
+        public List<MusapKey> getKeys() {
+            return this.keys;
+        }
+
+        /**
+         * Get a key by KeyID
+         * @param keyId KeyID
+         * @return key or null if not found
+         */
+        public MusapKey getByKeyId(String keyId) {
+            if (keyId == null) return null;
+            return this.byKeyId.get(keyId);
+        }
+
+        /**
+         * List keys bound to or generated with the given SSCD
+         * @param sscdId SSCD ID
+         * @return keys (may be empty)
+         */
+        public List<MusapKey> listBySscdId(String sscdId) {
+            return getFromIndex(this.bySscdId, sscdId);
+        }
+
+        /**
+         * List keys of the given SSCD type
+         * @param sscdType SSCD type (e.g. "Yubikey")
+         * @return keys (may be empty)
+         */
+        public List<MusapKey> listBySscdType(String sscdType) {
+            return getFromIndex(this.bySscdType, sscdType);
+        }
+
+        /**
+         * Get a key by KeyURI
+         * @param keyUri KeyURI
+         * @return key or null if not found
+         */
+        public synchronized MusapKey getByKeyUri(KeyURI keyUri) {
+            if (keyUri == null) return null;
+            if (this.byKeyUri == null) {
+                this.byKeyUri = new HashMap<>();
+                for (MusapKey key : this.keys) {
+                    // Keep the first key if multiple keys share a KeyURI
+                    this.byKeyUri.putIfAbsent(key.getKeyUri().intern(), key);
+                }
+            }
+            return this.byKeyUri.get(keyUri);
+        }
+
+        private static void addToIndex(Map<String, List<MusapKey>> index, String value, MusapKey key) {
+            List<MusapKey> list = index.get(value);
+            if (list == null) {
+                list = new ArrayList<>();
+                index.put(value, list);
+            }
+            list.add(key);
+        }
+
+        private static List<MusapKey> getFromIndex(Map<String, List<MusapKey>> index, String value) {
+            if (value == null) return Collections.emptyList();
+            List<MusapKey> list = index.get(value);
+            if (list == null) return Collections.emptyList();
+            return Collections.unmodifiableList(list);
+        }
+    }
+
+}
@@ -50,6 +50,8 @@ public class KeyDiscoveryAPI {
      */
     public void enableSscd(MusapSscdInterface sscd) {
         enabledSscds.add(sscd);
+        // KeyURIs contain SSCD details, so they may change when an SSCD is enabled
+        KeyCatalog.getInstance().invalidateKeyUris();
     }
 
     /**
@@ -15,14 +15,14 @@ public class KeySearchReq {
     private String country;
     private String provider;
     private KeyAlgorithm keyAlgorithm;
-    private String keyUri;
+    private KeyURI keyUri;
 
     public KeySearchReq(Builder builder) {
         this.sscdType     = builder.sscdType;
         this.country      = builder.country;
         this.provider     = builder.provider;
         this.keyAlgorithm = builder.keyAlgorithm;
-        this.keyUri       = builder.keyUri;
+        this.keyUri       = (builder.keyUri != null) ? new KeyURI(builder.keyUri) : null;
     }
 
     public String getSscdType() {
@@ -48,7 +48,7 @@ public class KeySearchReq {
      */
     public boolean matches(MusapKey key) {
         if (this.keyAlgorithm != null && !this.keyAlgorithm.equals(key.getAlgorithm())) return false;
-        if (this.keyUri       != null && !new KeyURI(this.keyUri).matches(key.getKeyUri())) return false;
+        if (this.keyUri       != null && !this.keyUri.matches(key.getKeyUri())) return false;
         MusapSscd iface = key.getSscd();
         if (iface != null) {
             SscdInfo sscd = iface.getSscdInfo();
@@ -1,10 +1,18 @@
 package fi.methics.musap.sdk.internal.discovery;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.List;
+import java.util.function.Consumer;
 
 import fi.methics.musap.sdk.internal.datatype.MusapKey;
 import fi.methics.musap.sdk.internal.datatype.SscdInfo;
@@ -13,10 +21,13 @@ public class MusapImportData {
 
     private static final Gson GSON = new Gson();
 
-    @SerializedName("sscds")
+    private static final String SSCDS = "sscds";
+    private static final String KEYS  = "keys";
+
+    @SerializedName(SSCDS)
     public List<SscdInfo> sscds;
 
-    @SerializedName("keys")
+    @SerializedName(KEYS)
     public List<MusapKey> keys;
 
     public MusapImportData() {
@@ -41,4 +52,90 @@ public class MusapImportData {
         return GSON.fromJson(json, MusapImportData.class);
     }
 
+    /**
+     * Write import data JSON to a stream one record at a time.
+     * The output is the same as {@link #toJson()}, but the full JSON is never held in memory.
+     * The writer is flushed but not closed.
+     *
+     * @param out   Writer to write to
+     * @param sscds SSCDs to export
+     * @param keys  Keys to export
+     * @throws IOException if writing fails
+     */
+    public static void writeJson(Writer out, Iterable<SscdInfo> sscds, Iterable<MusapKey> keys) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        try {
+            writeJson(writer, sscds, keys);
+        } catch (JsonIOException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void writeJson(JsonWriter writer, Iterable<SscdInfo> sscds, Iterable<MusapKey> keys) throws IOException {
+        writer.beginObject();
+        writer.name(SSCDS);
+        writer.beginArray();
+        for (SscdInfo sscd : sscds) {
+            GSON.toJson(sscd, SscdInfo.class, writer);
+        }
+        writer.endArray();
+        writer.name(KEYS);
+        writer.beginArray();
+        for (MusapKey key : keys) {
+            GSON.toJson(key, MusapKey.class, writer);
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Read import data JSON from a stream one record at a time.
+     * Each SSCD and key is given to the consumers as soon as it has been parsed.
+     * The reader is not closed.
+     *
+     * @param in           Reader to read from
+     * @param sscdConsumer Consumer for SSCDs
+     * @param keyConsumer  Consumer for keys
+     * @throws IOException if reading fails
+     * @throws JsonSyntaxException if data is not parseable
+     */
+    public static void readJson(Reader in,
+                                Consumer<SscdInfo> sscdConsumer,
+                                Consumer<MusapKey> keyConsumer) throws IOException, JsonSyntaxException
+    {
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if (SSCDS.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        SscdInfo sscd = GSON.fromJson(reader, SscdInfo.class);
+                        if (sscd != null) sscdConsumer.accept(sscd);
+                    }
+                    reader.endArray();
+                } else if (KEYS.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        MusapKey key = GSON.fromJson(reader, MusapKey.class);
+                        if (key != null) keyConsumer.accept(key);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected tokens with IllegalStateException
+            throw new JsonSyntaxException(e);
+        } catch (JsonIOException e) {
+            throw new IOException(e);
+        }
+    }
+
 }
@@ -0,0 +1,800 @@
+package fi.methics.musap.sdk.internal.discovery;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import fi.methics.musap.sdk.internal.util.MLog;
+
+/**
+ * {@link Storage} implementation backed by a single append-only binary record log.
+ * <p>
+ * Every write appends one length-prefixed, CRC protected record to the end of the log file.
+ * String sets are written as deltas, so adding one KeyID to the {@code keyids} set costs one
+ * small record instead of rewriting the whole set. All writes of a batch
+ * (see {@link #beginBatch()}) go to one record.
+ * </p>
+ * <p>
+ * On open the log is memory-mapped and replayed. String values are not copied to the heap;
+ * they are decoded from the mapping on read. A torn record at the end of the log
+ * (e.g. after a crash mid-write) is discarded.
+ * </p>
+ * <p>
+ * When overwritten and removed entries take up most of the file, the log is compacted by
+ * writing the live entries to a temporary file and atomically renaming it over the log.
+ * </p>
+ * <pre>
+ * log    = header record*
+ * header = magic(4) version(1)
+ * record = length(4) crc32(4) op+
+ * op     = type(1) key [value | count member*]
+ * </pre>
+ */
+public class RecordLogStorage implements Storage, Closeable {
+
+    private static final int  MAGIC       = 0x4D534C47; // "MSLG"
+    private static final byte VERSION     = 1;
+    private static final int  HEADER_SIZE = 5;
+    private static final int  RECORD_HEADER_SIZE = 8;
+
+    static final byte OP_PUT        = 1;
+    static final byte OP_REMOVE     = 2;
+    static final byte OP_SET_PUT    = 3;
+    static final byte OP_SET_ADD    = 4;
+    static final byte OP_SET_REMOVE = 5;
+
+    /**
+     * Logs smaller than this are never compacted
+     */
+    static final long MIN_COMPACT_SIZE = 64 * 1024;
+
+    /**
+     * Compact when the log is this many times larger than its live entries
+     */
+    static final int COMPACT_RATIO = 2;
+
+    private final File file;
+
+    /**
+     * String entries. Values are either a {@link String} or a {@link MappedValue}.
+     */
+    private final Map<String, Object>      strings = new HashMap<>();
+    private final Map<String, Set<String>> sets    = new HashMap<>();
+
+    /**
+     * Guards all state. Held by the batching thread from {@link #beginBatch()} until the batch ends.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Operations of the open batch. Null if no batch is open.
+     * A batch is rollback-only once a nested batch inside it has been rolled back.
+     */
+    private RecordWriter batch;
+    private int batchDepth;
+    private boolean rollbackOnly;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long fileSize;
+    private long liveSize;
+
+    /**
+     * Open (or create) a record log
+     * @param file Log file
+     * @throws IOException if the file cannot be opened or is not a record log
+     */
+    public RecordLogStorage(File file) throws IOException {
+        this.file = file;
+        this.open();
+    }
+
+    /**
+     * Write a new record log containing the given entries. This is used to migrate
+     * data from another storage (e.g. the output of {@code SharedPreferences.getAll()}).
+     * The log is written to a temporary file first, so the target either contains all
+     * entries or does not exist.
+     *
+     * @param file    Log file to create. Any existing file is replaced.
+     * @param entries Entries to migrate. Values must be Strings or String sets; other values are ignored.
+     * @throws IOException if writing fails
+     */
+    public static void migrate(File file, Map<String, ?> entries) throws IOException {
+        Map<String, Object>      strings = new HashMap<>();
+        Map<String, Set<String>> sets    = new HashMap<>();
+        for (Map.Entry<String, ?> entry : entries.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                strings.put(entry.getKey(), value);
+            } else if (value instanceof Set) {
+                Set<String> members = new HashSet<>();
+                for (Object member : (Set<?>) value) {
+                    if (member instanceof String) members.add((String) member);
+                }
+                sets.put(entry.getKey(), members);
+            } else {
+                MLog.d("Skipping migration of " + entry.getKey());
+            }
+        }
+        writeSnapshot(file, strings, sets);
+        MLog.d("Migrated " + strings.size() + " strings and " + sets.size() + " sets to " + file);
+    }
+
+    @Override
+    public String getString(String key, String defaultValue) {
+        this.lock.lock();
+        try {
+            Object value = this.strings.get(key);
+            if (value == null) return defaultValue;
+            if (value instanceof MappedValue) {
+                return ((MappedValue) value).decode();
+            }
+            return (String) value;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Storage putString(String key, String value) {
+        if (value == null) {
+            return this.removeString(key);
+        }
+        this.lock.lock();
+        try {
+            RecordWriter record = this.startWrite();
+            record.put(key, value);
+            this.applyPut(key, value);
+            this.endWrite(record);
+            return this;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Storage putStringSet(String key, Set<String> value) {
+        if (value == null) {
+            return this.removeString(key);
+        }
+        this.lock.lock();
+        try {
+            Set<String> newSet = new HashSet<>(value);
+            Set<String> oldSet = this.sets.get(key);
+
+            RecordWriter record = this.startWrite();
+            if (oldSet != null) {
+                Set<String> added = new HashSet<>(newSet);
+                added.removeAll(oldSet);
+                Set<String> removed = new HashSet<>(oldSet);
+                removed.removeAll(newSet);
+
+                if (added.isEmpty() && removed.isEmpty()) {
+                    return this;
+                }
+                if (added.size() + removed.size() < newSet.size()) {
+                    if (!added.isEmpty())   record.setAdd(key, added);
+                    if (!removed.isEmpty()) record.setRemove(key, removed);
+                    this.applySetAdd(key, added);
+                    this.applySetRemove(key, removed);
+                    this.endWrite(record);
+                    return this;
+                }
+            }
+            record.setPut(key, newSet);
+            this.applySetPut(key, newSet);
+            this.endWrite(record);
+            return this;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defaultValue) {
+        this.lock.lock();
+        try {
+            Set<String> value = this.sets.get(key);
+            if (value == null) return defaultValue;
+            return new HashSet<>(value);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public Storage removeString(String key) {
+        this.lock.lock();
+        try {
+            if (!this.strings.containsKey(key) && !this.sets.containsKey(key)) {
+                return this;
+            }
+            RecordWriter record = this.startWrite();
+            record.remove(key);
+            this.applyRemove(key);
+            this.endWrite(record);
+            return this;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The calling thread holds this storage until the batch ends, so other threads neither
+     * see nor interleave with the pending writes. All writes of the batch are appended
+     * as a single record, so after a crash either all or none of them are present.
+     * </p>
+     */
+    @Override
+    public void beginBatch() {
+        this.lock.lock();
+        if (this.batchDepth++ == 0) {
+            this.batch = new RecordWriter();
+        }
+    }
+
+    @Override
+    public void commit() {
+        this.lock.lock();
+        try {
+            if (this.batchDepth == 0) {
+                throw new IllegalStateException("No batch in progress");
+            }
+            try {
+                if (--this.batchDepth == 0) {
+                    RecordWriter record = this.batch;
+                    this.batch = null;
+                    if (this.rollbackOnly) {
+                        this.rollbackOnly = false;
+                        if (!record.isEmpty()) {
+                            this.reload();
+                        }
+                        throw new IllegalStateException("Nested batch was rolled back");
+                    }
+                    if (!record.isEmpty()) {
+                        this.flush(record);
+                    }
+                }
+            } finally {
+                // Release the hold taken in beginBatch()
+                this.lock.unlock();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void rollback() {
+        this.lock.lock();
+        try {
+            if (this.batchDepth == 0) {
+                throw new IllegalStateException("No batch in progress");
+            }
+            try {
+                this.batchDepth--;
+                if (!this.batch.isEmpty()) {
+                    // Pending writes are already applied in memory. Replay the log to undo them.
+                    this.reload();
+                }
+                if (this.batchDepth > 0) {
+                    // The outer batch lost its writes too, so it must not commit
+                    this.batch = new RecordWriter();
+                    this.rollbackOnly = true;
+                } else {
+                    this.batch = null;
+                    this.rollbackOnly = false;
+                }
+            } finally {
+                // Release the hold taken in beginBatch()
+                this.lock.unlock();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Rewrite the log so that it contains only the live entries.
+     * This is done automatically when the log grows too large, but may also be called
+     * e.g. when the app goes to background.
+     *
+     * @throws IOException if compaction fails. The current log stays usable.
+     */
+    public void compact() throws IOException {
+        this.lock.lock();
+        try {
+            long before = this.fileSize;
+            writeSnapshot(this.file, this.strings, this.sets);
+            this.closeChannel();
+            this.open();
+            MLog.d("Compacted " + this.file.getName() + " from " + before + " to " + this.fileSize + " bytes");
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the current size of the log file
+     * @return size in bytes
+     */
+    public long getFileSize() {
+        this.lock.lock();
+        try {
+            return this.fileSize;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+        try {
+            this.closeChannel();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Two RecordLogStorage objects are equal if they point to the same log file.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return this.file.equals(((RecordLogStorage) o).file);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.file.hashCode();
+    }
+
+    private void open() throws IOException {
+        this.strings.clear();
+        this.sets.clear();
+        this.liveSize = 0;
+
+        this.raf     = new RandomAccessFile(this.file, "rw");
+        this.channel = this.raf.getChannel();
+
+        long size = this.channel.size();
+        if (size < HEADER_SIZE) {
+            // New log, or a crash while writing the header
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).put(VERSION);
+            header.flip();
+            this.channel.truncate(0);
+            writeFully(this.channel, header, 0);
+            this.channel.force(true);
+            size = HEADER_SIZE;
+        } else {
+            ByteBuffer mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (mapped.getInt(0) != MAGIC || mapped.get(4) != VERSION) {
+                this.closeChannel();
+                throw new IOException("Not a MUSAP record log: " + this.file);
+            }
+            long valid = this.replay(mapped);
+            if (valid < size) {
+                MLog.e("Discarding " + (size - valid) + " bytes of torn records from " + this.file.getName());
+                this.channel.truncate(valid);
+                this.channel.force(true);
+                size = valid;
+            }
+        }
+        this.fileSize = size;
+    }
+
+    private void closeChannel() throws IOException {
+        if (this.raf != null) {
+            this.raf.close();
+            this.raf     = null;
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Replay all records of a mapped log into memory
+     * @param log Mapped log file
+     * @return Offset of the end of the last valid record
+     */
+    private long replay(ByteBuffer log) {
+        int pos   = HEADER_SIZE;
+        int limit = log.limit();
+        while (limit - pos >= RECORD_HEADER_SIZE) {
+            int length = log.getInt(pos);
+            int crc    = log.getInt(pos + 4);
+            int start  = pos + RECORD_HEADER_SIZE;
+            if (length <= 0 || length > limit - start) break;
+
+            ByteBuffer record = view(log, start, length);
+            CRC32 checksum = new CRC32();
+            checksum.update(record.duplicate());
+            if ((int) checksum.getValue() != crc) break;
+
+            try {
+                this.replayRecord(log, record);
+            } catch (RuntimeException e) {
+                MLog.e("Corrupted record at offset " + pos, e);
+                break;
+            }
+            pos = start + length;
+        }
+        return pos;
+    }
+
+    private void replayRecord(ByteBuffer log, ByteBuffer record) {
+        while (record.hasRemaining()) {
+            byte   type = record.get();
+            String key  = readString(record);
+            switch (type) {
+                case OP_PUT:
+                    int length = record.getInt();
+                    int offset = record.position();
+                    if (length < 0 || length > record.remaining()) {
+                        throw new IllegalStateException("Invalid value length " + length);
+                    }
+                    record.position(offset + length);
+                    this.applyPut(key, new MappedValue(log, offset, length));
+                    break;
+                case OP_REMOVE:
+                    this.applyRemove(key);
+                    break;
+                case OP_SET_PUT:
+                    this.applySetPut(key, readSet(record));
+                    break;
+                case OP_SET_ADD:
+                    this.applySetAdd(key, readSet(record));
+                    break;
+                case OP_SET_REMOVE:
+                    this.applySetRemove(key, readSet(record));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown record type " + type);
+            }
+        }
+    }
+
+    private void applyPut(String key, Object value) {
+        this.applyRemove(key);
+        this.strings.put(key, value);
+        this.liveSize += entrySize(key, value);
+    }
+
+    private void applySetPut(String key, Set<String> value) {
+        this.applyRemove(key);
+        this.sets.put(key, value);
+        this.liveSize += entrySize(key, value);
+    }
+
+    private void applySetAdd(String key, Set<String> members) {
+        Set<String> set = this.sets.get(key);
+        if (set == null) {
+            this.applySetPut(key, new HashSet<>(members));
+            return;
+        }
+        for (String member : members) {
+            if (set.add(member)) {
+                this.liveSize += 4 + utf8Length(member);
+            }
+        }
+    }
+
+    private void applySetRemove(String key, Set<String> members) {
+        Set<String> set = this.sets.get(key);
+        if (set == null) return;
+        for (String member : members) {
+            if (set.remove(member)) {
+                this.liveSize -= 4 + utf8Length(member);
+            }
+        }
+    }
+
+    private void applyRemove(String key) {
+        Object oldString = this.strings.remove(key);
+        if (oldString != null) {
+            this.liveSize -= entrySize(key, oldString);
+        }
+        Set<String> oldSet = this.sets.remove(key);
+        if (oldSet != null) {
+            this.liveSize -= entrySize(key, oldSet);
+        }
+    }
+
+    /**
+     * Get the record to write the next operation to
+     * @return the open batch, or a new record if no batch is open
+     */
+    private RecordWriter startWrite() {
+        return this.batch != null ? this.batch : new RecordWriter();
+    }
+
+    /**
+     * Flush the record unless it belongs to an open batch
+     */
+    private void endWrite(RecordWriter record) {
+        if (record != this.batch) {
+            this.flush(record);
+        }
+    }
+
+    /**
+     * Append a record whose operations have already been applied in memory
+     */
+    private void flush(RecordWriter writer) {
+        byte[] record = writer.toRecord();
+        try {
+            writeFully(this.channel, ByteBuffer.wrap(record), this.fileSize);
+            this.channel.force(false);
+            this.fileSize += record.length;
+        } catch (IOException e) {
+            MLog.e("Failed to append to " + this.file.getName(), e);
+            // Memory is ahead of the log. Undo by replaying the log.
+            this.reload();
+            throw new UncheckedIOException(e);
+        }
+        this.compactIfNeeded();
+    }
+
+    /**
+     * Drop the in-memory state and replay the log from disk
+     */
+    private void reload() {
+        try {
+            this.closeChannel();
+            this.open();
+        } catch (IOException e) {
+            MLog.e("Failed to reload " + this.file.getName(), e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (this.fileSize < MIN_COMPACT_SIZE) return;
+        if (this.fileSize < COMPACT_RATIO * (HEADER_SIZE + this.liveSize)) return;
+        try {
+            this.compact();
+        } catch (IOException e) {
+            // Not fatal. The log stays valid, just larger than needed.
+            MLog.e("Failed to compact " + this.file.getName(), e);
+        }
+    }
+
+    /**
+     * Write the given entries as a new log file. The file is written next to the target
+     * and renamed over it once complete.
+     */
+    private static void writeSnapshot(File target,
+                                      Map<String, Object> strings,
+                                      Map<String, Set<String>> sets) throws IOException
+    {
+        File tmp = new File(target.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            for (Map.Entry<String, Object> entry : strings.entrySet()) {
+                Object value = entry.getValue();
+                RecordWriter record = new RecordWriter();
+                record.put(entry.getKey(), value instanceof MappedValue ? ((MappedValue) value).decode() : (String) value);
+                out.write(record.toRecord());
+            }
+            for (Map.Entry<String, Set<String>> entry : sets.entrySet()) {
+                RecordWriter record = new RecordWriter();
+                record.setPut(entry.getKey(), entry.getValue());
+                out.write(record.toRecord());
+            }
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(target)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("Failed to replace " + target);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /**
+     * Get a view of a part of the buffer. Positions in the view are absolute positions of the buffer.
+     */
+    private static ByteBuffer view(ByteBuffer buf, int offset, int length) {
+        ByteBuffer dup = buf.duplicate();
+        dup.limit(offset + length);
+        dup.position(offset);
+        return dup;
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0 || length > buf.remaining()) {
+            throw new IllegalStateException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Set<String> readSet(ByteBuffer buf) {
+        int count = buf.getInt();
+        if (count < 0) {
+            throw new IllegalStateException("Invalid set size " + count);
+        }
+        Set<String> set = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            set.add(readString(buf));
+        }
+        return set;
+    }
+
+    /**
+     * Approximate on-disk size of an entry when written by compaction
+     */
+    private static long entrySize(String key, Object value) {
+        long size = RECORD_HEADER_SIZE + 1 + 4 + utf8Length(key);
+        if (value instanceof MappedValue) {
+            size += 4 + ((MappedValue) value).length;
+        } else if (value instanceof String) {
+            size += 4 + utf8Length((String) value);
+        } else if (value instanceof Collection) {
+            size += 4;
+            for (Object member : (Collection<?>) value) {
+                size += 4 + utf8Length((String) member);
+            }
+        }
+        return size;
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * String value that still lives in the memory-mapped log
+     */
+    private static class MappedValue {
+
+        private final ByteBuffer log;
+        private final int offset;
+        private final int length;
+
+        MappedValue(ByteBuffer log, int offset, int length) {
+            this.log    = log;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        String decode() {
+            byte[] bytes = new byte[this.length];
+            ByteBuffer dup = this.log.duplicate();
+            dup.position(this.offset);
+            dup.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Builds the payload of a single record. A record may contain several operations.
+     */
+    static class RecordWriter {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream      out   = new DataOutputStream(this.bytes);
+
+        void put(String key, String value) {
+            this.writeOp(OP_PUT, key);
+            this.writeString(value);
+        }
+
+        void remove(String key) {
+            this.writeOp(OP_REMOVE, key);
+        }
+
+        void setPut(String key, Set<String> members) {
+            this.writeSet(OP_SET_PUT, key, members);
+        }
+
+        void setAdd(String key, Set<String> members) {
+            this.writeSet(OP_SET_ADD, key, members);
+        }
+
+        void setRemove(String key, Set<String> members) {
+            this.writeSet(OP_SET_REMOVE, key, members);
+        }
+
+        /**
+         * Get the complete record with length and checksum
+         * @return record bytes
+         */
+        byte[] toRecord() {
+            byte[] payload = this.bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+            record.putInt(payload.length);
+            record.putInt((int) crc.getValue());
+            record.put(payload);
+            return record.array();
+        }
+
+        boolean isEmpty() {
+            return this.bytes.size() == 0;
+        }
+
+        private void writeSet(byte type, String key, Set<String> members) {
+            this.writeOp(type, key);
+            try {
+                this.out.writeInt(members.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (String member : members) {
+                this.writeString(member);
+            }
+        }
+
+        private void writeOp(byte type, String key) {
+            try {
+                this.out.writeByte(type);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.writeString(key);
+        }
+
+        private void writeString(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            try {
+                this.out.writeInt(b.length);
+                this.out.write(b);
+            } catch (IOException e) {
+                // ByteArrayOutputStream does not throw
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+}
@@ -3,60 +3,246 @@ package fi.methics.musap.sdk.internal.discovery;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class SharedPrefStorage implements Storage {
 
-    private static final String DEFAULT_PREF_NAME = "musap";
+    static final String DEFAULT_PREF_NAME = "musap";
+
+    /**
+     * Marks a key removed in the open batch
+     */
+    private static final Object REMOVED = new Object();
 
     private final Context context;
     private final String prefName;
 
+    /**
+     * If true, writes return only after they are on disk
+     */
+    private final boolean synchronous;
+
+    /**
+     * Held by the batching thread from {@link #beginBatch()} until the batch ends
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Editor of the open batch and the values written in it. Null if no batch is open.
+     * A batch is rollback-only once a nested batch inside it has been rolled back.
+     */
+    private SharedPreferences.Editor editor;
+    private Map<String, Object> pending;
+    private int batchDepth;
+    private boolean rollbackOnly;
+
     public SharedPrefStorage(Context c) {
         this.context = c;
         // Use default
         this.prefName = DEFAULT_PREF_NAME;
+        this.synchronous = false;
     }
 
     public SharedPrefStorage(Context c, String prefName) {
+        this(c, prefName, false);
+    }
+
+    /**
+     * Create a storage for the given preferences file
+     * @param c           Android context
+     * @param prefName    Preferences file name
+     * @param synchronous If true, each write or batch is committed to disk before the call
+     *                    returns. Otherwise writes are applied to disk in the background.
+     */
+    public SharedPrefStorage(Context c, String prefName, boolean synchronous) {
         this.context = c;
-        // Use default
         this.prefName = prefName;
+        this.synchronous = synchronous;
     }
 
     @Override
     public String getString(String key, String defaultValue) {
-        return this.getSharedPref().getString(key, defaultValue);
+        this.lock.lock();
+        try {
+            if (this.pending != null && this.pending.containsKey(key)) {
+                Object value = this.pending.get(key);
+                return value instanceof String ? (String) value : defaultValue;
+            }
+            return this.getSharedPref().getString(key, defaultValue);
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     @Override
     public Storage putString(String key, String value) {
-        this.getSharedPref()
-                .edit()
-                .putString(key, value)
-                .apply();
-        return this;
+        this.lock.lock();
+        try {
+            if (this.editor != null) {
+                this.editor.putString(key, value);
+                this.pending.put(key, value != null ? value : REMOVED);
+            } else {
+                this.write(this.getSharedPref()
+                        .edit()
+                        .putString(key, value));
+            }
+            return this;
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     @Override
     public Storage putStringSet(String key, Set<String> value) {
-        this.getSharedPref()
-                .edit()
-                .putStringSet(key, value)
-                .apply();
-        return this;
+        this.lock.lock();
+        try {
+            if (this.editor != null) {
+                this.editor.putStringSet(key, value);
+                this.pending.put(key, value != null ? new HashSet<>(value) : REMOVED);
+            } else {
+                this.write(this.getSharedPref()
+                        .edit()
+                        .putStringSet(key, value));
+            }
+            return this;
+        } finally {
+            this.lock.unlock();
+        }
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public Set<String> getStringSet(String key, Set<String> defaultValue) {
-        return this.getSharedPref().getStringSet(key, defaultValue);
+        this.lock.lock();
+        try {
+            if (this.pending != null && this.pending.containsKey(key)) {
+                Object value = this.pending.get(key);
+                return value instanceof Set ? (Set<String>) value : defaultValue;
+            }
+            return this.getSharedPref().getStringSet(key, defaultValue);
+        } finally {
+            this.lock.unlock();
+        }
     }
 
 
     @Override
     public Storage removeString(String key) {
-        this.getSharedPref().edit().remove(key).apply();
-        return this;
+        this.lock.lock();
+        try {
+            if (this.editor != null) {
+                this.editor.remove(key);
+                this.pending.put(key, REMOVED);
+            } else {
+                this.write(this.getSharedPref().edit().remove(key));
+            }
+            return this;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * All writes of the batch go to one {@link SharedPreferences.Editor} that is applied
+     * once on commit, or committed to disk if this storage is synchronous. The calling thread holds this storage object until the batch ends.
+     * </p>
+     */
+    @Override
+    public void beginBatch() {
+        this.lock.lock();
+        if (this.batchDepth++ == 0) {
+            this.editor  = this.getSharedPref().edit();
+            this.pending = new HashMap<>();
+        }
+    }
+
+    @Override
+    public void commit() {
+        this.lock.lock();
+        try {
+            if (this.batchDepth == 0) {
+                throw new IllegalStateException("No batch in progress");
+            }
+            try {
+                if (--this.batchDepth == 0) {
+                    SharedPreferences.Editor editor = this.editor;
+                    this.editor  = null;
+                    this.pending = null;
+                    if (this.rollbackOnly) {
+                        this.rollbackOnly = false;
+                        throw new IllegalStateException("Nested batch was rolled back");
+                    }
+                    this.write(editor);
+                }
+            } finally {
+                // Release the hold taken in beginBatch()
+                this.lock.unlock();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void rollback() {
+        this.lock.lock();
+        try {
+            if (this.batchDepth == 0) {
+                throw new IllegalStateException("No batch in progress");
+            }
+            try {
+                if (--this.batchDepth == 0) {
+                    this.editor  = null;
+                    this.pending = null;
+                    this.rollbackOnly = false;
+                } else {
+                    // The outer batch lost its writes too, so it must not commit
+                    this.editor  = this.getSharedPref().edit();
+                    this.pending = new HashMap<>();
+                    this.rollbackOnly = true;
+                }
+            } finally {
+                // Release the hold taken in beginBatch()
+                this.lock.unlock();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Two SharedPrefStorage objects are equal if they point to the same preferences file.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return this.prefName.equals(((SharedPrefStorage) o).prefName);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.prefName.hashCode();
+    }
+
+    /**
+     * Write the editor's changes to disk
+     * @throws UncheckedIOException if a synchronous write failed
+     */
+    private void write(SharedPreferences.Editor editor) {
+        if (!this.synchronous) {
+            editor.apply();
+        } else if (!editor.commit()) {
+            throw new UncheckedIOException(new IOException("Failed to write " + this.prefName));
+        }
     }
 
     private SharedPreferences getSharedPref() {
@@ -27,4 +27,45 @@ public interface Storage {
     Set<String> getStringSet(String key, Set<String> defaultValue);
 
     Storage removeString(String key);
+
+    /**
+     * Start a batch of writes. Writes made after this are collected and flushed to disk
+     * together in {@link #commit()}. Reads made by the batching thread see the pending writes.
+     * <p>
+     * Batches may be nested. Only the outermost {@link #commit()} flushes.
+     * Every call to this must be followed by either {@link #commit()} or {@link #rollback()}:
+     * <pre>
+     * storage.beginBatch();
+     * try {
+     *     storage.putString(...);
+     *     storage.commit();
+     * } catch (RuntimeException e) {
+     *     storage.rollback();
+     *     throw e;
+     * }
+     * </pre>
+     * Implementations that do not support batching write each change immediately.
+     */
+    default void beginBatch() {
+
+    }
+
+    /**
+     * End a batch started with {@link #beginBatch()}.
+     * If this ends the outermost batch, all pending writes are flushed at once.
+     * @throws IllegalStateException if no batch is open, or if a nested batch was rolled back.
+     *                               In the latter case nothing is written.
+     */
+    default void commit() {
+
+    }
+
+    /**
+     * End a batch started with {@link #beginBatch()} and discard all pending writes of the
+     * outermost batch. If this ends a nested batch, the outer batch becomes rollback-only:
+     * its later writes are discarded too and its {@link #commit()} fails.
+     */
+    default void rollback() {
+
+    }
 }
@@ -0,0 +1,111 @@
+package fi.methics.musap.sdk.internal.discovery;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import fi.methics.musap.sdk.internal.util.MLog;
+import fi.methics.musap.sdk.internal.util.MusapStorage;
+
+/**
+ * Creates the process-wide storage objects used by MUSAP.
+ */
+public class StorageFactory {
+
+    /**
+     * Name of the metadata record log in the app files directory
+     */
+    static final String METADATA_LOG_NAME = "musap.log";
+
+    private static Storage metadataStorage;
+    private static MusapStorage internalStorage;
+
+    /**
+     * Get the process-wide metadata storage.
+     * <p>
+     * On first call this migrates any metadata found in the old {@code musap} SharedPreferences
+     * file to the record log, and clears the old file once the record log has been opened.
+     * If the record log does not exist and cannot be created, this falls back to
+     * SharedPreferences for the life of the process. The metadata is then migrated on a later
+     * start. If the record log exists but cannot be opened, the error is thrown instead of
+     * silently continuing without the stored keys.
+     * </p>
+     * @param context Android context
+     * @return metadata storage
+     * @throws IllegalStateException if the record log exists but cannot be opened
+     */
+    public static synchronized Storage getMetadataStorage(Context context) {
+        if (metadataStorage != null) {
+            return metadataStorage;
+        }
+        File file = new File(context.getFilesDir(), METADATA_LOG_NAME);
+        SharedPreferences prefs = context.getSharedPreferences(SharedPrefStorage.DEFAULT_PREF_NAME, Context.MODE_PRIVATE);
+        boolean exists = file.exists();
+        try {
+            metadataStorage = openMigrated(file, prefs.getAll());
+        } catch (IOException e) {
+            if (exists) {
+                MLog.e("Failed to open metadata record log", e);
+                throw new IllegalStateException("Cannot open MUSAP metadata storage", e);
+            }
+            MLog.e("Failed to create metadata record log, using SharedPreferences", e);
+            metadataStorage = new SharedPrefStorage(context.getApplicationContext());
+            return metadataStorage;
+        }
+        if (!prefs.getAll().isEmpty() && !prefs.edit().clear().commit()) {
+            // Harmless, leftovers are ignored once the record log exists
+            MLog.d("Failed to clear migrated SharedPreferences");
+        }
+        return metadataStorage;
+    }
+
+    /**
+     * Open the record log, migrating the given old entries to it if the log does not exist yet.
+     * <p>
+     * SharedPreferences are only written while the log does not exist, so once it exists any
+     * old entries are a leftover copy of an earlier migration and are ignored. If the migrated
+     * log cannot be opened, it is removed again.
+     * </p>
+     * @param file Record log file
+     * @param old  Entries of the old SharedPreferences
+     * @return opened record log
+     * @throws IOException if the log cannot be written or opened
+     */
+    static RecordLogStorage openMigrated(File file, Map<String, ?> old) throws IOException {
+        if (file.exists()) {
+            if (!old.isEmpty()) {
+                MLog.d("Ignoring " + old.size() + " leftover SharedPreferences entries");
+            }
+            return new RecordLogStorage(file);
+        }
+
+        MLog.d("Migrating " + old.size() + " metadata entries from SharedPreferences");
+        RecordLogStorage.migrate(file, old);
+        try {
+            return new RecordLogStorage(file);
+        } catch (IOException e) {
+            // Remove the copy, so that the migration runs again once the log can be opened
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the process-wide storage for MUSAP internal data (MUSAP Link, Relying Parties).
+     * The returned object caches the stored values, so all writes must go through it.
+     * @param context Android context
+     * @return internal storage
+     */
+    public static synchronized MusapStorage getInternalStorage(Context context) {
+        if (internalStorage == null) {
+            // Application context, since this outlives any Activity
+            internalStorage = new MusapStorage(context.getApplicationContext());
+        }
+        return internalStorage;
+    }
+
+}
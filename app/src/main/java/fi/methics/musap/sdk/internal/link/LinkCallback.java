@@ -0,0 +1,90 @@
+package fi.methics.musap.sdk.internal.link;
+
+import com.google.gson.annotations.SerializedName;
+
+import fi.methics.musap.sdk.internal.datatype.MusapKey;
+import fi.methics.musap.sdk.internal.datatype.MusapSignature;
+import fi.methics.musap.sdk.internal.datatype.coupling.SignatureCallbackPayload;
+import fi.methics.musap.sdk.internal.util.IdGenerator;
+
+/**
+ * A signature or key generation callback to MUSAP Link.
+ * <p>
+ * The request ID is the idempotency key of the callback. It stays the same when
+ * the callback is sent again, so MUSAP Link can ignore duplicates.
+ * </p>
+ */
+public class LinkCallback {
+
+    public static final String TYPE_SIGNATURE = "signaturecallback";
+    public static final String TYPE_KEYGEN    = "generatekeycallback";
+
+    @SerializedName("requestid")
+    private String requestId;
+
+    @SerializedName("type")
+    private String type;
+
+    @SerializedName("transid")
+    private String transId;
+
+    @SerializedName("payload")
+    private SignatureCallbackPayload payload;
+
+    @SerializedName("created")
+    private long created;
+
+    private LinkCallback(String type, String transId, SignatureCallbackPayload payload) {
+        this.requestId = IdGenerator.generateRequestId();
+        this.type      = type;
+        this.transId   = transId;
+        this.payload   = payload;
+        this.created   = System.currentTimeMillis();
+    }
+
+    /**
+     * Create a signature callback
+     * @param signature Signature
+     * @param transId   Transaction ID
+     * @return callback
+     */
+    public static LinkCallback forSignature(MusapSignature signature, String transId) {
+        SignatureCallbackPayload payload = new SignatureCallbackPayload(signature);
+        payload.attestationResult = signature.getKeyAttestationResult();
+        return new LinkCallback(TYPE_SIGNATURE, transId, payload);
+    }
+
+    /**
+     * Create a key generation callback
+     * @param key     Generated key
+     * @param transId Transaction ID
+     * @return callback
+     */
+    public static LinkCallback forKey(MusapKey key, String transId) {
+        return new LinkCallback(TYPE_KEYGEN, transId, new SignatureCallbackPayload(key));
+    }
+
+    public String getRequestId() {
+        return this.requestId;
+    }
+
+    public String getType() {
+        return this.type;
+    }
+
+    public String getTransId() {
+        return this.transId;
+    }
+
+    public SignatureCallbackPayload getPayload() {
+        return this.payload;
+    }
+
+    /**
+     * @return creation time in epoch milliseconds
+     */
+    public long getCreated() {
+        return this.created;
+    }
+
+}
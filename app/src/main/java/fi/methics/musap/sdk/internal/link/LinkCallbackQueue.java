@@ -0,0 +1,428 @@
+package fi.methics.musap.sdk.internal.link;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import fi.methics.musap.sdk.api.MusapException;
+import fi.methics.musap.sdk.api.MusapFuture;
+import fi.methics.musap.sdk.internal.datatype.MusapLink;
+import fi.methics.musap.sdk.internal.util.MLog;
+import fi.methics.musap.sdk.internal.util.MusapStorage;
+
+/**
+ * Durable outbox of MUSAP Link callbacks.
+ * <p>
+ * A callback is stored before it is sent and removed only when MUSAP Link has accepted it,
+ * so a signature is not lost when the network drops or the process dies. Callbacks left unsent
+ * by an earlier process are sent again by {@link #resume()}.
+ * </p>
+ * <p>
+ * Callbacks enqueued within a short window are sent together in one "batch" message.
+ * Failed sends are retried with exponential backoff, and right away when connectivity returns
+ * (see {@link #watchConnectivity(Context)}). Retries use the same request ID, so MUSAP Link can
+ * ignore duplicates. A callback for a transaction that already has a pending callback of the
+ * same type is not queued again.
+ * </p>
+ * <p>
+ * A callback that is still not accepted after {@link #MAX_AGE_MS} is dropped on its next failed
+ * attempt. It is removed from storage, logged and counted in {@link OutboxStats#getExpiredCount()}.
+ * </p>
+ */
+public class LinkCallbackQueue {
+
+    public static final long DEFAULT_WINDOW_MS = 100;
+    public static final int  MAX_BATCH_SIZE    = 20;
+
+    /**
+     * Failed attempts after which the future of a callback fails.
+     * The callback itself stays in the outbox and is retried until it expires (see {@link #MAX_AGE_MS}).
+     */
+    public static final int  MAX_ATTEMPTS      = 3;
+
+    /**
+     * Age after which a callback that fails again is dropped from the outbox
+     */
+    public static final long MAX_AGE_MS        = 24*60*60*1000L;
+
+    private static final long RETRY_DELAY_MS     = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 5*60*1000;
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "musap-link-queue");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final MusapStorage storage;
+    private final Supplier<MusapLink> links;
+    private final Executor executor;
+    private final long windowMs;
+
+    private final Deque<Entry> queue = new ArrayDeque<>();
+
+    // Queued and in-flight callbacks by transid and type
+    private final Map<String, Entry> pending = new HashMap<>();
+
+    private ScheduledFuture<?> scheduled;
+    private long scheduledAt;
+    private long retries;
+    private long expiredCount;
+
+    // Flushes rejected by the executor in a row
+    private int rejections;
+    private boolean closed;
+
+    private ConnectivityManager connectivity;
+    private ConnectivityManager.NetworkCallback networkCallback;
+
+    /**
+     * Create a callback queue
+     * @param storage  Storage for unsent callbacks
+     * @param links    Supplies the current MUSAP Link, or null if the link is not enabled
+     * @param executor Executor that sends the callbacks
+     */
+    public LinkCallbackQueue(MusapStorage storage, Supplier<MusapLink> links, Executor executor) {
+        this(storage, links, executor, DEFAULT_WINDOW_MS);
+    }
+
+    /**
+     * Create a callback queue
+     * @param storage  Storage for unsent callbacks
+     * @param links    Supplies the current MUSAP Link, or null if the link is not enabled
+     * @param executor Executor that sends the callbacks
+     * @param windowMs How long to wait for more callbacks before sending
+     */
+    public LinkCallbackQueue(MusapStorage storage, Supplier<MusapLink> links, Executor executor, long windowMs) {
+        this.storage  = storage;
+        this.links    = links;
+        this.executor = executor;
+        this.windowMs = windowMs;
+    }
+
+    /**
+     * Queue a callback for sending.
+     * If a callback of the same type is already pending for the transaction, that callback's future is returned.
+     * @param callback Callback
+     * @return future that completes when MUSAP Link has accepted the callback, or fails after
+     *         {@link #MAX_ATTEMPTS} failed attempts or when the callback expires
+     */
+    public synchronized MusapFuture<Void> enqueue(LinkCallback callback) {
+        Entry existing = this.pending.get(key(callback));
+        if (existing != null) {
+            MLog.d("Callback for transaction " + callback.getTransId() + " is already pending");
+            if (existing.future.isDone()) {
+                // Earlier caller gave up after MAX_ATTEMPTS. Give this caller a fresh future.
+                existing.future = new MusapFuture<>();
+                existing.attempts = 0;
+            }
+            return existing.future;
+        }
+
+        MusapFuture<Void> future = new MusapFuture<>();
+        this.storage.addLinkCallback(callback);
+        this.add(new Entry(callback, future), false);
+        this.schedule(this.windowMs);
+        return future;
+    }
+
+    /**
+     * Queue callbacks that were stored but not sent by an earlier process
+     */
+    public synchronized void resume() {
+        Set<String> queued = new HashSet<>();
+        for (Entry entry : this.pending.values()) {
+            queued.add(entry.callback.getRequestId());
+        }
+        for (LinkCallback callback : this.storage.listLinkCallbacks()) {
+            if (!queued.contains(callback.getRequestId())) {
+                this.add(new Entry(callback, new MusapFuture<>()), false);
+            }
+        }
+        if (!this.queue.isEmpty()) {
+            MLog.d("Resuming " + this.queue.size() + " MUSAP Link callbacks");
+            this.schedule(this.windowMs);
+        }
+    }
+
+    /**
+     * Send queued callbacks now instead of waiting for the retry backoff
+     */
+    public synchronized void drain() {
+        if (this.queue.isEmpty()) return;
+        if (this.scheduled != null && this.scheduled.cancel(false)) {
+            this.scheduled = null;
+        }
+        this.schedule(0);
+    }
+
+    /**
+     * Drain the outbox whenever the device gets a network connection
+     * @param context Android context
+     */
+    public synchronized void watchConnectivity(Context context) {
+        if (this.networkCallback != null) return;
+        this.connectivity = context.getSystemService(ConnectivityManager.class);
+        if (this.connectivity == null) return;
+
+        this.networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                MLog.d("Network available, draining MUSAP Link callbacks");
+                LinkCallbackQueue.this.drain();
+            }
+        };
+        try {
+            this.connectivity.registerDefaultNetworkCallback(this.networkCallback);
+        } catch (RuntimeException e) {
+            // E.g. missing ACCESS_NETWORK_STATE permission. Backoff retries still work.
+            MLog.e("Could not watch connectivity", e);
+            this.networkCallback = null;
+        }
+    }
+
+    /**
+     * Stop watching connectivity. Queued callbacks stay stored.
+     */
+    public synchronized void close() {
+        this.closed = true;
+        if (this.networkCallback != null) {
+            try {
+                this.connectivity.unregisterNetworkCallback(this.networkCallback);
+            } catch (RuntimeException e) {
+                MLog.e("Could not stop watching connectivity", e);
+            }
+            this.networkCallback = null;
+        }
+        if (this.scheduled != null) {
+            this.scheduled.cancel(false);
+            this.scheduled = null;
+        }
+    }
+
+    /**
+     * Get the number of callbacks waiting to be sent
+     * @return number of queued and in-flight callbacks
+     */
+    public synchronized int size() {
+        return this.pending.size();
+    }
+
+    /**
+     * Get pending count, oldest age and retry metrics of the outbox
+     * @return metrics
+     */
+    public synchronized OutboxStats getStats() {
+        long oldest = 0;
+        int maxAttempts = 0;
+        for (Entry entry : this.pending.values()) {
+            long created = entry.callback.getCreated();
+            if (oldest == 0 || created < oldest) {
+                oldest = created;
+            }
+            maxAttempts = Math.max(maxAttempts, entry.attempts);
+        }
+        long oldestAge = oldest == 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+        return new OutboxStats(this.pending.size(), oldestAge, this.retries, maxAttempts, this.expiredCount);
+    }
+
+    /**
+     * Send the next batch of queued callbacks on the calling thread
+     */
+    void flush() {
+        List<Entry> batch = new ArrayList<>();
+        synchronized (this) {
+            this.scheduled  = null;
+            this.rejections = 0;
+            while (!this.queue.isEmpty() && batch.size() < MAX_BATCH_SIZE) {
+                batch.add(this.queue.poll());
+            }
+            if (!this.queue.isEmpty()) {
+                this.schedule(0);
+            }
+        }
+        if (batch.isEmpty()) return;
+
+        MusapLink link = this.links.get();
+        if (link == null) {
+            MLog.d("MUSAP Link is not enabled. Dropping " + batch.size() + " callbacks.");
+            this.storage.removeLinkCallbacks(requestIds(batch));
+            List<MusapFuture<Void>> dropped = new ArrayList<>();
+            synchronized (this) {
+                for (Entry entry : batch) {
+                    this.pending.remove(key(entry.callback));
+                    dropped.add(entry.future);
+                }
+            }
+            for (MusapFuture<Void> future : dropped) {
+                future.completeExceptionally(new MusapException(MusapException.ERROR_MISSING_PARAM, "MUSAP Link is not enabled"));
+            }
+            return;
+        }
+
+        List<LinkCallback> callbacks = new ArrayList<>();
+        for (Entry entry : batch) {
+            callbacks.add(entry.callback);
+        }
+
+        Set<String> accepted;
+        Exception error = null;
+        try {
+            MLog.d("Sending " + callbacks.size() + " MUSAP Link callbacks");
+            accepted = link.sendCallbacks(callbacks);
+        } catch (Exception e) {
+            MLog.e("Failed to send MUSAP Link callbacks", e);
+            accepted = Collections.emptySet();
+            error    = e;
+        }
+        this.storage.removeLinkCallbacks(accepted);
+
+        List<MusapFuture<Void>> completed = new ArrayList<>();
+        List<MusapFuture<Void>> failed    = new ArrayList<>();
+        List<Entry> expired = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            List<Entry> retry = new ArrayList<>();
+            int attempts = 0;
+            for (Entry entry : batch) {
+                if (accepted.contains(entry.callback.getRequestId())) {
+                    this.pending.remove(key(entry.callback));
+                    completed.add(entry.future);
+                    continue;
+                }
+                ++entry.attempts;
+                if (now - entry.callback.getCreated() > MAX_AGE_MS) {
+                    this.pending.remove(key(entry.callback));
+                    expired.add(entry);
+                    continue;
+                }
+                if (entry.attempts == MAX_ATTEMPTS) {
+                    failed.add(entry.future);
+                }
+                retry.add(entry);
+                attempts = Math.max(attempts, entry.attempts);
+            }
+            if (!retry.isEmpty()) {
+                this.retries += retry.size();
+                for (int i = retry.size() - 1; i >= 0; i--) {
+                    this.add(retry.get(i), true);
+                }
+                this.schedule(getRetryDelay(attempts));
+            }
+            this.expiredCount += expired.size();
+        }
+
+        if (!expired.isEmpty()) {
+            MLog.e("Dropping " + expired.size() + " expired MUSAP Link callbacks: " + requestIds(expired));
+            this.storage.removeLinkCallbacks(requestIds(expired));
+        }
+
+        // Complete outside the lock, dependent stages may enqueue more callbacks
+        for (MusapFuture<Void> future : completed) {
+            future.complete(null);
+        }
+        for (MusapFuture<Void> future : failed) {
+            if (error == null) {
+                error = new IOException("MUSAP Link did not accept the callback");
+            }
+            future.completeExceptionally(new MusapException(error));
+        }
+        for (Entry entry : expired) {
+            // No-op if the future already failed after MAX_ATTEMPTS
+            entry.future.completeExceptionally(new MusapException(MusapException.ERROR_TIMED_OUT, "MUSAP Link callback expired"));
+        }
+    }
+
+    /**
+     * Get the delay before the next attempt
+     * @param attempts Failed attempts so far
+     * @return delay in milliseconds
+     */
+    static long getRetryDelay(int attempts) {
+        int shift = Math.min(attempts - 1, 20);
+        return Math.min(MAX_RETRY_DELAY_MS, RETRY_DELAY_MS << Math.max(0, shift));
+    }
+
+    /**
+     * Add an entry to the queue. Must hold the lock.
+     */
+    private void add(Entry entry, boolean first) {
+        if (first) {
+            this.queue.addFirst(entry);
+        } else {
+            this.queue.addLast(entry);
+        }
+        this.pending.put(key(entry.callback), entry);
+    }
+
+    /**
+     * Schedule a flush unless one is already scheduled sooner. Must hold the lock.
+     */
+    private void schedule(long delayMs) {
+        long at = System.currentTimeMillis() + delayMs;
+        if (this.scheduled != null) {
+            if (this.scheduledAt <= at || !this.scheduled.cancel(false)) return;
+        }
+        this.scheduledAt = at;
+        this.scheduled = TIMER.schedule(() -> {
+            try {
+                this.executor.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                MLog.e("Could not send MUSAP Link callbacks", e);
+                synchronized (this) {
+                    this.scheduled = null;
+                    if (!this.closed && !this.queue.isEmpty()) {
+                        this.schedule(getRetryDelay(++this.rejections));
+                    }
+                }
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static String key(LinkCallback callback) {
+        if (callback.getTransId() == null) {
+            // Nothing to deduplicate by
+            return callback.getRequestId();
+        }
+        return callback.getType() + "/" + callback.getTransId();
+    }
+
+    private static Set<String> requestIds(List<Entry> entries) {
+        Set<String> ids = new HashSet<>();
+        for (Entry entry : entries) {
+            ids.add(entry.callback.getRequestId());
+        }
+        return ids;
+    }
+
+    private static class Entry {
+
+        private final LinkCallback callback;
+        private MusapFuture<Void> future;
+        private int attempts;
+
+        Entry(LinkCallback callback, MusapFuture<Void> future) {
+            this.callback = callback;
+            this.future   = future;
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package fi.methics.musap.sdk.internal.link;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+
+import fi.methics.musap.sdk.internal.datatype.coupling.ExternalSignatureResponsePayload;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+/**
+ * Status request channel of a MUSAP Link transaction.
+ * Takes care of message encryption and MAC so that a {@link ReceiveStrategy} only deals with HTTP.
+ */
+public interface LinkChannel {
+
+    /**
+     * Create a status request for a pending transaction
+     * @param transid Transaction ID
+     * @param headers Additional HTTP headers
+     * @return HTTP request
+     */
+    Request createStatusRequest(String transid, Map<String, String> headers)
+            throws IOException, GeneralSecurityException;
+
+    /**
+     * Parse a MUSAP Link response message
+     * @param json Response message JSON
+     * @return status payload, or null if the message has no payload
+     */
+    ExternalSignatureResponsePayload parseStatus(Reader json)
+            throws IOException, GeneralSecurityException;
+
+    /**
+     * Get the HTTP client to send status requests with
+     * @return HTTP client
+     */
+    OkHttpClient getClient();
+
+}
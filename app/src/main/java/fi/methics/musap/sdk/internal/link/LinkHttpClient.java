@@ -0,0 +1,185 @@
+package fi.methics.musap.sdk.internal.link;
+
+import java.util.concurrent.TimeUnit;
+
+import fi.methics.musap.sdk.internal.util.MLog;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+/**
+ * Process-wide HTTP stack for MUSAP Link requests.
+ * <p>
+ * All MUSAP Link calls share one connection pool, so keep-alive connections, HTTP/2
+ * multiplexing and TLS session resumption carry over from one Coupling API call to the next.
+ * Clients with different timeouts are derived from the same base client with
+ * {@link OkHttpClient#newBuilder()}, which keeps the pool and dispatcher shared.
+ * </p>
+ *
+ * <pre>
+ * MusapClient.setLinkHttpClient(new LinkHttpClient.Builder()
+ *         .setMaxIdleConnections(2)
+ *         .setKeepAlive(1, TimeUnit.MINUTES)
+ *         .build());
+ * </pre>
+ */
+public class LinkHttpClient {
+
+    public static final int  DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    public static final long DEFAULT_KEEP_ALIVE_MS        = 5*60*1000;
+
+    // Timeouts for normal requests
+    private static final long CONNECT_TIMEOUT_MS = 180*1000;
+    private static final long CALL_TIMEOUT_MS    = 240*1000;
+    private static final long WRITE_TIMEOUT_MS   = 180*1000;
+    private static final long READ_TIMEOUT_MS    = 180*1000;
+
+    // Timeouts for polling and other noncritical requests
+    private static final long SHORT_CONNECT_TIMEOUT_MS = 10*1000;
+    private static final long SHORT_CALL_TIMEOUT_MS    = 20*1000;
+    private static final long SHORT_WRITE_TIMEOUT_MS   = 10*1000;
+    private static final long SHORT_READ_TIMEOUT_MS    = 10*1000;
+
+    private static volatile LinkHttpClient instance;
+
+    private final OkHttpClient client;
+    private final OkHttpClient shortTimeoutClient;
+
+    private LinkHttpClient(OkHttpClient base) {
+        this.client = base.newBuilder()
+                .readTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .callTimeout(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .writeTimeout(WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+        this.shortTimeoutClient = base.newBuilder()
+                .readTimeout(SHORT_READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .connectTimeout(SHORT_CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .callTimeout(SHORT_CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .writeTimeout(SHORT_WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Get the shared MUSAP Link HTTP stack. Created with default settings on first use.
+     * @return shared instance
+     */
+    public static LinkHttpClient getInstance() {
+        LinkHttpClient current = instance;
+        if (current == null) {
+            synchronized (LinkHttpClient.class) {
+                current = instance;
+                if (current == null) {
+                    current  = new Builder().build();
+                    instance = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Replace the shared MUSAP Link HTTP stack.
+     * Requests already in flight finish with the old stack, whose idle connections are closed.
+     * @param client New HTTP stack
+     */
+    public static void setInstance(LinkHttpClient client) {
+        if (client == null) throw new IllegalArgumentException("Null LinkHttpClient");
+        LinkHttpClient old;
+        synchronized (LinkHttpClient.class) {
+            old      = instance;
+            instance = client;
+        }
+        if (old != null && old.getConnectionPool() != client.getConnectionPool()) {
+            old.getConnectionPool().evictAll();
+        }
+    }
+
+    /**
+     * Get a client for normal MUSAP Link requests.
+     * Long timeouts, since requests may wait for the user.
+     * @return client
+     */
+    public OkHttpClient getClient() {
+        return this.client;
+    }
+
+    /**
+     * Get a client with short timeouts.
+     * Good for polling and other noncritical requests.
+     * @return client
+     */
+    public OkHttpClient getShortTimeoutClient() {
+        return this.shortTimeoutClient;
+    }
+
+    /**
+     * Get the number of open connections in the shared pool
+     * @return connection count
+     */
+    public int getConnectionCount() {
+        return this.getConnectionPool().connectionCount();
+    }
+
+    /**
+     * Get the number of idle connections in the shared pool
+     * @return idle connection count
+     */
+    public int getIdleConnectionCount() {
+        return this.getConnectionPool().idleConnectionCount();
+    }
+
+    private ConnectionPool getConnectionPool() {
+        return this.client.connectionPool();
+    }
+
+    public static class Builder {
+
+        private int  maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+        private long keepAliveMs        = DEFAULT_KEEP_ALIVE_MS;
+        private OkHttpClient base;
+
+        /**
+         * Set how many idle connections are kept in the pool
+         * @param maxIdleConnections Maximum idle connection count
+         * @return this builder
+         */
+        public Builder setMaxIdleConnections(int maxIdleConnections) {
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        /**
+         * Set how long an idle connection is kept before it is evicted
+         * @param duration Keep-alive duration
+         * @param unit     Time unit
+         * @return this builder
+         */
+        public Builder setKeepAlive(long duration, TimeUnit unit) {
+            this.keepAliveMs = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Use an application provided client as the base. MUSAP Link then shares its
+         * connection pool, dispatcher and interceptors. Pool settings of this builder are ignored.
+         * @param base Base client
+         * @return this builder
+         */
+        public Builder setBaseClient(OkHttpClient base) {
+            this.base = base;
+            return this;
+        }
+
+        public LinkHttpClient build() {
+            OkHttpClient base = this.base;
+            if (base == null) {
+                MLog.d("Creating MUSAP Link connection pool (maxIdle=" + this.maxIdleConnections + ", keepAlive=" + this.keepAliveMs + "ms)");
+                base = new OkHttpClient.Builder()
+                        .connectionPool(new ConnectionPool(this.maxIdleConnections, this.keepAliveMs, TimeUnit.MILLISECONDS))
+                        .build();
+            }
+            return new LinkHttpClient(base);
+        }
+    }
+
+}
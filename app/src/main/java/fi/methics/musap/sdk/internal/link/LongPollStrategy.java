@@ -0,0 +1,91 @@
+package fi.methics.musap.sdk.internal.link;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import fi.methics.musap.sdk.api.MusapException;
+import fi.methics.musap.sdk.internal.datatype.coupling.ExternalSignatureResponsePayload;
+import fi.methics.musap.sdk.internal.util.MLog;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Asks MUSAP Link to hold each status request until the result is ready or
+ * the wait time is over. The result is received as soon as it is available,
+ * with one request per wait period instead of one every few seconds.
+ */
+public class LongPollStrategy extends ReceiveStrategy {
+
+    /**
+     * Request header telling MUSAP Link how long it may hold the request (milliseconds)
+     */
+    public static final String HEADER_WAIT = "X-Musap-Wait";
+
+    public static final long DEFAULT_WAIT_MS = 30*1000;
+
+    // Extra read time on top of the wait time for the network and MUSAP Link itself
+    private static final long READ_MARGIN_MS = 10*1000;
+
+    private final long waitMs;
+
+    public LongPollStrategy() {
+        this(DEFAULT_WAIT_MS);
+    }
+
+    /**
+     * Create a new long poll strategy
+     * @param waitMs How long MUSAP Link may hold one status request
+     */
+    public LongPollStrategy(long waitMs) {
+        this.waitMs = waitMs;
+    }
+
+    @Override
+    public ReceiveMode getMode() {
+        return ReceiveMode.LONG_POLL;
+    }
+
+    @Override
+    public ExternalSignatureResponsePayload receive(LinkChannel channel, String transid, long timeoutMs)
+            throws IOException, MusapException, GeneralSecurityException {
+        MLog.d("Long polling for signature");
+        long deadline = System.currentTimeMillis() + timeoutMs;
+
+        // Derived client shares the connection pool, only the timeouts differ
+        OkHttpClient client = channel.getClient().newBuilder()
+                .readTimeout(this.waitMs + READ_MARGIN_MS, TimeUnit.MILLISECONDS)
+                .callTimeout(this.waitMs + 2*READ_MARGIN_MS, TimeUnit.MILLISECONDS)
+                .build();
+
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            checkInterrupted();
+
+            Map<String, String> headers = new HashMap<>();
+            headers.put(ReceiveMode.HEADER, this.getMode().getHeaderValue());
+            headers.put(HEADER_WAIT, String.valueOf(Math.min(this.waitMs, remaining)));
+
+            Request request = channel.createStatusRequest(transid, headers);
+            try (Response response = client.newCall(request).execute()) {
+                if (response.body() == null) {
+                    MLog.d("Null response");
+                    return null;
+                }
+                ExternalSignatureResponsePayload resp = channel.parseStatus(response.body().charStream());
+                if (!isPending(resp)) {
+                    return checkFinal(resp);
+                }
+                // A MUSAP Link without long poll support answers "pending" at once
+                if (!this.getMode().isConfirmedBy(response.header(ReceiveMode.HEADER))) {
+                    throw new ReceiveModeUnsupportedException(this.getMode());
+                }
+            }
+        }
+        throw timedOut(timeoutMs);
+    }
+
+}
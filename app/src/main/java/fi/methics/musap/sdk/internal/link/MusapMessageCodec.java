@@ -0,0 +1,396 @@
+package fi.methics.musap.sdk.internal.link;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.Mac;
+
+import fi.methics.musap.sdk.internal.datatype.MusapMessage;
+import fi.methics.musap.sdk.internal.datatype.coupling.payload.MusapLinkPayload;
+import fi.methics.musap.sdk.internal.security.encryption.TransportEncryption;
+import fi.methics.musap.sdk.internal.security.mac.MacGenerator;
+import fi.methics.musap.sdk.internal.util.ByteaMarshaller;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Streaming encoder and decoder of MUSAP Link messages.
+ * <p>
+ * Requests are written straight into the HTTP request body. The payload goes through
+ * JSON, base64, encryption, base64 and MAC as one stream, so the payload is never held in memory
+ * in its intermediate forms. Responses are parsed from the response body, and their payload is
+ * decoded and decrypted while it is parsed.
+ * </p>
+ * The wire format is the same as with {@link MusapMessage#toJson()}.
+ * <p>
+ * With {@link PayloadEncoding#GZIP_JSON} the payload JSON is gzip compressed before encryption
+ * instead of base64 encoded, so the payload is base64 encoded only once.
+ * </p>
+ * <p>
+ * With authenticated encryption (see {@link TransportEncryption#isAuthenticated()}) messages get no
+ * MAC. Instead, the transid and type that the MAC would cover are authenticated as GCM additional data.
+ * </p>
+ */
+public class MusapMessageCodec {
+
+    public static final MediaType JSON_MEDIA_TYPE = MediaType.get("application/json; charset=utf-8");
+
+    private static final Gson GSON = new GsonBuilder()
+            .disableHtmlEscaping()
+            .registerTypeAdapter(byte[].class, new ByteaMarshaller())
+            .create();
+
+    private final TransportEncryption encryption;
+    private final MacGenerator mac;
+
+    /**
+     * Create a codec
+     * @param encryption Payload encryption
+     * @param mac        MAC generator. Not used, and may be null, if the encryption is authenticated.
+     */
+    public MusapMessageCodec(TransportEncryption encryption, MacGenerator mac) {
+        this.encryption = encryption;
+        this.mac        = mac;
+    }
+
+    /**
+     * Check if the encryption of this codec authenticates messages without a MAC
+     * @return true for authenticated encryption
+     */
+    public boolean isAuthenticated() {
+        return this.encryption.isAuthenticated();
+    }
+
+    /**
+     * Create a request body that writes the message when it is sent.
+     * If the message is encrypted, its IV is set here and its MAC when the body is written.
+     *
+     * @param msg     Message with a payload
+     * @param encrypt Encrypt and MAC the payload
+     * @return request body
+     */
+    public RequestBody createRequestBody(MusapMessage msg, boolean encrypt)
+            throws IOException, GeneralSecurityException {
+        return this.createRequestBody(msg, encrypt, PayloadEncoding.JSON);
+    }
+
+    /**
+     * Create a request body that writes the message when it is sent.
+     * If the message is encrypted, its IV is set here and its MAC when the body is written.
+     *
+     * @param msg      Message with a payload
+     * @param encrypt  Encrypt and MAC the payload
+     * @param encoding Payload encoding
+     * @return request body
+     */
+    public RequestBody createRequestBody(MusapMessage msg, boolean encrypt, PayloadEncoding encoding)
+            throws IOException, GeneralSecurityException {
+        if (encrypt) {
+            // The Cipher is created when the body is written, in the thread that writes it
+            msg.iv = this.encryption.generateIv();
+        }
+        return new MessageBody(msg, encrypt, encoding);
+    }
+
+    /**
+     * Read a message. The payload is left encoded.
+     * @param json Message JSON
+     * @return message, or null if there was no message
+     */
+    public MusapMessage readMessage(Reader json) throws IOException {
+        try {
+            return GSON.fromJson(json, MusapMessage.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid MUSAP Link message", e);
+        }
+    }
+
+    /**
+     * Decode the payload of a received message
+     * @param msg       Received message
+     * @param type      Payload class
+     * @param encrypted Is the payload encrypted
+     * @return payload, or null if the message has no payload
+     */
+    public <T> T readPayload(MusapMessage msg, Class<T> type, boolean encrypted)
+            throws IOException, GeneralSecurityException {
+        return this.readPayload(msg, type, encrypted, PayloadEncoding.JSON);
+    }
+
+    /**
+     * Decode the payload of a received message
+     * @param msg       Received message
+     * @param type      Payload class
+     * @param encrypted Is the payload encrypted
+     * @param encoding  Payload encoding
+     * @return payload, or null if the message has no payload
+     */
+    public <T> T readPayload(MusapMessage msg, Class<T> type, boolean encrypted, PayloadEncoding encoding)
+            throws IOException, GeneralSecurityException {
+        if (msg == null || msg.payload == null) {
+            return null;
+        }
+        // MIME decoder skips line breaks like the Android decoder does
+        InputStream in = Base64.getMimeDecoder().wrap(new AsciiInputStream(msg.payload));
+        if (encrypted) {
+            Cipher cipher = this.encryption.createCipher(Cipher.DECRYPT_MODE, msg.iv);
+            if (this.isAuthenticated()) {
+                cipher.updateAAD(getAssociatedData(msg));
+            }
+            in = new CipherInputStream(in, cipher);
+        }
+        if (encoding == PayloadEncoding.GZIP_JSON) {
+            in = new GZIPInputStream(in);
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, type);
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid MUSAP Link payload", e);
+        }
+    }
+
+    /**
+     * Check the MAC of a received message
+     * @param msg Received message
+     * @return true if the MAC matches
+     */
+    public boolean isMacValid(MusapMessage msg) throws IOException, GeneralSecurityException {
+        if (this.isAuthenticated()) {
+            // Checked when the payload is decrypted
+            return true;
+        }
+        if (msg.payload == null || msg.iv == null || msg.type == null || msg.mac == null) {
+            throw new IllegalArgumentException("Missing data for MAC validation");
+        }
+        Mac calculator = this.mac.init(msg.iv, msg.getIdentifier(), msg.type);
+
+        byte[] chunk = new byte[4096];
+        int pos = 0;
+        while (pos < msg.payload.length()) {
+            int len = Math.min(chunk.length, msg.payload.length() - pos);
+            for (int i = 0; i < len; i++) {
+                chunk[i] = (byte) msg.payload.charAt(pos + i);
+            }
+            calculator.update(chunk, 0, len);
+            pos += len;
+        }
+
+        String calculated = this.mac.toString(calculator.doFinal());
+        // This comparison is protected against side-channel attacks
+        return MessageDigest.isEqual(calculated.getBytes(StandardCharsets.UTF_8),
+                msg.mac.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private class MessageBody extends RequestBody {
+
+        private final MusapMessage msg;
+        private final MusapLinkPayload payload;
+        private final String encodedPayload;
+        private final boolean encrypt;
+        private final PayloadEncoding encoding;
+
+        MessageBody(MusapMessage msg, boolean encrypt, PayloadEncoding encoding) {
+            this.msg            = msg;
+            this.payload        = msg.getLinkPayload();
+            this.encodedPayload = msg.payload;
+            this.encrypt        = encrypt;
+            this.encoding       = encoding;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JSON_MEDIA_TYPE;
+        }
+
+        @Override
+        public boolean isOneShot() {
+            // Writing again would encrypt with the same IV. A GCM IV must never be reused.
+            return this.encrypt;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            try {
+                this.write(sink);
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+        }
+
+        private void write(BufferedSink sink) throws IOException, GeneralSecurityException {
+            Writer json = new OutputStreamWriter(new NonClosingOutputStream(sink.outputStream()), StandardCharsets.UTF_8);
+            json.write('{');
+            boolean first = writeField(json, "type",    this.msg.type,    true);
+            first         = writeField(json, "musapid", this.msg.musapId, first);
+            if (this.payload != null || this.encodedPayload != null) {
+                json.write(first ? "\"payload\":\"" : ",\"payload\":\"");
+                json.flush();
+                this.writePayload(sink);
+                json.write('"');
+                first = false;
+            }
+            first = writeField(json, "transid",   this.msg.transid,   first);
+            first = writeField(json, "requestid", this.msg.requestid, first);
+            first = writeField(json, "mac",       this.msg.mac,       first);
+            writeField(json, "iv", this.msg.iv, first);
+            json.write('}');
+            json.flush();
+        }
+
+        private void writePayload(BufferedSink sink) throws IOException, GeneralSecurityException {
+            OutputStream out = new NonClosingOutputStream(sink.outputStream());
+            Mac calculator = null;
+
+            if (this.encrypt) {
+                Cipher cipher = MusapMessageCodec.this.encryption.createCipher(Cipher.ENCRYPT_MODE, this.msg.iv);
+                if (MusapMessageCodec.this.isAuthenticated()) {
+                    cipher.updateAAD(getAssociatedData(this.msg));
+                } else {
+                    calculator = MusapMessageCodec.this.mac.init(this.msg.iv, this.msg.getIdentifier(), this.msg.type);
+                    out = new MacOutputStream(out, calculator);
+                }
+                out = Base64.getEncoder().wrap(out);
+                out = new CipherOutputStream(out, cipher);
+            }
+            if (this.encoding == PayloadEncoding.GZIP_JSON) {
+                if (!this.encrypt) {
+                    out = Base64.getEncoder().wrap(out);
+                }
+                out = new GZIPOutputStream(out);
+            } else if (this.payload != null) {
+                out = Base64.getEncoder().wrap(out);
+            }
+
+            try (OutputStream payloadOut = out) {
+                if (this.payload != null) {
+                    Writer writer = new OutputStreamWriter(payloadOut, StandardCharsets.UTF_8);
+                    this.payload.writeJson(writer);
+                    writer.flush();
+                } else if (this.encoding == PayloadEncoding.GZIP_JSON) {
+                    // Compress the JSON, not its base64
+                    payloadOut.write(Base64.getMimeDecoder().decode(this.encodedPayload));
+                } else {
+                    payloadOut.write(this.encodedPayload.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            if (calculator != null) {
+                this.msg.mac = MusapMessageCodec.this.mac.toString(calculator.doFinal());
+            }
+        }
+
+        private boolean writeField(Writer json, String name, String value, boolean first) throws IOException {
+            if (value == null) return first;
+            if (!first) json.write(',');
+            json.write('"');
+            json.write(name);
+            json.write("\":");
+            json.write(GSON.toJson(value));
+            return false;
+        }
+    }
+
+    /**
+     * Get the additional data that authenticated encryption binds to the payload
+     */
+    private static byte[] getAssociatedData(MusapMessage msg) {
+        // Same as the MAC input before the message, except for the IV which GCM covers anyway
+        String id = msg.getIdentifier() != null ? msg.getIdentifier() : "";
+        return (id + msg.type).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the chars of a base64 string as bytes without copying the string
+     */
+    private static class AsciiInputStream extends InputStream {
+
+        private final String data;
+        private int pos;
+
+        AsciiInputStream(String data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return this.pos < this.data.length() ? this.data.charAt(this.pos++) & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (this.pos >= this.data.length()) return -1;
+            int n = Math.min(len, this.data.length() - this.pos);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) this.data.charAt(this.pos++);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Feeds everything written through it to a Mac
+     */
+    private static class MacOutputStream extends FilterOutputStream {
+
+        private final Mac mac;
+
+        MacOutputStream(OutputStream out, Mac mac) {
+            super(out);
+            this.mac = mac;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.mac.update((byte) b);
+            this.out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.mac.update(b, off, len);
+            this.out.write(b, off, len);
+        }
+    }
+
+    /**
+     * Keeps the request body sink open when a payload stream is closed
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.flush();
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package fi.methics.musap.sdk.internal.link;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fi.methics.musap.sdk.api.MusapException;
+import fi.methics.musap.sdk.internal.datatype.coupling.ExternalSignatureResponsePayload;
+import fi.methics.musap.sdk.internal.util.MLog;
+
+/**
+ * Tries receive strategies in order of preference and falls back to the next one
+ * when MUSAP Link does not support a mode. The first supported mode is remembered,
+ * so the negotiation only happens once.
+ */
+public class NegotiatingStrategy extends ReceiveStrategy {
+
+    private final List<ReceiveStrategy> strategies;
+    private volatile int selected;
+
+    /**
+     * Create a new negotiating strategy
+     * @param strategies Strategies in order of preference. The last one should work with every
+     *                   MUSAP Link (e.g. {@link ShortPollStrategy}).
+     */
+    public NegotiatingStrategy(ReceiveStrategy... strategies) {
+        if (strategies.length == 0) throw new IllegalArgumentException("No receive strategies");
+        this.strategies = new ArrayList<>(Arrays.asList(strategies));
+    }
+
+    /**
+     * Prefer SSE, then long poll, then short poll
+     * @return negotiating strategy with default settings
+     */
+    public static NegotiatingStrategy getDefault() {
+        return new NegotiatingStrategy(new SseStrategy(), new LongPollStrategy(), new ShortPollStrategy());
+    }
+
+    /**
+     * Get the mode currently in use
+     * @return negotiated mode, or the preferred mode if negotiation has not happened yet
+     */
+    @Override
+    public ReceiveMode getMode() {
+        return this.strategies.get(this.selected).getMode();
+    }
+
+    @Override
+    public ExternalSignatureResponsePayload receive(LinkChannel channel, String transid, long timeoutMs)
+            throws IOException, MusapException, GeneralSecurityException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (int i = this.selected; ; i++) {
+            ReceiveStrategy strategy = this.strategies.get(i);
+            long remaining = Math.max(0, deadline - System.currentTimeMillis());
+            try {
+                return strategy.receive(channel, transid, remaining);
+            } catch (ReceiveModeUnsupportedException e) {
+                if (i + 1 >= this.strategies.size()) {
+                    throw e;
+                }
+                MLog.d("MUSAP Link does not support " + strategy.getMode() + ", falling back to " + this.strategies.get(i + 1).getMode());
+                this.selected = i + 1;
+            }
+        }
+    }
+
+}
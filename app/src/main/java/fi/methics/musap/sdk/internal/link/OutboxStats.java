@@ -0,0 +1,78 @@
+package fi.methics.musap.sdk.internal.link;
+
+/**
+ * Point-in-time metrics of the MUSAP Link callback outbox.
+ */
+public class OutboxStats {
+
+    private final int  pendingCount;
+    private final long oldestAgeMs;
+    private final long retryCount;
+    private final int  maxAttempts;
+    private final long expiredCount;
+
+    OutboxStats(int  pendingCount,
+                long oldestAgeMs,
+                long retryCount,
+                int  maxAttempts,
+                long expiredCount)
+    {
+        this.pendingCount = pendingCount;
+        this.oldestAgeMs  = oldestAgeMs;
+        this.retryCount   = retryCount;
+        this.maxAttempts  = maxAttempts;
+        this.expiredCount = expiredCount;
+    }
+
+    /**
+     * Get the number of callbacks not yet accepted by MUSAP Link
+     * @return pending callback count
+     */
+    public int getPendingCount() {
+        return this.pendingCount;
+    }
+
+    /**
+     * Get the age of the oldest pending callback
+     * @return age in milliseconds, or 0 if nothing is pending
+     */
+    public long getOldestAgeMs() {
+        return this.oldestAgeMs;
+    }
+
+    /**
+     * Get the number of times a callback has been retried since MUSAP was initialized
+     * @return retry count
+     */
+    public long getRetryCount() {
+        return this.retryCount;
+    }
+
+    /**
+     * Get the highest number of failed attempts of a pending callback
+     * @return failed attempt count
+     */
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /**
+     * Get the number of callbacks dropped since MUSAP was initialized, because MUSAP Link did not
+     * accept them within {@link LinkCallbackQueue#MAX_AGE_MS}
+     * @return expired callback count
+     */
+    public long getExpiredCount() {
+        return this.expiredCount;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxStats{pending=" + this.pendingCount
+                + ", oldestAgeMs=" + this.oldestAgeMs
+                + ", retries="     + this.retryCount
+                + ", maxAttempts=" + this.maxAttempts
+                + ", expired="     + this.expiredCount
+                + "}";
+    }
+
+}
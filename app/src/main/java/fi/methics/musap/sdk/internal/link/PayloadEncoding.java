@@ -0,0 +1,60 @@
+package fi.methics.musap.sdk.internal.link;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodings of the MUSAP Link message payload that MUSAP and MUSAP Link agree on at enrollment.
+ * The encoding applies to the plaintext, before encryption.
+ */
+public enum PayloadEncoding {
+
+    /**
+     * Gzip compressed JSON. Certificate chains and data choice lists compress well,
+     * and the payload is not base64 encoded twice.
+     */
+    GZIP_JSON("gzip-json"),
+
+    /**
+     * Base64 encoded JSON.
+     * Used by links enrolled before the encoding was negotiated.
+     */
+    JSON("json");
+
+    private final String value;
+
+    PayloadEncoding(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Get the name of this encoding in MUSAP Link messages
+     * @return encoding name
+     */
+    public String getValue() {
+        return this.value;
+    }
+
+    /**
+     * Get the encodings this MUSAP supports, most preferred first
+     * @return supported encodings
+     */
+    public static List<PayloadEncoding> getSupported() {
+        return Arrays.asList(values());
+    }
+
+    /**
+     * Parse an encoding name. Links that did not negotiate an encoding use {@link #JSON}.
+     * @param value Encoding name
+     * @return encoding
+     */
+    public static PayloadEncoding fromValue(String value) {
+        for (PayloadEncoding encoding : values()) {
+            if (encoding.value.equalsIgnoreCase(value)) {
+                return encoding;
+            }
+        }
+        return JSON;
+    }
+
+}
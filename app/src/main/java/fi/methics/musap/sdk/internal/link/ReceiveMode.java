@@ -0,0 +1,48 @@
+package fi.methics.musap.sdk.internal.link;
+
+/**
+ * How a pending MUSAP Link transaction result is received
+ */
+public enum ReceiveMode {
+
+    /**
+     * Send a new status request every few seconds
+     */
+    SHORT_POLL("poll"),
+
+    /**
+     * MUSAP Link holds the status request until the result is ready (or the wait time is over)
+     */
+    LONG_POLL("longpoll"),
+
+    /**
+     * MUSAP Link streams status updates as Server-Sent Events
+     */
+    SSE("sse");
+
+    /**
+     * Request and response header used to negotiate the receive mode with MUSAP Link.
+     * The request lists the mode the client wants; MUSAP Link echoes it back if it supports it.
+     */
+    public static final String HEADER = "X-Musap-Receive";
+
+    private final String headerValue;
+
+    ReceiveMode(String headerValue) {
+        this.headerValue = headerValue;
+    }
+
+    public String getHeaderValue() {
+        return this.headerValue;
+    }
+
+    /**
+     * Check if a MUSAP Link response header value confirms this mode
+     * @param headerValue {@link #HEADER} value of a response
+     * @return true if MUSAP Link supports this mode
+     */
+    public boolean isConfirmedBy(String headerValue) {
+        return this.headerValue.equalsIgnoreCase(headerValue);
+    }
+
+}
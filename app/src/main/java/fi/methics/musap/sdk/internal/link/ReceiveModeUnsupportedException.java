@@ -0,0 +1,22 @@
+package fi.methics.musap.sdk.internal.link;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@link ReceiveStrategy} when MUSAP Link does not support its {@link ReceiveMode}.
+ * The transaction is still pending, so another strategy can continue receiving it.
+ */
+public class ReceiveModeUnsupportedException extends IOException {
+
+    private final ReceiveMode mode;
+
+    public ReceiveModeUnsupportedException(ReceiveMode mode) {
+        super("MUSAP Link does not support receive mode " + mode);
+        this.mode = mode;
+    }
+
+    public ReceiveMode getMode() {
+        return this.mode;
+    }
+
+}
@@ -0,0 +1,68 @@
+package fi.methics.musap.sdk.internal.link;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.GeneralSecurityException;
+
+import fi.methics.musap.sdk.api.MusapException;
+import fi.methics.musap.sdk.internal.datatype.coupling.ExternalSignatureResponsePayload;
+
+/**
+ * Strategy for receiving the result of a pending MUSAP Link transaction
+ */
+public abstract class ReceiveStrategy {
+
+    protected static final String STATUS_PENDING = "pending";
+    protected static final String STATUS_FAILED  = "failed";
+
+    /**
+     * Get the mode this strategy uses
+     * @return receive mode
+     */
+    public abstract ReceiveMode getMode();
+
+    /**
+     * Wait for the result of a pending transaction
+     * @param channel   Channel to send status requests with
+     * @param transid   Transaction ID
+     * @param timeoutMs How long to wait for the result
+     * @return final response, or null if MUSAP Link returned no payload
+     * @throws ReceiveModeUnsupportedException if MUSAP Link does not support this mode
+     * @throws MusapException if the transaction failed or timed out
+     */
+    public abstract ExternalSignatureResponsePayload receive(LinkChannel channel, String transid, long timeoutMs)
+            throws IOException, MusapException, GeneralSecurityException;
+
+    /**
+     * Check if a response is still pending
+     * @param resp Response
+     * @return true if the result is not ready yet
+     */
+    protected static boolean isPending(ExternalSignatureResponsePayload resp) {
+        return resp != null && STATUS_PENDING.equals(resp.status);
+    }
+
+    /**
+     * Check the status of a final response
+     * @param resp Response
+     * @return the response if it was not a failure
+     * @throws MusapException if the transaction failed
+     */
+    protected static ExternalSignatureResponsePayload checkFinal(ExternalSignatureResponsePayload resp) throws MusapException {
+        if (resp != null && STATUS_FAILED.equals(resp.status)) {
+            throw new MusapException(resp.getErrorCode(), "Signature failed");
+        }
+        return resp;
+    }
+
+    protected static MusapException timedOut(long timeoutMs) {
+        return new MusapException(MusapException.ERROR_TIMED_OUT, "Failed to get a signature in " + timeoutMs + "ms");
+    }
+
+    protected static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Receive interrupted");
+        }
+    }
+
+}
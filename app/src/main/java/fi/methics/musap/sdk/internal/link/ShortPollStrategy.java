@@ -0,0 +1,97 @@
+package fi.methics.musap.sdk.internal.link;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Optional;
+
+import fi.methics.musap.sdk.api.MusapException;
+import fi.methics.musap.sdk.internal.datatype.coupling.ExternalSignatureResponsePayload;
+import fi.methics.musap.sdk.internal.util.MLog;
+import fi.methics.musap.sdk.internal.util.PollingEngine;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Sends status requests until the result is ready, with a growing delay between requests.
+ * Works with every MUSAP Link, so this is the fallback of {@link NegotiatingStrategy}.
+ */
+public class ShortPollStrategy extends ReceiveStrategy {
+
+    private final long   initialDelayMs;
+    private final double multiplier;
+    private final double jitter;
+
+    /**
+     * Create a short poll strategy with the default backoff of {@link PollingEngine}
+     */
+    public ShortPollStrategy() {
+        this(PollingEngine.DEFAULT_INITIAL_DELAY_MS, PollingEngine.DEFAULT_MULTIPLIER, PollingEngine.DEFAULT_JITTER);
+    }
+
+    /**
+     * Create a short poll strategy with a fixed interval
+     * @param intervalMs Time between status requests
+     */
+    public ShortPollStrategy(long intervalMs) {
+        this(intervalMs, 1, 0);
+    }
+
+    /**
+     * Create a short poll strategy
+     * @param initialDelayMs Delay before the first status request
+     * @param multiplier     Backoff multiplier
+     * @param jitter         Fraction of each delay that is randomized
+     */
+    public ShortPollStrategy(long initialDelayMs, double multiplier, double jitter) {
+        this.initialDelayMs = initialDelayMs;
+        this.multiplier     = multiplier;
+        this.jitter         = jitter;
+    }
+
+    @Override
+    public ReceiveMode getMode() {
+        return ReceiveMode.SHORT_POLL;
+    }
+
+    @Override
+    public ExternalSignatureResponsePayload receive(LinkChannel channel, String transid, long timeoutMs)
+            throws IOException, MusapException, GeneralSecurityException {
+        MLog.d("Polling for signature");
+        PollingEngine engine = new PollingEngine.Builder()
+                .setInitialDelay(Duration.ofMillis(this.initialDelayMs))
+                .setMultiplier(this.multiplier)
+                .setJitter(this.jitter)
+                .setTimeout(Duration.ofMillis(timeoutMs))
+                .build();
+
+        try {
+            // Wrap the response so that a missing payload ends polling
+            Optional<ExternalSignatureResponsePayload> resp = engine.poll(() -> this.checkStatus(channel, transid));
+            return checkFinal(resp.orElse(null));
+        } catch (IOException | MusapException | GeneralSecurityException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MusapException(e);
+        }
+    }
+
+    /**
+     * Send one status request
+     * @return response, or null if the result is not ready yet
+     */
+    private Optional<ExternalSignatureResponsePayload> checkStatus(LinkChannel channel, String transid)
+            throws IOException, GeneralSecurityException {
+        Request request = channel.createStatusRequest(transid, Collections.emptyMap());
+        try (Response response = channel.getClient().newCall(request).execute()) {
+            if (response.body() == null) {
+                MLog.d("Null response");
+                return Optional.empty();
+            }
+            ExternalSignatureResponsePayload resp = channel.parseStatus(response.body().charStream());
+            return isPending(resp) ? null : Optional.ofNullable(resp);
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+package fi.methics.musap.sdk.internal.link;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import fi.methics.musap.sdk.api.MusapException;
+import fi.methics.musap.sdk.internal.datatype.coupling.ExternalSignatureResponsePayload;
+import fi.methics.musap.sdk.internal.util.MLog;
+import fi.methics.musap.sdk.internal.util.PollingEngine;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Receives status updates as a Server-Sent Events stream.
+ * Each event carries one MUSAP Link response message in its data field.
+ * If the stream ends before the result, a new stream is opened after a delay
+ * that grows with each reconnect.
+ */
+public class SseStrategy extends ReceiveStrategy {
+
+    public static final String EVENT_STREAM = "text/event-stream";
+
+    public static final long DEFAULT_HEARTBEAT_TIMEOUT_MS = 60*1000;
+
+    private final long heartbeatTimeoutMs;
+    private final long reconnectDelayMs;
+
+    public SseStrategy() {
+        this(DEFAULT_HEARTBEAT_TIMEOUT_MS);
+    }
+
+    /**
+     * Create a new SSE strategy
+     * @param heartbeatTimeoutMs How long the stream may stay silent before it is considered broken
+     */
+    public SseStrategy(long heartbeatTimeoutMs) {
+        this(heartbeatTimeoutMs, PollingEngine.DEFAULT_INITIAL_DELAY_MS);
+    }
+
+    /**
+     * Create a new SSE strategy
+     * @param heartbeatTimeoutMs How long the stream may stay silent before it is considered broken
+     * @param reconnectDelayMs   Delay before the first reconnect. Later reconnects back off
+     *                           like {@link PollingEngine}.
+     */
+    public SseStrategy(long heartbeatTimeoutMs, long reconnectDelayMs) {
+        this.heartbeatTimeoutMs = heartbeatTimeoutMs;
+        this.reconnectDelayMs   = reconnectDelayMs;
+    }
+
+    @Override
+    public ReceiveMode getMode() {
+        return ReceiveMode.SSE;
+    }
+
+    @Override
+    public ExternalSignatureResponsePayload receive(LinkChannel channel, String transid, long timeoutMs)
+            throws IOException, MusapException, GeneralSecurityException {
+        MLog.d("Opening status stream");
+        long deadline = System.currentTimeMillis() + timeoutMs;
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept", EVENT_STREAM);
+        headers.put(ReceiveMode.HEADER, this.getMode().getHeaderValue());
+
+        // Wrap the response so that a missing payload ends the wait
+        Optional<ExternalSignatureResponsePayload> resp = this.openStream(channel, transid, headers, deadline);
+        if (resp == null) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) throw timedOut(timeoutMs);
+
+            // Back off between reconnects, so that a server closing each stream early is not flooded
+            PollingEngine engine = new PollingEngine.Builder()
+                    .setInitialDelay(Duration.ofMillis(this.reconnectDelayMs))
+                    .setTimeout(Duration.ofMillis(remaining))
+                    .build();
+            try {
+                resp = engine.poll(() -> this.openStream(channel, transid, headers, deadline));
+            } catch (MusapException e) {
+                if (e.getErrorCode() == MusapException.ERROR_TIMED_OUT) throw timedOut(timeoutMs);
+                throw e;
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new MusapException(e);
+            }
+        }
+        return checkFinal(resp.orElse(null));
+    }
+
+    /**
+     * Open one status stream and read it until an event has a final status
+     * @return response, or null if the stream ended first
+     */
+    private Optional<ExternalSignatureResponsePayload> openStream(LinkChannel channel, String transid,
+                                                                  Map<String, String> headers, long deadline)
+            throws IOException, GeneralSecurityException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) return null;
+        checkInterrupted();
+
+        OkHttpClient client = channel.getClient().newBuilder()
+                .readTimeout(this.heartbeatTimeoutMs, TimeUnit.MILLISECONDS)
+                .callTimeout(remaining, TimeUnit.MILLISECONDS)
+                .build();
+
+        Request request = channel.createStatusRequest(transid, headers);
+        try (Response response = client.newCall(request).execute()) {
+            if (response.body() == null) {
+                MLog.d("Null response");
+                return Optional.empty();
+            }
+            String contentType = response.header("Content-Type");
+            if (contentType == null || !contentType.startsWith(EVENT_STREAM)) {
+                // Plain response, MUSAP Link did not open a stream
+                ExternalSignatureResponsePayload resp = channel.parseStatus(response.body().charStream());
+                if (!isPending(resp)) {
+                    return Optional.ofNullable(resp);
+                }
+                throw new ReceiveModeUnsupportedException(this.getMode());
+            }
+
+            ExternalSignatureResponsePayload resp = this.readStream(channel, new BufferedReader(response.body().charStream()));
+            if (resp != null) {
+                return Optional.of(resp);
+            }
+            MLog.d("Status stream ended, reconnecting");
+            return null;
+        } catch (InterruptedIOException e) {
+            // Call timeout closes the stream at the deadline
+            if (System.currentTimeMillis() >= deadline) return null;
+            throw e;
+        }
+    }
+
+    /**
+     * Read events until one has a final status
+     * @return final response, or null if the stream ended first
+     */
+    private ExternalSignatureResponsePayload readStream(LinkChannel channel, BufferedReader reader)
+            throws IOException, GeneralSecurityException {
+        StringBuilder data = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                // Blank line ends an event
+                if (data.length() > 0) {
+                    ExternalSignatureResponsePayload resp = channel.parseStatus(new StringReader(data.toString()));
+                    data.setLength(0);
+                    if (resp != null && !isPending(resp)) {
+                        return resp;
+                    }
+                }
+                continue;
+            }
+            if (line.startsWith("data:")) {
+                if (data.length() > 0) data.append('\n');
+                data.append(line.substring(line.startsWith("data: ") ? 6 : 5));
+            }
+            // Comments (heartbeats), event names and ids are not needed
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,120 @@
+package fi.methics.musap.sdk.internal.security.encryption;
+
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import fi.methics.musap.sdk.internal.security.keygenerator.MusapKeyGenerator;
+import fi.methics.musap.sdk.internal.security.keystorage.KeyStorage;
+
+/**
+ * AES-GCM transport encryption. GCM authenticates the payload while encrypting it,
+ * so messages do not need a separate HMAC.
+ * <p>
+ * Uses the same transport key as {@link AesTransportEncryption}.
+ * </p>
+ */
+public class AesGcmTransportEncryption implements TransportEncryption {
+
+    private static final int IV_LENGTH  = 12;
+    private static final int TAG_LENGTH = 128;
+
+    private final KeyStorage keyStorage;
+    private final String cipher;
+
+    // Cipher.getInstance() is a provider lookup, so keep one Cipher per thread and only re-init it
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<>();
+
+    public AesGcmTransportEncryption(KeyStorage storage) {
+        this.keyStorage = storage;
+        this.cipher = KeyProperties.KEY_ALGORITHM_AES + "/"
+                + KeyProperties.BLOCK_MODE_GCM + "/"
+                + KeyProperties.ENCRYPTION_PADDING_NONE;
+    }
+
+    @Override
+    public PayloadHolder encrypt(String message) throws GeneralSecurityException, IOException {
+        return this.encrypt(message, null);
+    }
+
+    @Override
+    public PayloadHolder encrypt(String message, String iv) throws IOException, GeneralSecurityException {
+        if (message == null) {
+            throw new IllegalArgumentException("Missing data for encryption");
+        }
+
+        Cipher cipher = this.createCipher(Cipher.ENCRYPT_MODE, iv);
+        byte[] encrypted = cipher.doFinal(message.getBytes(StandardCharsets.UTF_8));
+        return new PayloadHolder(Base64.encodeToString(encrypted, Base64.NO_WRAP),
+                Base64.encodeToString(cipher.getIV(), Base64.NO_WRAP));
+    }
+
+    @Override
+    public String decrypt(byte[] encryptedMessage, String iv)
+            throws IOException, GeneralSecurityException {
+        if (encryptedMessage == null || iv == null) {
+            throw new IllegalArgumentException("Missing data for decryption");
+        }
+
+        Cipher cipher = this.createCipher(Cipher.DECRYPT_MODE, iv);
+        byte[] decrypted = cipher.doFinal(encryptedMessage);
+        return new String(decrypted, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Cipher createCipher(int mode, String iv) throws IOException, GeneralSecurityException {
+        SecretKey key = this.loadKey();
+        byte[] ivBytes = this.generateIV(iv);
+
+        Cipher cipher = this.ciphers.get();
+        if (cipher == null || (mode == Cipher.ENCRYPT_MODE && Arrays.equals(cipher.getIV(), ivBytes))) {
+            // GCM refuses to encrypt again with the IV a Cipher was last used with.
+            // This only happens when the same message is written twice.
+            cipher = Cipher.getInstance(this.cipher);
+            this.ciphers.set(cipher);
+        }
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH, ivBytes));
+        return cipher;
+    }
+
+    @Override
+    public String generateIv() {
+        return Base64.encodeToString(this.generateIV(null), Base64.NO_WRAP);
+    }
+
+    @Override
+    public boolean isAuthenticated() {
+        return true;
+    }
+
+    private SecretKey loadKey() throws GeneralSecurityException, IOException {
+        SecretKey transportSecurityKey = this.keyStorage.loadKey(MusapKeyGenerator.TRANSPORT_KEY_ALIAS);
+
+        if (transportSecurityKey == null) {
+            throw new IllegalArgumentException("You must generate a transport security key first");
+        }
+        return transportSecurityKey;
+    }
+
+    /**
+     * Decode the given base64 IV, or generate a new random 96-bit IV
+     * @return IV
+     */
+    private byte[] generateIV(String ivBase64) {
+        if (ivBase64 != null) {
+            return Base64.decode(ivBase64, Base64.NO_WRAP);
+        }
+        byte[] iv = new byte[IV_LENGTH];
+        new SecureRandom().nextBytes(iv);
+        return iv;
+    }
+}
@@ -26,6 +26,9 @@ public class AesTransportEncryption implements TransportEncryption {
     private final KeyStorage keyStorage;
     private final String cipher;
 
+    // Cipher.getInstance() is a provider lookup, so keep one Cipher per thread and only re-init it
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<>();
+
     public AesTransportEncryption(KeyStorage storage) {
         this.keyStorage = storage;
         this.cipher = KeyProperties.KEY_ALGORITHM_AES + "/"
@@ -70,15 +73,33 @@ public class AesTransportEncryption implements TransportEncryption {
         return new String(decrypted);
     }
 
-    private Cipher initCipher(int mode, String ivBase64) throws GeneralSecurityException, IOException {
+    @Override
+    public Cipher createCipher(int mode, String iv) throws IOException, GeneralSecurityException {
+        return this.initCipher(mode, iv);
+    }
 
+    @Override
+    public String generateIv() {
+        return Base64.encodeToString(this.generateIV(null), Base64.NO_WRAP);
+    }
+
+    private SecretKey loadKey() throws GeneralSecurityException, IOException {
         SecretKey transportSecurityKey = this.keyStorage.loadKey(MusapKeyGenerator.TRANSPORT_KEY_ALIAS);
 
         if (transportSecurityKey == null) {
             throw new IllegalArgumentException("You must generate a transport security key first");
         }
+        return transportSecurityKey;
+    }
 
-        Cipher cipher = Cipher.getInstance(this.cipher);
+    private Cipher initCipher(int mode, String ivBase64) throws GeneralSecurityException, IOException {
+        SecretKey transportSecurityKey = this.loadKey();
+
+        Cipher cipher = this.ciphers.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(this.cipher);
+            this.ciphers.set(cipher);
+        }
         cipher.init(mode, transportSecurityKey, new IvParameterSpec(this.generateIV(ivBase64)));
 
         return cipher;
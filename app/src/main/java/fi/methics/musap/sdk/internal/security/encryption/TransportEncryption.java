@@ -3,6 +3,8 @@ package fi.methics.musap.sdk.internal.security.encryption;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 
+import javax.crypto.Cipher;
+
 public interface TransportEncryption {
 
     PayloadHolder encrypt(String message) throws IOException, GeneralSecurityException;
@@ -10,4 +12,31 @@ public interface TransportEncryption {
 
     String decrypt(byte[] message, String iv) throws IOException, GeneralSecurityException;
 
+    /**
+     * Get an initialized Cipher for streaming encryption or decryption.
+     * <p>
+     * The Cipher may be reused by the next call on the same thread. Use it only in the calling
+     * thread, and finish with it before calling this again.
+     * </p>
+     * @param mode {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+     * @param iv IV in base64. If null, a random IV is generated.
+     * @return Initialized Cipher. Use {@link Cipher#getIV()} to get a generated IV.
+     */
+    Cipher createCipher(int mode, String iv) throws IOException, GeneralSecurityException;
+
+    /**
+     * Generate a random IV for a new message
+     * @return IV in base64
+     */
+    String generateIv();
+
+    /**
+     * Check if this encryption also authenticates the payload.
+     * Authenticated encryption needs no separate MAC.
+     * @return true for AEAD ciphers
+     */
+    default boolean isAuthenticated() {
+        return false;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package fi.methics.musap.sdk.internal.security.encryption;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Transport encryption modes that MUSAP and MUSAP Link agree on at enrollment.
+ */
+public enum TransportMode {
+
+    /**
+     * AES-GCM. Encrypts and authenticates the payload in one pass.
+     */
+    AES_GCM("aes-gcm"),
+
+    /**
+     * AES-CBC with a separate HMAC-SHA256.
+     * Used by links enrolled before the mode was negotiated.
+     */
+    AES_CBC_HMAC("aes-cbc-hmac");
+
+    private final String value;
+
+    TransportMode(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Get the name of this mode in MUSAP Link messages
+     * @return mode name
+     */
+    public String getValue() {
+        return this.value;
+    }
+
+    /**
+     * Get the modes this MUSAP supports, most preferred first
+     * @return supported modes
+     */
+    public static List<TransportMode> getSupported() {
+        return Arrays.asList(values());
+    }
+
+    /**
+     * Parse a mode name. Links that did not negotiate a mode use {@link #AES_CBC_HMAC}.
+     * @param value Mode name
+     * @return mode
+     */
+    public static TransportMode fromValue(String value) {
+        for (TransportMode mode : values()) {
+            if (mode.value.equalsIgnoreCase(value)) {
+                return mode;
+            }
+        }
+        return AES_CBC_HMAC;
+    }
+
+}
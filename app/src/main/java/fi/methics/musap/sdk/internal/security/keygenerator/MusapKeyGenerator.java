@@ -71,6 +71,9 @@ public class MusapKeyGenerator implements KeyGenerator {
                 authenticationKey,
                 authnKeyProtection.getKeyProtection());
 
+        // Keys may be cached by another storage instance than the one used here
+        KeyStorageFactory.invalidateCache();
+
         return Base64.encodeToString(key, Base64.NO_WRAP);
     }
 
@@ -0,0 +1,89 @@
+package fi.methics.musap.sdk.internal.security.keystorage;
+
+import android.security.keystore.KeyProtection;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+
+/**
+ * KeyStorage that remembers loaded keys, so that each message does not have to
+ * load the whole keystore again. Missing keys are remembered too.
+ * <p>
+ * The cache of a key is cleared when the key is stored through this class.
+ * If keys are changed some other way, call {@link #invalidate()}.
+ * A load that was started before an invalidation is returned but not cached.
+ * </p>
+ */
+public class CachingKeyStorage implements KeyStorage {
+
+    private final KeyStorage storage;
+    private final ConcurrentMap<String, CachedKey> cache = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    public CachingKeyStorage(KeyStorage storage) {
+        this.storage = storage;
+    }
+
+    @Override
+    public void storeKey(String keyName, SecretKey key, KeyProtection protection) throws GeneralSecurityException, IOException {
+        try {
+            this.storage.storeKey(keyName, key, protection);
+        } finally {
+            // The stored key handle differs from the given key material, so load it again on next use
+            this.invalidate(keyName);
+        }
+    }
+
+    @Override
+    public SecretKey loadKey(String keyName) throws GeneralSecurityException, IOException {
+        CachedKey cached = this.cache.get(keyName);
+        if (cached == null) {
+            long loadGeneration = this.generation.get();
+            cached = new CachedKey(this.storage.loadKey(keyName));
+            CachedKey previous = this.cache.putIfAbsent(keyName, cached);
+            if (previous != null) {
+                cached = previous;
+            } else if (this.generation.get() != loadGeneration) {
+                // Invalidated during the load, so the loaded handle may be stale
+                this.cache.remove(keyName, cached);
+            }
+        }
+        return cached.key;
+    }
+
+    @Override
+    public boolean keyExists(String keyName) throws GeneralSecurityException, IOException {
+        return this.loadKey(keyName) != null;
+    }
+
+    /**
+     * Forget a cached key
+     * @param keyName Key name
+     */
+    public void invalidate(String keyName) {
+        this.generation.incrementAndGet();
+        this.cache.remove(keyName);
+    }
+
+    /**
+     * Forget all cached keys
+     */
+    public void invalidate() {
+        this.generation.incrementAndGet();
+        this.cache.clear();
+    }
+
+    private static class CachedKey {
+        private final SecretKey key;
+
+        CachedKey(SecretKey key) {
+            this.key = key;
+        }
+    }
+
+}
@@ -2,7 +2,20 @@ package fi.methics.musap.sdk.internal.security.keystorage;
 
 public class KeyStorageFactory {
 
+    private static final CachingKeyStorage ANDROID_KEY_STORAGE = new CachingKeyStorage(new AndroidKeyStorage());
+
+    /**
+     * Get the Android keystore backed key storage. The instance is shared and caches loaded keys.
+     * @return key storage
+     */
     public static KeyStorage getAndroidKeyStorage() {
-        return new AndroidKeyStorage();
+        return ANDROID_KEY_STORAGE;
+    }
+
+    /**
+     * Clear cached keys of the shared key storage. Call this after the keys have been changed.
+     */
+    public static void invalidateCache() {
+        ANDROID_KEY_STORAGE.invalidate();
     }
-}
\ No newline at end of file
+}
@@ -28,6 +28,9 @@ public class HmacGenerator implements MacGenerator {
 
     private static final String HASH_ALGORITHM = "HmacSHA256";
 
+    // Mac of this thread, initialized with the key it was last used with
+    private final ThreadLocal<KeyedMac> macs = new ThreadLocal<>();
+
     public HmacGenerator(KeyStorage keyStorage) {
         this.keyStorage = keyStorage;
     }
@@ -72,11 +75,49 @@ public class HmacGenerator implements MacGenerator {
         return MessageDigest.isEqual(calculatedHmac, receivedHmac);
     }
 
-    private static byte[] hmac(SecretKey key, byte[] message)
+    @Override
+    public Mac init(String iv, String transId, String type) throws IOException, GeneralSecurityException {
+        Mac mac = this.getMac(this.loadKey());
+        // Drop whatever an abandoned calculation left behind
+        mac.reset();
+        mac.update(this.prefix(iv, transId, type).getBytes(StandardCharsets.UTF_8));
+        return mac;
+    }
+
+    @Override
+    public String toString(byte[] mac) {
+        return HexUtil.hexLine(mac);
+    }
+
+    private byte[] hmac(SecretKey key, byte[] message)
             throws NoSuchAlgorithmException, InvalidKeyException {
-        Mac mac = Mac.getInstance(HmacGenerator.HASH_ALGORITHM);
-        mac.init(key);
-        return mac.doFinal(message);
+        // doFinal() resets the Mac for the next message
+        return this.getMac(key).doFinal(message);
+    }
+
+    /**
+     * Get the Mac of this thread initialized with the given key
+     */
+    private Mac getMac(SecretKey key) throws NoSuchAlgorithmException, InvalidKeyException {
+        KeyedMac keyed = this.macs.get();
+        if (keyed == null || keyed.key != key) {
+            // Storage returns the same key object until the key changes
+            Mac mac = Mac.getInstance(HmacGenerator.HASH_ALGORITHM);
+            mac.init(key);
+            keyed = new KeyedMac(mac, key);
+            this.macs.set(keyed);
+        }
+        return keyed.mac;
+    }
+
+    private static class KeyedMac {
+        private final Mac mac;
+        private final SecretKey key;
+
+        KeyedMac(Mac mac, SecretKey key) {
+            this.mac = mac;
+            this.key = key;
+        }
     }
 
     private byte[] generateHmacBytes(String message, String iv, String transId, String type)
@@ -89,16 +130,31 @@ public class HmacGenerator implements MacGenerator {
 
         MLog.d(TAG, "Message=" + message +  ", iv=" + iv + ", transId=" + transId + ", type=" + type);
 
-        String input = transId + type + iv + message;
+        String input = this.prefix(iv, transId, type) + message;
         MLog.d(TAG, "Input=" + input);
 
-        SecretKey macKey  = this.keyStorage.loadKey(MusapKeyGenerator.MAC_KEY_ALIAS);
+        SecretKey macKey = this.loadKey();
+        MLog.d(TAG, "Alg=" + macKey.getAlgorithm() + ", Format=" + macKey.getFormat());
+        return hmac(macKey, input.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the MAC input that comes before the message
+     */
+    private String prefix(String iv, String transId, String type) {
+        // Some message types do not use trans id. In these cases use empty string
+        if (transId == null) {
+            transId = "";
+        }
+        return transId + type + iv;
+    }
+
+    private SecretKey loadKey() throws GeneralSecurityException, IOException {
+        SecretKey macKey = this.keyStorage.loadKey(MusapKeyGenerator.MAC_KEY_ALIAS);
 
         if (macKey == null) {
             throw new IllegalArgumentException("Missing MAC key. You must generate a key first");
         }
-
-        MLog.d(TAG, "Alg=" + macKey.getAlgorithm() + ", Format=" + macKey.getFormat());
-        return hmac(macKey, input.getBytes(StandardCharsets.UTF_8));
+        return macKey;
     }
 }
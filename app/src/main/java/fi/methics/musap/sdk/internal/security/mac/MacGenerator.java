@@ -3,6 +3,8 @@ package fi.methics.musap.sdk.internal.security.mac;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 
+import javax.crypto.Mac;
+
 public interface MacGenerator {
 
     /**
@@ -25,5 +27,23 @@ public interface MacGenerator {
      * @return True if the calculated MAC is the same as the given MAC.
      */
     boolean validate(String message, String transId, String iv, String type, String mac) throws GeneralSecurityException, IOException;
-}
 
+    /**
+     * Start a MAC calculation for a message that is streamed in afterwards.
+     * Feed the message to {@link Mac#update(byte[])} and finish with {@link #toString(byte[])}.
+     * The Mac may be reused by the next call on the same thread, so use it only in the calling
+     * thread and finish it before calling this or {@link #generate} again.
+     * @param iv Message IV.
+     * @param transId Message transid.
+     * @param type Message type.
+     * @return Mac that has already processed everything before the message.
+     */
+    Mac init(String iv, String transId, String type) throws IOException, GeneralSecurityException;
+
+    /**
+     * Convert a MAC calculated with {@link #init(String, String, String)} to its string form.
+     * @param mac MAC bytes
+     * @return MAC as it is sent in messages
+     */
+    String toString(byte[] mac);
+}
@@ -0,0 +1,271 @@
+package fi.methics.musap.sdk.internal.sign;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import fi.methics.musap.sdk.internal.util.MLog;
+
+/**
+ * Limits how many signature requests run at the same time with each SSCD.
+ * <p>
+ * Every SSCD gets its own lane. A lane runs at most {@code maxConcurrent} requests in the
+ * underlying thread pool and queues the rest in arrival order. Queued requests do not hold a
+ * pool thread. When a request finishes, its thread continues with the next queued request of
+ * the same lane.
+ * </p>
+ * <p>
+ * Non-blocking requests (see {@link #submitNonBlocking(String, int, Supplier)}) take a slot of
+ * the lane from the time they start until they complete, but hold no thread meanwhile.
+ * </p>
+ */
+public class SigningScheduler {
+
+    /**
+     * Default maximum number of requests waiting in one lane
+     */
+    public static final int DEFAULT_MAX_QUEUED = 16;
+
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final int maxQueued;
+
+    public SigningScheduler() {
+        this(DEFAULT_MAX_QUEUED);
+    }
+
+    /**
+     * Create a new scheduler
+     * @param maxQueued Maximum number of requests waiting in one lane. Further requests are rejected.
+     */
+    public SigningScheduler(int maxQueued) {
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Get an executor that runs signature requests of an SSCD in the given pool
+     * @param sscdId        SSCD ID
+     * @param maxConcurrent Maximum number of concurrent requests with the SSCD
+     * @param pool          Thread pool that runs the requests
+     * @return executor that throws {@link RejectedExecutionException} if the lane queue or the pool is full
+     */
+    public Executor getExecutor(String sscdId, int maxConcurrent, Executor pool) {
+        Lane lane = this.getLane(sscdId);
+        lane.setLimit(maxConcurrent);
+        return command -> lane.submit(new Queued(command, pool));
+    }
+
+    /**
+     * Start a non-blocking signature request of an SSCD when the SSCD has a free slot.
+     * The request keeps its slot until the stage returned by {@code start} completes.
+     * @param sscdId        SSCD ID
+     * @param maxConcurrent Maximum number of concurrent requests with the SSCD
+     * @param start         Starts the request without blocking. Called in the submitting thread,
+     *                      or in the thread that completed an earlier request of the SSCD.
+     * @throws RejectedExecutionException if the lane queue is full
+     */
+    public void submitNonBlocking(String sscdId, int maxConcurrent, Supplier<? extends CompletionStage<?>> start) {
+        Lane lane = this.getLane(sscdId);
+        lane.setLimit(maxConcurrent);
+        lane.submit(new Queued(start));
+    }
+
+    /**
+     * Get current metrics of an SSCD
+     * @param sscdId SSCD ID
+     * @return metrics, or null if nothing has been signed with the SSCD
+     */
+    public SigningStats getStats(String sscdId) {
+        Lane lane = this.lanes.get(sscdId);
+        return lane != null ? lane.getStats() : null;
+    }
+
+    /**
+     * Get current metrics of all SSCDs that have been used for signing
+     * @return metrics
+     */
+    public List<SigningStats> getStats() {
+        List<SigningStats> stats = new ArrayList<>();
+        for (Lane lane : this.lanes.values()) {
+            stats.add(lane.getStats());
+        }
+        return stats;
+    }
+
+    private Lane getLane(String sscdId) {
+        if (sscdId == null) sscdId = "";
+        return this.lanes.computeIfAbsent(sscdId, Lane::new);
+    }
+
+    private static class Queued {
+        private final Runnable command;
+        private final Executor pool;
+        private final Supplier<? extends CompletionStage<?>> start;
+        private final long     queuedAt;
+
+        Queued(Runnable command, Executor pool) {
+            this.command  = command;
+            this.pool     = pool;
+            this.start    = null;
+            this.queuedAt = System.nanoTime();
+        }
+
+        Queued(Supplier<? extends CompletionStage<?>> start) {
+            this.command  = null;
+            this.pool     = null;
+            this.start    = start;
+            this.queuedAt = System.nanoTime();
+        }
+
+        boolean isNonBlocking() {
+            return this.start != null;
+        }
+    }
+
+    private class Lane {
+
+        private final String sscdId;
+        private final ArrayDeque<Queued> queue = new ArrayDeque<>();
+
+        private int  limit = 1;
+        private int  active;
+        private long completed;
+        private long started;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+
+        Lane(String sscdId) {
+            this.sscdId = sscdId;
+        }
+
+        synchronized void setLimit(int limit) {
+            this.limit = Math.max(1, limit);
+        }
+
+        void submit(Queued queued) {
+            Queued next;
+            synchronized (this) {
+                if (this.active >= this.limit) {
+                    if (this.queue.size() >= SigningScheduler.this.maxQueued) {
+                        throw new RejectedExecutionException("Too many signature requests waiting for SSCD " + this.sscdId);
+                    }
+                    MLog.d("Queuing signature request for SSCD " + this.sscdId + " (" + this.queue.size() + " waiting)");
+                    this.queue.add(queued);
+                    return;
+                }
+                // Requests can only be waiting here if the limit was raised. Start the oldest one.
+                this.queue.add(queued);
+                next = this.queue.poll();
+                this.active++;
+            }
+            if (next.isNonBlocking()) {
+                this.start(next);
+                return;
+            }
+            try {
+                next.pool.execute(() -> this.run(next));
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    this.active--;
+                    this.queue.remove(queued);
+                    if (next != queued) {
+                        this.queue.addFirst(next);
+                    }
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Run blocking requests in this thread as long as the lane has them queued.
+         * A queued non-blocking request is started and gets the slot.
+         */
+        private void run(Queued queued) {
+            while (queued != null && !queued.isNonBlocking()) {
+                this.recordStart(queued);
+                try {
+                    queued.command.run();
+                } finally {
+                    // Don't leak an interrupt of a cancelled request to the next one
+                    Thread.interrupted();
+                    synchronized (this) {
+                        this.completed++;
+                        queued = this.queue.poll();
+                        if (queued == null) {
+                            this.active--;
+                        }
+                    }
+                }
+            }
+            if (queued != null) {
+                this.start(queued);
+            }
+        }
+
+        /**
+         * Start a non-blocking request that holds a slot. The slot is released when it completes.
+         */
+        private void start(Queued queued) {
+            this.recordStart(queued);
+            CompletionStage<?> stage;
+            try {
+                stage = queued.start.get();
+            } catch (RuntimeException e) {
+                MLog.e("Failed to start signature request for SSCD " + this.sscdId, e);
+                this.release();
+                return;
+            }
+            stage.whenComplete((result, error) -> this.release());
+        }
+
+        /**
+         * Release the slot of a completed non-blocking request. The next queued request gets it.
+         */
+        private void release() {
+            Queued next;
+            synchronized (this) {
+                this.completed++;
+                next = this.queue.poll();
+                if (next == null) {
+                    this.active--;
+                    return;
+                }
+            }
+            if (next.isNonBlocking()) {
+                this.start(next);
+                return;
+            }
+            try {
+                next.pool.execute(() -> this.run(next));
+            } catch (RejectedExecutionException e) {
+                // Don't drop a request that was already accepted to the queue
+                MLog.e("Pool rejected queued signature request for SSCD " + this.sscdId + ", running it here", e);
+                this.run(next);
+            }
+        }
+
+        private synchronized void recordStart(Queued queued) {
+            long wait = System.nanoTime() - queued.queuedAt;
+            this.started++;
+            this.totalWaitNanos += wait;
+            this.maxWaitNanos = Math.max(this.maxWaitNanos, wait);
+        }
+
+        synchronized SigningStats getStats() {
+            long averageWaitNanos = this.started > 0 ? this.totalWaitNanos / this.started : 0;
+            return new SigningStats(this.sscdId,
+                    this.limit,
+                    this.active,
+                    this.queue.size(),
+                    this.completed,
+                    averageWaitNanos / 1_000_000,
+                    this.maxWaitNanos / 1_000_000);
+        }
+    }
+
+}
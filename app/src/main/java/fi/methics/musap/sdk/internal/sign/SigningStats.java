@@ -0,0 +1,96 @@
+package fi.methics.musap.sdk.internal.sign;
+
+/**
+ * Point-in-time signing metrics of an SSCD
+ */
+public class SigningStats {
+
+    private final String sscdId;
+    private final int    maxConcurrent;
+    private final int    activeCount;
+    private final int    queueLength;
+    private final long   completedCount;
+    private final long   averageWaitMs;
+    private final long   maxWaitMs;
+
+    SigningStats(String sscdId,
+                 int    maxConcurrent,
+                 int    activeCount,
+                 int    queueLength,
+                 long   completedCount,
+                 long   averageWaitMs,
+                 long   maxWaitMs)
+    {
+        this.sscdId         = sscdId;
+        this.maxConcurrent  = maxConcurrent;
+        this.activeCount    = activeCount;
+        this.queueLength    = queueLength;
+        this.completedCount = completedCount;
+        this.averageWaitMs  = averageWaitMs;
+        this.maxWaitMs      = maxWaitMs;
+    }
+
+    public String getSscdId() {
+        return this.sscdId;
+    }
+
+    /**
+     * Get the concurrency limit of the SSCD
+     * @return maximum number of concurrent signature requests
+     */
+    public int getMaxConcurrent() {
+        return this.maxConcurrent;
+    }
+
+    /**
+     * Get the number of signature requests currently running
+     * @return active request count
+     */
+    public int getActiveCount() {
+        return this.activeCount;
+    }
+
+    /**
+     * Get the number of signature requests waiting for their turn
+     * @return queue length
+     */
+    public int getQueueLength() {
+        return this.queueLength;
+    }
+
+    /**
+     * Get the number of finished signature requests (successful or not)
+     * @return completed request count
+     */
+    public long getCompletedCount() {
+        return this.completedCount;
+    }
+
+    /**
+     * Get the average time requests waited before they started
+     * @return average wait time in milliseconds
+     */
+    public long getAverageWaitMs() {
+        return this.averageWaitMs;
+    }
+
+    /**
+     * Get the longest time a request waited before it started
+     * @return maximum wait time in milliseconds
+     */
+    public long getMaxWaitMs() {
+        return this.maxWaitMs;
+    }
+
+    @Override
+    public String toString() {
+        return "SigningStats{" + this.sscdId
+                + ", active="    + this.activeCount + "/" + this.maxConcurrent
+                + ", queued="    + this.queueLength
+                + ", completed=" + this.completedCount
+                + ", avgWait="   + this.averageWaitMs + "ms"
+                + ", maxWait="   + this.maxWaitMs + "ms"
+                + "}";
+    }
+
+}
@@ -16,5 +16,14 @@ public class IdGenerator {
         return UUID.randomUUID().toString();
     }
 
+    /**
+     * Create a random UUID for a MUSAP Link request.
+     * MUSAP Link uses it to recognize a request that is sent again.
+     * @return
+     */
+    public static String generateRequestId() {
+        return UUID.randomUUID().toString();
+    }
+
 
 }
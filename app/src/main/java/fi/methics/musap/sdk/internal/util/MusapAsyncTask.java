@@ -5,14 +5,36 @@
 package fi.methics.musap.sdk.internal.util;
 
 import android.content.Context;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 
 import java.lang.ref.WeakReference;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import fi.methics.musap.sdk.api.MusapCallback;
 import fi.methics.musap.sdk.api.MusapException;
+import fi.methics.musap.sdk.api.MusapFuture;
 
-public abstract class MusapAsyncTask<T> extends AsyncTask<Void, Void, AsyncTaskResult<T>> {
+/**
+ * Background operation of MUSAP.
+ * <p>
+ * The operation runs in the given executor and its result is delivered through a {@link MusapFuture}.
+ * If the task has a callback, the callback is called on the main thread when the task was
+ * started from the main thread. Tasks started from a background thread call the callback
+ * directly from the MUSAP thread without a hop through the main Looper.
+ * </p>
+ */
+public abstract class MusapAsyncTask<T> {
+
+    private static Handler mainHandler;
 
     private final MusapCallback<T> callback;
     protected final WeakReference<Context> context;
@@ -22,8 +44,112 @@ public abstract class MusapAsyncTask<T> extends AsyncTask<Void, Void, AsyncTaskR
         this.context = new WeakReference<>(context);
     }
 
-    @Override
-    protected final AsyncTaskResult<T> doInBackground(Void... v) {
+    /**
+     * Start this task
+     * @param executor Executor to run the task in
+     * @return future that completes with the task result. If the executor has no room for
+     *         this task, the future is already failed with a {@link MusapException}.
+     */
+    public MusapFuture<T> executeOnExecutor(Executor executor) {
+        MusapFuture<T> future = this.createFuture();
+
+        FutureTask<Void> task = new FutureTask<>(() -> this.run(future), null);
+        try {
+            executor.execute(task);
+            future.setTask(task);
+        } catch (RejectedExecutionException e) {
+            MLog.e("Task rejected", e);
+            future.completeExceptionally(new MusapException(MusapException.ERROR_INTERNAL, "MUSAP is busy, try again later", e));
+        }
+        return future;
+    }
+
+    /**
+     * Start this task without a thread of its own. Tasks that can wait without blocking a thread
+     * implement {@link #startOperation()}. Others run {@link #runOperation()} in the calling thread.
+     * @return future that completes with the task result
+     */
+    public MusapFuture<T> executeNonBlocking() {
+        return this.executeNonBlocking(Supplier::get);
+    }
+
+    /**
+     * Start this task without a thread of its own once the given gate lets it start.
+     * @param gate Gets a supplier that starts the task and returns its future. The gate calls it
+     *             when the task may start, e.g. when a concurrency slot is free, and can hold the
+     *             slot until the returned stage completes. The gate throws
+     *             {@link RejectedExecutionException} if it has no room for the task.
+     * @return future that completes with the task result. If the gate has no room for
+     *         this task, the future is already failed with a {@link MusapException}.
+     */
+    public MusapFuture<T> executeNonBlocking(Consumer<Supplier<CompletionStage<T>>> gate) {
+        MusapFuture<T> future = this.createFuture();
+        try {
+            gate.accept(() -> this.start(future));
+        } catch (RejectedExecutionException e) {
+            MLog.e("Task rejected", e);
+            future.completeExceptionally(new MusapException(MusapException.ERROR_INTERNAL, "MUSAP is busy, try again later", e));
+        }
+        return future;
+    }
+
+    protected abstract AsyncTaskResult<T> runOperation() throws MusapException;
+
+    /**
+     * Start the operation of this task without blocking.
+     * By default this runs {@link #runOperation()} in the calling thread and returns its outcome
+     * as an already completed future.
+     * @return future that completes with the result
+     */
+    protected CompletableFuture<T> startOperation() throws MusapException {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        AsyncTaskResult<T> asyncTaskResult = this.runOperation();
+        if (asyncTaskResult.getError() != null) {
+            future.completeExceptionally(asyncTaskResult.getError());
+        } else {
+            future.complete(asyncTaskResult.getResult());
+        }
+        return future;
+    }
+
+    private MusapFuture<T> createFuture() {
+        MusapFuture<T> future = new MusapFuture<>();
+        if (this.callback != null) {
+            boolean onMainThread = Looper.myLooper() == Looper.getMainLooper();
+            future.whenComplete((result, error) -> this.deliver(result, error, onMainThread));
+        }
+        return future;
+    }
+
+    private CompletionStage<T> start(MusapFuture<T> future) {
+        if (future.isDone()) {
+            // Cancelled while waiting for the gate
+            return future;
+        }
+        CompletableFuture<T> operation;
+        try {
+            operation = this.startOperation();
+        } catch (Exception e) {
+            future.completeExceptionally(toMusapException(e));
+            return future;
+        }
+        operation.whenComplete((result, error) -> {
+            if (error != null) {
+                future.completeExceptionally(toMusapException(error));
+            } else {
+                future.complete(result);
+            }
+        });
+        // Cancelling the future cancels the operation
+        future.setTask(operation);
+        return future;
+    }
+
+    private void run(MusapFuture<T> future) {
+        if (future.isDone()) {
+            // Cancelled while queued
+            return;
+        }
         AsyncTaskResult<T> asyncTaskResult;
         try {
             asyncTaskResult = this.runOperation();
@@ -33,28 +159,49 @@ public abstract class MusapAsyncTask<T> extends AsyncTask<Void, Void, AsyncTaskR
             asyncTaskResult = new AsyncTaskResult<>(new MusapException(e));
         }
 
-        return asyncTaskResult;
-    }
-
-    @Override
-    protected final void onPostExecute(AsyncTaskResult<T> result) {
-        // Sometimes the caller does not need a callback
-        if (this.callback == null) {
-            return;
+        if (asyncTaskResult.getError() != null) {
+            future.completeExceptionally(toMusapException(asyncTaskResult.getError()));
+        } else {
+            future.complete(asyncTaskResult.getResult());
         }
+    }
 
-        if (result.getError() != null) {
-            if (result.getError() instanceof MusapException) {
-                this.callback.onException((MusapException) result.getError());
+    private void deliver(T result, Throwable error, boolean onMainThread) {
+        Runnable delivery = () -> {
+            if (error != null) {
+                this.callback.onException(toMusapException(error));
             } else {
-                this.callback.onException(new MusapException(result.getError()));
+                this.callback.onSuccess(result);
             }
+        };
+        if (onMainThread && Looper.myLooper() != Looper.getMainLooper()) {
+            getMainHandler().post(delivery);
         } else {
-            this.callback.onSuccess(result.getResult());
+            delivery.run();
         }
     }
 
+    private static MusapException toMusapException(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof MusapException) {
+            return (MusapException) error;
+        }
+        if (error instanceof CancellationException) {
+            return new MusapException(MusapException.ERROR_USER_CANCEL, "Operation cancelled");
+        }
+        if (error instanceof Exception) {
+            return new MusapException((Exception) error);
+        }
+        return new MusapException(new Exception(error));
+    }
 
-    protected abstract AsyncTaskResult<T> runOperation() throws MusapException;
+    private static synchronized Handler getMainHandler() {
+        if (mainHandler == null) {
+            mainHandler = new Handler(Looper.getMainLooper());
+        }
+        return mainHandler;
+    }
 
 }
@@ -2,11 +2,13 @@ package fi.methics.musap.sdk.internal.util;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import fi.methics.musap.sdk.api.MusapClient;
 import fi.methics.musap.sdk.attestation.KeyAttestation;
 import fi.methics.musap.sdk.extension.MusapSscdInterface;
 import fi.methics.musap.sdk.extension.SscdSettings;
+import fi.methics.musap.sdk.internal.async.MusapExecutors;
 import fi.methics.musap.sdk.internal.datatype.MusapKey;
 import fi.methics.musap.sdk.internal.datatype.MusapSignature;
 import fi.methics.musap.sdk.internal.datatype.SscdInfo;
@@ -49,6 +51,34 @@ public class MusapSscd {
         return this.impl.sign(req);
     }
 
+    /**
+     * Sign with the SSCD without holding a MUSAP thread
+     * @param req Signature request
+     * @return future that completes with the signature
+     * @see #isNonBlocking()
+     */
+    public CompletableFuture<MusapSignature> signAsync(SignatureReq req) {
+        return this.impl.signAsync(req);
+    }
+
+    /**
+     * Check if {@link #signAsync(SignatureReq)} returns without blocking
+     * @return true if signatures do not need a MUSAP thread
+     */
+    public boolean isNonBlocking() {
+        return this.impl.isNonBlocking();
+    }
+
+    /**
+     * Sign multiple requests with the SSCD, reusing one SSCD session if the SSCD supports it
+     * @param reqs Signature requests
+     * @return Result of each request in request order
+     * @throws Exception if the whole batch failed
+     */
+    public List<SigningResult> signBatch(List<SignatureReq> reqs) throws Exception {
+        return this.impl.signBatch(reqs);
+    }
+
     /**
      * Bind an existing key to this MUSAP library
      * @param req Key bind request
@@ -87,6 +117,14 @@ public class MusapSscd {
         return this.impl.getKeyAttestation();
     }
 
+    /**
+     * Get the thread pool for operations with this SSCD
+     * @return pool
+     */
+    public MusapExecutors.Pool getExecutorPool() {
+        return this.impl.getExecutorPool();
+    }
+
     /**
      * List all keys associated with this SSCD
      * @return List of keys
@@ -8,27 +8,53 @@ import com.google.gson.reflect.TypeToken;
 
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import fi.methics.musap.sdk.internal.datatype.MusapLink;
 import fi.methics.musap.sdk.internal.datatype.RelyingParty;
 import fi.methics.musap.sdk.internal.discovery.SharedPrefStorage;
 import fi.methics.musap.sdk.internal.discovery.Storage;
+import fi.methics.musap.sdk.internal.link.LinkCallback;
 
 /**
  * Stores MUSAP internal data such as App ID.
+ * <p>
+ * The MUSAP Link and the Relying Party list are parsed once and kept in memory.
+ * The cached values are replaced on every write through this object, so all writes should
+ * go through one shared instance (see {@link fi.methics.musap.sdk.internal.discovery.StorageFactory#getInternalStorage(Context)}).
+ * </p>
  */
 public class MusapStorage {
 
     private static final String PREF_NAME     = "musap_internal";
     private static final String MUSAP_ID_PREF = "musapid";
     private static final String RP_PREF       = "relying-parties";
+    private static final String CALLBACK_PREF = "link-callbacks";
     private static final Gson GSON = new Gson();
 
     private final Storage storage;
 
+    /**
+     * Cached MUSAP Link. Only valid if {@link #linkLoaded} is true.
+     */
+    private MusapLink link;
+    private boolean linkLoaded;
+
+    /**
+     * Cached unmodifiable Relying Party list. Null if not loaded yet.
+     */
+    private List<RelyingParty> relyingParties;
+
+    /**
+     * Cached unmodifiable list of unsent MUSAP Link callbacks. Null if not loaded yet.
+     */
+    private List<LinkCallback> linkCallbacks;
+
     public MusapStorage(Context context) {
-        this.storage = new SharedPrefStorage(context, PREF_NAME);
+        // Synchronous, so that a queued MUSAP Link callback survives a crash right after signing
+        this.storage = new SharedPrefStorage(context, PREF_NAME, true);
     }
     public MusapStorage(Storage storage) {
         this.storage = storage;
@@ -38,21 +64,23 @@ public class MusapStorage {
      * Store a Relying Party
      * @param rp Relying Party
      */
-    public void storeRelyingParty(RelyingParty rp) {
+    public synchronized void storeRelyingParty(RelyingParty rp) {
         if (rp == null) {
             MLog.d("Not storing null RP");
             return;
         }
 
-        List<RelyingParty> rps = listRelyingParties();
-        if (rps == null || rps.isEmpty()) {
-            rps = new ArrayList<>();
-        }
+        List<RelyingParty> rps = new ArrayList<>(listRelyingParties());
         rps.add(rp);
-        this.storePrefValue(RP_PREF, GSON.toJson(rps));
+        this.storeRelyingParties(rps);
     }
 
-    public boolean removeRelyingParty(RelyingParty rp) {
+    /**
+     * Remove a Relying Party
+     * @param rp Relying Party
+     * @return true if the Relying Party was found and removed
+     */
+    public synchronized boolean removeRelyingParty(RelyingParty rp) {
         if (rp == null) {
             MLog.d("Cannot remove null Relying Party");
             return false;
@@ -72,54 +100,119 @@ public class MusapStorage {
             }
         }
 
-        this.storePrefValue(RP_PREF, GSON.toJson(newRps));
-
+        if (removed) {
+            this.storeRelyingParties(newRps);
+        }
         return removed;
     }
 
     /**
      * Remove MUSAP Link
      */
-    public void removeLink() {
+    public synchronized void removeLink() {
         this.storePrefValue(MUSAP_ID_PREF, null);
+        this.link       = null;
+        this.linkLoaded = true;
     }
 
     /**
      * List Relying Parties
-     * @return RP list
+     * @return unmodifiable RP list. Empty if no RPs are stored.
      */
-    public List<RelyingParty> listRelyingParties() {
-        Type listType = new TypeToken<ArrayList<RelyingParty>>(){}.getType();
-        return GSON.fromJson(getPrefValue(RP_PREF), listType);
+    public synchronized List<RelyingParty> listRelyingParties() {
+        if (this.relyingParties == null) {
+            Type listType = new TypeToken<ArrayList<RelyingParty>>(){}.getType();
+            List<RelyingParty> rps = GSON.fromJson(getPrefValue(RP_PREF), listType);
+            this.relyingParties = rps != null ? Collections.unmodifiableList(rps) : Collections.emptyList();
+        }
+        return this.relyingParties;
     }
 
     /**
      * Store the MUSAP Link
      * @param link MUSAP Link
      */
-    public void storeLink(MusapLink link) {
+    public synchronized void storeLink(MusapLink link) {
         this.storePrefValue(MUSAP_ID_PREF, GSON.toJson(link));
+        this.link       = link;
+        this.linkLoaded = true;
         MLog.d("Stored MUSAP Link with MUSAP ID " + link.getMusapId());
     }
 
     /**
-     * Get the stored MUSAP Link
+     * Get the stored MUSAP Link.
+     * The same instance is returned until the link is stored or removed again.
      * @return MUSAP Link or null if not stored
      */
-    public MusapLink getMusapLink() {
-        return GSON.fromJson(this.getPrefValue(MUSAP_ID_PREF), MusapLink.class);
+    public synchronized MusapLink getMusapLink() {
+        if (!this.linkLoaded) {
+            this.link       = GSON.fromJson(this.getPrefValue(MUSAP_ID_PREF), MusapLink.class);
+            this.linkLoaded = true;
+        }
+        return this.link;
     }
 
     /**
      * Get the MUSAP ID if stored
      * @return MUSAP ID
      */
-    public String getMusapId() {
+    public synchronized String getMusapId() {
         MusapLink link = getMusapLink();
         if (link == null) return null;
         return link.getMusapId();
     }
 
+    /**
+     * Store a MUSAP Link callback until it has been sent.
+     * The callback is on disk when this returns.
+     * @param callback Callback
+     * @throws java.io.UncheckedIOException if the callback could not be written
+     */
+    public synchronized void addLinkCallback(LinkCallback callback) {
+        List<LinkCallback> callbacks = new ArrayList<>(this.listLinkCallbacks());
+        callbacks.add(callback);
+        this.storeLinkCallbacks(callbacks);
+    }
+
+    /**
+     * Remove sent MUSAP Link callbacks
+     * @param requestIds Request IDs of the sent callbacks
+     */
+    public synchronized void removeLinkCallbacks(Collection<String> requestIds) {
+        if (requestIds.isEmpty()) return;
+
+        List<LinkCallback> callbacks = new ArrayList<>();
+        for (LinkCallback callback : this.listLinkCallbacks()) {
+            if (!requestIds.contains(callback.getRequestId())) {
+                callbacks.add(callback);
+            }
+        }
+        this.storeLinkCallbacks(callbacks);
+    }
+
+    /**
+     * List MUSAP Link callbacks that have not been sent yet
+     * @return unmodifiable callback list, oldest first
+     */
+    public synchronized List<LinkCallback> listLinkCallbacks() {
+        if (this.linkCallbacks == null) {
+            Type listType = new TypeToken<ArrayList<LinkCallback>>(){}.getType();
+            List<LinkCallback> callbacks = GSON.fromJson(getPrefValue(CALLBACK_PREF), listType);
+            this.linkCallbacks = callbacks != null ? Collections.unmodifiableList(callbacks) : Collections.emptyList();
+        }
+        return this.linkCallbacks;
+    }
+
+    private void storeLinkCallbacks(List<LinkCallback> callbacks) {
+        this.storePrefValue(CALLBACK_PREF, callbacks.isEmpty() ? null : GSON.toJson(callbacks));
+        this.linkCallbacks = Collections.unmodifiableList(callbacks);
+    }
+
+    private void storeRelyingParties(List<RelyingParty> rps) {
+        this.storePrefValue(RP_PREF, GSON.toJson(rps));
+        this.relyingParties = Collections.unmodifiableList(rps);
+    }
+
     private void storePrefValue(String prefName, String prefValue) {
         this.storage.putString(prefName, prefValue);
     }
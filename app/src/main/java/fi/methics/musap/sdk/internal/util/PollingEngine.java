@@ -0,0 +1,377 @@
+package fi.methics.musap.sdk.internal.util;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import fi.methics.musap.sdk.api.MusapException;
+
+/**
+ * Polls until a result is ready, with exponential backoff and jitter.
+ * <p>
+ * The first attempt is made after a short delay so that fast responses arrive quickly.
+ * Each following delay grows by the backoff multiplier up to the maximum delay, so slow
+ * transactions do not hammer the server. Jitter spreads out clients that started at the same time.
+ * </p>
+ *
+ * <pre>
+ * PollingEngine engine = new PollingEngine.Builder()
+ *         .setInitialDelay(Duration.ofMillis(250))
+ *         .setMaxDelay(Duration.ofSeconds(5))
+ *         .setTimeout(settings.getTimeout())
+ *         .build();
+ * MusapSignature signature = engine.poll(() -&gt; this.checkStatus(request));
+ * </pre>
+ *
+ * Polling stops with {@link MusapException#ERROR_TIMED_OUT} when the deadline is reached,
+ * and with {@link MusapException#ERROR_USER_CANCEL} when the polling thread is interrupted.
+ * <p>
+ * {@link #pollAsync(AsyncAttempt)} polls without holding a thread. The delays run on one shared
+ * scheduler thread, so any number of pending transactions can be polled at the same time.
+ * </p>
+ */
+public class PollingEngine {
+
+    public static final long   DEFAULT_INITIAL_DELAY_MS = 250;
+    public static final double DEFAULT_MULTIPLIER       = 1.5;
+    public static final double DEFAULT_JITTER           = 0.2;
+    public static final long   DEFAULT_MAX_DELAY_MS     = 5000;
+    public static final long   DEFAULT_TIMEOUT_MS       = 2*60*1000;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "musap-poll");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long   initialDelayMs;
+    private final double multiplier;
+    private final double jitter;
+    private final long   maxDelayMs;
+    private final long   timeoutMs;
+    private final Listener listener;
+
+    private PollingEngine(Builder builder) {
+        this.initialDelayMs = builder.initialDelayMs;
+        this.multiplier     = builder.multiplier;
+        this.jitter         = builder.jitter;
+        this.maxDelayMs     = builder.maxDelayMs;
+        this.timeoutMs      = builder.timeoutMs;
+        this.listener       = builder.listener;
+    }
+
+    /**
+     * One poll attempt
+     * @param <T> Result type
+     */
+    public interface Attempt<T> {
+
+        /**
+         * Check if the result is ready
+         * @return result, or null if it is not ready yet
+         * @throws Exception if polling should stop with an error
+         */
+        T poll() throws Exception;
+    }
+
+    /**
+     * One non-blocking poll attempt
+     * @param <T> Result type
+     */
+    public interface AsyncAttempt<T> {
+
+        /**
+         * Start checking if the result is ready. Must not block.
+         * @return future that completes with the result, or with null if it is not ready yet.
+         *         Failing the future stops polling with that error.
+         * @throws Exception if polling should stop with an error
+         */
+        CompletableFuture<T> poll() throws Exception;
+    }
+
+    /**
+     * Receives metrics of each poll attempt
+     */
+    public interface Listener {
+        void onAttempt(PollMetrics metrics);
+    }
+
+    /**
+     * Poll until the attempt returns a result
+     * @param attempt Poll attempt
+     * @param <T>     Result type
+     * @return result
+     * @throws MusapException if polling timed out or was interrupted
+     * @throws Exception if an attempt failed
+     */
+    public <T> T poll(Attempt<T> attempt) throws Exception {
+        long start    = System.currentTimeMillis();
+        long deadline = start + this.timeoutMs;
+        long delay    = this.initialDelayMs;
+
+        for (int i = 1; ; i++) {
+            long wait = Math.min(this.withJitter(delay), deadline - System.currentTimeMillis());
+            if (wait < 0) {
+                throw new MusapException(MusapException.ERROR_TIMED_OUT, "No result in " + this.timeoutMs + "ms (" + (i - 1) + " attempts)");
+            }
+            this.sleep(wait);
+
+            long attemptStart = System.currentTimeMillis();
+            T result = attempt.poll();
+            long now = System.currentTimeMillis();
+
+            if (this.listener != null) {
+                this.listener.onAttempt(new PollMetrics(i, wait, now - attemptStart, now - start, result != null));
+            }
+            if (result != null) {
+                return result;
+            }
+            if (now >= deadline) {
+                throw new MusapException(MusapException.ERROR_TIMED_OUT, "No result in " + this.timeoutMs + "ms (" + i + " attempts)");
+            }
+            delay = Math.min(this.maxDelayMs, (long) (delay * this.multiplier));
+        }
+    }
+
+    /**
+     * Poll until the attempt returns a result, without blocking the calling thread.
+     * Cancel the returned future to stop polling. When the returned future completes,
+     * including by cancellation or timeout, an attempt still in progress is cancelled.
+     * @param attempt Poll attempt
+     * @param <T>     Result type
+     * @return future that completes with the result. It fails with a {@link MusapException}
+     *         if polling timed out, or with the error of a failed attempt.
+     */
+    public <T> CompletableFuture<T> pollAsync(AsyncAttempt<T> attempt) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<T>> current = new AtomicReference<>();
+        result.whenComplete((value, error) -> {
+            CompletableFuture<T> stage = current.get();
+            if (stage != null) stage.cancel(true);
+        });
+        long start = System.currentTimeMillis();
+        this.scheduleAttempt(attempt, result, current, 1, this.initialDelayMs, start, start + this.timeoutMs);
+        return result;
+    }
+
+    private <T> void scheduleAttempt(AsyncAttempt<T> attempt, CompletableFuture<T> result,
+                                     AtomicReference<CompletableFuture<T>> current,
+                                     int i, long delay, long start, long deadline) {
+        long wait = Math.min(this.withJitter(delay), deadline - System.currentTimeMillis());
+        if (wait < 0) {
+            result.completeExceptionally(new MusapException(MusapException.ERROR_TIMED_OUT, "No result in " + this.timeoutMs + "ms (" + (i - 1) + " attempts)"));
+            return;
+        }
+        SCHEDULER.schedule(() -> {
+            if (result.isDone()) {
+                // Cancelled
+                return;
+            }
+            long attemptStart = System.currentTimeMillis();
+            CompletableFuture<T> stage;
+            try {
+                stage = attempt.poll();
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            current.set(stage);
+            if (result.isDone()) {
+                // Cancelled while the attempt was starting
+                stage.cancel(true);
+                return;
+            }
+            stage.whenComplete((value, error) -> {
+                long now = System.currentTimeMillis();
+                if (error != null) {
+                    result.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                    return;
+                }
+                if (this.listener != null) {
+                    this.listener.onAttempt(new PollMetrics(i, wait, now - attemptStart, now - start, value != null));
+                }
+                if (value != null) {
+                    result.complete(value);
+                } else if (now >= deadline) {
+                    result.completeExceptionally(new MusapException(MusapException.ERROR_TIMED_OUT, "No result in " + this.timeoutMs + "ms (" + i + " attempts)"));
+                } else {
+                    this.scheduleAttempt(attempt, result, current, i + 1, Math.min(this.maxDelayMs, (long) (delay * this.multiplier)), start, deadline);
+                }
+            });
+        }, wait, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get the delay before an attempt, without jitter
+     * @param attempt Attempt number (starting from 1)
+     * @return delay in milliseconds
+     */
+    public long getDelay(int attempt) {
+        double delay = this.initialDelayMs * Math.pow(this.multiplier, attempt - 1);
+        return (long) Math.min(this.maxDelayMs, delay);
+    }
+
+    public long getTimeoutMs() {
+        return this.timeoutMs;
+    }
+
+    private long withJitter(long delay) {
+        if (this.jitter <= 0) return delay;
+        double factor = 1 + ThreadLocalRandom.current().nextDouble(-this.jitter, this.jitter);
+        return Math.max(0, (long) (delay * factor));
+    }
+
+    private void sleep(long ms) throws MusapException {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MusapException(MusapException.ERROR_USER_CANCEL, "Polling interrupted");
+        }
+    }
+
+    /**
+     * Metrics of one poll attempt
+     */
+    public static class PollMetrics {
+
+        private final int     attempt;
+        private final long    delayMs;
+        private final long    durationMs;
+        private final long    elapsedMs;
+        private final boolean done;
+
+        PollMetrics(int attempt, long delayMs, long durationMs, long elapsedMs, boolean done) {
+            this.attempt    = attempt;
+            this.delayMs    = delayMs;
+            this.durationMs = durationMs;
+            this.elapsedMs  = elapsedMs;
+            this.done       = done;
+        }
+
+        /**
+         * @return attempt number, starting from 1
+         */
+        public int getAttempt() {
+            return this.attempt;
+        }
+
+        /**
+         * @return time waited before the attempt in milliseconds
+         */
+        public long getDelayMs() {
+            return this.delayMs;
+        }
+
+        /**
+         * @return time the attempt itself took in milliseconds
+         */
+        public long getDurationMs() {
+            return this.durationMs;
+        }
+
+        /**
+         * @return time since polling started in milliseconds
+         */
+        public long getElapsedMs() {
+            return this.elapsedMs;
+        }
+
+        /**
+         * @return true if this attempt got the result
+         */
+        public boolean isDone() {
+            return this.done;
+        }
+
+        @Override
+        public String toString() {
+            return "Poll attempt " + this.attempt
+                    + ": waited " + this.delayMs + "ms"
+                    + ", took "   + this.durationMs + "ms"
+                    + ", elapsed " + this.elapsedMs + "ms"
+                    + (this.done ? ", done" : ", not ready");
+        }
+    }
+
+    public static class Builder {
+
+        private long   initialDelayMs = DEFAULT_INITIAL_DELAY_MS;
+        private double multiplier     = DEFAULT_MULTIPLIER;
+        private double jitter         = DEFAULT_JITTER;
+        private long   maxDelayMs     = DEFAULT_MAX_DELAY_MS;
+        private long   timeoutMs      = DEFAULT_TIMEOUT_MS;
+        private Listener listener     = metrics -> MLog.d(metrics.toString());
+
+        /**
+         * Set the delay before the first attempt
+         * @param delay Initial delay
+         * @return this builder
+         */
+        public Builder setInitialDelay(Duration delay) {
+            this.initialDelayMs = delay.toMillis();
+            return this;
+        }
+
+        /**
+         * Set how much the delay grows after each attempt
+         * @param multiplier Backoff multiplier (1 for a fixed interval)
+         * @return this builder
+         */
+        public Builder setMultiplier(double multiplier) {
+            this.multiplier = Math.max(1, multiplier);
+            return this;
+        }
+
+        /**
+         * Set how much each delay is randomized
+         * @param jitter Fraction of the delay, between 0 and 1. E.g. 0.2 gives +-20%.
+         * @return this builder
+         */
+        public Builder setJitter(double jitter) {
+            this.jitter = Math.max(0, Math.min(1, jitter));
+            return this;
+        }
+
+        /**
+         * Set the longest delay between attempts
+         * @param delay Maximum delay
+         * @return this builder
+         */
+        public Builder setMaxDelay(Duration delay) {
+            this.maxDelayMs = delay.toMillis();
+            return this;
+        }
+
+        /**
+         * Set how long to poll before giving up
+         * @param timeout Deadline measured from the start of polling
+         * @return this builder
+         */
+        public Builder setTimeout(Duration timeout) {
+            this.timeoutMs = timeout.toMillis();
+            return this;
+        }
+
+        /**
+         * Set a listener for per-attempt metrics. By default, metrics are logged.
+         * @param listener Listener
+         * @return this builder
+         */
+        public Builder setListener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public PollingEngine build() {
+            return new PollingEngine(this);
+        }
+    }
+
+}
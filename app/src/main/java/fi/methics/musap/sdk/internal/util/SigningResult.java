@@ -16,4 +16,12 @@ public class SigningResult {
         this.exception = e;
     }
 
+    /**
+     * Check if the signature was created
+     * @return true if this result contains a signature
+     */
+    public boolean isSuccess() {
+        return this.signature != null;
+    }
+
 }
\ No newline at end of file
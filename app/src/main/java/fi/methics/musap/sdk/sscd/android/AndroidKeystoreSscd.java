@@ -24,6 +24,7 @@ import fi.methics.musap.sdk.api.MusapConstants;
 import fi.methics.musap.sdk.attestation.AndroidKeyAttestation;
 import fi.methics.musap.sdk.attestation.KeyAttestation;
 import fi.methics.musap.sdk.extension.MusapSscdInterface;
+import fi.methics.musap.sdk.internal.async.MusapExecutors;
 import fi.methics.musap.sdk.internal.datatype.KeyAlgorithm;
 import fi.methics.musap.sdk.internal.datatype.MusapKey;
 import fi.methics.musap.sdk.internal.datatype.MusapLoA;
@@ -167,6 +168,11 @@ public class AndroidKeystoreSscd implements MusapSscdInterface<AndroidKeystoreSe
         return new AndroidKeyAttestation();
     }
 
+    @Override
+    public MusapExecutors.Pool getExecutorPool() {
+        return MusapExecutors.Pool.CRYPTO;
+    }
+
     /**
      * Resolve the {@link AlgorithmParameterSpec} to use with key generation
      * @param req Key generation request
@@ -16,6 +16,7 @@ import fi.methics.musap.sdk.api.MusapException;
 import fi.methics.musap.sdk.attestation.KeyAttestation;
 import fi.methics.musap.sdk.attestation.UiccKeyAttestation;
 import fi.methics.musap.sdk.extension.MusapSscdInterface;
+import fi.methics.musap.sdk.internal.async.MusapExecutors;
 import fi.methics.musap.sdk.internal.datatype.CmsSignature;
 import fi.methics.musap.sdk.internal.datatype.KeyAlgorithm;
 import fi.methics.musap.sdk.internal.datatype.KeyAttribute;
@@ -42,6 +43,9 @@ public class ExternalSscd implements MusapSscdInterface<ExternalSscdSettings> {
     public static final String SSCD_TYPE         = "External Signature";
     public static final String ATTRIBUTE_MSISDN  = "msisdn";
 
+    // Signatures are requested through MUSAP Link, each with its own transaction
+    private static final int MAX_CONCURRENT_SIGNATURES = 8;
+
     private Context              context;
     private ExternalSscdSettings settings;
     private MusapLink            musapLink;
@@ -92,7 +96,7 @@ public class ExternalSscd implements MusapSscdInterface<ExternalSscdSettings> {
         }
 
         MLog.d("Sending sign request to MUSAP Link");
-        ExternalSignatureResponsePayload response = this.musapLink.sign(request);
+        ExternalSignatureResponsePayload response = this.musapLink.sign(request, this.settings.getReceiveStrategy());
         CmsSignature signature = new CmsSignature(response.getRawSignature());
 
         return new MusapKey.Builder()
@@ -142,7 +146,7 @@ public class ExternalSscd implements MusapSscdInterface<ExternalSscdSettings> {
             this.musapLink = this.settings.getMusapLink();
         }
 
-        ExternalSignatureResponsePayload response = this.musapLink.sign(request);
+        ExternalSignatureResponsePayload response = this.musapLink.sign(request, this.settings.getReceiveStrategy());
 
         MusapSignature sig = new MusapSignature(response.getRawSignature());
         sig.setKey(req.getKey());
@@ -158,6 +162,7 @@ public class ExternalSscd implements MusapSscdInterface<ExternalSscdSettings> {
                 .setProvider(this.settings.getProvider())
                 .setSupportedAlgorithms(Arrays.asList(KeyAlgorithm.RSA_2K))
                 .setSupportedFormats(Arrays.asList(SignatureFormat.RAW, SignatureFormat.CMS))
+                .setMaxConcurrentSignatures(MAX_CONCURRENT_SIGNATURES)
                 .build();
     }
 
@@ -171,6 +176,11 @@ public class ExternalSscd implements MusapSscdInterface<ExternalSscdSettings> {
         return new UiccKeyAttestation();
     }
 
+    @Override
+    public MusapExecutors.Pool getExecutorPool() {
+        return MusapExecutors.Pool.NETWORK;
+    }
+
     /**
      * Show a dialog asking for the MSISDN
      * @param activity Activity to inflate with the dialog
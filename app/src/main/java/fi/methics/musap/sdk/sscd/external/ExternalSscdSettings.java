@@ -9,6 +9,7 @@ import fi.methics.musap.sdk.attestation.KeyAttestation;
 import fi.methics.musap.sdk.attestation.UiccKeyAttestation;
 import fi.methics.musap.sdk.extension.SscdSettings;
 import fi.methics.musap.sdk.internal.datatype.MusapLink;
+import fi.methics.musap.sdk.internal.link.ReceiveStrategy;
 
 public class ExternalSscdSettings implements SscdSettings {
 
@@ -19,6 +20,7 @@ public class ExternalSscdSettings implements SscdSettings {
 
     private Map<String, String> settings = new HashMap<>();
     private Duration timeout;
+    private ReceiveStrategy receiveStrategy;
 
     /**
      * Construct External SSCD settings
@@ -45,6 +47,17 @@ public class ExternalSscdSettings implements SscdSettings {
         return this;
     }
 
+    /**
+     * Set how pending signature results are received from MUSAP Link.
+     * If not set, the strategy of the MUSAP Link is used.
+     * @param strategy Receive strategy
+     * @return this settings object
+     */
+    public ExternalSscdSettings setReceiveStrategy(ReceiveStrategy strategy) {
+        this.receiveStrategy = strategy;
+        return this;
+    }
+
     public String getClientId() {
         return this.getSetting(SETTINGS_CLIENT_ID);
     }
@@ -63,6 +76,10 @@ public class ExternalSscdSettings implements SscdSettings {
         return name != null ? name : "External Signature";
     }
 
+    public ReceiveStrategy getReceiveStrategy() {
+        return this.receiveStrategy;
+    }
+
     public MusapLink getMusapLink() {
         return MusapClient.getMusapLink();
     }
@@ -17,6 +17,7 @@ import fi.methics.musap.sdk.api.MusapException;
 import fi.methics.musap.sdk.attestation.KeyAttestation;
 import fi.methics.musap.sdk.attestation.UiccKeyAttestation;
 import fi.methics.musap.sdk.extension.MusapSscdInterface;
+import fi.methics.musap.sdk.internal.async.MusapExecutors;
 import fi.methics.musap.sdk.internal.datatype.CmsSignature;
 import fi.methics.musap.sdk.internal.datatype.KeyAlgorithm;
 import fi.methics.musap.sdk.internal.datatype.MusapKey;
@@ -29,6 +30,7 @@ import fi.methics.musap.sdk.internal.keygeneration.KeyGenReq;
 import fi.methics.musap.sdk.internal.sign.SignatureReq;
 import fi.methics.musap.sdk.internal.util.MBase64;
 import fi.methics.musap.sdk.internal.util.MLog;
+import fi.methics.musap.sdk.internal.util.PollingEngine;
 import fi.methics.musapsdk.R;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
@@ -45,7 +47,8 @@ public class MethicsDemoSscd implements MusapSscdInterface<MethicsDemoSettings>
     public static final String SSCD_TYPE         = "Methics Demo";
     public static final String ATTRIBUTE_MSISDN  = "msisdn";
 
-    private static final int POLL_AMOUNT = 10;
+    // Remote service, each request has its own transaction
+    private static final int MAX_CONCURRENT_SIGNATURES = 8;
 
     private static final Gson GSON = new Gson();
 
@@ -114,6 +117,7 @@ public class MethicsDemoSscd implements MusapSscdInterface<MethicsDemoSettings>
                 .setKeygenSupported(false)
                 .setSupportedAlgorithms(Arrays.asList(KeyAlgorithm.RSA_2K))
                 .setSupportedFormats(Arrays.asList(SignatureFormat.RAW, SignatureFormat.CMS))
+                .setMaxConcurrentSignatures(MAX_CONCURRENT_SIGNATURES)
                 .build();
     }
 
@@ -127,6 +131,11 @@ public class MethicsDemoSscd implements MusapSscdInterface<MethicsDemoSettings>
         return new UiccKeyAttestation();
     }
 
+    @Override
+    public MusapExecutors.Pool getExecutorPool() {
+        return MusapExecutors.Pool.NETWORK;
+    }
+
     /**
      * Show a dialog asking for the MSISDN
      * @param activity Activity to inflate with the dialog
@@ -219,36 +228,45 @@ public class MethicsDemoSscd implements MusapSscdInterface<MethicsDemoSettings>
                 .post(body)
                 .build();
 
-        for (int i = 0; i < POLL_AMOUNT; i++) {
-            try {
-                Thread.sleep(2000);
-            } catch (InterruptedException e) {
-                continue;
-            }
-            try (Response response = client.newCall(request).execute()) {
+        PollingEngine engine = new PollingEngine.Builder()
+                .setTimeout(this.getSettings().getTimeout())
+                .build();
+        try {
+            return engine.poll(() -> this.checkStatus(request, jReq));
+        } catch (IOException | MusapException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MusapException(e);
+        }
+    }
 
-                MLog.d("Sending request " + GSON.toJson(jReq));
-                String sResp = response.body().string();
-                MLog.d("Got response " + sResp);
+    /**
+     * Send one status request
+     * @return signature, or null if the signature is not ready yet
+     */
+    private CmsSignature checkStatus(Request request, DemoSigReq jReq) throws IOException, MusapException {
+        try (Response response = client.newCall(request).execute()) {
 
-                DemoSigResp jResp = GSON.fromJson(sResp, DemoSigResp.class);
+            MLog.d("Sending request " + GSON.toJson(jReq));
+            String sResp = response.body().string();
+            MLog.d("Got response " + sResp);
 
-                if (jResp.success == false && (jResp.statuscode == null || "0".equals(jResp.statuscode))) {
-                    // No response yet
-                    MLog.d("Not ready yet");
-                    continue;
-                }
+            DemoSigResp jResp = GSON.fromJson(sResp, DemoSigResp.class);
 
-                if ("500".equals(jResp.statuscode)) {
-                    MLog.d("Successfully signed");
-                } else {
-                    throw this.handleError(jResp.statuscode);
-                }
+            if (jResp.success == false && (jResp.statuscode == null || "0".equals(jResp.statuscode))) {
+                // No response yet
+                MLog.d("Not ready yet");
+                return null;
+            }
 
-                return new CmsSignature(MBase64.toBytes(jResp.signature));
+            if ("500".equals(jResp.statuscode)) {
+                MLog.d("Successfully signed");
+            } else {
+                throw this.handleError(jResp.statuscode);
             }
+
+            return new CmsSignature(MBase64.toBytes(jResp.signature));
         }
-        throw new MusapException(MusapException.ERROR_TIMED_OUT, "Failed to get a signature in " + POLL_AMOUNT + " attempts");
     }
 
     private MusapException handleError(String statusCode) {
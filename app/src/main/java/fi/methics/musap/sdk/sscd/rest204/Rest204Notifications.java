@@ -0,0 +1,122 @@
+package fi.methics.musap.sdk.sscd.rest204;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import fi.methics.musap.sdk.api.MusapFuture;
+import fi.methics.musap.sdk.internal.util.MLog;
+import fi.methics.musap.sdk.sscd.rest204.json.MSS_Resp;
+import fi.methics.musap.sdk.sscd.rest204.json.MSS_StatusResp;
+
+/**
+ * Registry of REST 204 transactions that complete with a notification pushed by the MSSP
+ * (ETSI TS 102 204 asynchronous server-server mode) instead of MSS_StatusReq polling.
+ * <p>
+ * The application receives the notification (e.g. as FCM data) and forwards it to MUSAP
+ * with {@link fi.methics.musap.sdk.api.MusapClient#handleRest204Notification(String)}.
+ * </p>
+ */
+public class Rest204Notifications {
+
+    private static final Gson GSON = new Gson();
+    private static final Rest204Notifications INSTANCE = new Rest204Notifications();
+
+    // Notifications that arrived before their transaction was registered
+    private static final int MAX_EARLY_NOTIFICATIONS = 64;
+
+    private final Map<String, MusapFuture<MSS_StatusResp>> pending = new HashMap<>();
+    private final Map<String, MSS_StatusResp> early = new LinkedHashMap<String, MSS_StatusResp>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MSS_StatusResp> eldest) {
+            return this.size() > MAX_EARLY_NOTIFICATIONS;
+        }
+    };
+
+    Rest204Notifications() {
+
+    }
+
+    public static Rest204Notifications getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Register a transaction to wait for its notification
+     * @param transId MSSP_TransID of the transaction
+     * @param timeout Time to wait for the notification
+     * @return future that completes with the notified MSS_StatusResp
+     */
+    public MusapFuture<MSS_StatusResp> register(String transId, Duration timeout) {
+        MusapFuture<MSS_StatusResp> future = new MusapFuture<>();
+        MSS_StatusResp resp;
+        synchronized (this) {
+            resp = this.early.remove(transId);
+            if (resp == null) {
+                this.pending.put(transId, future);
+            }
+        }
+        if (resp != null) {
+            future.complete(resp);
+            return future;
+        }
+        future.whenComplete((r, e) -> this.unregister(transId, future));
+        return future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Complete a transaction with a received notification
+     * @param notification Notification JSON containing an MSS_StatusResp
+     * @return true if this was a valid REST 204 notification
+     */
+    public boolean onNotification(String notification) {
+        MSS_Resp resp;
+        try {
+            resp = GSON.fromJson(notification, MSS_Resp.class);
+        } catch (JsonParseException e) {
+            MLog.d("Not a REST 204 notification: " + e.getMessage());
+            return false;
+        }
+        if (resp == null || resp.statusResp == null || resp.statusResp.msspTransId == null) {
+            return false;
+        }
+        this.onNotification(resp.statusResp.msspTransId, resp.statusResp);
+        return true;
+    }
+
+    /**
+     * Complete a transaction with a received MSS_StatusResp
+     * @param transId MSSP_TransID of the transaction
+     * @param resp    Notified status
+     */
+    public void onNotification(String transId, MSS_StatusResp resp) {
+        MusapFuture<MSS_StatusResp> future;
+        synchronized (this) {
+            future = this.pending.remove(transId);
+            if (future == null) {
+                MLog.d("Notification for unregistered transaction " + transId);
+                this.early.put(transId, resp);
+                return;
+            }
+        }
+        future.complete(resp);
+    }
+
+    /**
+     * Get the number of transactions waiting for a notification
+     * @return pending transaction count
+     */
+    public synchronized int size() {
+        return this.pending.size();
+    }
+
+    private synchronized void unregister(String transId, MusapFuture<MSS_StatusResp> future) {
+        this.pending.remove(transId, future);
+    }
+
+}
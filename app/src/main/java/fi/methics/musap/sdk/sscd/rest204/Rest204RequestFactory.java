@@ -0,0 +1,137 @@
+package fi.methics.musap.sdk.sscd.rest204;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import fi.methics.musap.sdk.internal.util.MLog;
+import fi.methics.musap.sdk.sscd.rest204.json.MSS_SignatureReq;
+import fi.methics.musap.sdk.sscd.rest204.json.MSS_SignatureResp;
+import okhttp3.Headers;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.Buffer;
+
+/**
+ * Builds the HMAC signed requests of one REST 204 SSCD.
+ * <p>
+ * The URL and the JSON wrappers of the messages are prepared once. The body of a status request
+ * is built once per transaction, and each poll only gets a fresh Date header and HMAC.
+ * </p>
+ */
+class Rest204RequestFactory {
+
+    private static final Gson GSON = new Gson();
+
+    private static final String SIGNATURE_REQ_PREFIX = "{\"MSS_SignatureReq\": ";
+    private static final String STATUS_REQ_PREFIX    = "{\"MSS_StatusReq\": {";
+    private static final String TRANSID_FIELD        = "\"MSSP_TransID\": ";
+    private static final String MSSP_INFO_FIELD      = "\"MSSP_Info\": ";
+
+    private final String   restUrl;
+    private final URL      url;
+    private final RestHmac hmac;
+
+    Rest204RequestFactory(String restUrl, RestHmac hmac) {
+        this.restUrl = restUrl;
+        this.url     = parseUrl(restUrl);
+        this.hmac    = hmac;
+    }
+
+    /**
+     * Create an MSS_SignatureReq. The message is serialized directly into the body bytes.
+     * @param jReq Signature request message
+     * @return signed request
+     */
+    Request createSignatureRequest(MSS_SignatureReq jReq) throws IOException {
+        Buffer body = new Buffer();
+        body.writeUtf8(SIGNATURE_REQ_PREFIX);
+        try (Writer writer = new OutputStreamWriter(body.outputStream(), StandardCharsets.UTF_8)) {
+            GSON.toJson(jReq, writer);
+        }
+        body.writeUtf8("}");
+
+        byte[] bytes = body.readByteArray();
+        MLog.d("Sending request " + new String(bytes, StandardCharsets.UTF_8));
+        return this.createRequest(bytes);
+    }
+
+    /**
+     * Create the MSS_StatusReq of a transaction
+     * @param sigResp MSS_SignatureResp of the transaction
+     * @return status request that is signed again each time it is built
+     */
+    StatusRequest createStatusRequest(MSS_SignatureResp sigResp) throws IOException {
+        Buffer body = new Buffer();
+        body.writeUtf8(STATUS_REQ_PREFIX);
+        if (sigResp.msspTransId != null) {
+            body.writeUtf8(TRANSID_FIELD).writeUtf8(GSON.toJson(sigResp.msspTransId));
+        }
+        if (sigResp.msspInfo != null) {
+            if (sigResp.msspTransId != null) body.writeUtf8(", ");
+            body.writeUtf8(MSSP_INFO_FIELD).writeUtf8(GSON.toJson(sigResp.msspInfo));
+        }
+        body.writeUtf8("}}");
+
+        // Fail now rather than on the first poll
+        this.getUrl();
+        return new StatusRequest(body.readByteArray());
+    }
+
+    private Request createRequest(byte[] body) throws IOException {
+        Map<String, String> headersToAdd = this.hmac.requestHeaders("POST", this.getUrl(), body);
+        Headers.Builder headers = new Headers.Builder();
+        for (Map.Entry<String, String> header : headersToAdd.entrySet()) {
+            headers.add(header.getKey(), header.getValue());
+        }
+
+        return new Request.Builder()
+                .url(this.restUrl)
+                .headers(headers.build())
+                .post(RequestBody.create(body, Rest204Sscd.JSON))
+                .build();
+    }
+
+    private URL getUrl() throws IOException {
+        if (this.url == null) {
+            throw new MalformedURLException("Invalid REST URL " + this.restUrl);
+        }
+        return this.url;
+    }
+
+    private static URL parseUrl(String restUrl) {
+        try {
+            return new URL(restUrl);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * MSS_StatusReq of one transaction
+     */
+    class StatusRequest {
+
+        private final byte[] body;
+
+        private StatusRequest(byte[] body) {
+            this.body = body;
+        }
+
+        /**
+         * Build the request with the current Date header and HMAC
+         * @return signed request
+         */
+        Request build() throws IOException {
+            return createRequest(this.body);
+        }
+
+    }
+
+}
@@ -29,6 +29,7 @@ public class Rest204Settings implements SscdSettings {
     private boolean noSpamEnabled;
     private boolean eventIdEnabled;
     private boolean dtbdEnabled = true;
+    private boolean notificationEnabled;
 
     /**
      * Construct REST SSCD settings
@@ -91,6 +92,16 @@ public class Rest204Settings implements SscdSettings {
         this.dtbdEnabled = enabled;
     }
 
+    /**
+     * Complete signatures with MSSP notifications (asynchronous server-server mode)
+     * instead of polling MSS_StatusReq. The application must forward the notifications
+     * to {@link fi.methics.musap.sdk.api.MusapClient#handleRest204Notification(String)}.
+     * @param enabled true to wait for notifications
+     */
+    public void setNotificationEnabled(boolean enabled) {
+        this.notificationEnabled = enabled;
+    }
+
     @Override
     public Map<String, String> getSettings() {
         return settings;
@@ -166,4 +177,8 @@ public class Rest204Settings implements SscdSettings {
         return this.dtbdEnabled;
     }
 
+    public boolean isNotificationEnabled() {
+        return this.notificationEnabled;
+    }
+
 }
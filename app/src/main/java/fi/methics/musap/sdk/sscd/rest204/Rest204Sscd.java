@@ -10,16 +10,19 @@ import android.widget.TextView;
 import com.google.gson.Gson;
 
 import java.io.IOException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Map;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 import fi.methics.musap.sdk.api.MusapException;
+import fi.methics.musap.sdk.api.MusapFuture;
 import fi.methics.musap.sdk.attestation.KeyAttestation;
 import fi.methics.musap.sdk.attestation.UiccKeyAttestation;
 import fi.methics.musap.sdk.extension.MusapSscdInterface;
+import fi.methics.musap.sdk.internal.async.MusapExecutors;
 import fi.methics.musap.sdk.internal.datatype.CmsSignature;
 import fi.methics.musap.sdk.internal.datatype.KeyAlgorithm;
 import fi.methics.musap.sdk.internal.datatype.MusapKey;
@@ -33,17 +36,18 @@ import fi.methics.musap.sdk.internal.sign.SignatureReq;
 import fi.methics.musap.sdk.internal.util.IdGenerator;
 import fi.methics.musap.sdk.internal.util.MBase64;
 import fi.methics.musap.sdk.internal.util.MLog;
+import fi.methics.musap.sdk.internal.util.PollingEngine;
+import fi.methics.musap.sdk.internal.util.SigningResult;
 import fi.methics.musap.sdk.sscd.rest204.json.MSS_Resp;
 import fi.methics.musap.sdk.sscd.rest204.json.MSS_SignatureReq;
 import fi.methics.musap.sdk.sscd.rest204.json.MSS_SignatureResp;
-import fi.methics.musap.sdk.sscd.rest204.json.MSS_StatusReq;
 import fi.methics.musap.sdk.sscd.rest204.json.MSS_StatusResp;
 import fi.methics.musapsdk.R;
-import okhttp3.Headers;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
 
 public class Rest204Sscd implements MusapSscdInterface<Rest204Settings> {
@@ -57,18 +61,22 @@ public class Rest204Sscd implements MusapSscdInterface<Rest204Settings> {
     public static final String ATTRIBUTE_SSCD    = "sscdname";
 
     private static final Gson GSON = new Gson();
-    private static final int POLL_AMOUNT = 20;
+
+    // Remote service, each request has its own transaction
+    private static final int MAX_CONCURRENT_SIGNATURES = 8;
 
     private Context         context;
     private Rest204Settings settings;
     private OkHttpClient    client;
     private RestHmac        hmacClient;
+    private Rest204RequestFactory requests;
 
     public Rest204Sscd(Context context, Rest204Settings settings) {
         this.context  = context;
         this.settings = settings;
         this.client   = new OkHttpClient.Builder().readTimeout(settings.getTimeout()).build();
         this.hmacClient = new RestHmac(this.client, this.settings.getRestUserId(), this.settings.getRestApiKey());
+        this.requests   = new Rest204RequestFactory(this.settings.getRestUrl(), this.hmacClient);
     }
 
     @Override
@@ -89,74 +97,74 @@ public class Rest204Sscd implements MusapSscdInterface<Rest204Settings> {
 
     @Override
     public MusapSignature sign(SignatureReq req) throws Exception {
+        return await(this.signAsync(req));
+    }
 
-        MusapKey musapKey = req.getKey();
-        String msisdn = musapKey.getAttributeValue(ATTRIBUTE_MSISDN);
-        MLog.d("Sending signature request to REST 204 for MSISDN " + msisdn);
-
-        MSS_SignatureReq jReq = new MSS_SignatureReq(msisdn);
-        jReq.dtbd             = new MSS_SignatureReq.DTBD(req.getDisplayText());
-        jReq.dtbs             = new MSS_SignatureReq.DTBS(req.getData());
-        jReq.signatureProfile = this.settings.getSignatureProfile();
-
-        if (!this.settings.isDtbdEnabled()) {
-            jReq.dtbd = null;
-        }
-        if (req.getFormat() == null || SignatureFormat.RAW.equals(req.getFormat())) {
-            jReq.format = this.getSettings().getRawFormatUri();
-        } else {
-            jReq.format = this.getSettings().getCmsFormatUri();
-        }
-
-        if (this.settings.isNoSpamEnabled()) {
-            jReq.additionalServices = new ArrayList<>();
-            MSS_SignatureReq.AdditionalService nospam = new MSS_SignatureReq.AdditionalService();
-            nospam.description = "http://mss.ficom.fi/TS102204/v1.0.0#noSpam";
-            nospam.noSpamCode  = new MSS_SignatureReq.NoSpamCode();
-            nospam.noSpamCode.code = req.getAttribute(ATTRIBUTE_NOSPAM);
-            jReq.additionalServices.add(nospam);
-        }
-
-        if (msisdn == null) throw new MusapException(MusapException.ERROR_MISSING_PARAM, "Missing MSISDN");
-
+    /**
+     * Send the MSS_SignatureReq and poll its status without blocking. Requests are sent with
+     * OkHttp {@code enqueue} and status polls are scheduled on the shared {@link PollingEngine}
+     * scheduler, so a pending transaction holds no thread.
+     * @param req Signature request
+     * @return future that completes with the signature
+     */
+    @Override
+    public CompletableFuture<MusapSignature> signAsync(SignatureReq req) {
+        CompletableFuture<MusapSignature> result = new CompletableFuture<>();
+        CompletableFuture<MSS_SignatureResp> sent;
         try {
-            String restUrl = this.getSettings().getRestUrl();
-            URL        url = new URL(restUrl);
-
-            String             json = "{\"MSS_SignatureReq\": " + GSON.toJson(jReq) + "}";
-            RequestBody        body = RequestBody.create(json, JSON);
-            Headers.Builder headers = new Headers.Builder();
-
-            Map<String, String> headersToAdd = this.hmacClient.requestHeaders("POST", url, json);
-            for (String key : headersToAdd.keySet()) {
-                headers.add(key, headersToAdd.get(key));
+            sent = this.sendSignatureRequest(req);
+        } catch (Exception e) {
+            result.completeExceptionally(toMusapException(e));
+            return result;
+        }
+        sent.whenComplete((sigResp, error) -> {
+            if (error != null) {
+                result.completeExceptionally(toMusapException(error));
+                return;
             }
+            CompletableFuture<MusapSignature> polled = this.pollForSignature(req.getFormat(), sigResp);
+            result.whenComplete((signature, e) -> polled.cancel(true));
+            polled.whenComplete((signature, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(toMusapException(e));
+                } else {
+                    signature.setKey(req.getKey());
+                    result.complete(signature);
+                }
+            });
+        });
+        // Cancelling the signature cancels the pending HTTP call
+        result.whenComplete((signature, e) -> sent.cancel(true));
+        return result;
+    }
 
-            Request request = new Request.Builder()
-                    .url(restUrl)
-                    .headers(headers.build())
-                    .post(body)
-                    .build();
-
-            MLog.d("Sending request " + GSON.toJson(jReq));
-            try (Response response = client.newCall(request).execute()) {
-
-                String sResp = response.body().string();
-                MLog.d("Got response " + sResp);
+    @Override
+    public boolean isNonBlocking() {
+        return true;
+    }
 
-                MSS_Resp resp = GSON.fromJson(sResp, MSS_Resp.class);
-                MSS_SignatureResp jResp = resp.signatureResp;
+    /**
+     * Send all signature requests first and then wait for them together, so that the
+     * signatures are processed in parallel.
+     * @param reqs Signature requests
+     * @return Result of each request in request order
+     */
+    @Override
+    public List<SigningResult> signBatch(List<SignatureReq> reqs) {
+        List<CompletableFuture<MusapSignature>> futures = new ArrayList<>();
+        for (SignatureReq req : reqs) {
+            futures.add(this.signAsync(req));
+        }
 
-                if (resp.fault != null) {
-                    throw this.handleError(resp.fault.code.subCode.value);
-                }
-                MusapSignature signature = pollForSignature(req.getFormat(), jResp);
-                signature.setKey(req.getKey());
-                return signature;
+        List<SigningResult> results = new ArrayList<>();
+        for (CompletableFuture<MusapSignature> future : futures) {
+            try {
+                results.add(new SigningResult(await(future)));
+            } catch (MusapException e) {
+                results.add(new SigningResult(e));
             }
-        } catch (Exception e) {
-            throw new MusapException(e);
         }
+        return results;
     }
 
     @Override
@@ -168,6 +176,7 @@ public class Rest204Sscd implements MusapSscdInterface<Rest204Settings> {
                 .setKeygenSupported(false)
                 .setSupportedAlgorithms(Arrays.asList(KeyAlgorithm.RSA_2K))
                 .setSupportedFormats(Arrays.asList(SignatureFormat.RAW, SignatureFormat.CMS))
+                .setMaxConcurrentSignatures(MAX_CONCURRENT_SIGNATURES)
                 .setProvider(this.getSettings().getProvider())
                 .build();
     }
@@ -182,6 +191,11 @@ public class Rest204Sscd implements MusapSscdInterface<Rest204Settings> {
         return new UiccKeyAttestation();
     }
 
+    @Override
+    public MusapExecutors.Pool getExecutorPool() {
+        return MusapExecutors.Pool.NETWORK;
+    }
+
     /**
      * Show a dialog asking for the MSISDN
      * @param activity Activity to inflate with the dialog
@@ -212,6 +226,46 @@ public class Rest204Sscd implements MusapSscdInterface<Rest204Settings> {
         });
     }
 
+    /**
+     * Send an MSS_SignatureReq
+     * @param req Signature request
+     * @return future that completes with the MSS_SignatureResp to poll with
+     */
+    private CompletableFuture<MSS_SignatureResp> sendSignatureRequest(SignatureReq req) throws Exception {
+        MusapKey musapKey = req.getKey();
+        String msisdn = musapKey.getAttributeValue(ATTRIBUTE_MSISDN);
+        MLog.d("Sending signature request to REST 204 for MSISDN " + msisdn);
+
+        MSS_SignatureReq jReq = new MSS_SignatureReq(msisdn);
+        jReq.dtbd             = new MSS_SignatureReq.DTBD(req.getDisplayText());
+        jReq.dtbs             = new MSS_SignatureReq.DTBS(req.getData());
+        jReq.signatureProfile = this.settings.getSignatureProfile();
+        jReq.messagingMode    = this.getMessagingMode();
+
+        if (!this.settings.isDtbdEnabled()) {
+            jReq.dtbd = null;
+        }
+        if (req.getFormat() == null || SignatureFormat.RAW.equals(req.getFormat())) {
+            jReq.format = this.getSettings().getRawFormatUri();
+        } else {
+            jReq.format = this.getSettings().getCmsFormatUri();
+        }
+
+        if (this.settings.isNoSpamEnabled()) {
+            jReq.additionalServices = new ArrayList<>();
+            MSS_SignatureReq.AdditionalService nospam = new MSS_SignatureReq.AdditionalService();
+            nospam.description = "http://mss.ficom.fi/TS102204/v1.0.0#noSpam";
+            nospam.noSpamCode  = new MSS_SignatureReq.NoSpamCode();
+            nospam.noSpamCode.code = req.getAttribute(ATTRIBUTE_NOSPAM);
+            jReq.additionalServices.add(nospam);
+        }
+
+        if (msisdn == null) throw new MusapException(MusapException.ERROR_MISSING_PARAM, "Missing MSISDN");
+
+        Request request = this.requests.createSignatureRequest(jReq);
+        return this.send(request).thenApply(resp -> resp.signatureResp);
+    }
+
     private MusapKey _bindKey(KeyBindReq req, String msisdn) throws MusapException {
 
         MLog.d("Sending bind request to REST 204 for MSISDN " + msisdn);
@@ -220,6 +274,7 @@ public class Rest204Sscd implements MusapSscdInterface<Rest204Settings> {
         jReq.dtbd             = new MSS_SignatureReq.DTBD(req.getDisplayText());
         jReq.dtbs             = new MSS_SignatureReq.DTBS(jReq.dtbd);
         jReq.signatureProfile = this.settings.getBindSignatureProfile();
+        jReq.messagingMode    = this.getMessagingMode();
         jReq.format           = this.getSettings().getCmsFormatUri();
 
         if (!this.settings.isDtbdEnabled()) {
@@ -237,119 +292,179 @@ public class Rest204Sscd implements MusapSscdInterface<Rest204Settings> {
         if (msisdn == null) throw new MusapException(MusapException.ERROR_MISSING_PARAM, "Missing MSISDN");
 
         try {
-            String restUrl = this.getSettings().getRestUrl();
-            URL        url = new URL(restUrl);
-
-            String             json = "{\"MSS_SignatureReq\": " + GSON.toJson(jReq) + "}";
-            RequestBody        body = RequestBody.create(json, JSON);
-            Headers.Builder headers = new Headers.Builder();
-
-            Map<String, String> headersToAdd = this.hmacClient.requestHeaders("POST", url, json);
-            for (String key : headersToAdd.keySet()) {
-                headers.add(key, headersToAdd.get(key));
-            }
-
-            Request request = new Request.Builder()
-                    .url(restUrl)
-                    .headers(headers.build())
-                    .post(body)
-                    .build();
-
-            MLog.d("Sending request " + GSON.toJson(jReq));
-            try (Response response = client.newCall(request).execute()) {
-
-                String sResp = response.body().string();
-                MLog.d("Got response " + sResp);
-
-                MSS_Resp resp = GSON.fromJson(sResp, MSS_Resp.class);
-                MSS_SignatureResp jResp = resp.signatureResp;
-
-                if (resp.fault != null) {
-                    throw this.handleError(resp.fault.code.subCode.value);
-                }
-
-                CmsSignature signature = (CmsSignature) pollForSignature(SignatureFormat.CMS, jResp);
-                MLog.d("Successfully bound REST 204 SSCD");
-                MusapKey.Builder builder = new MusapKey.Builder();
-                builder.setCertificate(signature.getSignerCertificate());
-                builder.setCertificateChain(signature.getCertificateChain());
-                builder.setKeyAlias(req.getKeyAlias());
-                builder.setSscdType(SSCD_TYPE);
-                builder.setSscdId(this.getSscdInfo().getSscdId());
-                builder.setLoa(Arrays.asList(MusapLoA.EIDAS_SUBSTANTIAL, MusapLoA.ISO_LOA3));
-                builder.addAttribute(ATTRIBUTE_MSISDN, msisdn);
-                builder.setKeyId(IdGenerator.generateKeyId());
-                return builder.build();
-            }
+            Request request = this.requests.createSignatureRequest(jReq);
+            MSS_SignatureResp jResp = await(this.send(request)).signatureResp;
+
+            CmsSignature signature = (CmsSignature) await(this.pollForSignature(SignatureFormat.CMS, jResp));
+            MLog.d("Successfully bound REST 204 SSCD");
+            MusapKey.Builder builder = new MusapKey.Builder();
+            builder.setCertificate(signature.getSignerCertificate());
+            builder.setCertificateChain(signature.getCertificateChain());
+            builder.setKeyAlias(req.getKeyAlias());
+            builder.setSscdType(SSCD_TYPE);
+            builder.setSscdId(this.getSscdInfo().getSscdId());
+            builder.setLoa(Arrays.asList(MusapLoA.EIDAS_SUBSTANTIAL, MusapLoA.ISO_LOA3));
+            builder.addAttribute(ATTRIBUTE_MSISDN, msisdn);
+            builder.setKeyId(IdGenerator.generateKeyId());
+            return builder.build();
         } catch (Exception e) {
             MLog.d("Failed to bind MSISDN " + msisdn + ": " + e.getMessage());
             throw new MusapException(e);
         }
     }
 
-    private MusapSignature pollForSignature(SignatureFormat format, MSS_SignatureResp sigResp) throws IOException, MusapException {
-        MSS_StatusReq jReq = new MSS_StatusReq(sigResp);
-
-        String restUrl = this.getSettings().getRestUrl();
-        URL        url = new URL(restUrl);
-
-        String             json = "{ \"MSS_StatusReq\": " + GSON.toJson(jReq) + "}";
-        RequestBody        body = RequestBody.create(json, JSON);
-        Headers.Builder headers = new Headers.Builder();
-
-        Map<String, String> headersToAdd = this.hmacClient.requestHeaders("POST", url, json);
-        for (String key : headersToAdd.keySet()) {
-            headers.add(key, headersToAdd.get(key));
+    /**
+     * Poll the status of a signature on the shared polling scheduler,
+     * or wait for the MSSP notification if notifications are enabled
+     * @return future that completes with the signature
+     */
+    private CompletableFuture<MusapSignature> pollForSignature(SignatureFormat format, MSS_SignatureResp sigResp) {
+        if (this.settings.isNotificationEnabled()) {
+            MLog.d("Waiting for notification of " + sigResp.msspTransId);
+            MusapFuture<MSS_StatusResp> registered = Rest204Notifications.getInstance()
+                    .register(sigResp.msspTransId, this.getSettings().getTimeout());
+            CompletableFuture<MusapSignature> notified = registered.thenApply(resp -> {
+                MusapSignature signature = this.checkStatus(format, resp);
+                if (signature == null) {
+                    throw new CompletionException(new MusapException(MusapException.ERROR_INTERNAL, "Notification without a final status"));
+                }
+                return signature;
+            });
+            // Cancelling the signature unregisters the transaction
+            notified.whenComplete((signature, e) -> registered.cancel(true));
+            return notified;
         }
+        Rest204RequestFactory.StatusRequest request;
+        try {
+            // Signed again for each poll so that the Date header stays current
+            request = this.requests.createStatusRequest(sigResp);
+        } catch (IOException e) {
+            CompletableFuture<MusapSignature> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new MusapException(e));
+            return failed;
+        }
+        return this.createPollingEngine().pollAsync(() -> {
+            CompletableFuture<MSS_Resp> sent = this.send(request.build());
+            CompletableFuture<MusapSignature> checked = sent.thenApply(resp -> this.checkStatus(format, resp.statusResp));
+            // Cancelling the attempt cancels the pending HTTP call
+            checked.whenComplete((signature, e) -> sent.cancel(true));
+            return checked;
+        });
+    }
 
-        Request request = new Request.Builder()
-                .url(this.getSettings().getRestUrl())
-                .headers(headers.build())
-                .post(body)
+    /**
+     * Create a polling engine that polls until the signature timeout of the settings
+     */
+    private PollingEngine createPollingEngine() {
+        return new PollingEngine.Builder()
+                .setTimeout(this.getSettings().getTimeout())
                 .build();
+    }
 
-        for (int i = 0; i < POLL_AMOUNT; i++) {
-            try {
-                Thread.sleep(2000);
-            } catch (InterruptedException e) {
-                MLog.d("Poll interrupted");
-                continue;
+    /**
+     * Send a request without blocking
+     * @param request HTTP request
+     * @return future that completes with the parsed response, or with a MusapException on a fault
+     */
+    private CompletableFuture<MSS_Resp> send(Request request) {
+        CompletableFuture<MSS_Resp> future = new CompletableFuture<>();
+        Call call = this.client.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
             }
-            try (Response response = client.newCall(request).execute()) {
 
-                MLog.d("Sending request " + GSON.toJson(jReq));
-                String sResp = response.body().string();
-                MLog.d("Got response " + sResp);
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    String sResp = r.body().string();
+                    MLog.d("Got response " + sResp);
+
+                    MSS_Resp resp = GSON.fromJson(sResp, MSS_Resp.class);
+                    if (resp.fault != null) {
+                        future.completeExceptionally(handleError(resp.fault.code.subCode.value));
+                    } else {
+                        future.complete(resp);
+                    }
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        future.whenComplete((resp, e) -> {
+            if (future.isCancelled()) call.cancel();
+        });
+        return future;
+    }
 
-                MSS_Resp resp = GSON.fromJson(sResp, MSS_Resp.class);
-                MSS_StatusResp jResp = resp.statusResp;
+    /**
+     * Parse one MSS_StatusResp
+     * @return signature, or null if the signature is not ready yet
+     */
+    private MusapSignature checkStatus(SignatureFormat format, MSS_StatusResp jResp) {
+        if (jResp == null || jResp.status == null) {
+            throw new CompletionException(new MusapException(MusapException.ERROR_INTERNAL, "Missing MSS_StatusResp status"));
+        }
+        if (jResp.status.statusCode == null || "504".equals(jResp.status.statusCode.value)) {
+            // No response yet
+            MLog.d("Not ready yet");
+            return null;
+        }
 
-                if (resp.fault != null) {
-                    throw this.handleError(resp.fault.code.subCode.value);
-                }
+        switch (jResp.status.statusCode.value) {
+            case "500":
+            case "502":
+                MLog.d("Successfully signed");
+                break;
+            default:
+                throw new CompletionException(this.handleError(jResp.status.statusCode.value));
+        }
+        if (jResp.signature == null || jResp.signature.base64Signature == null) {
+            throw new CompletionException(new MusapException(MusapException.ERROR_INTERNAL, "Missing MSS_Signature"));
+        }
+        if (SignatureFormat.CMS.equals(format)) {
+            return new CmsSignature(MBase64.toBytes(jResp.signature.base64Signature));
+        } else {
+            return new MusapSignature(MBase64.toBytes(jResp.signature.base64Signature));
+        }
+    }
 
-                if (jResp.status != null && (jResp.status.statusCode == null || "504".equals(jResp.status.statusCode.value))) {
-                    // No response yet
-                    MLog.d("Not ready yet");
-                    continue;
-                }
+    /**
+     * Wait for a future of this SSCD
+     * @return result of the future
+     * @throws MusapException if the future failed or the thread was interrupted
+     */
+    private static <T> T await(CompletableFuture<T> future) throws MusapException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new MusapException(MusapException.ERROR_USER_CANCEL, "Interrupted");
+        } catch (ExecutionException e) {
+            throw toMusapException(e.getCause());
+        }
+    }
 
-                switch (jResp.status.statusCode.value) {
-                    case "500":
-                    case "502":
-                        MLog.d("Successfully signed");
-                        break;
-                    default:
-                        throw this.handleError(jResp.status.statusCode.value);
-                }
-                if (SignatureFormat.CMS.equals(format)) {
-                    return new CmsSignature(MBase64.toBytes(jResp.signature.base64Signature));
-                } else {
-                    return new MusapSignature(MBase64.toBytes(jResp.signature.base64Signature));
-                }
-            }
+    private static MusapException toMusapException(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof MusapException) {
+            return (MusapException) error;
+        }
+        if (error instanceof Exception) {
+            return new MusapException((Exception) error);
         }
-        throw new MusapException(MusapException.ERROR_TIMED_OUT, "Failed to get a signature in " + POLL_AMOUNT + " attempts");
+        return new MusapException(new Exception(error));
+    }
+
+    private String getMessagingMode() {
+        if (this.settings.isNotificationEnabled()) {
+            return MSS_SignatureReq.MESSAGING_MODE_SERVER_SERVER;
+        }
+        return MSS_SignatureReq.MESSAGING_MODE_CLIENT_SERVER;
     }
 
     private MusapException handleError(String statusCode) {
@@ -365,19 +480,4 @@ public class Rest204Sscd implements MusapSscdInterface<Rest204Settings> {
         }
     }
 
-    private static class RestBindResult {
-
-        public MusapKey key;
-        public MusapException exception;
-
-        public RestBindResult(MusapKey key) {
-            this.key = key;
-        }
-
-        public RestBindResult(MusapException e) {
-            this.exception = e;
-        }
-
-    }
-
 }
@@ -5,14 +5,15 @@
 package fi.methics.musap.sdk.sscd.rest204;
 
 import java.io.IOException;
-import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Base64;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -25,20 +26,33 @@ import okhttp3.OkHttpClient;
 
 /**
  * Simple HTTP Client used for HMAC authentication
+ * <p>
+ * The HMAC key is set up once. Each thread signs with its own copy of the keyed {@link Mac},
+ * and the Date header is formatted once per second.
+ * </p>
  */
 public class RestHmac {
 
+    private static final String HMAC_ALGORITHM = "HMACSHA256";
+    private static final byte[] NEWLINE        = {'\n'};
+
+    private static final String RFC2822_PATTERN = "EEE, dd MMM yyyy HH:mm:ss Z";
+    private static final DateTimeFormatter RFC2822 = DateTimeFormatter.ofPattern(RFC2822_PATTERN, Locale.US);
+
+    private static volatile CachedDate cachedDate;
+
     private OkHttpClient client;
     private String userId;
     private String apiKey;
-    
-    private static final String RFC2822_PATTERN = "EEE, dd MMM yyyy HH:mm:ss Z";
-    private static final SimpleDateFormat RFC2822 = new SimpleDateFormat(RFC2822_PATTERN, Locale.US);
+
+    private final Mac prototype;
+    private final ThreadLocal<Mac> macs = new ThreadLocal<>();
 
     public RestHmac(OkHttpClient client, String userId, String apiKey) {
         this.client = client;
         this.userId = userId;
         this.apiKey = apiKey;
+        this.prototype = createMac(apiKey);
     }
 
     /**
@@ -84,21 +98,46 @@ public class RestHmac {
     public Map<String, String> requestHeaders(final String method,
                                               final URL url,
                                               String params) throws IOException {
-        params = (params == null) ? "" : params;
-        String date = RFC2822.format(new Date());
-
-        String[] values = new String[] { date, method, url.getHost(), url.getPath(), params };
-        MLog.d("Checksum data: " + Arrays.toString(values));
+        byte[] body = (params == null) ? new byte[0] : params.getBytes(StandardCharsets.UTF_8);
+        return this.requestHeaders(method, url, body);
+    }
 
-        StringBuilder data = new StringBuilder();
-        for (String val : values) {
-            data.append(val);
-            data.append("\n");
-        }
+    /**
+     * Return HTTP Basic Authentication ("Authorization" and "Date") headers.
+     *
+     * @param method request HTTP method
+     * @param url request URL
+     * @param body request body
+     */
+    public Map<String, String> requestHeaders(final String method,
+                                              final URL url,
+                                              final byte[] body) throws IOException {
+        return this.requestHeaders(method, url, body, formatDate(System.currentTimeMillis()));
+    }
 
+    /**
+     * Return HTTP Basic Authentication ("Authorization" and "Date") headers for the given date.
+     *
+     * @param method request HTTP method
+     * @param url request URL
+     * @param body request body
+     * @param date Date header value
+     */
+    Map<String, String> requestHeaders(final String method,
+                                       final URL url,
+                                       final byte[] body,
+                                       final String date) throws IOException {
         String sig;
         try {
-            sig = bytesToHex(digest(data.toString(), apiKey));
+            // Canonical string: date, method, host, path and body, each followed by a newline
+            Mac mac = this.getMac();
+            update(mac, date);
+            update(mac, method);
+            update(mac, url.getHost());
+            update(mac, url.getPath());
+            mac.update(body);
+            mac.update(NEWLINE);
+            sig = bytesToHex(mac.doFinal());
         } catch (Exception e) {
             MLog.e("Crypto error while computing HMAC request signature", e);
             throw new IOException("Crypto error while computing HMAC request signature");
@@ -108,10 +147,77 @@ public class RestHmac {
 
         Map<String, String> headers = new HashMap<String, String>();
         headers.put("Date", date);
-        headers.put("Authorization", "Basic " + Base64.getEncoder().encodeToString(auth.getBytes()));
+        headers.put("Authorization", "Basic " + Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8)));
         headers.put("Content-Type",  "application/json");
 
         return headers;
     }
 
+    /**
+     * Format an RFC 2822 Date header value. The value is reused within the same second.
+     * @param millis Time in milliseconds since epoch
+     * @return Date header value
+     */
+    static String formatDate(long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        CachedDate cached = cachedDate;
+        if (cached == null || cached.second != second) {
+            String value = RFC2822.format(Instant.ofEpochSecond(second).atZone(ZoneId.systemDefault()));
+            cached = new CachedDate(second, value);
+            cachedDate = cached;
+        }
+        return cached.value;
+    }
+
+    /**
+     * Get the keyed Mac of the calling thread
+     */
+    private Mac getMac() throws GeneralSecurityException {
+        Mac mac = this.macs.get();
+        if (mac == null) {
+            if (this.prototype == null) {
+                throw new InvalidKeyException("HMAC key not available");
+            }
+            try {
+                mac = (Mac) this.prototype.clone();
+            } catch (CloneNotSupportedException e) {
+                mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(new SecretKeySpec(this.apiKey.getBytes(StandardCharsets.UTF_8), "RAW"));
+            }
+            this.macs.set(mac);
+        }
+        return mac;
+    }
+
+    private static Mac createMac(String apiKey) {
+        if (apiKey == null) {
+            return null;
+        }
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(apiKey.getBytes(StandardCharsets.UTF_8), "RAW"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            MLog.e("Failed to initialize HMAC", e);
+            return null;
+        }
+    }
+
+    private static void update(Mac mac, String value) {
+        mac.update(value.getBytes(StandardCharsets.UTF_8));
+        mac.update(NEWLINE);
+    }
+
+    private static class CachedDate {
+
+        private final long   second;
+        private final String value;
+
+        private CachedDate(long second, String value) {
+            this.second = second;
+            this.value  = value;
+        }
+
+    }
+
 }
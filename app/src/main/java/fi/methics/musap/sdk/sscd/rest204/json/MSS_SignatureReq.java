@@ -8,11 +8,15 @@ import fi.methics.musap.sdk.internal.util.MBase64;
 
 public class MSS_SignatureReq {
 
+    // MessagingMode values of ETSI TS 102 204
+    public static final String MESSAGING_MODE_CLIENT_SERVER = "asynchClientServer";
+    public static final String MESSAGING_MODE_SERVER_SERVER = "asynchServerServer";
+
     @SerializedName("MobileUser")
     public MobileUser mobileUser;
 
     @SerializedName("MessagingMode")
-    public String messagingMode = "async";
+    public String messagingMode = MESSAGING_MODE_CLIENT_SERVER;
 
     @SerializedName("TimeOut")
     public String timeOut = "60000"; // 60s
@@ -4,6 +4,9 @@ import com.google.gson.annotations.SerializedName;
 
 public class MSS_StatusResp {
 
+    @SerializedName("MSSP_TransID")
+    public String msspTransId;
+
     @SerializedName("MobileUser")
     public MSS_SignatureReq.MobileUser mobileUser;
 
@@ -32,20 +32,21 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
-import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.KeyStore;
 import java.security.PrivateKey;
-import java.security.PublicKey;
 import java.security.Security;
 import java.security.Signature;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
@@ -91,12 +92,12 @@ public class YubiKeySscd implements MusapSscdInterface<YubiKeySettings> {
 
     private AlertDialog currentPrompt;
     private CompletableFuture<KeyGenerationResult> keygenFuture;
-    private CompletableFuture<SigningResult> signFuture;
+    private CompletableFuture<List<SigningResult>> signFuture;
 
     private final YubiKitManager yubiKitManager;
 
     private KeyGenReq keyGenReq;
-    private SignatureReq sigReq;
+    private List<SignatureReq> sigReqs;
 
     private final Context c;
     private final Map<String, byte[]> attestationCertificates = new HashMap<>();
@@ -124,7 +125,7 @@ public class YubiKeySscd implements MusapSscdInterface<YubiKeySettings> {
     public MusapKey generateKey(KeyGenReq req) throws Exception {
         // Save request type
         this.keyGenReq = req;
-        this.sigReq = null;
+        this.sigReqs = null;
         this.keygenFuture = new CompletableFuture<>();
 
         showInsertPinDialog();
@@ -138,25 +139,36 @@ public class YubiKeySscd implements MusapSscdInterface<YubiKeySettings> {
 
     @Override
     public MusapSignature sign(SignatureReq req) throws Exception {
+        SigningResult result = this.signBatch(Collections.singletonList(req)).get(0);
+        if (result.signature != null) return result.signature;
+        if (result.exception != null) throw  result.exception;
+
+        throw new MusapException("Signing failed");
+    }
 
-        MusapKey key = req.getKey();
-        if (key != null) {
-            // Fill the key attestation certificate if available
-            KeyAttribute attestCert = key.getAttribute(ATTRIBUTE_ATTEST);
-            if (attestCert != null) {
-                this.attestationCertificates.put(key.getKeyId(), attestCert.getValueBytes());
+    /**
+     * Sign all requests with one PIN prompt and one YubiKey tap
+     * @param reqs Signature requests
+     * @return Result of each request in request order
+     */
+    @Override
+    public List<SigningResult> signBatch(List<SignatureReq> reqs) throws Exception {
+        for (SignatureReq req : reqs) {
+            MusapKey key = req.getKey();
+            if (key != null) {
+                // Fill the key attestation certificate if available
+                KeyAttribute attestCert = key.getAttribute(ATTRIBUTE_ATTEST);
+                if (attestCert != null) {
+                    this.attestationCertificates.put(key.getKeyId(), attestCert.getValueBytes());
+                }
             }
         }
         this.signFuture = new CompletableFuture<>();
-        this.sigReq = req;
+        this.sigReqs = reqs;
         this.keyGenReq = null;
         this.showInsertPinDialog();
 
-        SigningResult result = signFuture.get();
-        if (result.signature != null) return result.signature;
-        if (result.exception != null) throw  result.exception;
-
-        throw new MusapException("Signing failed");
+        return signFuture.get();
     }
     
     @Override
@@ -165,7 +177,7 @@ public class YubiKeySscd implements MusapSscdInterface<YubiKeySettings> {
     }
 
     private Activity getActivity() {
-        if (this.sigReq != null) return this.sigReq.getActivity();
+        if (this.sigReqs != null) return this.sigReqs.get(0).getActivity();
         if (this.keyGenReq != null) return this.keyGenReq.getActivity();
         return null;
     }
@@ -193,14 +205,14 @@ public class YubiKeySscd implements MusapSscdInterface<YubiKeySettings> {
         if (this.keyGenReq != null) {
             this.yubiKeyGen(pin, this.keyGenReq);
         } else {
-            this.yubiSign(pin, this.sigReq);
+            this.yubiSign(pin, this.sigReqs);
         }
     }
 
     private void showInsertPinDialog() {
         MLog.d("Showing dialog");
 
-        if (this.keyGenReq == null && this.sigReq == null) {
+        if (this.keyGenReq == null && this.sigReqs == null) {
             MLog.d("Missing request");
             throw new IllegalArgumentException();
         }
@@ -310,11 +322,12 @@ public class YubiKeySscd implements MusapSscdInterface<YubiKeySettings> {
         }
     }
 
-    private void yubiSign(String pin, SignatureReq req) {
+    private void yubiSign(String pin, List<SignatureReq> reqs) {
+        SignatureReq req = reqs.get(0);
         try {
             yubiKitManager.startNfcDiscovery(new NfcConfiguration(), req.getActivity(), device -> {
                 MLog.d("Found NFC");
-                connectForSign(device, req, pin);
+                connectForSign(device, reqs, pin);
             });
         } catch (NfcNotAvailable e) {
             if (e.isDisabled()) {
@@ -373,7 +386,8 @@ public class YubiKeySscd implements MusapSscdInterface<YubiKeySettings> {
         });
     }
 
-    private void connectForSign(final NfcYubiKeyDevice device, final SignatureReq req, String pin)  {
+    private void connectForSign(final NfcYubiKeyDevice device, final List<SignatureReq> reqs, String pin)  {
+        final SignatureReq req = reqs.get(0);
 
         device.requestConnection(SmartCardConnection.class, result -> {
             // The result is a Result<SmartCardConnection, IOException>, which represents either a successful connection, or an error.
@@ -388,7 +402,7 @@ public class YubiKeySscd implements MusapSscdInterface<YubiKeySettings> {
                     yubiKitManager.stopNfcDiscovery(req.getActivity());
                 } else {
                     MLog.d("PIN=" + pin);
-                    signOnDevice(pin, req, result.getValue());
+                    signOnDevice(pin, reqs, result.getValue());
                 }
             } catch (Exception e) {
                 MLog.e("Failed to connect", e);
@@ -500,11 +514,10 @@ public class YubiKeySscd implements MusapSscdInterface<YubiKeySettings> {
         showRemoveYubiKeyDialog(req.getActivity());
     }
 
-    private void signOnDevice(String pin, SignatureReq req, SmartCardConnection connection) throws Exception {
-
-        String msg = "Test string";
+    private void signOnDevice(String pin, List<SignatureReq> reqs, SmartCardConnection connection) throws Exception {
 
         try {
+            // Authenticate and open the key once for the whole batch
             PivSession pivSession = new PivSession(connection);
 
             pivSession.authenticate(this.resolveManagementKeyType(), this.resolveManagementKey());
@@ -517,24 +530,25 @@ public class YubiKeySscd implements MusapSscdInterface<YubiKeySettings> {
 
             keyStore.load(null);
 
-            PublicKey publicKey = keyStore.getCertificate(slot.getStringAlias()).getPublicKey();
             PrivateKey privateKey = (PrivateKey) keyStore.getKey(slot.getStringAlias(), pin.toCharArray());
 
-            String algorithm = "SHA256withECDSA";
-
-            Signature signature = Signature.getInstance(algorithm, pivProvider);
-            signature.initSign(privateKey);
-            signature.update(msg.getBytes(StandardCharsets.UTF_8));
-            byte[] sigResult = signature.sign();
-
-            MLog.d("Signed");
+            List<SigningResult> results = new ArrayList<>();
+            for (SignatureReq req : reqs) {
+                try {
+                    String algorithm = req.getAlgorithm() != null ? req.getAlgorithm().getJavaAlgorithm() : "SHA256withECDSA";
 
-            Signature verify = Signature.getInstance(algorithm);
-            verify.initVerify(publicKey);
-            verify.update(msg.getBytes(StandardCharsets.UTF_8));
-            boolean valid = verify.verify(sigResult);
+                    Signature signature = Signature.getInstance(algorithm, pivProvider);
+                    signature.initSign(privateKey);
+                    signature.update(req.getData());
+                    byte[] sigResult = signature.sign();
 
-            MLog.d("Valid signature=" + valid);
+                    results.add(new SigningResult(new MusapSignature(sigResult, req.getKey(), req.getAlgorithm(), req.getFormat())));
+                } catch (Exception e) {
+                    MLog.e("Failed to sign", e);
+                    results.add(new SigningResult(new MusapException(e)));
+                }
+            }
+            MLog.d("Signed " + results.size() + " requests");
 
             // Dismiss old dialog if it it showing
             getActivity().runOnUiThread(() -> {
@@ -544,14 +558,22 @@ public class YubiKeySscd implements MusapSscdInterface<YubiKeySettings> {
                 }
             });
 
-            signFuture.complete(new SigningResult(new MusapSignature(sigResult, req.getKey(), req.getAlgorithm(), req.getFormat())));
+            signFuture.complete(results);
 
         } catch (Exception e) {
-            signFuture.complete(new SigningResult(new MusapException(e)));
+            signFuture.complete(failAll(reqs, new MusapException(e)));
             throw new MusapException(e);
         }
     }
 
+    private static List<SigningResult> failAll(List<SignatureReq> reqs, MusapException e) {
+        List<SigningResult> results = new ArrayList<>();
+        for (int i = 0; i < reqs.size(); i++) {
+            results.add(new SigningResult(e));
+        }
+        return results;
+    }
+
     /**
      * Convert MUSAP Key type to YubiKey Key type
      * @param req
@@ -582,8 +604,8 @@ public class YubiKeySscd implements MusapSscdInterface<YubiKeySettings> {
      * Cancel the currently ongoing signature transaction
      */
     public void cancelSignature() {
-        if (this.signFuture != null) {
-            this.signFuture.complete(new SigningResult(new MusapException("Cancel")));
+        if (this.signFuture != null && this.sigReqs != null) {
+            this.signFuture.complete(failAll(this.sigReqs, new MusapException("Cancel")));
         }
     }
 
@@ -0,0 +1,86 @@
+package fi.methics.musap.sdk.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class MusapFutureTest {
+
+    private ExecutorService executor;
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    @Before
+    public void init() {
+        this.executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testTimeoutInterruptsTask() throws InterruptedException {
+        MusapFuture<String> future = new MusapFuture<>();
+        CountDownLatch interrupted = new CountDownLatch(1);
+        future.setTask(this.submitBlocking(interrupted));
+
+        try {
+            future.orTimeout(50, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+            fail("Expected timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MusapException);
+            assertEquals(MusapException.ERROR_TIMED_OUT, ((MusapException) e.getCause()).getErrorCode());
+        } catch (TimeoutException e) {
+            fail("Future did not time out");
+        }
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancelInterruptsTask() throws InterruptedException {
+        MusapFuture<String> future = new MusapFuture<>();
+        CountDownLatch interrupted = new CountDownLatch(1);
+        future.setTask(this.submitBlocking(interrupted));
+        this.awaitStarted();
+
+        assertTrue(future.cancel(true));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCompletedBeforeTimeout() throws Exception {
+        MusapFuture<String> future = new MusapFuture<>();
+        future.orTimeout(5, TimeUnit.SECONDS);
+        future.complete("result");
+        assertEquals("RESULT", future.thenApply(String::toUpperCase).get(1, TimeUnit.SECONDS));
+    }
+
+    private void awaitStarted() throws InterruptedException {
+        assertTrue(this.started.await(5, TimeUnit.SECONDS));
+    }
+
+    private Future<?> submitBlocking(CountDownLatch interrupted) {
+        return this.executor.submit(() -> {
+            this.started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+    }
+
+}
@@ -0,0 +1,107 @@
+package fi.methics.musap.sdk.internal.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import fi.methics.musap.sdk.internal.util.MLog;
+
+public class MusapExecutorsTest {
+
+    private MusapExecutors executors;
+
+    @Before
+    public void init() {
+        MLog.setTestMode(true);
+    }
+
+    @After
+    public void shutdown() {
+        if (this.executors != null) {
+            this.executors.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectedWhenFull() throws InterruptedException {
+        ExecutorConfig config = new ExecutorConfig.Builder()
+                .setPoolSize(MusapExecutors.Pool.DEVICE, 1, 1)
+                .setQueueSize(MusapExecutors.Pool.DEVICE, 1)
+                .build();
+        this.executors = new MusapExecutors(config);
+        Executor device = this.executors.getExecutor(MusapExecutors.Pool.DEVICE);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        device.execute(() -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        device.execute(() -> { });
+
+        boolean rejected = false;
+        try {
+            device.execute(() -> { });
+        } catch (RejectedExecutionException e) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+
+        ExecutorStats stats = this.executors.getStats(MusapExecutors.Pool.DEVICE);
+        assertEquals(1, stats.getActiveCount());
+        assertEquals(1, stats.getQueueDepth());
+        assertEquals(0, stats.getQueueCapacity());
+        assertEquals(1, stats.getRejectedCount());
+
+        // Other pools are not affected
+        CountDownLatch done = new CountDownLatch(1);
+        this.executors.getExecutor(MusapExecutors.Pool.NETWORK).execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void testCustomExecutor() throws InterruptedException {
+        ExecutorService custom = Executors.newSingleThreadExecutor();
+        ExecutorConfig config = new ExecutorConfig.Builder()
+                .setExecutor(MusapExecutors.Pool.NETWORK, custom)
+                .build();
+        this.executors = new MusapExecutors(config);
+
+        CountDownLatch done = new CountDownLatch(1);
+        this.executors.getExecutor(MusapExecutors.Pool.NETWORK).execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(-1, this.executors.getStats(MusapExecutors.Pool.NETWORK).getQueueDepth());
+
+        // Application provided executors are not shut down by MUSAP
+        this.executors.shutdown();
+        assertFalse(custom.isShutdown());
+        custom.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPoolSize() {
+        new ExecutorConfig.Builder().setPoolSize(MusapExecutors.Pool.CRYPTO, 4, 2);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
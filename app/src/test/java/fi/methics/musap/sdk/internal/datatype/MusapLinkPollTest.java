@@ -0,0 +1,120 @@
+package fi.methics.musap.sdk.internal.datatype;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import fi.methics.musap.sdk.internal.datatype.coupling.PollResponsePayload;
+import fi.methics.musap.sdk.internal.util.MLog;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+@RunWith(RobolectricTestRunner.class)
+public class MusapLinkPollTest {
+
+    private MockWebServer server;
+    private MusapLink link;
+
+    @Before
+    public void init() throws IOException {
+        MLog.setTestMode(true);
+        this.server = new MockWebServer();
+        this.server.start();
+        this.link = new MusapLink(this.server.url("/musapapi").toString(), "musapid");
+    }
+
+    @After
+    public void shutdown() throws IOException {
+        this.server.shutdown();
+    }
+
+    @Test
+    public void testPollAllInOneRoundTrip() throws Exception {
+        this.server.enqueue(response(null, "{\"requests\":["
+                + "{\"transid\":\"tx1\",\"signaturepayload\":{\"mode\":\"sign\"}},"
+                + "{\"transid\":\"tx2\",\"signaturepayload\":{\"mode\":\"sign\"}}]}"));
+
+        List<PollResponsePayload> results = this.link.pollAll(10);
+
+        assertEquals(2, results.size());
+        assertEquals("tx1", results.get(0).getTransId());
+        assertEquals("tx2", results.get(1).getTransId());
+        assertEquals("sign", results.get(1).getMode());
+        assertEquals(1, this.server.getRequestCount());
+
+        MusapMessage sent = new Gson().fromJson(this.server.takeRequest().getBody().readUtf8(), MusapMessage.class);
+        String payload = new String(Base64.getDecoder().decode(sent.payload), StandardCharsets.UTF_8);
+        assertTrue("Poll asks for several results", payload.contains("\"maxresults\":10"));
+    }
+
+    @Test
+    public void testPollAllConcurrentFallback() throws Exception {
+        // Old MUSAP Link returns one request per poll
+        this.server.enqueue(response("tx1", "{\"mode\":\"sign\"}"));
+        this.server.enqueue(response("tx2", "{\"mode\":\"sign\"}"));
+        this.server.enqueue(response("tx3", "{\"mode\":\"sign\"}"));
+        this.server.enqueue(new MockResponse().setBody("{}"));
+        this.server.enqueue(new MockResponse().setBody("{}"));
+
+        List<PollResponsePayload> results = this.link.pollAll(10);
+
+        List<String> transIds = new ArrayList<>();
+        for (PollResponsePayload result : results) {
+            transIds.add(result.getTransId());
+        }
+        assertEquals("tx1", transIds.get(0));
+        assertEquals(3, transIds.size());
+        assertTrue(transIds.contains("tx2"));
+        assertTrue(transIds.contains("tx3"));
+    }
+
+    @Test
+    public void testPollAllSameRequest() throws Exception {
+        // Old MUSAP Link returns the oldest request until it is answered
+        this.server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return response("tx1", "{\"mode\":\"sign\"}");
+            }
+        });
+
+        List<PollResponsePayload> results = this.link.pollAll(10);
+
+        assertEquals(1, results.size());
+        assertEquals("tx1", results.get(0).getTransId());
+        // The first poll and one round of concurrent polls
+        assertEquals(5, this.server.getRequestCount());
+    }
+
+    @Test
+    public void testPollAllEmpty() throws Exception {
+        this.server.enqueue(new MockResponse().setBody("{}"));
+
+        assertTrue(this.link.pollAll(10).isEmpty());
+        assertEquals(1, this.server.getRequestCount());
+    }
+
+    private static MockResponse response(String transId, String payload) {
+        MusapMessage msg = new MusapMessage();
+        msg.type    = "getdata";
+        msg.transid = transId;
+        msg.payload = Base64.getEncoder().encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        return new MockResponse().setBody(msg.toJson());
+    }
+
+}
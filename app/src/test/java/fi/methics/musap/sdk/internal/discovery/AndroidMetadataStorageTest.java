@@ -2,6 +2,8 @@ package fi.methics.musap.sdk.internal.discovery;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
@@ -10,6 +12,7 @@ import java.util.List;
 
 import fi.methics.MockStorage;
 import fi.methics.musap.sdk.internal.datatype.KeyAlgorithm;
+import fi.methics.musap.sdk.internal.datatype.KeyAttribute;
 import fi.methics.musap.sdk.internal.datatype.MusapKey;
 import fi.methics.musap.sdk.internal.datatype.SscdInfo;
 import fi.methics.musap.sdk.internal.util.MLog;
@@ -144,6 +147,70 @@ public class AndroidMetadataStorageTest {
     }
 
 
+    @Test
+    public void testGetKeyByKeyId() {
+        MLog.setTestMode(true);
+        storage = new AndroidMetadataStorage(new MockStorage());
+        MusapKey key = new MusapKey.Builder()
+                .setKeyAlias("test key")
+                .setKeyId("testkeyid")
+                .setSscdId("testsscdid")
+                .setAlgorithm(KeyAlgorithm.RSA_2K)
+                .build();
+        storage.addKey(key, null);
+
+        assertEquals("test key", storage.getKey("testkeyid").getKeyAlias());
+        assertEquals(1, storage.listKeysBySscdId("testsscdid").size());
+        assertNull(storage.getKey("otherkeyid"));
+    }
+
+    @Test
+    public void testKeyCatalogInvalidatedOnWrite() {
+        MLog.setTestMode(true);
+        storage = new AndroidMetadataStorage(new MockStorage());
+        MusapKey key1 = new MusapKey.Builder()
+                .setKeyAlias("test key 1")
+                .setKeyId("testkeyid1")
+                .build();
+        MusapKey key2 = new MusapKey.Builder()
+                .setKeyAlias("test key 2")
+                .setKeyId("testkeyid2")
+                .build();
+        storage.addKey(key1, null);
+        assertEquals(1, storage.listKeys().size());
+
+        storage.addKey(key2, null);
+        assertEquals(2, storage.listKeys().size());
+        assertNotNull(storage.getKey("testkeyid2"));
+
+        storage.removeKey(key1);
+        assertEquals(1, storage.listKeys().size());
+        assertNull(storage.getKey("testkeyid1"));
+    }
+
+    @Test
+    public void testReturnedKeysAreCopies() {
+        MusapKey key = new MusapKey.Builder()
+                .setKeyAlias("test key")
+                .setKeyId("testkeyid")
+                .setSscdId("testsscdid")
+                .addAttribute("msisdn", "35847001001")
+                .build();
+        storage.addKey(key, null);
+
+        MusapKey returned = storage.getKey("testkeyid");
+        returned.setAlias("changed");
+        returned.setSscdId("othersscdid");
+        returned.addAttribute(new KeyAttribute("msisdn", "35847001002"));
+        storage.listKeys().get(0).setAlias("changed again");
+
+        MusapKey stored = storage.getKey("testkeyid");
+        assertEquals("test key", stored.getKeyAlias());
+        assertEquals("35847001001", stored.getAttributeValue("msisdn"));
+        assertEquals(1, storage.listKeysBySscdId("testsscdid").size());
+        assertTrue(storage.listKeysBySscdId("othersscdid").isEmpty());
+    }
+
     @Test
     public void testUpdateKeyMetaData() {
 
@@ -0,0 +1,45 @@
+package fi.methics.musap.sdk.internal.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ImportReportTest {
+
+    @Test
+    public void testCounts() {
+        ImportReport report = new ImportReport();
+        assertFalse(report.hasChanges());
+
+        report.added(ImportReport.RecordType.SSCD, "sscd1");
+        report.added(ImportReport.RecordType.KEY, "key1");
+        report.skipped(ImportReport.RecordType.KEY, "key2", "Key already exists");
+        report.conflict(ImportReport.RecordType.KEY, "key3", "KeyID is used by another key");
+
+        assertTrue(report.hasChanges());
+        assertEquals(2, report.getCount(ImportReport.Outcome.ADDED));
+        assertEquals(1, report.getCount(ImportReport.Outcome.SKIPPED));
+        assertEquals(1, report.getCount(ImportReport.Outcome.CONFLICT));
+        assertEquals(4, report.getEntries().size());
+    }
+
+    @Test
+    public void testEntries() {
+        ImportReport report = new ImportReport();
+        report.added(ImportReport.RecordType.KEY, "key1");
+        report.conflict(ImportReport.RecordType.KEY, "key2", "KeyID is used by another key");
+
+        ImportReport.Entry added = report.getEntries(ImportReport.Outcome.ADDED).get(0);
+        assertEquals("key1", added.getId());
+        assertNull(added.getReason());
+
+        ImportReport.Entry conflict = report.getEntries(ImportReport.Outcome.CONFLICT).get(0);
+        assertEquals("key2", conflict.getId());
+        assertEquals(ImportReport.RecordType.KEY, conflict.getType());
+        assertEquals("KeyID is used by another key", conflict.getReason());
+    }
+
+}
@@ -0,0 +1,85 @@
+package fi.methics.musap.sdk.internal.discovery;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.gson.JsonSyntaxException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import fi.methics.musap.sdk.internal.datatype.KeyAlgorithm;
+import fi.methics.musap.sdk.internal.datatype.MusapKey;
+import fi.methics.musap.sdk.internal.datatype.SscdInfo;
+import fi.methics.musap.sdk.internal.util.MLog;
+
+public class MusapImportDataTest {
+
+    @Before
+    public void init() {
+        MLog.setTestMode(true);
+    }
+
+    @Test
+    public void testStreamingRoundTrip() throws IOException {
+        SscdInfo sscd = new SscdInfo.Builder()
+                .setSscdName("test sscd")
+                .setSscdId("testsscdid")
+                .setSscdType("test")
+                .build();
+        MusapKey key1 = new MusapKey.Builder()
+                .setKeyAlias("test key 1")
+                .setKeyId("testkeyid1")
+                .setSscdId("testsscdid")
+                .setAlgorithm(KeyAlgorithm.RSA_2K)
+                .build();
+        MusapKey key2 = new MusapKey.Builder()
+                .setKeyAlias("test key 2")
+                .setKeyId("testkeyid2")
+                .setSscdId("testsscdid")
+                .build();
+
+        StringWriter out = new StringWriter();
+        MusapImportData.writeJson(out, Collections.singletonList(sscd), Arrays.asList(key1, key2));
+
+        List<SscdInfo> sscds = new ArrayList<>();
+        List<MusapKey> keys  = new ArrayList<>();
+        MusapImportData.readJson(new StringReader(out.toString()), sscds::add, keys::add);
+
+        assertEquals(1, sscds.size());
+        assertEquals("testsscdid", sscds.get(0).getSscdId());
+        assertEquals(2, keys.size());
+        assertEquals("testkeyid1", keys.get(0).getKeyId());
+        assertEquals("testkeyid2", keys.get(1).getKeyId());
+
+        // Streamed output is compatible with the non-streaming parser
+        MusapImportData data = MusapImportData.fromJson(out.toString());
+        assertEquals(1, data.sscds.size());
+        assertEquals(2, data.keys.size());
+    }
+
+    @Test
+    public void testReadNonStreamingJson() throws IOException {
+        MusapImportData data = new MusapImportData();
+        data.sscds = Collections.emptyList();
+        data.keys  = Collections.singletonList(new MusapKey.Builder().setKeyId("testkeyid").build());
+
+        List<MusapKey> keys = new ArrayList<>();
+        MusapImportData.readJson(new StringReader(data.toJson()), s -> { }, keys::add);
+        assertEquals(1, keys.size());
+        assertEquals("testkeyid", keys.get(0).getKeyId());
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testReadInvalidJson() throws IOException {
+        MusapImportData.readJson(new StringReader("[1, 2]"), s -> { }, k -> { });
+    }
+
+}
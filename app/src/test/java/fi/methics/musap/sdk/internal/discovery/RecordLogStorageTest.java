@@ -0,0 +1,324 @@
+package fi.methics.musap.sdk.internal.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fi.methics.musap.sdk.internal.datatype.KeyAlgorithm;
+import fi.methics.musap.sdk.internal.datatype.MusapKey;
+import fi.methics.musap.sdk.internal.datatype.SscdInfo;
+import fi.methics.musap.sdk.internal.util.MLog;
+
+public class RecordLogStorageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void init() throws IOException {
+        MLog.setTestMode(true);
+        this.file = new File(folder.getRoot(), "test.log");
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        RecordLogStorage storage = new RecordLogStorage(this.file);
+        storage.putString("a", "value a");
+        storage.putString("b", "value b");
+        storage.putString("a", "new value a");
+        storage.removeString("b");
+
+        assertEquals("new value a", storage.getString("a", null));
+        assertNull(storage.getString("b", null));
+        assertEquals("default", storage.getString("c", "default"));
+        storage.close();
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        RecordLogStorage storage = new RecordLogStorage(this.file);
+        storage.putString("a", "value ä");
+        storage.putString("b", "value b");
+        storage.removeString("b");
+        storage.putStringSet("set", new HashSet<>(Arrays.asList("1", "2", "3")));
+        storage.putStringSet("set", new HashSet<>(Arrays.asList("1", "3", "4")));
+        storage.close();
+
+        storage = new RecordLogStorage(this.file);
+        assertEquals("value ä", storage.getString("a", null));
+        assertNull(storage.getString("b", null));
+        assertEquals(new HashSet<>(Arrays.asList("1", "3", "4")), storage.getStringSet("set", null));
+        storage.close();
+    }
+
+    @Test
+    public void testSetDeltaSize() throws IOException {
+        RecordLogStorage storage = new RecordLogStorage(this.file);
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add("keyid-" + i);
+        }
+        storage.putStringSet("keyids", ids);
+        long before = storage.getFileSize();
+
+        ids.add("keyid-new");
+        storage.putStringSet("keyids", ids);
+        long delta = storage.getFileSize() - before;
+
+        // Only the added member is written
+        assertTrue("Delta was " + delta + " bytes", delta < 64);
+        storage.close();
+    }
+
+    @Test
+    public void testTornRecordDiscarded() throws IOException {
+        RecordLogStorage storage = new RecordLogStorage(this.file);
+        storage.putString("a", "value a");
+        storage.putString("b", "value b");
+        long size = storage.getFileSize();
+        storage.close();
+
+        // Cut the last record in half
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            raf.setLength(size - 3);
+        }
+
+        storage = new RecordLogStorage(this.file);
+        assertEquals("value a", storage.getString("a", null));
+        assertNull(storage.getString("b", null));
+
+        // Log is still writable after truncation
+        storage.putString("c", "value c");
+        storage.close();
+        storage = new RecordLogStorage(this.file);
+        assertEquals("value c", storage.getString("c", null));
+        storage.close();
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        RecordLogStorage storage = new RecordLogStorage(this.file);
+        char[] chars = new char[1024];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+
+        for (int i = 0; i < 200; i++) {
+            storage.putString("key", value + i);
+        }
+        assertTrue(storage.getFileSize() < RecordLogStorage.MIN_COMPACT_SIZE * RecordLogStorage.COMPACT_RATIO);
+        assertEquals(value + 199, storage.getString("key", null));
+
+        storage.compact();
+        assertTrue(storage.getFileSize() < 2 * 1024);
+        storage.close();
+
+        storage = new RecordLogStorage(this.file);
+        assertEquals(value + 199, storage.getString("key", null));
+        storage.close();
+    }
+
+    @Test
+    public void testMigrate() throws IOException {
+        Map<String, Object> prefs = new HashMap<>();
+        prefs.put("a", "value a");
+        prefs.put("set", new HashSet<>(Arrays.asList("1", "2")));
+        prefs.put("ignored", 5);
+        RecordLogStorage.migrate(this.file, prefs);
+
+        RecordLogStorage storage = new RecordLogStorage(this.file);
+        assertEquals("value a", storage.getString("a", null));
+        assertEquals(new HashSet<>(Arrays.asList("1", "2")), storage.getStringSet("set", null));
+        assertNull(storage.getString("ignored", null));
+        storage.close();
+    }
+
+    @Test
+    public void testMigrateIgnoresLeftoverEntries() throws IOException {
+        RecordLogStorage storage = new RecordLogStorage(this.file);
+        storage.putString("a", "value a");
+        storage.close();
+
+        // SharedPreferences that could not be cleared after an earlier migration
+        Map<String, Object> prefs = new HashMap<>();
+        prefs.put("a", "stale a");
+        prefs.put("b", "deleted b");
+        prefs.put("set", new HashSet<>(Arrays.asList("1", "2")));
+        storage = StorageFactory.openMigrated(this.file, prefs);
+        assertEquals("value a", storage.getString("a", null));
+        assertNull(storage.getString("b", null));
+        assertNull(storage.getStringSet("set", null));
+        storage.close();
+    }
+
+    @Test
+    public void testMigrateNewLog() throws IOException {
+        Map<String, Object> prefs = new HashMap<>();
+        prefs.put("a", "value a");
+        prefs.put("set", new HashSet<>(Arrays.asList("1", "2")));
+        RecordLogStorage storage = StorageFactory.openMigrated(this.file, prefs);
+        storage.close();
+
+        storage = new RecordLogStorage(this.file);
+        assertEquals("value a", storage.getString("a", null));
+        assertEquals(new HashSet<>(Arrays.asList("1", "2")), storage.getStringSet("set", null));
+        storage.close();
+    }
+
+    @Test
+    public void testMigrateFailure() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            raf.writeBytes("not a record log");
+        }
+        Map<String, Object> prefs = new HashMap<>();
+        prefs.put("a", "value a");
+        try {
+            StorageFactory.openMigrated(this.file, prefs);
+            fail("Expected failure");
+        } catch (IOException e) {
+            // Expected. StorageFactory does not fall back, since the log exists.
+        }
+        // The unreadable log is left for inspection, not overwritten
+        assertEquals("not a record log".length(), this.file.length());
+    }
+
+    @Test
+    public void testBatchCommit() throws IOException {
+        RecordLogStorage storage = new RecordLogStorage(this.file);
+        long before = storage.getFileSize();
+
+        storage.beginBatch();
+        storage.putString("a", "value a");
+        storage.putStringSet("set", new HashSet<>(Arrays.asList("1", "2")));
+
+        // Reads see pending writes, but nothing is written yet
+        assertEquals("value a", storage.getString("a", null));
+        assertEquals(before, storage.getFileSize());
+
+        // Nested batch does not flush
+        storage.beginBatch();
+        storage.putString("b", "value b");
+        storage.commit();
+        assertEquals(before, storage.getFileSize());
+
+        storage.commit();
+        assertTrue(storage.getFileSize() > before);
+        storage.close();
+
+        storage = new RecordLogStorage(this.file);
+        assertEquals("value a", storage.getString("a", null));
+        assertEquals("value b", storage.getString("b", null));
+        assertEquals(new HashSet<>(Arrays.asList("1", "2")), storage.getStringSet("set", null));
+        storage.close();
+    }
+
+    @Test
+    public void testBatchRollback() throws IOException {
+        RecordLogStorage storage = new RecordLogStorage(this.file);
+        storage.putString("a", "value a");
+
+        storage.beginBatch();
+        storage.putString("a", "new value a");
+        storage.removeString("a");
+        storage.putString("b", "value b");
+        storage.rollback();
+
+        assertEquals("value a", storage.getString("a", null));
+        assertNull(storage.getString("b", null));
+
+        // Storage is usable after rollback
+        storage.putString("c", "value c");
+        storage.close();
+
+        storage = new RecordLogStorage(this.file);
+        assertEquals("value a", storage.getString("a", null));
+        assertNull(storage.getString("b", null));
+        assertEquals("value c", storage.getString("c", null));
+        storage.close();
+    }
+
+    @Test
+    public void testNestedBatchRollback() throws IOException {
+        RecordLogStorage storage = new RecordLogStorage(this.file);
+        storage.putString("a", "value a");
+        long before = storage.getFileSize();
+
+        storage.beginBatch();
+        storage.putString("b", "value b");
+        storage.beginBatch();
+        storage.putString("c", "value c");
+        storage.rollback();
+
+        // The outer batch is rolled back with the inner one
+        storage.putString("d", "value d");
+        try {
+            storage.commit();
+            fail("Expected failure");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals("value a", storage.getString("a", null));
+        assertNull(storage.getString("b", null));
+        assertNull(storage.getString("c", null));
+        assertNull(storage.getString("d", null));
+        assertEquals(before, storage.getFileSize());
+
+        // The next batch commits normally
+        storage.beginBatch();
+        storage.putString("e", "value e");
+        storage.commit();
+        storage.close();
+
+        storage = new RecordLogStorage(this.file);
+        assertNull(storage.getString("b", null));
+        assertNull(storage.getString("d", null));
+        assertEquals("value e", storage.getString("e", null));
+        storage.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCommitWithoutBatch() throws IOException {
+        RecordLogStorage storage = new RecordLogStorage(this.file);
+        storage.commit();
+    }
+
+    @Test
+    public void testWithMetadataStorage() throws IOException {
+        AndroidMetadataStorage metadata = new AndroidMetadataStorage(new RecordLogStorage(this.file));
+        MusapKey key = new MusapKey.Builder()
+                .setKeyAlias("test key")
+                .setKeyId("testkeyid")
+                .setSscdId("testsscdid")
+                .setAlgorithm(KeyAlgorithm.RSA_2K)
+                .build();
+        SscdInfo info = new SscdInfo.Builder()
+                .setSscdName("test sscd")
+                .setSscdId("testsscdid")
+                .build();
+        metadata.addKey(key, info);
+
+        metadata = new AndroidMetadataStorage(new RecordLogStorage(this.file));
+        List<MusapKey> keys = metadata.listKeys();
+        assertEquals(1, keys.size());
+        assertEquals("testkeyid", keys.get(0).getKeyId());
+        assertEquals("testkeyid", metadata.getKey("testkeyid").getKeyId());
+    }
+
+}
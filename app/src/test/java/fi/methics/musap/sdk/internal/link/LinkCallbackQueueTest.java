@@ -0,0 +1,241 @@
+package fi.methics.musap.sdk.internal.link;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.methics.MockStorage;
+import fi.methics.musap.sdk.api.MusapFuture;
+import fi.methics.musap.sdk.internal.datatype.MusapLink;
+import fi.methics.musap.sdk.internal.datatype.MusapMessage;
+import fi.methics.musap.sdk.internal.util.MLog;
+import fi.methics.musap.sdk.internal.util.MusapStorage;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+@RunWith(RobolectricTestRunner.class)
+public class LinkCallbackQueueTest {
+
+    private MockWebServer server;
+    private MusapLink link;
+    private MusapStorage storage;
+    private LinkCallbackQueue queue;
+
+    @Before
+    public void init() throws IOException {
+        MLog.setTestMode(true);
+        this.server = new MockWebServer();
+        this.server.start();
+        this.link    = new MusapLink(this.server.url("/musapapi").toString(), "musapid");
+        this.storage = new MusapStorage(new MockStorage());
+        this.queue   = new LinkCallbackQueue(this.storage, () -> this.link, Runnable::run, 200);
+    }
+
+    @After
+    public void shutdown() throws IOException {
+        this.server.shutdown();
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        List<LinkCallback> callbacks = Arrays.asList(
+                LinkCallback.forKey(null, "tx1"),
+                LinkCallback.forKey(null, "tx2"),
+                LinkCallback.forKey(null, "tx3"));
+        this.server.enqueue(response(batchResults(callbacks)));
+
+        MusapFuture<?>[] futures = new MusapFuture<?>[callbacks.size()];
+        for (int i = 0; i < callbacks.size(); i++) {
+            futures[i] = this.queue.enqueue(callbacks.get(i));
+        }
+        for (MusapFuture<?> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals("Callbacks are sent in one request", 1, this.server.getRequestCount());
+        assertEquals("batch", readRequest(this.server.takeRequest()).type);
+        assertTrue("Sent callbacks are removed from storage", this.storage.listLinkCallbacks().isEmpty());
+    }
+
+    @Test
+    public void testFallbackWithoutBatchSupport() throws Exception {
+        LinkCallback first  = LinkCallback.forKey(null, "tx1");
+        LinkCallback second = LinkCallback.forKey(null, "tx2");
+
+        // Old MUSAP Link answers the batch without per-callback results
+        this.server.enqueue(response("{\"status\":\"success\"}"));
+        this.server.enqueue(response("{\"status\":\"success\"}"));
+        this.server.enqueue(response("{\"status\":\"success\"}"));
+
+        MusapFuture<Void> f1 = this.queue.enqueue(first);
+        MusapFuture<Void> f2 = this.queue.enqueue(second);
+        f1.get(5, TimeUnit.SECONDS);
+        f2.get(5, TimeUnit.SECONDS);
+
+        assertEquals(3, this.server.getRequestCount());
+        assertEquals("batch", readRequest(this.server.takeRequest()).type);
+
+        MusapMessage single = readRequest(this.server.takeRequest());
+        assertEquals(LinkCallback.TYPE_KEYGEN, single.type);
+        assertEquals("Request ID is the idempotency key", first.getRequestId(), single.requestid);
+    }
+
+    @Test
+    public void testResumeAfterRestart() throws Exception {
+        // Stored by a process that died before sending
+        LinkCallback callback = LinkCallback.forKey(null, "tx1");
+        this.storage.addLinkCallback(callback);
+        this.server.enqueue(response("{\"status\":\"success\"}"));
+
+        this.queue.resume();
+
+        RecordedRequest request = this.server.takeRequest(5, TimeUnit.SECONDS);
+        assertNotNull("Stored callback is sent", request);
+        assertEquals(callback.getRequestId(), readRequest(request).requestid);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!this.storage.listLinkCallbacks().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("Sent callback is removed from storage", this.storage.listLinkCallbacks().isEmpty());
+    }
+
+    @Test
+    public void testDeduplicateByTransId() throws Exception {
+        LinkCallback first  = LinkCallback.forKey(null, "tx1");
+        LinkCallback second = LinkCallback.forKey(null, "tx1");
+        this.server.enqueue(response("{\"status\":\"success\"}"));
+
+        MusapFuture<Void> f1 = this.queue.enqueue(first);
+        MusapFuture<Void> f2 = this.queue.enqueue(second);
+        assertSame("Duplicate gets the pending callback's future", f1, f2);
+        assertEquals(1, this.storage.listLinkCallbacks().size());
+
+        f1.get(5, TimeUnit.SECONDS);
+        assertEquals(1, this.server.getRequestCount());
+        assertEquals(first.getRequestId(), readRequest(this.server.takeRequest()).requestid);
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        LinkCallback callback = LinkCallback.forKey(null, "tx1");
+        this.server.enqueue(response("{\"status\":\"success\"}"));
+
+        MusapFuture<Void> future = this.queue.enqueue(callback);
+        OutboxStats stats = this.queue.getStats();
+        assertEquals(1, stats.getPendingCount());
+        assertTrue(stats.getOldestAgeMs() >= 0);
+
+        future.get(5, TimeUnit.SECONDS);
+        stats = this.queue.getStats();
+        assertEquals(0, stats.getPendingCount());
+        assertEquals(0, stats.getOldestAgeMs());
+        assertEquals(0, stats.getRetryCount());
+    }
+
+    @Test
+    public void testDrainAfterFailure() throws Exception {
+        LinkCallback callback = LinkCallback.forKey(null, "tx1");
+        this.server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+        this.server.enqueue(response("{\"status\":\"success\"}"));
+
+        MusapFuture<Void> future = this.queue.enqueue(callback);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.queue.getStats().getRetryCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        OutboxStats stats = this.queue.getStats();
+        assertEquals("Failed callback is retried", 1, stats.getRetryCount());
+        assertEquals("Failed callback stays in the outbox", 1, stats.getPendingCount());
+        assertEquals(1, stats.getMaxAttempts());
+        assertEquals(1, this.storage.listLinkCallbacks().size());
+
+        // Connectivity returned, don't wait for the backoff
+        this.queue.drain();
+        future.get(500, TimeUnit.MILLISECONDS);
+        assertTrue(this.storage.listLinkCallbacks().isEmpty());
+    }
+
+    @Test
+    public void testExpiredCallbackIsDropped() throws Exception {
+        // Stored long ago and never accepted
+        JsonObject json = new Gson().toJsonTree(LinkCallback.forKey(null, "tx1")).getAsJsonObject();
+        json.addProperty("created", System.currentTimeMillis() - LinkCallbackQueue.MAX_AGE_MS - 1000);
+        this.storage.addLinkCallback(new Gson().fromJson(json, LinkCallback.class));
+        this.server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+
+        this.queue.resume();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.queue.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Expired callback is not retried", 0, this.queue.size());
+        assertEquals(1, this.queue.getStats().getExpiredCount());
+        assertTrue("Expired callback is removed from storage", this.storage.listLinkCallbacks().isEmpty());
+    }
+
+    @Test
+    public void testRescheduleAfterRejection() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        Executor executor = r -> {
+            if (executions.getAndIncrement() == 0) {
+                throw new RejectedExecutionException("Busy");
+            }
+            r.run();
+        };
+        this.queue = new LinkCallbackQueue(this.storage, () -> this.link, executor, 0);
+        this.server.enqueue(response("{\"status\":\"success\"}"));
+
+        MusapFuture<Void> future = this.queue.enqueue(LinkCallback.forKey(null, "tx1"));
+
+        // Sent by the flush rescheduled after the rejection
+        future.get(5, TimeUnit.SECONDS);
+        assertEquals(2, executions.get());
+        assertTrue(this.storage.listLinkCallbacks().isEmpty());
+    }
+
+    private static String batchResults(List<LinkCallback> callbacks) {
+        StringBuilder results = new StringBuilder();
+        for (LinkCallback callback : callbacks) {
+            if (results.length() > 0) results.append(',');
+            results.append("{\"requestid\":\"").append(callback.getRequestId()).append("\",\"status\":\"success\"}");
+        }
+        return "{\"status\":\"success\",\"results\":[" + results + "]}";
+    }
+
+    private static MockResponse response(String payload) {
+        MusapMessage msg = new MusapMessage();
+        msg.type    = "batch";
+        msg.payload = Base64.getEncoder().encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        return new MockResponse().setBody(msg.toJson());
+    }
+
+    private static MusapMessage readRequest(RecordedRequest request) {
+        return new Gson().fromJson(request.getBody().readUtf8(), MusapMessage.class);
+    }
+
+}
@@ -0,0 +1,55 @@
+package fi.methics.musap.sdk.internal.link;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import fi.methics.musap.sdk.internal.util.MLog;
+import okhttp3.OkHttpClient;
+
+public class LinkHttpClientTest {
+
+    @Before
+    public void init() {
+        MLog.setTestMode(true);
+    }
+
+    @Test
+    public void testClientsSharePool() {
+        LinkHttpClient client = new LinkHttpClient.Builder().build();
+        OkHttpClient normal = client.getClient();
+        OkHttpClient fast   = client.getShortTimeoutClient();
+
+        assertSame(normal.connectionPool(), fast.connectionPool());
+        assertSame(normal.dispatcher(), fast.dispatcher());
+        assertEquals(240 * 1000, normal.callTimeoutMillis());
+        assertEquals(20 * 1000, fast.callTimeoutMillis());
+    }
+
+    @Test
+    public void testBaseClientIsShared() {
+        OkHttpClient base = new OkHttpClient();
+        LinkHttpClient client = new LinkHttpClient.Builder()
+                .setBaseClient(base)
+                .setKeepAlive(1, TimeUnit.MINUTES)
+                .build();
+        assertSame(base.connectionPool(), client.getClient().connectionPool());
+    }
+
+    @Test
+    public void testSetInstance() {
+        LinkHttpClient first  = LinkHttpClient.getInstance();
+        assertSame(first, LinkHttpClient.getInstance());
+
+        LinkHttpClient second = new LinkHttpClient.Builder().setMaxIdleConnections(1).build();
+        LinkHttpClient.setInstance(second);
+        assertSame(second, LinkHttpClient.getInstance());
+        assertNotSame(first.getClient().connectionPool(), second.getClient().connectionPool());
+    }
+
+}
@@ -0,0 +1,271 @@
+package fi.methics.musap.sdk.internal.link;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import fi.methics.MockKeyStorage;
+import fi.methics.musap.sdk.internal.datatype.MusapMessage;
+import fi.methics.musap.sdk.internal.datatype.coupling.payload.ExternalSignaturePayload;
+import fi.methics.musap.sdk.internal.security.encryption.AesGcmTransportEncryption;
+import fi.methics.musap.sdk.internal.security.encryption.AesTransportEncryption;
+import fi.methics.musap.sdk.internal.security.encryption.PayloadHolder;
+import fi.methics.musap.sdk.internal.security.keygenerator.MusapKeyGenerator;
+import fi.methics.musap.sdk.internal.security.mac.HmacGenerator;
+import fi.methics.musap.sdk.internal.util.MLog;
+import okhttp3.RequestBody;
+import okio.Buffer;
+
+@RunWith(RobolectricTestRunner.class)
+public class MusapMessageCodecTest {
+
+    private static final String SECRET = "1234123456789878";
+
+    // Java does not natively support PKCS7, so use 5 for testing
+    private static final String CIPHER = "AES/CBC/PKCS5Padding";
+
+    private AesTransportEncryption encryption;
+    private HmacGenerator mac;
+    private MusapMessageCodec codec;
+
+    private AesGcmTransportEncryption gcm;
+    private MusapMessageCodec gcmCodec;
+
+    @Before
+    public void init() throws GeneralSecurityException, IOException {
+        MLog.setTestMode(true);
+        MockKeyStorage storage = new MockKeyStorage();
+        byte[] encodedKey = SECRET.getBytes();
+        SecretKey encKey = new SecretKeySpec(encodedKey, 0, encodedKey.length, "AES");
+        SecretKey macKey = new SecretKeySpec(encodedKey, 0, encodedKey.length, "HmacSHA256");
+        storage.storeKey(MusapKeyGenerator.TRANSPORT_KEY_ALIAS, encKey, null);
+        storage.storeKey(MusapKeyGenerator.MAC_KEY_ALIAS, macKey, null);
+
+        this.encryption = new AesTransportEncryption(storage, CIPHER);
+        this.mac        = new HmacGenerator(storage);
+        this.codec      = new MusapMessageCodec(this.encryption, this.mac);
+        this.gcm        = new AesGcmTransportEncryption(storage);
+        this.gcmCodec   = new MusapMessageCodec(this.gcm, null);
+    }
+
+    @Test
+    public void testPlainBodyMatchesJson() throws Exception {
+        MusapMessage msg = this.createMessage();
+
+        String body = write(this.codec.createRequestBody(msg, false));
+        assertEquals("Streamed body is the same as toJson()", msg.toJson(), body);
+    }
+
+    @Test
+    public void testEncryptedBody() throws Exception {
+        MusapMessage msg = this.createMessage();
+        String expectedPayload = msg.getLinkPayload().toBase64();
+
+        String body = write(this.codec.createRequestBody(msg, true));
+        MusapMessage sent = this.codec.readMessage(new StringReader(body));
+
+        assertNotNull("Body contains IV", sent.iv);
+        assertTrue("MAC matches the non-streaming MAC",
+                this.mac.validate(sent.payload, sent.iv, sent.getIdentifier(), sent.type, sent.mac));
+        assertTrue("Codec validates its own MAC", this.codec.isMacValid(sent));
+
+        String decrypted = this.encryption.decrypt(Base64.getDecoder().decode(sent.payload), sent.iv);
+        assertEquals("Payload decrypts to the plain payload", expectedPayload, decrypted);
+    }
+
+    @Test
+    public void testRetryWritesSameBody() throws Exception {
+        RequestBody body = this.codec.createRequestBody(this.createMessage(), true);
+        assertEquals("Retried body uses the same IV", write(body), write(body));
+    }
+
+    @Test
+    public void testReadEncryptedPayload() throws Exception {
+        PayloadHolder holder = this.encryption.encrypt("{\"transid\":\"tx1\",\"clientid\":\"client\"}");
+
+        MusapMessage msg = new MusapMessage();
+        msg.payload = holder.getPayload();
+        msg.iv      = holder.getIv();
+
+        ExternalSignaturePayload payload = this.codec.readPayload(msg, ExternalSignaturePayload.class, true);
+        assertEquals("tx1", payload.transid);
+        assertEquals("client", payload.clientid);
+    }
+
+    @Test
+    public void testReadPlainPayload() throws Exception {
+        MusapMessage msg = new MusapMessage();
+        msg.payload = Base64.getEncoder().encodeToString("{\"transid\":\"tx1\"}".getBytes());
+
+        ExternalSignaturePayload payload = this.codec.readPayload(msg, ExternalSignaturePayload.class, false);
+        assertEquals("tx1", payload.transid);
+    }
+
+    @Test
+    public void testGcmBody() throws Exception {
+        MusapMessage msg = this.createMessage();
+        String expectedPayload = msg.getLinkPayload().toBase64();
+
+        String body = write(this.gcmCodec.createRequestBody(msg, true));
+        MusapMessage sent = this.gcmCodec.readMessage(new StringReader(body));
+
+        assertNull("GCM messages have no MAC", sent.mac);
+        assertTrue(this.gcmCodec.isMacValid(sent));
+
+        Cipher cipher = this.gcm.createCipher(Cipher.DECRYPT_MODE, sent.iv);
+        cipher.updateAAD((sent.transid + sent.type).getBytes(StandardCharsets.UTF_8));
+        byte[] decrypted = cipher.doFinal(Base64.getDecoder().decode(sent.payload));
+        assertEquals("Payload decrypts with transid and type as additional data",
+                expectedPayload, new String(decrypted, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testGcmReadPayload() throws Exception {
+        MusapMessage msg = this.createGcmResponse("tx1");
+
+        ExternalSignaturePayload payload = this.gcmCodec.readPayload(msg, ExternalSignaturePayload.class, true);
+        assertEquals("tx1", payload.transid);
+    }
+
+    @Test(expected = IOException.class)
+    public void testGcmRejectsWrongTransId() throws Exception {
+        MusapMessage msg = this.createGcmResponse("tx1");
+        msg.transid = "tx2";
+
+        this.gcmCodec.readPayload(msg, ExternalSignaturePayload.class, true);
+    }
+
+    @Test
+    public void testGzipRoundTrip() throws Exception {
+        MusapMessage msg = this.createMessage();
+
+        String body = write(this.codec.createRequestBody(msg, true, PayloadEncoding.GZIP_JSON));
+        MusapMessage sent = this.codec.readMessage(new StringReader(body));
+        assertTrue(this.codec.isMacValid(sent));
+
+        ExternalSignaturePayload payload = this.codec.readPayload(sent, ExternalSignaturePayload.class, true, PayloadEncoding.GZIP_JSON);
+        assertEquals("tx1", payload.transid);
+        assertEquals("client", payload.clientid);
+    }
+
+    @Test
+    public void testGzipGcmRoundTrip() throws Exception {
+        MusapMessage msg = this.createMessage();
+
+        String body = write(this.gcmCodec.createRequestBody(msg, true, PayloadEncoding.GZIP_JSON));
+        MusapMessage sent = this.gcmCodec.readMessage(new StringReader(body));
+
+        ExternalSignaturePayload payload = this.gcmCodec.readPayload(sent, ExternalSignaturePayload.class, true, PayloadEncoding.GZIP_JSON);
+        assertEquals("tx1", payload.transid);
+    }
+
+    @Test
+    public void testGzipPlainRoundTrip() throws Exception {
+        MusapMessage msg = this.createMessage();
+
+        // Pre-encoded payloads are compressed too
+        MusapMessage encoded = new MusapMessage();
+        encoded.type    = msg.type;
+        encoded.payload = msg.getLinkPayload().toBase64();
+
+        for (MusapMessage m : new MusapMessage[] {msg, encoded}) {
+            String body = write(this.codec.createRequestBody(m, false, PayloadEncoding.GZIP_JSON));
+            MusapMessage sent = this.codec.readMessage(new StringReader(body));
+            ExternalSignaturePayload payload = this.codec.readPayload(sent, ExternalSignaturePayload.class, false, PayloadEncoding.GZIP_JSON);
+            assertEquals("tx1", payload.transid);
+        }
+    }
+
+    @Test
+    public void testGzipRetryWritesSameBody() throws Exception {
+        RequestBody body = this.codec.createRequestBody(this.createMessage(), true, PayloadEncoding.GZIP_JSON);
+        assertEquals(write(body), write(body));
+    }
+
+    @Test
+    public void testGzipIsSmaller() throws Exception {
+        for (int certificates : new int[] {1, 10, 100}) {
+            MusapMessage msg = this.createMessage();
+            ExternalSignaturePayload payload = (ExternalSignaturePayload) msg.getLinkPayload();
+            for (int i = 0; i < certificates; i++) {
+                payload.attributes.put("cert" + i, createCertificate(i));
+            }
+
+            int json = write(this.codec.createRequestBody(msg, true, PayloadEncoding.JSON)).length();
+            int gzip = write(this.codec.createRequestBody(msg, true, PayloadEncoding.GZIP_JSON)).length();
+            assertTrue(certificates + " certificates compressed " + gzip + " < " + json, gzip < json);
+        }
+    }
+
+    private MusapMessage createGcmResponse(String transid) throws Exception {
+        MusapMessage msg = new MusapMessage();
+        msg.type    = "externalsignature";
+        msg.transid = transid;
+
+        Cipher cipher = this.gcm.createCipher(Cipher.ENCRYPT_MODE, null);
+        cipher.updateAAD((msg.transid + msg.type).getBytes(StandardCharsets.UTF_8));
+        byte[] encrypted = cipher.doFinal(("{\"transid\":\"" + transid + "\"}").getBytes(StandardCharsets.UTF_8));
+
+        msg.iv      = Base64.getEncoder().encodeToString(cipher.getIV());
+        msg.payload = Base64.getEncoder().encodeToString(encrypted);
+        return msg;
+    }
+
+    private MusapMessage createMessage() {
+        ExternalSignaturePayload payload = new ExternalSignaturePayload("client");
+        payload.transid = "tx1";
+
+        MusapMessage msg = new MusapMessage();
+        msg.setPayload(payload);
+        msg.setType(payload);
+        msg.musapId = "musapid";
+        msg.transid = "tx1";
+        return msg;
+    }
+
+    /**
+     * Create a base64 certificate-like blob: a structure shared with other certificates
+     * of the same issuer, and a unique key and signature.
+     * @param seed Seed of the unique part
+     * @return base64 data
+     */
+    private static String createCertificate(int seed) {
+        StringBuilder common = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            common.append("CN=MUSAP Test Issuing CA ").append(i)
+                  .append(",O=Methics Oy,C=FI;keyUsage=digitalSignature,nonRepudiation;");
+        }
+        byte[] shared = common.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] unique = new byte[320];
+        new Random(seed).nextBytes(unique);
+
+        byte[] cert = new byte[shared.length + unique.length];
+        System.arraycopy(shared, 0, cert, 0, shared.length);
+        System.arraycopy(unique, 0, cert, shared.length, unique.length);
+        return Base64.getEncoder().encodeToString(cert);
+    }
+
+    private static String write(RequestBody body) throws IOException {
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        return buffer.readUtf8();
+    }
+
+}
@@ -0,0 +1,151 @@
+package fi.methics.musap.sdk.internal.link;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import fi.methics.musap.sdk.api.MusapException;
+import fi.methics.musap.sdk.internal.datatype.MusapLink;
+import fi.methics.musap.sdk.internal.datatype.MusapMessage;
+import fi.methics.musap.sdk.internal.datatype.coupling.ExternalSignatureResponsePayload;
+import fi.methics.musap.sdk.internal.datatype.coupling.payload.ExternalSignaturePayload;
+import fi.methics.musap.sdk.internal.util.MLog;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+@RunWith(RobolectricTestRunner.class)
+public class ReceiveStrategyTest {
+
+    private static final String TRANSID = "tx1";
+
+    private MockWebServer server;
+    private MusapLink link;
+
+    @Before
+    public void init() throws IOException {
+        MLog.setTestMode(true);
+        this.server = new MockWebServer();
+        this.server.start();
+        this.link = new MusapLink(this.server.url("/musapapi").toString(), "musapid");
+
+        // Initial externalsignature response
+        this.server.enqueue(status("pending"));
+    }
+
+    @After
+    public void shutdown() throws IOException {
+        this.server.shutdown();
+    }
+
+    @Test
+    public void testShortPoll() throws Exception {
+        this.server.enqueue(status("pending"));
+        this.server.enqueue(status("success"));
+
+        ExternalSignatureResponsePayload resp = this.link.sign(new ExternalSignaturePayload("client"), new ShortPollStrategy(10));
+        assertNotNull(resp);
+        assertEquals("success", resp.status);
+        assertEquals(3, this.server.getRequestCount());
+    }
+
+    @Test
+    public void testLongPoll() throws Exception {
+        this.server.enqueue(status("pending").setHeader(ReceiveMode.HEADER, "longpoll"));
+        this.server.enqueue(status("success").setHeader(ReceiveMode.HEADER, "longpoll"));
+
+        ExternalSignatureResponsePayload resp = this.link.sign(new ExternalSignaturePayload("client"), new LongPollStrategy(5000));
+        assertEquals("success", resp.status);
+
+        this.server.takeRequest();
+        RecordedRequest poll = this.server.takeRequest();
+        assertEquals("longpoll", poll.getHeader(ReceiveMode.HEADER));
+        assertEquals("5000", poll.getHeader(LongPollStrategy.HEADER_WAIT));
+    }
+
+    @Test
+    public void testSse() throws Exception {
+        String events = ": heartbeat\n\n"
+                + "data: " + message("pending") + "\n\n"
+                + "event: status\n"
+                + "data: " + message("success") + "\n\n";
+        this.server.enqueue(new MockResponse()
+                .setHeader("Content-Type", SseStrategy.EVENT_STREAM)
+                .setBody(events));
+
+        ExternalSignatureResponsePayload resp = this.link.sign(new ExternalSignaturePayload("client"), new SseStrategy());
+        assertEquals("success", resp.status);
+        assertEquals(2, this.server.getRequestCount());
+
+        this.server.takeRequest();
+        assertEquals(SseStrategy.EVENT_STREAM, this.server.takeRequest().getHeader("Accept"));
+    }
+
+    @Test
+    public void testSseReconnectBacksOff() throws Exception {
+        // First stream ends without a final status
+        this.server.enqueue(new MockResponse()
+                .setHeader("Content-Type", SseStrategy.EVENT_STREAM)
+                .setBody("data: " + message("pending") + "\n\n"));
+        this.server.enqueue(new MockResponse()
+                .setHeader("Content-Type", SseStrategy.EVENT_STREAM)
+                .setBody("data: " + message("success") + "\n\n"));
+
+        long start = System.currentTimeMillis();
+        SseStrategy strategy = new SseStrategy(SseStrategy.DEFAULT_HEARTBEAT_TIMEOUT_MS, 500);
+        ExternalSignatureResponsePayload resp = this.link.sign(new ExternalSignaturePayload("client"), strategy);
+        assertEquals("success", resp.status);
+        assertEquals(3, this.server.getRequestCount());
+        assertTrue("Reconnect should wait", System.currentTimeMillis() - start >= 400);
+    }
+
+    @Test
+    public void testNegotiationFallsBackToShortPoll() throws Exception {
+        // A MUSAP Link without streaming or long poll support answers every status request at once
+        this.server.enqueue(status("pending"));
+        this.server.enqueue(status("pending"));
+        this.server.enqueue(status("success"));
+
+        NegotiatingStrategy strategy = new NegotiatingStrategy(new SseStrategy(), new LongPollStrategy(), new ShortPollStrategy(10));
+        ExternalSignatureResponsePayload resp = this.link.sign(new ExternalSignaturePayload("client"), strategy);
+        assertEquals("success", resp.status);
+        assertEquals(ReceiveMode.SHORT_POLL, strategy.getMode());
+    }
+
+    @Test
+    public void testFailedSignature() throws Exception {
+        this.server.enqueue(status("failed"));
+        try {
+            this.link.sign(new ExternalSignaturePayload("client"), new ShortPollStrategy(10));
+            fail("Expected failure");
+        } catch (MusapException e) {
+            assertEquals("Signature failed", e.getMessage());
+        }
+    }
+
+    private static MockResponse status(String status) {
+        return new MockResponse().setBody(message(status));
+    }
+
+    private static String message(String status) {
+        String payload = "{\"status\":\"" + status + "\",\"transid\":\"" + TRANSID + "\"}";
+
+        MusapMessage msg = new MusapMessage();
+        msg.type    = "externalsignature";
+        msg.transid = TRANSID;
+        msg.payload = Base64.getEncoder().encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        return msg.toJson();
+    }
+
+}
@@ -0,0 +1,92 @@
+package fi.methics.musap.sdk.internal.security.encryption;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import fi.methics.MockKeyStorage;
+import fi.methics.musap.sdk.internal.security.keygenerator.MusapKeyGenerator;
+import fi.methics.musap.sdk.internal.util.MLog;
+
+@RunWith(RobolectricTestRunner.class)
+public class AesGcmTransportEncryptionTest {
+
+    private static final String MESSAGE = "teststring";
+    private static final String IV = "MTIzNDU2Nzg5ODc2";
+    private static final String SECRET = "1234123456789878";
+
+    private AesGcmTransportEncryption encryption;
+
+    @Before
+    public void init() throws GeneralSecurityException, IOException {
+        MLog.setTestMode(true);
+        MockKeyStorage storage = new MockKeyStorage();
+        byte[] encodedKey = SECRET.getBytes();
+        SecretKey encKey = new SecretKeySpec(encodedKey, 0, encodedKey.length, "AES");
+        storage.storeKey(MusapKeyGenerator.TRANSPORT_KEY_ALIAS, encKey, null);
+        this.encryption = new AesGcmTransportEncryption(storage);
+    }
+
+    @Test
+    public void testRoundTrip() throws GeneralSecurityException, IOException {
+        PayloadHolder encrypted = this.encryption.encrypt(MESSAGE);
+        String decrypted = this.encryption.decrypt(Base64.getDecoder().decode(encrypted.getPayload()), encrypted.getIv());
+
+        assertEquals("Output is decrypted", MESSAGE, decrypted);
+        assertEquals("IV is 96 bits", 12, Base64.getDecoder().decode(encrypted.getIv()).length);
+    }
+
+    @Test
+    public void testOutputContainsTag() throws GeneralSecurityException, IOException {
+        PayloadHolder encrypted = this.encryption.encrypt(MESSAGE, IV);
+
+        assertEquals("Payload contains IV", IV, encrypted.getIv());
+        assertEquals("Output has a 128-bit tag", MESSAGE.length() + 16,
+                Base64.getDecoder().decode(encrypted.getPayload()).length);
+    }
+
+    @Test(expected = AEADBadTagException.class)
+    public void testTamperedPayload() throws GeneralSecurityException, IOException {
+        PayloadHolder encrypted = this.encryption.encrypt(MESSAGE);
+        byte[] payload = Base64.getDecoder().decode(encrypted.getPayload());
+        payload[0] ^= 1;
+
+        this.encryption.decrypt(payload, encrypted.getIv());
+    }
+
+    @Test
+    public void testIvNotReused() throws IOException, GeneralSecurityException {
+        PayloadHolder encrypted1 = this.encryption.encrypt(MESSAGE);
+        PayloadHolder encrypted2 = this.encryption.encrypt(MESSAGE);
+
+        assertNotEquals("Same IV is not used twice", encrypted1.getIv(), encrypted2.getIv());
+    }
+
+    @Test
+    public void testIsAuthenticated() {
+        assertTrue(this.encryption.isAuthenticated());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncryptNoKey() throws GeneralSecurityException, IOException {
+        AesGcmTransportEncryption encryption = new AesGcmTransportEncryption(new MockKeyStorage());
+        encryption.encrypt(MESSAGE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecryptNullIv() throws GeneralSecurityException, IOException {
+        this.encryption.decrypt(new byte[32], null);
+    }
+
+}
@@ -0,0 +1,155 @@
+package fi.methics.musap.sdk.internal.security.encryption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.Random;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import fi.methics.MockKeyStorage;
+import fi.methics.musap.sdk.internal.security.keygenerator.MusapKeyGenerator;
+import fi.methics.musap.sdk.internal.security.mac.HmacGenerator;
+import fi.methics.musap.sdk.internal.security.mac.MacGenerator;
+import fi.methics.musap.sdk.internal.util.MLog;
+
+/**
+ * Streaming use of both transport modes with the same keys, as the message codec uses them.
+ * <p>
+ * AES_CBC_HMAC encrypts the payload, base64 encodes the result and MACs the base64.
+ * AES_GCM encrypts and authenticates in one pass.
+ * </p>
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TransportEncryptionTest {
+
+    private static final String SECRET = "1234123456789878";
+
+    // Java does not natively support PKCS7, so use 5 for testing
+    private static final String CIPHER = "AES/CBC/PKCS5Padding";
+
+    private static final byte[] AAD = "transidtype".getBytes(StandardCharsets.UTF_8);
+
+    private TransportEncryption cbc;
+    private TransportEncryption gcm;
+    private MacGenerator mac;
+
+    @Before
+    public void init() throws GeneralSecurityException, IOException {
+        MLog.setTestMode(true);
+        MockKeyStorage storage = new MockKeyStorage();
+        byte[] encodedKey = SECRET.getBytes();
+        SecretKey encKey = new SecretKeySpec(encodedKey, 0, encodedKey.length, "AES");
+        SecretKey macKey = new SecretKeySpec(encodedKey, 0, encodedKey.length, "HmacSHA256");
+        storage.storeKey(MusapKeyGenerator.TRANSPORT_KEY_ALIAS, encKey, null);
+        storage.storeKey(MusapKeyGenerator.MAC_KEY_ALIAS, macKey, null);
+
+        this.cbc = new AesTransportEncryption(storage, CIPHER);
+        this.gcm = new AesGcmTransportEncryption(storage);
+        this.mac = new HmacGenerator(storage);
+    }
+
+    @Test
+    public void testAlternatingModes() throws GeneralSecurityException, IOException {
+        // Both modes reuse the Ciphers of this thread
+        for (int i = 0; i < 4; i++) {
+            byte[] payload = createPayload(i, 1024 << (i * 2));
+
+            String cbcIv = this.cbc.generateIv();
+            byte[] cbcEncrypted = this.cbc.createCipher(Cipher.ENCRYPT_MODE, cbcIv).doFinal(payload);
+            String gcmIv = this.gcm.generateIv();
+            byte[] gcmEncrypted = this.encryptGcm(payload, gcmIv);
+
+            assertArrayEquals(payload, this.cbc.createCipher(Cipher.DECRYPT_MODE, cbcIv).doFinal(cbcEncrypted));
+            assertArrayEquals(payload, this.decryptGcm(gcmEncrypted, gcmIv));
+        }
+    }
+
+    @Test
+    public void testCbcTamperedPayload() throws GeneralSecurityException, IOException {
+        String iv = this.cbc.generateIv();
+        byte[] encrypted = this.cbc.createCipher(Cipher.ENCRYPT_MODE, iv).doFinal(createPayload(1, 1024));
+        String encoded = Base64.getEncoder().encodeToString(encrypted);
+        String mac = this.mac.toString(this.mac.init(iv, "transid", "type").doFinal(encoded.getBytes(StandardCharsets.UTF_8)));
+
+        assertTrue(this.mac.validate(encoded, iv, "transid", "type", mac));
+
+        encrypted[0] ^= 1;
+        String tampered = Base64.getEncoder().encodeToString(encrypted);
+        assertFalse("CBC relies on the MAC to detect tampering", this.mac.validate(tampered, iv, "transid", "type", mac));
+    }
+
+    @Test(expected = AEADBadTagException.class)
+    public void testGcmTamperedAssociatedData() throws GeneralSecurityException, IOException {
+        String iv = this.gcm.generateIv();
+        byte[] encrypted = this.encryptGcm(createPayload(1, 1024), iv);
+
+        Cipher cipher = this.gcm.createCipher(Cipher.DECRYPT_MODE, iv);
+        cipher.updateAAD("transid2type".getBytes(StandardCharsets.UTF_8));
+        cipher.doFinal(encrypted);
+    }
+
+    @Test
+    public void testAbandonedMessage() throws GeneralSecurityException, IOException {
+        byte[] payload = createPayload(2, 4096);
+
+        // Start messages and never finish them
+        this.cbc.createCipher(Cipher.ENCRYPT_MODE, null).update(payload);
+        this.gcm.createCipher(Cipher.ENCRYPT_MODE, null).update(payload);
+        this.mac.init("iv", "transid", "type").update(payload);
+
+        String iv = this.cbc.generateIv();
+        byte[] encrypted = this.cbc.createCipher(Cipher.ENCRYPT_MODE, iv).doFinal(payload);
+        assertArrayEquals(payload, this.cbc.createCipher(Cipher.DECRYPT_MODE, iv).doFinal(encrypted));
+
+        String gcmIv = this.gcm.generateIv();
+        assertArrayEquals(payload, this.decryptGcm(this.encryptGcm(payload, gcmIv), gcmIv));
+
+        Mac calculator = this.mac.init(iv, "transid", "type");
+        String encoded = Base64.getEncoder().encodeToString(encrypted);
+        String mac = this.mac.toString(calculator.doFinal(encoded.getBytes(StandardCharsets.UTF_8)));
+        assertTrue(this.mac.validate(encoded, iv, "transid", "type", mac));
+    }
+
+    @Test
+    public void testGcmSameMessageTwice() throws GeneralSecurityException, IOException {
+        byte[] payload = createPayload(3, 1024);
+        String iv = this.gcm.generateIv();
+
+        // Writing a request body twice encrypts the same message with the same IV
+        assertArrayEquals(this.encryptGcm(payload, iv), this.encryptGcm(payload, iv));
+    }
+
+    private byte[] encryptGcm(byte[] payload, String iv) throws GeneralSecurityException, IOException {
+        Cipher cipher = this.gcm.createCipher(Cipher.ENCRYPT_MODE, iv);
+        cipher.updateAAD(AAD);
+        return cipher.doFinal(payload);
+    }
+
+    private byte[] decryptGcm(byte[] encrypted, String iv) throws GeneralSecurityException, IOException {
+        Cipher cipher = this.gcm.createCipher(Cipher.DECRYPT_MODE, iv);
+        cipher.updateAAD(AAD);
+        return cipher.doFinal(encrypted);
+    }
+
+    private static byte[] createPayload(int seed, int size) {
+        byte[] payload = new byte[size];
+        new Random(seed).nextBytes(payload);
+        return payload;
+    }
+
+}
@@ -0,0 +1,132 @@
+package fi.methics.musap.sdk.internal.security.keystorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import fi.methics.MockKeyStorage;
+
+@RunWith(RobolectricTestRunner.class)
+public class CachingKeyStorageTest {
+
+    private static final String KEY_NAME = "mackey";
+
+    private CountingKeyStorage storage;
+    private CachingKeyStorage cache;
+
+    @Before
+    public void init() {
+        this.storage = new CountingKeyStorage();
+        this.cache   = new CachingKeyStorage(this.storage);
+    }
+
+    @Test
+    public void testLoadIsCached() throws Exception {
+        SecretKey key = new SecretKeySpec("1234567890123456".getBytes(), "AES");
+        this.storage.storeKey(KEY_NAME, key, null);
+
+        assertSame(key, this.cache.loadKey(KEY_NAME));
+        assertSame(key, this.cache.loadKey(KEY_NAME));
+        assertTrue(this.cache.keyExists(KEY_NAME));
+        assertEquals(1, this.storage.loads);
+    }
+
+    @Test
+    public void testMissingKeyIsCached() throws Exception {
+        assertFalse(this.cache.keyExists(KEY_NAME));
+        assertNull(this.cache.loadKey(KEY_NAME));
+        assertEquals(1, this.storage.loads);
+    }
+
+    @Test
+    public void testStoreInvalidates() throws Exception {
+        assertFalse(this.cache.keyExists(KEY_NAME));
+
+        SecretKey key = new SecretKeySpec("1234567890123456".getBytes(), "AES");
+        this.cache.storeKey(KEY_NAME, key, null);
+        assertTrue(this.cache.keyExists(KEY_NAME));
+        assertEquals(2, this.storage.loads);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        assertFalse(this.cache.keyExists(KEY_NAME));
+
+        // Key changed behind the cache
+        this.storage.storeKey(KEY_NAME, new SecretKeySpec("1234567890123456".getBytes(), "AES"), null);
+        assertFalse(this.cache.keyExists(KEY_NAME));
+
+        this.cache.invalidate();
+        assertTrue(this.cache.keyExists(KEY_NAME));
+    }
+
+    @Test
+    public void testInvalidateDuringLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountingKeyStorage blocking = new CountingKeyStorage() {
+            @Override
+            public SecretKey loadKey(String keyName) throws GeneralSecurityException, IOException {
+                SecretKey key = super.loadKey(keyName);
+                if (loading.getCount() > 0) {
+                    loading.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return key;
+            }
+        };
+        CachingKeyStorage cache = new CachingKeyStorage(blocking);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<SecretKey> stale = executor.submit(() -> cache.loadKey(KEY_NAME));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+            // Key stored while the first load is still running
+            SecretKey key = new SecretKeySpec("1234567890123456".getBytes(), "AES");
+            blocking.storeKey(KEY_NAME, key, null);
+            cache.invalidate(KEY_NAME);
+            release.countDown();
+            assertNull(stale.get(5, TimeUnit.SECONDS));
+
+            // The stale load was not cached
+            assertSame(key, cache.loadKey(KEY_NAME));
+            assertEquals(2, blocking.loads);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class CountingKeyStorage extends MockKeyStorage {
+        private int loads;
+
+        @Override
+        public SecretKey loadKey(String keyName) throws GeneralSecurityException, IOException {
+            this.loads++;
+            return super.loadKey(keyName);
+        }
+    }
+
+}
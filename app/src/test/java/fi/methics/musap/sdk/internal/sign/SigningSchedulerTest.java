@@ -0,0 +1,173 @@
+package fi.methics.musap.sdk.internal.sign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.methics.musap.sdk.internal.util.MLog;
+
+public class SigningSchedulerTest {
+
+    private ExecutorService pool;
+
+    @Before
+    public void init() {
+        MLog.setTestMode(true);
+        this.pool = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void shutdown() {
+        this.pool.shutdownNow();
+    }
+
+    @Test
+    public void testSingleSlotRunsInOrder() throws InterruptedException {
+        SigningScheduler scheduler = new SigningScheduler();
+        Executor executor = scheduler.getExecutor("yubikey", 1, this.pool);
+
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            final int n = i;
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(10);
+                order.add(n);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+
+        SigningStats stats = scheduler.getStats("yubikey");
+        assertEquals(5, stats.getCompletedCount());
+        assertEquals(0, stats.getQueueLength());
+        assertTrue(stats.getMaxWaitMs() >= 10);
+    }
+
+    @Test
+    public void testLimitPerSscd() throws InterruptedException {
+        SigningScheduler scheduler = new SigningScheduler();
+        Executor rest = scheduler.getExecutor("rest", 3, this.pool);
+        Executor device = scheduler.getExecutor("device", 1, this.pool);
+
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch restStarted = new CountDownLatch(3);
+        for (int i = 0; i < 4; i++) {
+            rest.execute(() -> {
+                restStarted.countDown();
+                await(release);
+            });
+        }
+        assertTrue(restStarted.await(5, TimeUnit.SECONDS));
+        assertEquals(3, scheduler.getStats("rest").getActiveCount());
+        assertEquals(1, scheduler.getStats("rest").getQueueLength());
+
+        // A busy SSCD does not block other SSCDs
+        CountDownLatch deviceDone = new CountDownLatch(1);
+        device.execute(deviceDone::countDown);
+        assertTrue(deviceDone.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void testQueueFull() throws InterruptedException {
+        SigningScheduler scheduler = new SigningScheduler(1);
+        Executor executor = scheduler.getExecutor("yubikey", 1, this.pool);
+
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> await(release));
+        executor.execute(() -> { });
+
+        boolean rejected = false;
+        try {
+            executor.execute(() -> { });
+        } catch (RejectedExecutionException e) {
+            rejected = true;
+        }
+        assertTrue(rejected);
+        release.countDown();
+    }
+
+    @Test
+    public void testNonBlockingHoldsSlot() {
+        SigningScheduler scheduler = new SigningScheduler();
+        List<CompletableFuture<Void>> operations = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            scheduler.submitNonBlocking("rest204", 2, () -> {
+                CompletableFuture<Void> operation = new CompletableFuture<>();
+                operations.add(operation);
+                return operation;
+            });
+        }
+        // Waiting requests hold no thread, but do hold their slot
+        assertEquals(2, operations.size());
+        SigningStats stats = scheduler.getStats("rest204");
+        assertEquals(2, stats.getActiveCount());
+        assertEquals(2, stats.getQueueLength());
+
+        operations.get(0).complete(null);
+        assertEquals(3, operations.size());
+        operations.get(1).completeExceptionally(new Exception("Failed"));
+        assertEquals(4, operations.size());
+
+        operations.get(2).complete(null);
+        operations.get(3).complete(null);
+        stats = scheduler.getStats("rest204");
+        assertEquals(0, stats.getActiveCount());
+        assertEquals(4, stats.getCompletedCount());
+    }
+
+    @Test
+    public void testNonBlockingAndBlockingShareLane() throws InterruptedException {
+        SigningScheduler scheduler = new SigningScheduler();
+        CompletableFuture<Void> operation = new CompletableFuture<>();
+        scheduler.submitNonBlocking("rest204", 1, () -> operation);
+
+        CountDownLatch done = new CountDownLatch(1);
+        scheduler.getExecutor("rest204", 1, this.pool).execute(done::countDown);
+        assertFalse("Blocking request waits for the slot", done.await(100, TimeUnit.MILLISECONDS));
+
+        operation.complete(null);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
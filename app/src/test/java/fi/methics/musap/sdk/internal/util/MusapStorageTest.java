@@ -97,4 +97,25 @@ public class MusapStorageTest {
         String musapId = musapStorage.getMusapId();
         assertEquals("testid", musapId);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void cachedValuesMatchStorage() {
+        MLog.setTestMode(true);
+
+        MockStorage storage = new MockStorage();
+        MusapStorage musapStorage = new MusapStorage(storage);
+        musapStorage.storeLink(new MusapLink("http://noop", "testid"));
+        musapStorage.storeRelyingParty(new RelyingParty("testname1", "testlinkid1"));
+        musapStorage.storeRelyingParty(new RelyingParty("testname2", "testlinkid2"));
+        musapStorage.removeRelyingParty(new RelyingParty("testname1", "testlinkid1"));
+
+        // Cached link is reused
+        assertSame(musapStorage.getMusapLink(), musapStorage.getMusapLink());
+
+        // A new instance reads the same values from storage
+        MusapStorage reloaded = new MusapStorage(storage);
+        assertEquals("testid", reloaded.getMusapId());
+        assertEquals(1, reloaded.listRelyingParties().size());
+        assertEquals("testlinkid2", reloaded.listRelyingParties().get(0).getLinkID());
+    }
+}
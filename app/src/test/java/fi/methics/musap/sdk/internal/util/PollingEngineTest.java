@@ -0,0 +1,210 @@
+package fi.methics.musap.sdk.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.methics.musap.sdk.api.MusapException;
+
+public class PollingEngineTest {
+
+    @Before
+    public void init() {
+        MLog.setTestMode(true);
+    }
+
+    @Test
+    public void testBackoff() {
+        PollingEngine engine = new PollingEngine.Builder()
+                .setInitialDelay(Duration.ofMillis(100))
+                .setMultiplier(2)
+                .setMaxDelay(Duration.ofMillis(500))
+                .build();
+        assertEquals(100, engine.getDelay(1));
+        assertEquals(200, engine.getDelay(2));
+        assertEquals(400, engine.getDelay(3));
+        assertEquals(500, engine.getDelay(4));
+        assertEquals(500, engine.getDelay(10));
+    }
+
+    @Test
+    public void testPollUntilReady() throws Exception {
+        List<PollingEngine.PollMetrics> metrics = new ArrayList<>();
+        PollingEngine engine = new PollingEngine.Builder()
+                .setInitialDelay(Duration.ofMillis(5))
+                .setJitter(0)
+                .setListener(metrics::add)
+                .build();
+
+        AtomicInteger calls = new AtomicInteger();
+        String result = engine.poll(() -> calls.incrementAndGet() < 3 ? null : "done");
+
+        assertEquals("done", result);
+        assertEquals(3, metrics.size());
+        assertEquals(1, metrics.get(0).getAttempt());
+        assertEquals(5, metrics.get(0).getDelayMs());
+        assertTrue(metrics.get(2).isDone());
+        assertTrue(metrics.get(2).getElapsedMs() >= 5 + 7 + 10);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        PollingEngine engine = new PollingEngine.Builder()
+                .setInitialDelay(Duration.ofMillis(10))
+                .setTimeout(Duration.ofMillis(100))
+                .build();
+        long start = System.currentTimeMillis();
+        try {
+            engine.poll(() -> null);
+            fail("Expected timeout");
+        } catch (MusapException e) {
+            assertEquals(MusapException.ERROR_TIMED_OUT, e.getErrorCode());
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void testAttemptError() throws Exception {
+        PollingEngine engine = new PollingEngine.Builder()
+                .setInitialDelay(Duration.ofMillis(1))
+                .build();
+        try {
+            engine.poll(() -> {
+                throw new IOException("Connection failed");
+            });
+            fail("Expected failure");
+        } catch (IOException e) {
+            assertEquals("Connection failed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testInterrupt() throws Exception {
+        PollingEngine engine = new PollingEngine.Builder()
+                .setInitialDelay(Duration.ofSeconds(10))
+                .build();
+        Thread.currentThread().interrupt();
+        try {
+            engine.poll(() -> "never");
+            fail("Expected cancel");
+        } catch (MusapException e) {
+            assertEquals(MusapException.ERROR_USER_CANCEL, e.getErrorCode());
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    @Test
+    public void testPollAsyncUntilReady() throws Exception {
+        PollingEngine engine = new PollingEngine.Builder()
+                .setInitialDelay(Duration.ofMillis(5))
+                .build();
+
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> result = engine.pollAsync(() ->
+                CompletableFuture.completedFuture(calls.incrementAndGet() < 3 ? null : "done"));
+
+        assertEquals("done", result.get(5, TimeUnit.SECONDS));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testPollAsyncManyPending() throws Exception {
+        PollingEngine engine = new PollingEngine.Builder()
+                .setInitialDelay(Duration.ofMillis(5))
+                .setMaxDelay(Duration.ofMillis(20))
+                .build();
+
+        // Far more pending polls than threads
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            int id = i;
+            AtomicInteger calls = new AtomicInteger();
+            results.add(engine.pollAsync(() ->
+                    CompletableFuture.completedFuture(calls.incrementAndGet() < 3 ? null : id)));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(Integer.valueOf(i), results.get(i).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testPollAsyncTimeout() throws Exception {
+        PollingEngine engine = new PollingEngine.Builder()
+                .setInitialDelay(Duration.ofMillis(10))
+                .setTimeout(Duration.ofMillis(100))
+                .build();
+        try {
+            engine.pollAsync(() -> CompletableFuture.completedFuture(null)).get(5, TimeUnit.SECONDS);
+            fail("Expected timeout");
+        } catch (ExecutionException e) {
+            assertEquals(MusapException.ERROR_TIMED_OUT, ((MusapException) e.getCause()).getErrorCode());
+        }
+    }
+
+    @Test
+    public void testPollAsyncAttemptError() throws Exception {
+        PollingEngine engine = new PollingEngine.Builder()
+                .setInitialDelay(Duration.ofMillis(1))
+                .build();
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IOException("Connection failed"));
+        try {
+            engine.pollAsync(() -> failed).get(5, TimeUnit.SECONDS);
+            fail("Expected failure");
+        } catch (ExecutionException e) {
+            assertEquals("Connection failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testPollAsyncCancel() throws Exception {
+        PollingEngine engine = new PollingEngine.Builder()
+                .setInitialDelay(Duration.ofMillis(50))
+                .build();
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> result = engine.pollAsync(() -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        });
+        result.cancel(true);
+        Thread.sleep(200);
+        assertEquals("Cancelled polling makes no attempts", 0, calls.get());
+    }
+
+    @Test
+    public void testPollAsyncCancelsAttempt() throws Exception {
+        PollingEngine engine = new PollingEngine.Builder()
+                .setInitialDelay(Duration.ofMillis(10))
+                .build();
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<String> result = engine.pollAsync(() -> {
+            started.countDown();
+            return pending;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        result.cancel(true);
+        try {
+            pending.get(5, TimeUnit.SECONDS);
+            fail("Cancelling polling should cancel the attempt in progress");
+        } catch (CancellationException e) {
+            // Expected
+        }
+    }
+
+}
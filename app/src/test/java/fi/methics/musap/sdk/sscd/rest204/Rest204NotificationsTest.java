@@ -0,0 +1,76 @@
+package fi.methics.musap.sdk.sscd.rest204;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import fi.methics.musap.sdk.api.MusapException;
+import fi.methics.musap.sdk.api.MusapFuture;
+import fi.methics.musap.sdk.internal.util.MLog;
+import fi.methics.musap.sdk.sscd.rest204.json.MSS_StatusResp;
+
+public class Rest204NotificationsTest {
+
+    private static final String NOTIFICATION = "{\"MSS_StatusResp\": {"
+            + "\"MSSP_TransID\": \"tx1\","
+            + "\"Status\": {\"StatusCode\": {\"Value\": \"500\"}},"
+            + "\"MSS_Signature\": {\"Base64Signature\": \"AQID\"}}}";
+
+    private Rest204Notifications notifications;
+
+    @Before
+    public void init() {
+        MLog.setTestMode(true);
+        this.notifications = new Rest204Notifications();
+    }
+
+    @Test
+    public void testNotification() throws Exception {
+        MusapFuture<MSS_StatusResp> future = this.notifications.register("tx1", Duration.ofSeconds(5));
+        assertEquals(1, this.notifications.size());
+
+        assertTrue(this.notifications.onNotification(NOTIFICATION));
+
+        MSS_StatusResp resp = future.get(1, TimeUnit.SECONDS);
+        assertEquals("500", resp.status.statusCode.value);
+        assertEquals("AQID", resp.signature.base64Signature);
+        assertEquals(0, this.notifications.size());
+    }
+
+    @Test
+    public void testEarlyNotification() throws Exception {
+        assertTrue(this.notifications.onNotification(NOTIFICATION));
+
+        MusapFuture<MSS_StatusResp> future = this.notifications.register("tx1", Duration.ofSeconds(5));
+        assertTrue(future.isDone());
+        assertEquals("tx1", future.get().msspTransId);
+        assertEquals(0, this.notifications.size());
+    }
+
+    @Test
+    public void testInvalidNotification() {
+        assertFalse(this.notifications.onNotification("{\"mode\": \"sign\"}"));
+        assertFalse(this.notifications.onNotification("not json"));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        MusapFuture<MSS_StatusResp> future = this.notifications.register("tx1", Duration.ofMillis(50));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected timeout");
+        } catch (ExecutionException e) {
+            assertEquals(MusapException.ERROR_TIMED_OUT, ((MusapException) e.getCause()).getErrorCode());
+        }
+        assertEquals(0, this.notifications.size());
+    }
+
+}
@@ -0,0 +1,120 @@
+package fi.methics.musap.sdk.sscd.rest204;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import fi.methics.musap.sdk.internal.util.MLog;
+import fi.methics.musap.sdk.sscd.rest204.json.MSS_SignatureReq;
+import fi.methics.musap.sdk.sscd.rest204.json.MSS_SignatureResp;
+import okhttp3.Request;
+import okio.Buffer;
+
+public class Rest204RequestFactoryTest {
+
+    private static final String REST_URL = "https://mssp.example.com/rest/service";
+    private static final String API_KEY  = "1234123456789878";
+
+    private Rest204RequestFactory factory;
+
+    @Before
+    public void init() {
+        MLog.setTestMode(true);
+        this.factory = new Rest204RequestFactory(REST_URL, new RestHmac(null, "user", API_KEY));
+    }
+
+    @Test
+    public void testSignatureRequest() throws Exception {
+        MSS_SignatureReq jReq = new MSS_SignatureReq("35847001001");
+        jReq.signatureProfile = "http://alauda.mobi/digitalSignature";
+
+        Request request = this.factory.createSignatureRequest(jReq);
+        byte[] body = readBody(request);
+
+        JsonObject json = new Gson().fromJson(new String(body, StandardCharsets.UTF_8), JsonObject.class);
+        JsonObject sigReq = json.getAsJsonObject("MSS_SignatureReq");
+        assertEquals("35847001001", sigReq.getAsJsonObject("MobileUser").get("MSISDN").getAsString());
+        assertEquals("http://alauda.mobi/digitalSignature", sigReq.get("SignatureProfile").getAsString());
+        assertAuthorization(request, body);
+    }
+
+    @Test
+    public void testMessagingMode() throws Exception {
+        MSS_SignatureReq jReq = new MSS_SignatureReq("35847001001");
+        JsonObject sigReq = this.readSignatureRequest(jReq);
+        assertEquals("asynchClientServer", sigReq.get("MessagingMode").getAsString());
+
+        jReq.messagingMode = MSS_SignatureReq.MESSAGING_MODE_SERVER_SERVER;
+        sigReq = this.readSignatureRequest(jReq);
+        assertEquals("asynchServerServer", sigReq.get("MessagingMode").getAsString());
+    }
+
+    @Test
+    public void testStatusRequest() throws Exception {
+        MSS_SignatureResp sigResp = new MSS_SignatureResp();
+        sigResp.msspTransId = "A1B2\"C3";
+        sigResp.msspInfo = new MSS_SignatureResp.MsspInfo();
+        sigResp.msspInfo.msspId = new MSS_SignatureResp.MssURI();
+        sigResp.msspInfo.msspId.uri = "http://mssp.example.com";
+
+        Rest204RequestFactory.StatusRequest status = this.factory.createStatusRequest(sigResp);
+        Request first  = status.build();
+        Request second = status.build();
+        byte[] body = readBody(first);
+
+        JsonObject json = new Gson().fromJson(new String(body, StandardCharsets.UTF_8), JsonObject.class);
+        JsonObject statusReq = json.getAsJsonObject("MSS_StatusReq");
+        assertEquals("A1B2\"C3", statusReq.get("MSSP_TransID").getAsString());
+        assertEquals("http://mssp.example.com", statusReq.getAsJsonObject("MSSP_Info").getAsJsonObject("MSSP_ID").get("URI").getAsString());
+
+        // Each poll is signed separately over the same body
+        assertArrayEquals(body, readBody(second));
+        assertAuthorization(first, body);
+        assertAuthorization(second, body);
+    }
+
+    @Test
+    public void testInvalidUrl() throws Exception {
+        Rest204RequestFactory invalid = new Rest204RequestFactory("not a url", new RestHmac(null, "user", API_KEY));
+        try {
+            invalid.createStatusRequest(new MSS_SignatureResp());
+            fail("Expected failure");
+        } catch (MalformedURLException e) {
+            // Expected
+        }
+    }
+
+    private JsonObject readSignatureRequest(MSS_SignatureReq jReq) throws IOException {
+        byte[] body = readBody(this.factory.createSignatureRequest(jReq));
+        JsonObject json = new Gson().fromJson(new String(body, StandardCharsets.UTF_8), JsonObject.class);
+        return json.getAsJsonObject("MSS_SignatureReq");
+    }
+
+    private static byte[] readBody(Request request) throws IOException {
+        Buffer buffer = new Buffer();
+        request.body().writeTo(buffer);
+        return buffer.readByteArray();
+    }
+
+    private static void assertAuthorization(Request request, byte[] body) throws Exception {
+        URL url = new URL(REST_URL);
+        String data = request.header("Date") + "\nPOST\n" + url.getHost() + "\n" + url.getPath() + "\n"
+                + new String(body, StandardCharsets.UTF_8) + "\n";
+        String sig  = RestHmac.bytesToHex(RestHmac.digest(data, API_KEY));
+        String auth = "Basic " + Base64.getEncoder().encodeToString(("user:" + sig).getBytes(StandardCharsets.UTF_8));
+        assertEquals(auth, request.header("Authorization"));
+    }
+
+}
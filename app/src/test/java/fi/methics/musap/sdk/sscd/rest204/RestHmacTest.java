@@ -0,0 +1,158 @@
+package fi.methics.musap.sdk.sscd.rest204;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import fi.methics.musap.sdk.internal.util.MLog;
+
+public class RestHmacTest {
+
+    private static final String USER_ID   = "user";
+    private static final String API_KEY   = "1234123456789878";
+    private static final String API_KEY_2 = "8789876543214321";
+
+    // HMAC-SHA256 of the canonical string of BODY sent at DATE with each key, calculated independently
+    private static final String DATE  = "Thu, 01 Oct 2026 12:00:00 +0000";
+    private static final String BODY  = "{ \"MSS_StatusReq\": {\"MSSP_TransID\":\"A1B2C3\",\"MSSP_Info\":{\"MSSP_ID\":{\"URI\":\"http://mssp.example.com\"}}}}";
+    private static final String SIG   = "3feca741ed4df15d65039329e9ae22597047e9dd701a1680a79952dd51090395";
+    private static final String SIG_2 = "431502a1e87abb994f915b3ff3354f1fc514b8e74c8c7ecd596048a25ef94fc0";
+
+    private URL url;
+
+    @Before
+    public void init() throws IOException {
+        MLog.setTestMode(true);
+        this.url = new URL("https://mssp.example.com/rest/service");
+    }
+
+    @Test
+    public void testAuthorization() throws Exception {
+        RestHmac hmac = new RestHmac(null, USER_ID, API_KEY);
+        Map<String, String> headers = hmac.requestHeaders("POST", this.url, "{\"MSS_StatusReq\": {}}");
+        assertEquals(expectedAuthorization(headers.get("Date"), "{\"MSS_StatusReq\": {}}"), headers.get("Authorization"));
+        assertEquals("application/json", headers.get("Content-Type"));
+    }
+
+    @Test
+    public void testDigest() throws Exception {
+        // RFC 4231 test case 2
+        assertEquals("5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843",
+                RestHmac.bytesToHex(RestHmac.digest("what do ya want for nothing?", "Jefe")));
+    }
+
+    @Test
+    public void testKnownSignature() throws Exception {
+        RestHmac hmac = new RestHmac(null, USER_ID, API_KEY);
+        for (int i = 0; i < 3; i++) {
+            // The same thread reuses its Mac
+            Map<String, String> headers = hmac.requestHeaders("POST", this.url, BODY.getBytes(StandardCharsets.UTF_8), DATE);
+            assertEquals(DATE, headers.get("Date"));
+            assertEquals(basic(SIG), headers.get("Authorization"));
+        }
+    }
+
+    @Test
+    public void testKnownSignatureConcurrentKeys() throws Exception {
+        RestHmac hmac  = new RestHmac(null, USER_ID, API_KEY);
+        RestHmac hmac2 = new RestHmac(null, USER_ID, API_KEY_2);
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> {
+                // Each thread alternates between the keys
+                for (int j = 0; j < 200; j++) {
+                    assertEquals(basic(SIG),   hmac.requestHeaders("POST", this.url, body, DATE).get("Authorization"));
+                    assertEquals(basic(SIG_2), hmac2.requestHeaders("POST", this.url, body, DATE).get("Authorization"));
+                }
+                return null;
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testNullBody() throws Exception {
+        RestHmac hmac = new RestHmac(null, USER_ID, API_KEY);
+        Map<String, String> headers = hmac.requestHeaders("POST", this.url, (String) null);
+        assertEquals(expectedAuthorization(headers.get("Date"), ""), headers.get("Authorization"));
+    }
+
+    @Test
+    public void testDateFormat() {
+        long now = System.currentTimeMillis();
+        String expected = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.US).format(new Date(now));
+        assertEquals(expected, RestHmac.formatDate(now));
+        assertEquals(expected, RestHmac.formatDate(now - now % 1000));
+        assertEquals(expected, RestHmac.formatDate(now - now % 1000 + 999));
+    }
+
+    @Test
+    public void testMissingApiKey() throws Exception {
+        RestHmac hmac = new RestHmac(null, USER_ID, null);
+        try {
+            hmac.requestHeaders("POST", this.url, "{}");
+            fail("Expected failure");
+        } catch (IOException e) {
+            assertNotNull(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        RestHmac hmac = new RestHmac(null, USER_ID, API_KEY);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> {
+                for (int j = 0; j < 500; j++) {
+                    String body = "{\"MSSP_TransID\": \"" + Thread.currentThread().getId() + "-" + j + "\"}";
+                    Map<String, String> headers = hmac.requestHeaders("POST", this.url, body);
+                    assertEquals(expectedAuthorization(headers.get("Date"), body), headers.get("Authorization"));
+                }
+                return null;
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+    }
+
+    private static String basic(String sig) {
+        return "Basic " + Base64.getEncoder().encodeToString((USER_ID + ":" + sig).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Calculate the Authorization header with a fresh Mac
+     */
+    private String expectedAuthorization(String date, String body) throws Exception {
+        String data = date + "\n" + "POST" + "\n" + this.url.getHost() + "\n" + this.url.getPath() + "\n" + body + "\n";
+        String sig  = RestHmac.bytesToHex(RestHmac.digest(data, API_KEY));
+        return "Basic " + Base64.getEncoder().encodeToString((USER_ID + ":" + sig).getBytes(StandardCharsets.UTF_8));
+    }
+
+}
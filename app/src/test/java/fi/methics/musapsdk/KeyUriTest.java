@@ -2,11 +2,13 @@ package fi.methics.musapsdk;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -34,6 +36,15 @@ public class KeyUriTest {
         assertEquals("test", uri.getParam("provider"));
     }
 
+    @Test
+    public void testCanonicalUri() {
+        KeyURI uri1 = new KeyURI("keyuri:key?sscd=sim&provider=test&country=FI");
+        KeyURI uri2 = new KeyURI("keyuri:key?country=FI&provider=test&sscd=sim");
+
+        assertEquals("keyuri:key?country=FI&provider=test&sscd=sim", uri1.getCanonicalUri());
+        assertEquals(uri1.getCanonicalUri(), uri2.getCanonicalUri());
+    }
+
     @Test
     public void testReParseKeyUri() {
 
@@ -67,12 +78,38 @@ public class KeyUriTest {
 
         List<String> loa = uri.getParams("loa");
 
-        System.out.println(uri);
         assertEquals(2, loa.size());
         assertTrue(loa.contains("eidas-high"));
         assertTrue(loa.contains("nist-ial3"));
     }
 
+    @Test
+    public void testParseKeyUriSplitSemantics() {
+        KeyURI uri = new KeyURI("keyuri:key?a==b&c=d=e&f=&g==&h&=i&j=k");
+
+        // Same as attribute.split("=")
+        assertTrue(uri.getAsMap().containsKey("a"));
+        assertEquals("", uri.getParam("a"));
+        assertEquals("d", uri.getParam("c"));
+        assertFalse(uri.getAsMap().containsKey("f"));
+        assertFalse(uri.getAsMap().containsKey("g"));
+        assertFalse(uri.getAsMap().containsKey("h"));
+        assertEquals("i", uri.getParam(""));
+        assertEquals("k", uri.getParam("j"));
+        assertEquals(4, uri.getAsMap().size());
+    }
+
+    @Test
+    public void testWithParam() {
+        KeyURI uri   = new KeyURI("keyuri:key?sscd=sim");
+        KeyURI added = uri.withParam(KeyURI.LOA, Arrays.asList("eidas-high", "nist-ial3"));
+
+        assertEquals("keyuri:key?sscd=sim", uri.getUri());
+        assertEquals("keyuri:key?loa=eidas-high,nist-ial3&sscd=sim", added.getUri());
+        assertEquals("test", added.withParam(KeyURI.KEY_NAME, "test").getName());
+        assertEquals("keyuri:key?sscd=remote", uri.withParam(KeyURI.SSCD, "remote").getUri());
+    }
+
     @Test
     public void testKeyUriSearch() {
         KeyURI uri    = new KeyURI("keyuri:key?sscd=sim&provider=test&loa=eidas-high,nist-ial3");
@@ -87,6 +124,54 @@ public class KeyUriTest {
         assertFalse(uri.isPartialMatch(search));
     }
 
+    @Test
+    public void testMatchesInAnyOrder() {
+        KeyURI uri1 = new KeyURI("keyuri:key?sscd=sim&provider=test&country=FI&loa=eidas-high");
+        KeyURI uri2 = new KeyURI("keyuri:key?loa=eidas-high&country=FI&provider=test&sscd=sim");
+
+        assertTrue(uri1.matches(uri2));
+        assertEquals(uri1.hashCode(), uri2.hashCode());
+        assertEquals(uri1.getUri(), uri2.getUri());
+    }
+
+    @Test
+    public void testParseInvalidAttributes() {
+        KeyURI uri = new KeyURI("keyuri:key?sscd=sim&invalid&empty=&provider=test");
+
+        assertEquals(2, uri.getAsMap().size());
+        assertEquals("keyuri:key?provider=test&sscd=sim", uri.getUri());
+        assertTrue(new KeyURI("keyuri:key").getAsMap().isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        new KeyURI("keyuri:key?sscd=sim").getAsMap().put("sscd", "remote");
+    }
+
+    @Test
+    public void testIntern() {
+        KeyURI uri1 = new KeyURI("keyuri:key?sscd=sim&provider=test").intern();
+        KeyURI uri2 = new KeyURI("keyuri:key?provider=test&sscd=sim").intern();
+        assertSame(uri1, uri2);
+    }
+
+    @Test
+    public void testMusapKeyKeyUri() {
+        MusapKey key = new MusapKey.Builder()
+                .setKeyAlias("test")
+                .setKeyUsages(new ArrayList<>(Arrays.asList("digitalSignature")))
+                .build();
+
+        assertEquals(key.getKeyUri(), key.getKeyUri());
+
+        key.setAlias("renamed");
+        assertEquals("renamed", key.getKeyUri().getName());
+
+        // Changes through the returned lists are seen too
+        key.getKeyUsages().add("nonRepudiation");
+        assertEquals("digitalSignature,nonRepudiation", key.getKeyUri().getParam(KeyURI.KEY_USAGE));
+    }
+
     @Test
     public void testDisplayString() {
         KeyURI uri = new KeyURI("keyuri:key?sscd=sim&provider=test&loa=eidas-high,nist-ial3");